@@ -0,0 +1,299 @@
+/*
+ * Copyright 2017 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Wallet;
+
+import org.ScripterRon.Nxt2API.Balance;
+import org.ScripterRon.Nxt2API.Chain;
+import org.ScripterRon.Nxt2API.Nxt;
+import org.ScripterRon.Nxt2API.Transaction;
+import org.ScripterRon.Nxt2API.Utils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * AccountState contains the live state for a watched account.  The event handler
+ * routes server events to the state for each affected account, so every watched
+ * account is current and the wallet can switch accounts without reloading the
+ * account information.  Unconfirmed transactions are scheduled with the expiry
+ * tracker so they can be removed if they expire.
+ *
+ * The account state must be updated on the Swing event dispatch thread.
+ */
+public class AccountState {
+
+    /** Transaction sort order (descending timestamp) */
+    private static final Comparator<Transaction> txComparator =
+            (o1, o2) -> o2.getTimestamp().compareTo(o1.getTimestamp());
+
+    /** Account identifier */
+    private final long accountId;
+
+    /** Account Reed-Solomon identifier */
+    private final String accountRsId;
+
+    /** Account name */
+    private final String accountName;
+
+    /** Account transactions by chain */
+    private final Map<Integer, List<Transaction>> txLists = new HashMap<>();
+
+    /** Account transaction lookup by chain */
+    private final Map<Integer, Map<Long, Transaction>> txMaps = new HashMap<>();
+
+    /** Account balances */
+    private Map<Integer, Balance> balances;
+
+    /**
+     * Create the account state
+     *
+     * @param   accountId               Account identifier
+     * @param   accountName             Account name
+     * @param   transactions            Confirmed and unconfirmed account transactions
+     * @param   balances                Account balances
+     */
+    public AccountState(long accountId, String accountName, List<Transaction> transactions,
+                        Map<Integer, Balance> balances) {
+        this.accountId = accountId;
+        this.accountRsId = Utils.getAccountRsId(accountId);
+        this.accountName = (accountName != null ? accountName : "");
+        this.balances = balances;
+        for (Chain chain : Nxt.getAllChains()) {
+            txLists.put(chain.getId(), new ArrayList<>());
+            txMaps.put(chain.getId(), new HashMap<>());
+        }
+        //
+        // Build the initial transaction lists
+        //
+        transactions.forEach(tx -> {
+            Map<Long, Transaction> txMap = txMaps.get(tx.getChain().getId());
+            if (txMap.get(tx.getId()) == null) {
+                txMap.put(tx.getId(), tx);
+                txLists.get(tx.getChain().getId()).add(tx);
+                if (tx.getBlockId() == 0)
+                    Main.expiryTracker.add(tx);
+            }
+        });
+        //
+        // Sort the transactions by descending timestamp
+        //
+        txLists.values().forEach(txList -> txList.sort(txComparator));
+    }
+
+    /**
+     * Get the account identifier
+     *
+     * @return                          Account identifier
+     */
+    public long getAccountId() {
+        return accountId;
+    }
+
+    /**
+     * Get the account Reed-Solomon identifier
+     *
+     * @return                          Reed-Solomon identifier
+     */
+    public String getAccountRsId() {
+        return accountRsId;
+    }
+
+    /**
+     * Get the account name
+     *
+     * @return                          Account name or an empty string
+     */
+    public String getAccountName() {
+        return accountName;
+    }
+
+    /**
+     * Get the account balances
+     *
+     * @return                          Account balances
+     */
+    public Map<Integer, Balance> getBalances() {
+        return balances;
+    }
+
+    /**
+     * Set the account balances
+     *
+     * @param   balances                Account balances
+     */
+    public void setBalances(Map<Integer, Balance> balances) {
+        this.balances = balances;
+    }
+
+    /**
+     * Get the account transactions for a chain sorted by descending timestamp
+     *
+     * @param   chainId                 Chain identifier
+     * @return                          Transaction list
+     */
+    public List<Transaction> getTransactions(int chainId) {
+        return txLists.get(chainId);
+    }
+
+    /**
+     * Get an account transaction
+     *
+     * @param   chainId                 Chain identifier
+     * @param   txId                    Transaction identifier
+     * @return                          Transaction or null if not found
+     */
+    public Transaction getTransaction(int chainId, long txId) {
+        Map<Long, Transaction> txMap = txMaps.get(chainId);
+        return (txMap != null ? txMap.get(txId) : null);
+    }
+
+    /**
+     * Add an account transaction.  The block identifier and height will be
+     * updated if the transaction is already in the list.
+     *
+     * @param   tx                      Transaction
+     * @return                          TRUE if the transaction list was changed
+     */
+    public boolean addTransaction(Transaction tx) {
+        int chainId = tx.getChain().getId();
+        List<Transaction> txList = txLists.get(chainId);
+        Map<Long, Transaction> txMap = txMaps.get(chainId);
+        Transaction listTx = txMap.get(tx.getId());
+        if (listTx != null) {
+            if (listTx.getBlockId() != tx.getBlockId() && tx.getBlockId() != 0) {
+                listTx.setBlockId(tx.getBlockId());
+                listTx.setHeight(tx.getHeight());
+                return true;
+            }
+            return false;
+        }
+        txList.add(tx);
+        txMap.put(tx.getId(), tx);
+        txList.sort(txComparator);
+        if (tx.getBlockId() == 0)
+            Main.expiryTracker.add(tx);
+        return true;
+    }
+
+    /**
+     * Mark an account transaction as confirmed
+     *
+     * @param   tx                      Transaction
+     * @param   blockId                 Block identifier
+     * @param   height                  Block height
+     * @return                          TRUE if the transaction was changed
+     */
+    public boolean confirmTransaction(Transaction tx, long blockId, int height) {
+        Map<Long, Transaction> txMap = txMaps.get(tx.getChain().getId());
+        Transaction listTx = txMap.get(tx.getId());
+        if (listTx == null)
+            return addTransaction(tx);
+        if (listTx.getBlockId() == blockId)
+            return false;
+        listTx.setBlockId(blockId);
+        listTx.setHeight(height);
+        return true;
+    }
+
+    /**
+     * Mark transactions in a popped block as unconfirmed
+     *
+     * @param   blockId                 Block identifier
+     * @return                          TRUE if a transaction was changed
+     */
+    public boolean popTransactions(long blockId) {
+        boolean changed = false;
+        for (List<Transaction> txList : txLists.values()) {
+            for (Transaction tx : txList) {
+                if (tx.getBlockId() == blockId) {
+                    tx.setBlockId(0);
+                    tx.setHeight(0);
+                    changed = true;
+                    Main.expiryTracker.add(tx);
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Mark transactions in blocks above a height as unconfirmed.  This is used when
+     * the blocks above the height have been replaced by a chain reorganization.
+     *
+     * @param   height                  Height of the last block that was not replaced
+     * @return                          TRUE if a transaction was changed
+     */
+    public boolean unconfirmTransactions(int height) {
+        boolean changed = false;
+        for (List<Transaction> txList : txLists.values()) {
+            for (Transaction tx : txList) {
+                if (tx.getBlockId() != 0 && tx.getHeight() > height) {
+                    tx.setBlockId(0);
+                    tx.setHeight(0);
+                    changed = true;
+                    Main.expiryTracker.add(tx);
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Remove an unconfirmed child block transaction.  This is necessary because
+     * the bundler will create multiple child block transactions as new child
+     * transactions are received.
+     *
+     * @param   chainId                 Chain identifier
+     * @param   fullHash                Transaction hash
+     * @return                          TRUE if the transaction was removed
+     */
+    public boolean removeUnconfirmedTransaction(int chainId, byte[] fullHash) {
+        Map<Long, Transaction> txMap = txMaps.get(chainId);
+        if (txMap == null)
+            return false;
+        long txId = Utils.fullHashToId(fullHash);
+        Transaction tx = txMap.get(txId);
+        if (tx != null && tx.getBlockId() == 0 && tx.getTransactionType().getType() == -1) {
+            txLists.get(chainId).remove(tx);
+            txMap.remove(txId);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Remove an unconfirmed transaction that has expired
+     *
+     * @param   chainId                 Chain identifier
+     * @param   txId                    Transaction identifier
+     * @return                          TRUE if the transaction was removed
+     */
+    public boolean removeExpiredTransaction(int chainId, long txId) {
+        Map<Long, Transaction> txMap = txMaps.get(chainId);
+        if (txMap == null)
+            return false;
+        Transaction tx = txMap.get(txId);
+        if (tx != null && tx.getBlockId() == 0) {
+            txLists.get(chainId).remove(tx);
+            txMap.remove(txId);
+            return true;
+        }
+        return false;
+    }
+}
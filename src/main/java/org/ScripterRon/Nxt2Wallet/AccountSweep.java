@@ -0,0 +1,416 @@
+/*
+ * Copyright 2017 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Wallet;
+
+import org.ScripterRon.Nxt2API.Balance;
+import org.ScripterRon.Nxt2API.Chain;
+import org.ScripterRon.Nxt2API.KeyException;
+import org.ScripterRon.Nxt2API.Nxt;
+import org.ScripterRon.Nxt2API.Response;
+import org.ScripterRon.Nxt2API.Transaction;
+import org.ScripterRon.Nxt2API.Utils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * AccountSweep moves the balances of the configured accounts to a single account.
+ * Only accounts with a secret phrase in the configuration file are swept.
+ *
+ * The balances for all of the accounts are read at the same time and a payment is
+ * created for each chain with a balance greater than the transaction fee.  The
+ * payment amount is the balance less the fee, so the account balance is zero after
+ * the payment is confirmed.  The payments are then created, signed and broadcast at
+ * the same time, limited by the client request limiter, and the result is reported
+ * for each payment.
+ */
+public class AccountSweep {
+
+    /** Recipient account */
+    private final long recipientId;
+
+    /** Chains to sweep */
+    private final List<Chain> chains;
+
+    /** Account payments */
+    private final List<Sweep> sweeps = new ArrayList<>();
+
+    /**
+     * Create the account sweep
+     *
+     * @param   recipientId             Recipient account
+     * @param   chains                  Chains to sweep
+     */
+    public AccountSweep(long recipientId, List<Chain> chains) {
+        this.recipientId = recipientId;
+        this.chains = chains;
+    }
+
+    /**
+     * Get the recipient account
+     *
+     * @return                          Recipient account identifier
+     */
+    public long getRecipientId() {
+        return recipientId;
+    }
+
+    /**
+     * Get the account payments
+     *
+     * @return                          Payment list
+     */
+    public List<Sweep> getSweeps() {
+        return sweeps;
+    }
+
+    /**
+     * Get the account balances and create the account payments.  The balances for
+     * the accounts are requested at the same time.
+     *
+     * @return                          Future for the account payments
+     */
+    public CompletableFuture<List<Sweep>> prepare() {
+        Set<Long> accountIds = new LinkedHashSet<>();
+        for (int i=0; i<Main.accounts.size(); i++) {
+            if (!Main.secretPhrases.get(i).isEmpty() && Main.accounts.get(i) != recipientId)
+                accountIds.add(Main.accounts.get(i));
+        }
+        List<CompletableFuture<List<Sweep>>> requests = new ArrayList<>(accountIds.size());
+        for (long accountId : accountIds) {
+            requests.add(Main.client.getBalances(accountId).handle((balances, exc) -> {
+                if (exc == null)
+                    return createSweeps(accountId, balances);
+                List<Sweep> failed = new ArrayList<>(1);
+                failed.add(new Sweep(accountId, null, 0, 0, 0, "Failed",
+                                     "Unable to get the balances: " + WalletClient.getCause(exc).getMessage()));
+                return failed;
+            }));
+        }
+        return CompletableFuture.allOf(requests.toArray(new CompletableFuture<?>[requests.size()]))
+                .thenApply(result -> {
+                    sweeps.clear();
+                    requests.forEach(request -> sweeps.addAll(request.join()));
+                    return sweeps;
+                });
+    }
+
+    /**
+     * Create the payments for an account
+     *
+     * @param   accountId               Account identifier
+     * @param   balances                Account balances
+     * @return                          Account payments
+     */
+    private List<Sweep> createSweeps(long accountId, Map<Integer, Balance> balances) {
+        List<Sweep> accountSweeps = new ArrayList<>();
+        for (Chain chain : chains) {
+            Balance balance = balances.get(chain.getId());
+            if (balance == null)
+                continue;
+            long available = Math.min(balance.getBalance(), balance.getUnconfirmedBalance());
+            if (available <= 0)
+                continue;
+            boolean fxtChain = chain.getName().equals(Nxt.FXT_CHAIN);
+            long rate = 0;
+            if (!fxtChain) {
+                Long bundlerRate = Main.bundlerRates.get(chain.getId());
+                if (bundlerRate == null) {
+                    accountSweeps.add(new Sweep(accountId, chain, 0, 0, 0, "Failed",
+                                                "No bundler rate for " + chain.getName()));
+                    continue;
+                }
+                rate = bundlerRate;
+            }
+            long fee = Main.feeEstimator.estimate(
+                    (fxtChain ? TransactionBytes.FXT_PAYMENT : TransactionBytes.CHILD_PAYMENT),
+                    fxtChain, 0, rate).getFee();
+            if (available <= fee)
+                accountSweeps.add(new Sweep(accountId, chain, 0, fee, rate, "Skipped",
+                                            "Balance is not more than the fee"));
+            else
+                accountSweeps.add(new Sweep(accountId, chain, available - fee, fee, rate, "Ready", null));
+        }
+        return accountSweeps;
+    }
+
+    /**
+     * Send the account payments.  The listener is called as each payment is completed
+     * and is not called on the Swing event dispatch thread.
+     *
+     * @param   listener                Payment listener
+     * @return                          Future completed when all of the payments are completed
+     */
+    public CompletableFuture<Void> start(Consumer<Sweep> listener) {
+        Map<Long, SessionKey> sessionKeys = new HashMap<>();
+        List<CompletableFuture<Response>> requests = new ArrayList<>();
+        for (Sweep sweep : sweeps) {
+            if (!sweep.getStatus().equals("Ready"))
+                continue;
+            SessionKey sessionKey;
+            try {
+                sessionKey = getSessionKey(sweep.getAccountId(), sessionKeys);
+            } catch (KeyException exc) {
+                sweep.setResult("Failed", null, exc.getMessage());
+                listener.accept(sweep);
+                continue;
+            }
+            CompletableFuture<Response> request = buildSweep(sweep, sessionKey.getPublicKey())
+                    .thenCompose(response -> broadcastSweep(sweep, sessionKey, response));
+            request = request.whenComplete((response, exc) -> {
+                if (exc != null) {
+                    Throwable cause = WalletClient.getCause(exc);
+                    sweep.setResult("Failed", null,
+                                    (cause.getMessage() != null ? cause.getMessage() : cause.toString()));
+                } else {
+                    sweep.setResult("Sent", response.getString("fullHash"), null);
+                }
+                Main.log.info(sweep.toString());
+                listener.accept(sweep);
+            });
+            requests.add(request);
+        }
+        return CompletableFuture.allOf(requests.toArray(new CompletableFuture<?>[requests.size()]))
+                .handle((result, exc) -> null);
+    }
+
+    /**
+     * Get the session key for an account.  The account is unlocked using the secret
+     * phrase from the configuration file if it is not already unlocked.
+     *
+     * @param   accountId               Account identifier
+     * @param   sessionKeys             Session keys for this sweep
+     * @return                          Session key
+     * @throws  KeyException            Unable to unlock the account
+     */
+    private static SessionKey getSessionKey(long accountId, Map<Long, SessionKey> sessionKeys)
+                                        throws KeyException {
+        SessionKey sessionKey = sessionKeys.get(accountId);
+        if (sessionKey == null) {
+            sessionKey = Main.sessionKeys.getKey(accountId);
+            if (sessionKey == null) {
+                sessionKey = Main.sessionKeys.unlock(accountId,
+                                                     Main.secretPhrases.get(Main.accounts.indexOf(accountId)));
+                if (sessionKey == null)
+                    throw new KeyException("The secret phrase is not correct");
+            }
+            sessionKeys.put(accountId, sessionKey);
+        }
+        return sessionKey;
+    }
+
+    /**
+     * Create the unsigned payment transaction
+     *
+     * @param   sweep                   Account payment
+     * @param   publicKey               Sender public key
+     * @return                          Future for the server response
+     */
+    private CompletableFuture<Response> buildSweep(Sweep sweep, byte[] publicKey) {
+        if (Main.paymentBuilder.canBuild(""))
+            return Main.paymentBuilder.sendMoney(recipientId, sweep.getChain(), sweep.getAmount(),
+                                                 sweep.getFee(), sweep.getRate(), publicKey);
+        return Main.client.sendMoney(recipientId, sweep.getChain(), sweep.getAmount(), sweep.getFee(),
+                                     sweep.getRate(), publicKey, "");
+    }
+
+    /**
+     * Verify, sign and broadcast the payment transaction
+     *
+     * @param   sweep                   Account payment
+     * @param   sessionKey              Sender session key
+     * @param   response                SendMoney response
+     * @return                          Future for the server response
+     */
+    private CompletableFuture<Response> broadcastSweep(Sweep sweep, SessionKey sessionKey, Response response) {
+        try {
+            byte[] txBytes = response.getHexString("unsignedTransactionBytes");
+            Transaction tx = new Transaction(txBytes);
+            if (tx.getRecipientId() != recipientId || tx.getAmount() != sweep.getAmount() ||
+                    tx.getFee() != sweep.getFee() || tx.getSenderId() != sweep.getAccountId())
+                throw new IOException("Transaction returned by Nxt node is not valid");
+            return Main.client.broadcastTransaction(txBytes, null, sessionKey);
+        } catch (Exception exc) {
+            CompletableFuture<Response> result = new CompletableFuture<>();
+            result.completeExceptionally(exc);
+            return result;
+        }
+    }
+
+    /**
+     * Account payment
+     */
+    public static class Sweep {
+
+        /** Sender account */
+        private final long accountId;
+
+        /** Payment chain or null if the balances are not available */
+        private final Chain chain;
+
+        /** Payment amount */
+        private final long amount;
+
+        /** Transaction fee */
+        private final long fee;
+
+        /** Child chain NQT per ARDR */
+        private final long rate;
+
+        /** Payment status */
+        private volatile String status;
+
+        /** Transaction full hash */
+        private volatile String fullHash;
+
+        /** Error message */
+        private volatile String error;
+
+        /**
+         * Create the account payment
+         *
+         * @param   accountId           Sender account
+         * @param   chain               Payment chain or null
+         * @param   amount              Payment amount
+         * @param   fee                 Transaction fee
+         * @param   rate                Child chain NQT per ARDR
+         * @param   status              Payment status
+         * @param   error               Error message or null
+         */
+        private Sweep(long accountId, Chain chain, long amount, long fee, long rate,
+                      String status, String error) {
+            this.accountId = accountId;
+            this.chain = chain;
+            this.amount = amount;
+            this.fee = fee;
+            this.rate = rate;
+            this.status = status;
+            this.error = error;
+        }
+
+        /**
+         * Get the sender account
+         *
+         * @return                      Account identifier
+         */
+        public long getAccountId() {
+            return accountId;
+        }
+
+        /**
+         * Get the payment chain
+         *
+         * @return                      Chain or null if the balances are not available
+         */
+        public Chain getChain() {
+            return chain;
+        }
+
+        /**
+         * Get the payment amount
+         *
+         * @return                      Payment amount
+         */
+        public long getAmount() {
+            return amount;
+        }
+
+        /**
+         * Get the transaction fee
+         *
+         * @return                      Transaction fee
+         */
+        public long getFee() {
+            return fee;
+        }
+
+        /**
+         * Get the bundler rate
+         *
+         * @return                      Child chain NQT per ARDR
+         */
+        public long getRate() {
+            return rate;
+        }
+
+        /**
+         * Get the payment status
+         *
+         * @return                      Ready, Skipped, Sent or Failed
+         */
+        public String getStatus() {
+            return status;
+        }
+
+        /**
+         * Get the transaction full hash
+         *
+         * @return                      Full hash or null if the payment was not sent
+         */
+        public String getFullHash() {
+            return fullHash;
+        }
+
+        /**
+         * Get the error message
+         *
+         * @return                      Error message or null
+         */
+        public String getError() {
+            return error;
+        }
+
+        /**
+         * Set the payment result
+         *
+         * @param   status              Payment status
+         * @param   fullHash            Transaction full hash or null
+         * @param   error               Error message or null
+         */
+        private void setResult(String status, String fullHash, String error) {
+            this.fullHash = fullHash;
+            this.error = error;
+            this.status = status;
+        }
+
+        /**
+         * Get the payment description
+         *
+         * @return                      Account, amount, fee and status
+         */
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(128);
+            sb.append(Utils.getAccountRsId(accountId)).append(": ");
+            if (chain != null)
+                sb.append(Utils.nqtToString(amount, chain.getDecimals())).append(' ').append(chain.getName())
+                  .append(" (fee ").append(Utils.nqtToString(fee, chain.getDecimals())).append(") ");
+            sb.append(status);
+            if (fullHash != null)
+                sb.append(' ').append(fullHash);
+            if (error != null)
+                sb.append(" - ").append(error);
+            return sb.toString();
+        }
+    }
+}
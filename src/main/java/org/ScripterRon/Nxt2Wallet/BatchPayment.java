@@ -0,0 +1,700 @@
+/*
+ * Copyright 2017 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Wallet;
+
+import org.ScripterRon.Nxt2API.Balance;
+import org.ScripterRon.Nxt2API.Chain;
+import org.ScripterRon.Nxt2API.IdentifierException;
+import org.ScripterRon.Nxt2API.Nxt;
+import org.ScripterRon.Nxt2API.Response;
+import org.ScripterRon.Nxt2API.Transaction;
+import org.ScripterRon.Nxt2API.Utils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * BatchPayment sends the payments listed in a CSV file.  Each line of the file
+ * contains the recipient, the amount, the chain name and an optional message.  The
+ * recipient can be an account identifier, a Reed-Solomon identifier or a contact
+ * name.  An optional header line is skipped if the first field is 'recipient'.
+ *
+ * All of the payments are validated before any payment is sent.  The payments are
+ * then created, verified, signed and broadcast by a transaction pipeline, so many
+ * payments are in progress at the same time.  The payments are broadcast in file
+ * order and the result for each payment is written to the result file as soon as it
+ * is known.  The result file is the
+ * payment file name with '.results.csv' appended.
+ */
+public class BatchPayment implements Runnable {
+
+    /** CSV fields */
+    private static final int RECIPIENT = 0, AMOUNT = 1, CHAIN = 2, MESSAGE = 3;
+
+    /** Maximum transaction deadline (minutes) */
+    private static final int MAX_DEADLINE = 1440;
+
+    /** Payment file */
+    private final File file;
+
+    /** Payments */
+    private final List<Payment> payments = new ArrayList<>();
+
+    /** Session key */
+    private SessionKey sessionKey;
+
+    /** Progress listener */
+    private Consumer<Payment> listener;
+
+    /** Completion listener */
+    private Runnable completion;
+
+    /** Available balance for each chain */
+    private final Map<Integer, Long> available = new HashMap<>();
+
+    /** Transaction pipeline */
+    private volatile TransactionPipeline<PaymentItem> pipeline;
+
+    /** Batch has been cancelled */
+    private volatile boolean cancelled;
+
+    /**
+     * Load the payment file
+     *
+     * @param   file                    Payment file
+     * @throws  IOException             Unable to read the payment file
+     */
+    public BatchPayment(File file) throws IOException {
+        this.file = file;
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                                        new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            int lineNumber = 0;
+            while ((line=in.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.charAt(0) == '#')
+                    continue;
+                List<String> fields = parseLine(line);
+                if (payments.isEmpty() && fields.get(0).equalsIgnoreCase("recipient"))
+                    continue;
+                payments.add(new Payment(lineNumber, fields));
+            }
+        }
+    }
+
+    /**
+     * Get the payments
+     *
+     * @return                          Payment list
+     */
+    public List<Payment> getPayments() {
+        return payments;
+    }
+
+    /**
+     * Get the result file
+     *
+     * @return                          Result file
+     */
+    public File getResultFile() {
+        return new File(file.getPath() + ".results.csv");
+    }
+
+    /**
+     * Validate the payments.  The recipient, amount and chain are checked for each
+     * payment and the total amount for each chain, including the estimated fee for
+     * each payment, is checked against the account balance.  The bundler rate used
+     * for the estimate is used to create the payment and the payment fails if the
+     * node fee is more than the estimated fee.  The estimated fee is the maximum fee
+     * from the fee estimator, which includes a margin for a message size that has not
+     * been calibrated, so the balance check doesn't pass with a fee that is too low.
+     * This method must be called on the Swing event dispatch thread.
+     *
+     * A payment with the same recipient, amount and chain as an earlier payment is
+     * created with a longer deadline.  Otherwise, both payments could be created with
+     * the same transaction bytes and only one of them would be made.
+     *
+     * @param   balances                Account balances
+     * @return                          List of errors (empty if the payments are valid)
+     */
+    public List<String> validate(Map<Integer, Balance> balances) {
+        List<String> errors = new ArrayList<>();
+        if (payments.isEmpty())
+            errors.add("There are no payments in the file");
+        Map<Integer, Long> totals = new HashMap<>();
+        Map<Integer, Long> fees = new HashMap<>();
+        Map<String, Integer> paymentCounts = new HashMap<>();
+        for (Payment payment : payments) {
+            String error = payment.validate();
+            if (error != null) {
+                errors.add(String.format("Line %d: %s", payment.getLineNumber(), error));
+                continue;
+            }
+            String key = String.format("%s:%d:%d", Long.toUnsignedString(payment.getRecipientId()),
+                    payment.getChain().getId(), payment.getAmount());
+            int deadline = PaymentBuilder.DEADLINE + paymentCounts.merge(key, 1, Integer::sum) - 1;
+            if (deadline > MAX_DEADLINE) {
+                errors.add(String.format("Line %d: More than %d payments are the same as this payment",
+                                         payment.getLineNumber(), MAX_DEADLINE - PaymentBuilder.DEADLINE));
+                continue;
+            }
+            payment.setDeadline(deadline);
+            Chain chain = payment.getChain();
+            boolean fxtChain = chain.getName().equals(Nxt.FXT_CHAIN);
+            Long rate = (fxtChain ? Long.valueOf(0) : Main.bundlerRates.get(chain.getId()));
+            FeeEstimator.Estimate estimate = (rate != null ? Main.feeEstimator.estimate(
+                    payment.getTransactionType(), fxtChain,
+                    payment.getMessage().getBytes(StandardCharsets.UTF_8).length, rate) : null);
+            if (estimate == null) {
+                errors.add(String.format("Line %d: No bundler rate for %s", payment.getLineNumber(),
+                                         chain.getName()));
+                continue;
+            }
+            payment.setRate(rate);
+            payment.setEstimatedFee(estimate.getMaxFee(), estimate.getMaxFee() != estimate.getFee());
+            totals.merge(chain.getId(), payment.getAmount(), Long::sum);
+            fees.merge(chain.getId(), estimate.getMaxFee(), Long::sum);
+        }
+        available.clear();
+        totals.forEach((chainId, total) -> {
+            Chain chain = Nxt.getChain(chainId);
+            Balance balance = balances.get(chainId);
+            long unconfirmed = (balance != null ? balance.getUnconfirmedBalance() : 0);
+            long fee = fees.get(chainId);
+            if (total + fee > unconfirmed)
+                errors.add(String.format("Total of %s %s plus fees of %s is more than the available balance of %s",
+                        Utils.nqtToString(total, chain.getDecimals()), chain.getName(),
+                        Utils.nqtToString(fee, chain.getDecimals()),
+                        Utils.nqtToString(unconfirmed, chain.getDecimals())));
+            available.put(chainId, unconfirmed);
+        });
+        return errors;
+    }
+
+    /**
+     * Get the payment totals for each chain.  The payments must have been validated.
+     *
+     * @return                          Payment totals by chain identifier
+     */
+    public Map<Integer, Long> getTotals() {
+        Map<Integer, Long> totals = new HashMap<>();
+        payments.forEach(payment -> totals.merge(payment.getChain().getId(), payment.getAmount(), Long::sum));
+        return totals;
+    }
+
+    /**
+     * Get the estimated fee totals for each chain.  The payments must have been validated.
+     *
+     * @return                          Estimated fee totals by chain identifier
+     */
+    public Map<Integer, Long> getFees() {
+        Map<Integer, Long> fees = new HashMap<>();
+        payments.forEach(payment -> fees.merge(payment.getChain().getId(), payment.getEstimatedFee(), Long::sum));
+        return fees;
+    }
+
+    /**
+     * Check if an estimated fee includes a margin for a message size that has not been
+     * calibrated.  The payments must have been validated.
+     *
+     * @return                          TRUE if an estimated fee includes a margin
+     */
+    public boolean hasFeeMargin() {
+        return payments.stream().anyMatch(Payment::hasFeeMargin);
+    }
+
+    /**
+     * Start sending the payments.  The payments must have been validated.
+     *
+     * @param   sessionKey              Sender session key
+     * @param   listener                Listener called on the payment thread after each payment
+     * @param   completion              Listener called on the payment thread when the batch is done
+     */
+    public void start(SessionKey sessionKey, Consumer<Payment> listener, Runnable completion) {
+        this.sessionKey = sessionKey;
+        this.listener = listener;
+        this.completion = completion;
+        Thread thread = new Thread(this, "Batch Payments");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop sending payments after the current payment is complete
+     */
+    public void cancel() {
+        cancelled = true;
+        TransactionPipeline<PaymentItem> currentPipeline = pipeline;
+        if (currentPipeline != null)
+            currentPipeline.cancel();
+    }
+
+    /**
+     * Send the payments.  The payments are sent using a transaction pipeline and the
+     * results are written in file order as the payments are completed.
+     */
+    @Override
+    public void run() {
+        try (BufferedWriter out = new BufferedWriter(new OutputStreamWriter(
+                                        new FileOutputStream(getResultFile()), StandardCharsets.UTF_8))) {
+            out.write("line,recipient,amount,chain,fee,status,fullHash,error");
+            out.newLine();
+            out.flush();
+            pipeline = new TransactionPipeline<>(sessionKey, item -> paymentDone(item, out));
+            if (cancelled)
+                pipeline.cancel();
+            for (Payment payment : payments)
+                pipeline.submit(new PaymentItem(this, payment));
+            pipeline.finish();
+        } catch (IOException exc) {
+            Main.log.error("Unable to write the batch result file", exc);
+            Main.logException("Unable to write the batch result file", exc);
+        } catch (Throwable exc) {
+            Main.log.error("Exception while sending batch payments", exc);
+            Main.logException("Exception while sending batch payments", exc);
+        } finally {
+            completion.run();
+        }
+    }
+
+    /**
+     * Create the unsigned payment transaction
+     *
+     * @param   payment                 Payment
+     * @param   publicKey               Sender public key
+     * @return                          Future for the server response
+     */
+    private CompletableFuture<Response> buildPayment(Payment payment, byte[] publicKey) {
+        Chain chain = payment.getChain();
+        if (Main.paymentBuilder.canBuild(payment.getMessage()))
+            return Main.paymentBuilder.sendMoney(payment.getRecipientId(), chain, payment.getAmount(), 0,
+                                                 payment.getRate(), publicKey, payment.getDeadline());
+        return Main.client.sendMoney(payment.getRecipientId(), chain, payment.getAmount(), -1,
+                                     payment.getRate(), publicKey, payment.getMessage(), payment.getDeadline());
+    }
+
+    /**
+     * Verify the unsigned payment transaction returned by the server.  The payments are
+     * verified in file order, so the available balance is reduced in the same order.
+     * The transaction pipeline has already checked that the fee is not more than the
+     * fee estimated when the payments were validated.
+     *
+     * @param   payment                 Payment
+     * @param   tx                      Unsigned transaction
+     * @return                          Error message or null if the transaction is valid
+     */
+    private String verifyPayment(Payment payment, Transaction tx) {
+        Chain chain = payment.getChain();
+        int[] txType = payment.getTransactionType();
+        if (tx.getRecipientId() != payment.getRecipientId() || tx.getAmount() != payment.getAmount() ||
+                tx.getSenderId() != sessionKey.getAccountId() || tx.getChain().getId() != chain.getId() ||
+                tx.getTransactionType().getType() != txType[0] ||
+                tx.getTransactionType().getSubtype() != txType[1])
+            return "Transaction returned by Nxt node is not valid";
+        int chainId = chain.getId();
+        long remaining = available.get(chainId) - tx.getAmount() - tx.getFee();
+        if (remaining < 0)
+            return "Insufficient balance";
+        available.put(chainId, remaining);
+        return null;
+    }
+
+    /**
+     * Record the payment result.  This method is called on the pipeline thread in
+     * file order.
+     *
+     * @param   item                    Pipeline item
+     * @param   out                     Result file
+     */
+    private void paymentDone(PaymentItem item, BufferedWriter out) {
+        Payment payment = item.getPayment();
+        if (item.getTransaction() != null)
+            payment.setFee(item.getTransaction().getFee());
+        String error = item.getError();
+        if (error == null)
+            payment.setResult("Sent", item.getFullHash(), null);
+        else
+            payment.setResult((error.equals("Cancelled") ? "Cancelled" : "Failed"), null, error);
+        try {
+            out.write(payment.toResultLine());
+            out.newLine();
+            out.flush();
+        } catch (IOException exc) {
+            Main.log.error("Unable to write the batch result file", exc);
+        }
+        listener.accept(payment);
+    }
+
+    /**
+     * Parse a CSV line.  Fields containing commas or quotes must be enclosed in
+     * quotes and a quote within a quoted field is represented by two quotes.
+     *
+     * @param   line                    CSV line
+     * @return                          Field list
+     */
+    private static List<String> parseLine(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder sb = new StringBuilder(64);
+        boolean quoted = false;
+        for (int i=0; i<line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    sb.append(c);
+                } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    sb.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(sb.toString().trim());
+                sb.setLength(0);
+            } else {
+                sb.append(c);
+            }
+        }
+        fields.add(sb.toString().trim());
+        return fields;
+    }
+
+    /**
+     * Quote a CSV field if necessary
+     *
+     * @param   field                   Field value
+     * @return                          CSV field
+     */
+    private static String quote(String field) {
+        if (field.indexOf(',') < 0 && field.indexOf('"') < 0)
+            return field;
+        return "\"" + field.replace("\"", "\"\"") + "\"";
+    }
+
+    /**
+     * Transaction pipeline item for a payment
+     */
+    private static class PaymentItem extends TransactionPipeline.Item {
+
+        /** Payment */
+        private final Payment payment;
+
+        /**
+         * Create the pipeline item
+         *
+         * @param   batch               Batch payment
+         * @param   payment             Payment
+         */
+        public PaymentItem(BatchPayment batch, Payment payment) {
+            super(publicKey -> batch.buildPayment(payment, publicKey),
+                  tx -> batch.verifyPayment(payment, tx), payment.getEstimatedFee(),
+                  !payment.getMessage().isEmpty());
+            this.payment = payment;
+        }
+
+        /**
+         * Get the payment
+         *
+         * @return                      Payment
+         */
+        public Payment getPayment() {
+            return payment;
+        }
+    }
+
+    /**
+     * Batch payment
+     */
+    public static class Payment {
+
+        /** Line number in the payment file */
+        private final int lineNumber;
+
+        /** Payment file fields */
+        private final List<String> fields;
+
+        /** Recipient account */
+        private long recipientId;
+
+        /** Payment chain */
+        private Chain chain;
+
+        /** Payment amount */
+        private long amount;
+
+        /** Bundler rate */
+        private long rate;
+
+        /** Transaction deadline (minutes) */
+        private int deadline;
+
+        /** Estimated transaction fee */
+        private long estimatedFee;
+
+        /** Estimated fee includes a margin */
+        private boolean feeMargin;
+
+        /** Transaction fee */
+        private long fee;
+
+        /** Payment status */
+        private String status = "";
+
+        /** Transaction full hash */
+        private String fullHash;
+
+        /** Error message */
+        private String error;
+
+        /**
+         * Create the payment
+         *
+         * @param   lineNumber          Line number in the payment file
+         * @param   fields              Payment file fields
+         */
+        private Payment(int lineNumber, List<String> fields) {
+            this.lineNumber = lineNumber;
+            this.fields = fields;
+        }
+
+        /**
+         * Validate the payment fields
+         *
+         * @return                      Error message or null if the payment is valid
+         */
+        private String validate() {
+            if (fields.size() < 3 || fields.size() > 4)
+                return "Expected recipient, amount, chain and optional message";
+            chain = Nxt.getChain(fields.get(CHAIN).toUpperCase());
+            if (chain == null)
+                return String.format("Chain '%s' is not valid", fields.get(CHAIN));
+            String recipient = fields.get(RECIPIENT);
+            try {
+                Contact contact = Main.contactsList.stream()
+                        .filter(c -> c.getName().equals(recipient)).findFirst().orElse(null);
+                if (contact != null) {
+                    recipientId = contact.getAccountId();
+                } else if (recipient.toUpperCase().startsWith("NXT-")) {
+                    recipientId = Utils.parseAccountRsId(recipient.toUpperCase());
+                } else {
+                    recipientId = Utils.stringToId(recipient);
+                }
+            } catch (IdentifierException exc) {
+                return String.format("Recipient '%s' is not valid", recipient);
+            }
+            if (recipientId == Main.accountId)
+                return "Recipient is the sending account";
+            try {
+                amount = Utils.stringToNQT(fields.get(AMOUNT), chain.getDecimals());
+            } catch (ArithmeticException exc) {
+                return String.format("Amount '%s' has more than %d decimal digits",
+                                     fields.get(AMOUNT), chain.getDecimals());
+            } catch (NumberFormatException exc) {
+                return String.format("Amount '%s' is not valid", fields.get(AMOUNT));
+            }
+            if (amount <= 0)
+                return "Amount must be greater than zero";
+            return null;
+        }
+
+        /**
+         * Get the line number
+         *
+         * @return                      Line number in the payment file
+         */
+        public int getLineNumber() {
+            return lineNumber;
+        }
+
+        /**
+         * Get the recipient
+         *
+         * @return                      Recipient account identifier
+         */
+        public long getRecipientId() {
+            return recipientId;
+        }
+
+        /**
+         * Get the chain
+         *
+         * @return                      Payment chain
+         */
+        public Chain getChain() {
+            return chain;
+        }
+
+        /**
+         * Get the amount
+         *
+         * @return                      Payment amount
+         */
+        public long getAmount() {
+            return amount;
+        }
+
+        /**
+         * Get the message
+         *
+         * @return                      Message or an empty string
+         */
+        public String getMessage() {
+            return (fields.size() > MESSAGE ? fields.get(MESSAGE) : "");
+        }
+
+        /**
+         * Get the transaction type
+         *
+         * @return                      Transaction type and subtype
+         */
+        public int[] getTransactionType() {
+            return (chain.getName().equals(Nxt.FXT_CHAIN) ?
+                        TransactionBytes.FXT_PAYMENT : TransactionBytes.CHILD_PAYMENT);
+        }
+
+        /**
+         * Get the bundler rate
+         *
+         * @return                      Child chain NQT per ARDR or 0 for an ARDR payment
+         */
+        public long getRate() {
+            return rate;
+        }
+
+        /**
+         * Set the bundler rate
+         *
+         * @param   rate                Child chain NQT per ARDR or 0 for an ARDR payment
+         */
+        private void setRate(long rate) {
+            this.rate = rate;
+        }
+
+        /**
+         * Get the transaction deadline
+         *
+         * @return                      Deadline (minutes)
+         */
+        public int getDeadline() {
+            return deadline;
+        }
+
+        /**
+         * Set the transaction deadline
+         *
+         * @param   deadline            Deadline (minutes)
+         */
+        private void setDeadline(int deadline) {
+            this.deadline = deadline;
+        }
+
+        /**
+         * Get the estimated transaction fee
+         *
+         * @return                      Estimated fee
+         */
+        public long getEstimatedFee() {
+            return estimatedFee;
+        }
+
+        /**
+         * Check if the estimated fee includes a margin for an uncalibrated message size
+         *
+         * @return                      TRUE if the estimated fee includes a margin
+         */
+        public boolean hasFeeMargin() {
+            return feeMargin;
+        }
+
+        /**
+         * Set the estimated transaction fee
+         *
+         * @param   estimatedFee        Estimated fee
+         * @param   feeMargin           TRUE if the estimated fee includes a margin
+         */
+        private void setEstimatedFee(long estimatedFee, boolean feeMargin) {
+            this.estimatedFee = estimatedFee;
+            this.feeMargin = feeMargin;
+        }
+
+        /**
+         * Set the transaction fee
+         *
+         * @param   fee                 Transaction fee
+         */
+        private void setFee(long fee) {
+            this.fee = fee;
+        }
+
+        /**
+         * Get the payment status
+         *
+         * @return                      Payment status
+         */
+        public String getStatus() {
+            return status;
+        }
+
+        /**
+         * Get the error message
+         *
+         * @return                      Error message or null
+         */
+        public String getError() {
+            return error;
+        }
+
+        /**
+         * Set the payment result
+         *
+         * @param   status              Payment status
+         * @param   fullHash            Transaction full hash or null
+         * @param   error               Error message or null
+         */
+        private void setResult(String status, String fullHash, String error) {
+            this.status = status;
+            this.fullHash = fullHash;
+            this.error = error;
+        }
+
+        /**
+         * Get the result file line
+         *
+         * @return                      CSV line
+         */
+        private String toResultLine() {
+            return String.format("%d,%s,%s,%s,%s,%s,%s,%s", lineNumber, Utils.getAccountRsId(recipientId),
+                    Utils.nqtToString(amount, chain.getDecimals()), chain.getName(),
+                    Utils.nqtToString(fee, chain.getDecimals()), status,
+                    (fullHash != null ? fullHash : ""), quote(error != null ? error : ""));
+        }
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright 2017 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Wallet;
+
+import org.ScripterRon.Nxt2API.Chain;
+import org.ScripterRon.Nxt2API.Nxt;
+import org.ScripterRon.Nxt2API.Utils;
+
+import java.awt.Component;
+import java.awt.Dialog;
+import java.awt.Dimension;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import javax.swing.BorderFactory;
+import javax.swing.Box;
+import javax.swing.BoxLayout;
+import javax.swing.JDialog;
+import javax.swing.JFileChooser;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JProgressBar;
+import javax.swing.JScrollPane;
+import javax.swing.JTextArea;
+import javax.swing.SwingUtilities;
+import javax.swing.WindowConstants;
+import javax.swing.filechooser.FileNameExtensionFilter;
+
+/**
+ * BatchPaymentDialog sends the payments in a CSV payment file.  The payments are
+ * validated before the dialog is displayed and the dialog shows the payment totals
+ * and the progress while the payments are sent.
+ */
+public class BatchPaymentDialog extends JDialog implements ActionListener {
+
+    /** Maximum number of validation errors displayed */
+    private static final int MAX_ERRORS = 50;
+
+    /** Batch payment */
+    private final BatchPayment batch;
+
+    /** Progress bar */
+    private final JProgressBar progressBar;
+
+    /** Status field */
+    private final JLabel statusField;
+
+    /** Payments are being sent */
+    private boolean running;
+
+    /** Payments have been sent */
+    private boolean finished;
+
+    /** Number of payments sent */
+    private int sentCount;
+
+    /** Number of payments not sent */
+    private int failedCount;
+
+    /**
+     * Create the dialog
+     *
+     * @param       parent          Parent frame
+     * @param       batch           Validated batch payment
+     */
+    public BatchPaymentDialog(JFrame parent, BatchPayment batch) {
+        super(parent, "Batch Payments", Dialog.ModalityType.DOCUMENT_MODAL);
+        setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
+        this.batch = batch;
+        //
+        // Create the summary field
+        //
+        StringBuilder sb = new StringBuilder(256);
+        sb.append("<html>").append(batch.getPayments().size()).append(" payments totalling");
+        Map<Integer, Long> fees = batch.getFees();
+        batch.getTotals().forEach((chainId, total) -> {
+            Chain chain = Nxt.getChain(chainId);
+            sb.append("<br>&nbsp;&nbsp;").append(Utils.nqtToString(total, chain.getDecimals()))
+              .append(' ').append(chain.getName()).append(" plus estimated fees of ")
+              .append(Utils.nqtToString(fees.get(chainId), chain.getDecimals()))
+              .append(' ').append(chain.getName());
+        });
+        if (batch.hasFeeMargin())
+            sb.append("<br>The estimated fees include a margin for messages");
+        sb.append("<br>A payment is not sent if its fee is more than the estimated fee</html>");
+        JPanel summaryPane = new JPanel();
+        summaryPane.add(new JLabel(sb.toString()));
+        //
+        // Create the progress bar and the status field
+        //
+        progressBar = new JProgressBar(0, batch.getPayments().size());
+        progressBar.setStringPainted(true);
+        progressBar.setPreferredSize(new Dimension(340, 25));
+        JPanel progressPane = new JPanel();
+        progressPane.add(progressBar);
+        statusField = new JLabel("Select 'Send' to send the payments");
+        JPanel statusPane = new JPanel();
+        statusPane.add(statusField);
+        //
+        // Create the buttons (Send, Done)
+        //
+        JPanel buttonPane = new ButtonPane(this, 10, new String[] {"Send", "send"},
+                                                     new String[] {"Done", "done"});
+        //
+        // Set up the content pane
+        //
+        JPanel contentPane = new JPanel();
+        contentPane.setLayout(new BoxLayout(contentPane, BoxLayout.Y_AXIS));
+        contentPane.setOpaque(true);
+        contentPane.setBorder(BorderFactory.createEmptyBorder(15, 15, 15, 15));
+        contentPane.add(summaryPane);
+        contentPane.add(Box.createVerticalStrut(15));
+        contentPane.add(progressPane);
+        contentPane.add(statusPane);
+        contentPane.add(Box.createVerticalStrut(15));
+        contentPane.add(buttonPane);
+        setContentPane(contentPane);
+    }
+
+    /**
+     * Select a payment file and show the batch payment dialog if the payments are valid
+     *
+     * @param       parent              Parent frame
+     */
+    public static void showDialog(JFrame parent) {
+        try {
+            JFileChooser chooser = new JFileChooser();
+            chooser.setDialogTitle("Select Payment File");
+            chooser.setFileFilter(new FileNameExtensionFilter("CSV files", "csv"));
+            if (chooser.showOpenDialog(parent) != JFileChooser.APPROVE_OPTION)
+                return;
+            File file = chooser.getSelectedFile();
+            BatchPayment batch;
+            try {
+                batch = new BatchPayment(file);
+            } catch (IOException exc) {
+                Main.log.error("Unable to read payment file", exc);
+                Main.logException("Unable to read payment file", exc);
+                return;
+            }
+            List<String> errors = batch.validate(Main.accountStates.get(Main.accountId).getBalances());
+            if (!errors.isEmpty()) {
+                showErrors(parent, file, errors);
+                return;
+            }
+            BatchPaymentDialog dialog = new BatchPaymentDialog(parent, batch);
+            dialog.pack();
+            dialog.setLocationRelativeTo(parent);
+            dialog.setVisible(true);
+        } catch (Exception exc) {
+            Main.log.error("Exception while displaying dialog", exc);
+            Main.logException("Exception while displaying dialog", exc);
+        }
+    }
+
+    /**
+     * Show the payment file errors
+     *
+     * @param       parent              Parent component
+     * @param       file                Payment file
+     * @param       errors              Validation errors
+     */
+    private static void showErrors(Component parent, File file, List<String> errors) {
+        StringBuilder sb = new StringBuilder(1024);
+        errors.stream().limit(MAX_ERRORS).forEach(error -> sb.append(error).append('\n'));
+        if (errors.size() > MAX_ERRORS)
+            sb.append(String.format("%d more errors\n", errors.size() - MAX_ERRORS));
+        JTextArea textArea = new JTextArea(sb.toString(), Math.min(errors.size() + 1, 20), 60);
+        textArea.setEditable(false);
+        JPanel errorPane = new JPanel();
+        errorPane.setLayout(new BoxLayout(errorPane, BoxLayout.Y_AXIS));
+        errorPane.add(new JLabel(String.format("No payments were sent because %s is not valid", file.getName())));
+        errorPane.add(Box.createVerticalStrut(10));
+        errorPane.add(new JScrollPane(textArea));
+        JOptionPane.showMessageDialog(parent, errorPane, "Payment File Errors", JOptionPane.ERROR_MESSAGE);
+    }
+
+    /**
+     * Dispose of the dialog.  The remaining payments are cancelled if the dialog is
+     * closed while the payments are being sent.
+     */
+    @Override
+    public void dispose() {
+        if (running)
+            batch.cancel();
+        super.dispose();
+    }
+
+    /**
+     * Action performed (ActionListener interface)
+     *
+     * @param   ae              Action event
+     */
+    @Override
+    public void actionPerformed(ActionEvent ae) {
+        //
+        // "send"       - Send the payments
+        // "done"       - Done (the remaining payments are cancelled)
+        //
+        try {
+            String action = ae.getActionCommand();
+            switch (action) {
+                case "send":
+                    if (!running && !finished)
+                        sendPayments();
+                    break;
+                case "done":
+                    if (running) {
+                        if (JOptionPane.showConfirmDialog(this, "Do you want to cancel the remaining payments?",
+                                        "Cancel Payments", JOptionPane.YES_NO_OPTION,
+                                        JOptionPane.QUESTION_MESSAGE) == JOptionPane.YES_OPTION) {
+                            batch.cancel();
+                            statusField.setText("Stopping after the current payment");
+                        }
+                    } else {
+                        setVisible(false);
+                        dispose();
+                    }
+                    break;
+            }
+        } catch (Exception exc) {
+            Main.log.error("Exception while processing action event", exc);
+            Main.logException("Exception while processing action event", exc);
+        }
+    }
+
+    /**
+     * Send the payments
+     */
+    private void sendPayments() {
+        SessionKey sessionKey = Main.sessionKeys.getKey(this);
+        if (sessionKey == null)
+            return;
+        running = true;
+        statusField.setText("Sending payments");
+        batch.start(sessionKey,
+                payment -> SwingUtilities.invokeLater(() -> paymentDone(payment)),
+                () -> SwingUtilities.invokeLater(this::batchDone));
+    }
+
+    /**
+     * Update the progress when a payment is done
+     *
+     * @param   payment             Batch payment
+     */
+    private void paymentDone(BatchPayment.Payment payment) {
+        if (payment.getStatus().equals("Sent"))
+            sentCount++;
+        else
+            failedCount++;
+        progressBar.setValue(sentCount + failedCount);
+        statusField.setText(String.format("%d sent, %d not sent", sentCount, failedCount));
+    }
+
+    /**
+     * Tell the user that the batch is done
+     */
+    private void batchDone() {
+        running = false;
+        finished = true;
+        statusField.setText(String.format("%d sent, %d not sent", sentCount, failedCount));
+        JOptionPane.showMessageDialog(this,
+                String.format("%d payments sent and %d payments not sent\nThe results are in %s",
+                              sentCount, failedCount, batch.getResultFile().getPath()),
+                "Batch Payments", (failedCount == 0 ? JOptionPane.INFORMATION_MESSAGE :
+                                                      JOptionPane.WARNING_MESSAGE));
+    }
+}
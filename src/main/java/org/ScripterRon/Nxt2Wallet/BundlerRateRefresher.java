@@ -0,0 +1,116 @@
+/*
+ * Copyright 2017 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Wallet;
+
+import org.ScripterRon.Nxt2API.Response;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * BundlerRateRefresher keeps the child chain bundler rates current.  The rates are
+ * refreshed in the background when a new block is pushed, but not more often than
+ * the minimum refresh interval.
+ *
+ * A new rate table replaces Main.bundlerRates as a single unmodifiable map, so a
+ * reader never sees a partially updated table.  The rate listeners are notified
+ * on the Swing event dispatch thread when the rates change.
+ */
+public class BundlerRateRefresher {
+
+    /** Minimum refresh interval (milliseconds) */
+    private static final long MIN_INTERVAL = 60 * 1000;
+
+    /** Rate listeners */
+    private final List<Consumer<Map<Integer, Long>>> listeners = new CopyOnWriteArrayList<>();
+
+    /** Time of the last refresh (milliseconds) */
+    private long lastRefresh;
+
+    /** Refresh is in progress */
+    private boolean refreshing;
+
+    /**
+     * Add a rate listener.  The listener is called on the Swing event dispatch thread
+     * with the new rate table.
+     *
+     * @param   listener                Rate listener
+     */
+    public void addListener(Consumer<Map<Integer, Long>> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Remove a rate listener
+     *
+     * @param   listener                Rate listener
+     */
+    public void removeListener(Consumer<Map<Integer, Long>> listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * A block has been pushed.  The rates are refreshed if the minimum refresh
+     * interval has elapsed.
+     */
+    public synchronized void blockPushed() {
+        if (!refreshing && System.currentTimeMillis() - lastRefresh >= MIN_INTERVAL)
+            refresh();
+    }
+
+    /**
+     * Refresh the rates in the background
+     */
+    public synchronized void refresh() {
+        if (refreshing)
+            return;
+        refreshing = true;
+        lastRefresh = System.currentTimeMillis();
+        Main.client.getBundlerRates().whenComplete((response, exc) -> {
+            synchronized(this) {
+                refreshing = false;
+            }
+            if (exc != null)
+                Main.log.warn("Unable to get the bundler rates: " + WalletClient.getCause(exc).getMessage());
+            else
+                publish(response);
+        });
+    }
+
+    /**
+     * Publish a new rate table if the rates have changed
+     *
+     * @param   response                getBundlerRates response
+     */
+    private void publish(Response response) {
+        Map<Integer, Long> rates = new HashMap<>();
+        response.getObjectList("rates").forEach(rate ->
+                rates.put(rate.getInt("chain"), rate.getLong("minRateNQTPerFXT")));
+        if (rates.equals(Main.bundlerRates))
+            return;
+        Map<Integer, Long> rateTable = Collections.unmodifiableMap(rates);
+        Main.bundlerRates = rateTable;
+        if (Main.log.isDebugEnabled())
+            Main.log.debug("Bundler rates updated: " + rateTable);
+        SwingUtilities.invokeLater(() -> listeners.forEach(listener -> listener.accept(rateTable)));
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright 2017 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Wallet;
+
+/**
+ * ConcurrencyLimiter limits the number of outstanding requests to a Nxt node.  The
+ * limit adapts to the node response time, so a slow node gets fewer concurrent
+ * requests and a fast node gets more.  A request waits for a permit when the limit
+ * has been reached.
+ *
+ * The limit is adjusted using the gradient between the long-term average response
+ * time and the latest response time.  The limit increases while the response time
+ * stays near the long-term average and decreases when the node starts queuing
+ * requests.  A failed request reduces the limit by a fixed fraction.
+ *
+ * A limiter for long-poll requests does not use the response time since the
+ * response time depends on when events occur.  The limit is increased by one when
+ * all of the permits are in use and is reduced when a request fails.
+ *
+ * Waiting requests are started in priority order.  A request is not started while a
+ * request with a higher priority is waiting.  Bulk requests can't use all of the
+ * permits, so an interactive request doesn't have to wait for a bulk request to
+ * complete.
+ */
+public class ConcurrencyLimiter {
+
+    /** Smoothing factor for the long-term response time */
+    private static final double LONG_ALPHA = 0.05;
+
+    /** Smoothing factor for the limit */
+    private static final double LIMIT_ALPHA = 0.2;
+
+    /** Response time tolerance before the limit is reduced */
+    private static final double TOLERANCE = 1.5;
+
+    /** Limit reduction for a failed request */
+    private static final double BACKOFF = 0.9;
+
+    /** Fraction of the limit reserved for interactive and live requests */
+    private static final double BULK_RESERVE = 0.25;
+
+    /** Limiter name */
+    private final String name;
+
+    /** Minimum limit */
+    private final int minLimit;
+
+    /** Maximum limit */
+    private final int maxLimit;
+
+    /** Adjust the limit using the response time */
+    private final boolean latencyBased;
+
+    /** Current limit */
+    private double limit;
+
+    /** Long-term average response time (nanoseconds) */
+    private double longRtt;
+
+    /** Number of requests holding a permit */
+    private int inFlight;
+
+    /** Number of requests waiting for a permit */
+    private int queued;
+
+    /** Number of requests waiting for a permit by priority */
+    private final int[] queuedByPriority = new int[RequestPriority.values().length];
+
+    /** Number of bulk requests holding a permit */
+    private int bulkInFlight;
+
+    /** Number of requests */
+    private long requestCount;
+
+    /** Number of failed requests */
+    private long dropCount;
+
+    /** Time spent waiting for a permit by priority */
+    private final LatencyHistogram[] queueWait = new LatencyHistogram[RequestPriority.values().length];
+
+    /**
+     * Create a concurrency limiter
+     *
+     * @param   name                    Limiter name
+     * @param   initialLimit            Initial limit
+     * @param   minLimit                Minimum limit
+     * @param   maxLimit                Maximum limit
+     * @param   latencyBased            TRUE to adjust the limit using the response time
+     */
+    public ConcurrencyLimiter(String name, int initialLimit, int minLimit, int maxLimit, boolean latencyBased) {
+        this.name = name;
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.latencyBased = latencyBased;
+        for (int i=0; i<queueWait.length; i++)
+            queueWait[i] = new LatencyHistogram();
+    }
+
+    /**
+     * Wait for a request permit.  The caller must release the permit when the
+     * request completes.
+     *
+     * @param   priority                Request priority
+     * @return                          Request start time (nanoseconds)
+     * @throws  InterruptedException    Wait interrupted
+     */
+    public synchronized long acquire(RequestPriority priority) throws InterruptedException {
+        long waitStart = System.nanoTime();
+        queued++;
+        queuedByPriority[priority.ordinal()]++;
+        try {
+            while (!canStart(priority))
+                wait();
+        } catch (InterruptedException exc) {
+            notifyAll();
+            throw exc;
+        } finally {
+            queued--;
+            queuedByPriority[priority.ordinal()]--;
+        }
+        inFlight++;
+        if (priority == RequestPriority.BULK)
+            bulkInFlight++;
+        requestCount++;
+        long startTime = System.nanoTime();
+        queueWait[priority.ordinal()].record(startTime - waitStart);
+        //
+        // Another waiting request may be able to start now that this request no longer
+        // blocks the lower priorities
+        //
+        if (queued > 0)
+            notifyAll();
+        return startTime;
+    }
+
+    /**
+     * Check if a request can start
+     *
+     * @param   priority                Request priority
+     * @return                          TRUE if the request can start
+     */
+    private boolean canStart(RequestPriority priority) {
+        if (inFlight >= (int)limit)
+            return false;
+        for (int i=0; i<priority.ordinal(); i++) {
+            if (queuedByPriority[i] > 0)
+                return false;
+        }
+        if (priority == RequestPriority.BULK) {
+            int bulkLimit = Math.max(1, (int)limit - Math.max(1, (int)(limit * BULK_RESERVE)));
+            if (bulkInFlight >= bulkLimit)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Release a request permit and adjust the limit
+     *
+     * @param   priority                Request priority
+     * @param   startTime               Request start time returned by acquire()
+     * @param   dropped                 TRUE if the request failed or timed out
+     */
+    public synchronized void release(RequestPriority priority, long startTime, boolean dropped) {
+        boolean saturated = (inFlight >= (int)limit);
+        inFlight--;
+        if (priority == RequestPriority.BULK)
+            bulkInFlight--;
+        int prevLimit = (int)limit;
+        if (dropped) {
+            dropCount++;
+            limit = Math.max(minLimit, limit * BACKOFF);
+        } else if (latencyBased) {
+            //
+            // Compare the response time with the long-term average.  The limit is not
+            // increased unless the permits are in use since the response time tells
+            // us nothing about a higher limit otherwise.
+            //
+            double rtt = (double)(System.nanoTime() - startTime);
+            longRtt = (longRtt == 0 ? rtt : longRtt * (1.0 - LONG_ALPHA) + rtt * LONG_ALPHA);
+            double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longRtt / rtt));
+            double newLimit = limit * gradient + Math.sqrt(limit);
+            if (newLimit > limit && !saturated)
+                newLimit = limit;
+            limit = Math.max(minLimit, Math.min(maxLimit, limit * (1.0 - LIMIT_ALPHA) + newLimit * LIMIT_ALPHA));
+        } else if (saturated) {
+            limit = Math.min(maxLimit, limit + 1.0);
+        }
+        if ((int)limit != prevLimit && Main.log.isDebugEnabled())
+            Main.log.debug(String.format("%s concurrency limit changed from %d to %d",
+                                         name, prevLimit, (int)limit));
+        notifyAll();
+    }
+
+    /**
+     * Get the limiter name
+     *
+     * @return                          Limiter name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the current limit
+     *
+     * @return                          Concurrency limit
+     */
+    public synchronized int getLimit() {
+        return (int)limit;
+    }
+
+    /**
+     * Get the number of requests holding a permit
+     *
+     * @return                          Number of requests
+     */
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * Get the number of requests waiting for a permit
+     *
+     * @return                          Number of requests
+     */
+    public synchronized int getQueued() {
+        return queued;
+    }
+
+    /**
+     * Get the long-term average response time
+     *
+     * @return                          Response time in milliseconds
+     */
+    public synchronized double getAverage() {
+        return longRtt / 1000000.0;
+    }
+
+    /**
+     * Get the time spent waiting for a permit
+     *
+     * @param   priority                Request priority
+     * @return                          Queue wait histogram
+     */
+    public LatencyHistogram getQueueWait(RequestPriority priority) {
+        return queueWait[priority.ordinal()];
+    }
+
+    /**
+     * Get the limiter report row for the About dialog
+     *
+     * @return                          HTML table row
+     */
+    public synchronized String getReportRow() {
+        StringBuilder sb = new StringBuilder(256);
+        sb.append(String.format("<tr><td>%s</td><td align=right>%d</td><td align=right>%d</td>"
+                        + "<td align=right>%d</td><td align=right>%,d</td><td align=right>%,d</td>"
+                        + "<td align=right>%.1f</td>",
+                name, (int)limit, inFlight, queued, requestCount, dropCount, getAverage()));
+        for (LatencyHistogram histogram : queueWait)
+            sb.append(String.format("<td align=right>%.1f</td>", histogram.getPercentile(99)));
+        sb.append("</tr>");
+        return sb.toString();
+    }
+
+    /**
+     * Get the report table header for the About dialog
+     *
+     * @return                          HTML table header
+     */
+    public static String getReportHeader() {
+        StringBuilder sb = new StringBuilder(256);
+        sb.append("<table><tr><th align=left>Requests</th><th>Limit</th><th>Active</th><th>Queued</th>")
+          .append("<th>Count</th><th>Failures</th><th>Average</th>");
+        for (RequestPriority priority : RequestPriority.values())
+            sb.append("<th>").append(priority.getDisplayName()).append(" wait p99</th>");
+        sb.append("</tr>");
+        return sb.toString();
+    }
+}
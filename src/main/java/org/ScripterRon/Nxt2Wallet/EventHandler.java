@@ -0,0 +1,644 @@
+/*
+ * Copyright 2017 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Wallet;
+
+import org.ScripterRon.Nxt2API.Balance;
+import org.ScripterRon.Nxt2API.Chain;
+import org.ScripterRon.Nxt2API.Nxt;
+import org.ScripterRon.Nxt2API.Response;
+import org.ScripterRon.Nxt2API.Transaction;
+import org.ScripterRon.Nxt2API.Utils;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * EventHandler processes Nxt server events for all of the watched accounts.  A single
+ * event registration covers every account and each transaction event is routed to the
+ * live state for the affected accounts.
+ *
+ * Watched accounts which have not been loaded yet are loaded by the event handler
+ * thread between event waits.  The events are registered before an account is loaded,
+ * so no transactions are lost while the account information is being retrieved.
+ *
+ * Fetched transactions are kept in a transaction cache.  A transaction event for a
+ * cached transaction does not fetch the transaction again.  Instead, a confirmed
+ * transaction is assigned the block identifier and height of the next pushed block
+ * since the confirmed transaction events are reported before the block is pushed.
+ *
+ * The time taken to apply each event is recorded by EventLatency.  The events and
+ * server requests are provided by the event source, which is the wallet client for
+ * a live node or the event replay driver for a recorded event journal.
+ */
+public class EventHandler implements SyncEngine, Runnable {
+
+    /** Maximum number of accounts for a single event registration request */
+    private static final int REGISTER_BATCH_SIZE = 100;
+
+    /** Event wait timeout (seconds) */
+    private static final int EVENT_TIMEOUT = 60;
+
+    /** Delay before registering the events again after a node failure (milliseconds) */
+    private static final long RETRY_DELAY = 10 * 1000;
+
+    /** Main application window */
+    private final MainWindow mainWindow;
+
+    /** Registered accounts */
+    private final Set<Long> registeredAccounts = ConcurrentHashMap.newKeySet();
+
+    /** Accounts waiting to be loaded */
+    private final ConcurrentLinkedQueue<Long> loadQueue = new ConcurrentLinkedQueue<>();
+
+    /** Accounts waiting to be reloaded after a node failure */
+    private final ConcurrentLinkedQueue<Long> reloadQueue = new ConcurrentLinkedQueue<>();
+
+    /** Transaction cache */
+    private final TransactionCache txCache = new TransactionCache();
+
+    /** Cached transactions waiting for their block */
+    private final List<PendingConfirmation> pendingConfirmations = new ArrayList<>();
+
+    /** Event handler thread */
+    private Thread eventThread = null;
+
+    /** Event handler shutdown started */
+    private volatile boolean shutdown = false;
+
+    /** Event handler token */
+    private volatile long eventToken;
+
+    /** Recorded events are being replayed */
+    private final boolean replay;
+
+    /**
+     * Create the event handler
+     *
+     * @param   mainWindow              Main application window
+     */
+    public EventHandler(MainWindow mainWindow) {
+        this.mainWindow = mainWindow;
+        this.replay = (Main.eventSource instanceof EventReplay);
+    }
+
+    /**
+     * Start the event handler
+     */
+    @Override
+    public void start() {
+        shutdown = false;
+        eventThread = new Thread(this, "Nxt Event Handler");
+        eventThread.setDaemon(true);
+        eventThread.start();
+    }
+
+    /**
+     * Stop the event handler
+     */
+    @Override
+    public void stop() {
+        shutdown = true;
+        //
+        // Cancel our event listener (this will cause the event wait to complete)
+        //
+        List<String> eventList = new ArrayList<>();
+        Main.eventSource.eventRegister(eventList, eventToken, false, true).whenComplete((response, exc) -> {
+            if (exc != null)
+                Main.log.error("Unable to cancel event listener", WalletClient.getCause(exc));
+        });
+    }
+
+    /**
+     * Add an account to the event registration
+     *
+     * @param   accountId               Account identifier
+     * @return                          Future for the completed registration
+     */
+    @Override
+    public CompletableFuture<Void> watchAccount(long accountId) {
+        if (registeredAccounts.contains(accountId))
+            return CompletableFuture.completedFuture(null);
+        List<Long> accountList = new ArrayList<>(1);
+        accountList.add(accountId);
+        return Main.eventSource.eventRegister(getEventList(accountList), eventToken, true, false)
+                .thenAccept(response -> registeredAccounts.add(accountId));
+    }
+
+    /**
+     * Process server events
+     */
+    @Override
+    public void run() {
+        Main.log.debug("Event handler started");
+        //
+        // Register our events for all of the watched accounts
+        //
+        try {
+            registerEvents(Main.accounts);
+        } catch (IOException exc) {
+            Main.log.error("Unable to register our events", exc);
+            Main.logException("Unable to register our events", exc);
+            shutdown = true;
+        } catch (Exception exc) {
+            Main.log.error("Exception while registering server events", exc);
+            Main.logException("Exception while registering server events", exc);
+            shutdown = true;
+        }
+        //
+        // Load the watched accounts that are not already loaded.  This is done
+        // after the events are registered so we won't miss any transactions.
+        //
+        Main.accounts.forEach(accountId -> {
+            if (!Main.accountStates.containsKey(accountId) && !loadQueue.contains(accountId))
+                loadQueue.add(accountId);
+        });
+        //
+        // Process server events
+        //
+        while (!shutdown) {
+            try {
+                //
+                // Load the next pending account and then get any events that have
+                // arrived while the account was being loaded
+                //
+                Long loadId = loadQueue.poll();
+                if (loadId != null)
+                    loadAccount(loadId);
+                Long reloadId = reloadQueue.poll();
+                if (reloadId != null)
+                    reloadAccount(reloadId);
+                //
+                // Wait for an event
+                //
+                boolean loadPending = !(loadQueue.isEmpty() && reloadQueue.isEmpty());
+                List<NodeEvent> eventList = WalletClient.await(
+                        Main.eventSource.eventWait(eventToken, (loadPending ? 0 : EVENT_TIMEOUT)));
+                long waitTime = System.nanoTime();
+                if (shutdown)
+                    break;
+                if (eventList.isEmpty())
+                    continue;
+                //
+                // Process the events
+                //
+                Set<Long> updatedAccounts = new HashSet<>();
+                processEvents(eventList, waitTime, updatedAccounts);
+                //
+                // Update the account balances
+                //
+                updatedAccounts.add(Main.accountId);
+                for (Long accountId : updatedAccounts) {
+                    AccountState state = Main.accountStates.get(accountId);
+                    if (state == null)
+                        continue;
+                    Map<Integer, Balance> balances = WalletClient.await(Main.eventSource.getBalances(accountId));
+                    SwingUtilities.invokeLater(() -> {
+                        state.setBalances(balances);
+                        if (state == Main.accountState)
+                            mainWindow.updateNodeStatus();
+                    });
+                }
+            } catch (InterruptedException | InvocationTargetException exc) {
+                Main.log.error("Unable to perform status update", exc);
+                Main.logException("Unable to perform status update", exc);
+                shutdown = true;
+            } catch (IOException exc) {
+                Main.log.error("Unable to process server event", exc);
+                if (!shutdown && !reconnect()) {
+                    Main.logException("Unable to process server event", exc);
+                    shutdown = true;
+                }
+            } catch (Exception exc) {
+                Main.log.error("Exception while processing server event", exc);
+                Main.logException("Exception while processing server event", exc);
+            }
+        }
+        Main.log.debug("Event handler stopped");
+    }
+
+    /**
+     * Register our events for a list of accounts.  A new event registration is
+     * created for the first batch of accounts.
+     *
+     * @param   accounts                Account identifiers
+     * @throws  IOException             Unable to register the events
+     */
+    private void registerEvents(List<Long> accounts) throws IOException {
+        List<Long> accountList = new ArrayList<>(REGISTER_BATCH_SIZE);
+        boolean firstBatch = true;
+        for (int i=0; i<accounts.size(); i++) {
+            accountList.add(accounts.get(i));
+            if (accountList.size() == REGISTER_BATCH_SIZE || i == accounts.size()-1) {
+                List<String> eventList = getEventList(accountList);
+                if (firstBatch) {
+                    eventList.add("Block.BLOCK_PUSHED");
+                    eventList.add("Block.BLOCK_POPPED");
+                    Response eventResponse = WalletClient.await(
+                            Main.eventSource.eventRegister(eventList, 0, false, false));
+                    eventToken = eventResponse.getLong("token");
+                    firstBatch = false;
+                } else {
+                    WalletClient.await(Main.eventSource.eventRegister(eventList, eventToken, true, false));
+                }
+                registeredAccounts.addAll(accountList);
+                accountList.clear();
+            }
+        }
+        Main.log.debug(String.format("Events registered for %d accounts", registeredAccounts.size()));
+    }
+
+    /**
+     * Register our events again after a node failure.  The event source is switched
+     * to another node if one is available and the loaded accounts are reloaded since
+     * events may have been lost.
+     *
+     * @return                          FALSE if the event source can't reconnect
+     */
+    private boolean reconnect() {
+        if (!Main.eventSource.failover())
+            return false;
+        List<Long> accounts = new ArrayList<>(registeredAccounts);
+        while (!shutdown) {
+            try {
+                Thread.sleep(RETRY_DELAY);
+                registerEvents(accounts);
+                pendingConfirmations.clear();
+                Main.accountStates.keySet().forEach(accountId -> {
+                    if (!reloadQueue.contains(accountId))
+                        reloadQueue.add(accountId);
+                });
+                Main.log.info("Events registered again after node failure");
+                return true;
+            } catch (InterruptedException exc) {
+                shutdown = true;
+            } catch (IOException exc) {
+                Main.log.error("Unable to register our events", exc);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Process server events
+     *
+     * @param   eventList                   Server events
+     * @param   waitTime                    Time the event wait returned (System.nanoTime)
+     * @param   updatedAccounts             Updated with the accounts affected by the events
+     * @throws  Exception                   Unable to process the server events
+     */
+    private void processEvents(List<NodeEvent> eventList, long waitTime, Set<Long> updatedAccounts)
+                                        throws Exception {
+        Response response;
+        for (NodeEvent event : eventList) {
+            final EventLatency latency = new EventLatency(event.getName(), waitTime);
+            if (Main.log.isDebugEnabled()) {
+                Main.log.debug("Processing event " + event.getName() + ": " + event.getIds());
+            }
+            switch (event.getName()) {
+                case "Block.BLOCK_PUSHED":
+                    response = WalletClient.await(Main.eventSource.getBlockchainStatus());
+                    latency.fetched();
+                    Main.blockHeight = response.getInt("numberOfBlocks") - 1;
+                    long lastBlockId = Utils.stringToId(response.getString("lastBlock"));
+                    long pushBlockId = Utils.stringToId(event.getIds().get(0));
+                    confirmTransactions((pushBlockId == lastBlockId ? pushBlockId : 0), updatedAccounts);
+                    txCache.evict(Main.blockHeight);
+                    //
+                    // A replayed block is not a new block on the live node, so the
+                    // live node is not asked for the rates, orders or EC block
+                    //
+                    if (!replay) {
+                        Main.rateRefresher.blockPushed();
+                        Main.orderBooks.values().forEach(OrderBook::blockPushed);
+                        if (Main.localPayments)
+                            Main.paymentBuilder.blockPushed();
+                    }
+                    latency.enqueued();
+                    SwingUtilities.invokeAndWait(() -> {
+                        mainWindow.updateTransactionStatus();
+                        latency.applied();
+                    });
+                    break;
+                case "Transaction.ADDED_CONFIRMED_TRANSACTIONS":
+                case "Transaction.ADDED_UNCONFIRMED_TRANSACTIONS":
+                    boolean confirmed = event.getName().equals("Transaction.ADDED_CONFIRMED_TRANSACTIONS");
+                    for (String eventId : event.getIds()) {
+                        String[] eventParts = eventId.split(":");
+                        if (eventParts.length != 2) {
+                            Main.log.error("Invalid transaction event id: " + eventId);
+                        } else {
+                            final EventLatency txLatency = new EventLatency(event.getName(), waitTime);
+                            Chain txChain = Nxt.getChain(Integer.valueOf(eventParts[0]));
+                            byte[] fullHash = Utils.parseHexString(eventParts[1]);
+                            if (confirmed && !replay)
+                                Main.outbox.confirmed(txChain.getId(), fullHash);
+                            Transaction cachedTx = txCache.get(TransactionCache.getKey(txChain.getId(), fullHash));
+                            if (cachedTx != null) {
+                                if (confirmed) {
+                                    pendingConfirmations.add(
+                                            new PendingConfirmation(cachedTx, Main.blockHeight, txLatency));
+                                } else {
+                                    //
+                                    // The transaction may have been removed from the account
+                                    // after it was cached (for example, it expired and was
+                                    // broadcast again), so it is added again.  Nothing is
+                                    // changed if the account still has the transaction.
+                                    //
+                                    txLatency.enqueued();
+                                    SwingUtilities.invokeAndWait(() -> {
+                                        addTransaction(cachedTx, updatedAccounts);
+                                        txLatency.applied();
+                                    });
+                                }
+                                continue;
+                            }
+                            final Transaction addedTx = fetchTransaction(txChain, fullHash);
+                            txLatency.fetched();
+                            txLatency.enqueued();
+                            SwingUtilities.invokeAndWait(() -> {
+                                addTransaction(addedTx, updatedAccounts);
+                                txLatency.applied();
+                            });
+                        }
+                    }
+                    break;
+                case "Transaction.REMOVED_UNCONFIRMED_TRANSACTIONS":
+                    for (String eventId : event.getIds()) {
+                        String[] eventParts = eventId.split(":");
+                        if (eventParts.length != 2) {
+                            Main.log.error("Invalid transaction event id: " + eventId);
+                        } else {
+                            final int txChainId = Integer.valueOf(eventParts[0]);
+                            final byte[] fullHash = Utils.parseHexString(eventParts[1]);
+                            if (!replay)
+                                Main.outbox.removed(txChainId, fullHash);
+                            final EventLatency txLatency = new EventLatency(event.getName(), waitTime);
+                            txLatency.enqueued();
+                            SwingUtilities.invokeAndWait(() -> {
+                                for (AccountState state : Main.accountStates.values()) {
+                                    if (state.removeUnconfirmedTransaction(txChainId, fullHash)) {
+                                        updatedAccounts.add(state.getAccountId());
+                                        if (state == Main.accountState)
+                                            mainWindow.updateTransactions(txChainId);
+                                    }
+                                }
+                                txLatency.applied();
+                            });
+                        }
+                    }
+                    break;
+                case "Block.BLOCK_POPPED":
+                    final long popBlockId = Utils.stringToId(event.getIds().get(0));
+                    latency.enqueued();
+                    SwingUtilities.invokeAndWait(() -> {
+                        for (AccountState state : Main.accountStates.values()) {
+                            if (state.popTransactions(popBlockId)) {
+                                updatedAccounts.add(state.getAccountId());
+                                if (state == Main.accountState)
+                                    mainWindow.updateTransactions();
+                            }
+                        }
+                        latency.applied();
+                    });
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Fetch a transaction from the server and add it to the transaction cache
+     *
+     * @param   chain                   Transaction chain
+     * @param   fullHash                Transaction full hash
+     * @return                          Transaction
+     * @throws  Exception               Unable to fetch the transaction
+     */
+    private Transaction fetchTransaction(Chain chain, byte[] fullHash) throws Exception {
+        Response response = WalletClient.await(Main.eventSource.getTransaction(fullHash, chain));
+        Transaction tx = new Transaction(response);
+        txCache.put(TransactionCache.getKey(chain.getId(), fullHash), tx);
+        return tx;
+    }
+
+    /**
+     * Confirm the cached transactions waiting for a pushed block.  A transaction is
+     * fetched from the server if we can't be sure it is in the pushed block.
+     *
+     * @param   blockId                 Pushed block identifier or 0 if the block is not the last block
+     * @param   updatedAccounts         Updated with the affected accounts
+     * @throws  Exception               Unable to confirm the transactions
+     */
+    private void confirmTransactions(long blockId, Set<Long> updatedAccounts) throws Exception {
+        if (pendingConfirmations.isEmpty())
+            return;
+        final int height = Main.blockHeight;
+        for (PendingConfirmation pending : pendingConfirmations) {
+            final Transaction tx = pending.getTransaction();
+            final EventLatency latency = pending.getLatency();
+            if (blockId != 0 && pending.getHeight() + 1 == height) {
+                latency.enqueued();
+                SwingUtilities.invokeAndWait(() -> {
+                    //
+                    // The transaction is confirmed before it is added to an account that
+                    // doesn't have it yet, so it isn't scheduled for an expiration check.
+                    // An account that already has the cached transaction has the same
+                    // transaction object, so it is changed even though confirmTransaction()
+                    // doesn't see a change.
+                    //
+                    boolean changed = (tx.getBlockId() != blockId);
+                    tx.setBlockId(blockId);
+                    tx.setHeight(height);
+                    for (AccountState state : getAccountStates(tx)) {
+                        updatedAccounts.add(state.getAccountId());
+                        if ((state.confirmTransaction(tx, blockId, height) || changed) &&
+                                state == Main.accountState)
+                            mainWindow.updateTransactions(tx.getChain().getId());
+                    }
+                    latency.applied();
+                });
+            } else {
+                final Transaction addedTx = fetchTransaction(tx.getChain(), tx.getFullHash());
+                latency.fetched();
+                latency.enqueued();
+                SwingUtilities.invokeAndWait(() -> {
+                    addTransaction(addedTx, updatedAccounts);
+                    latency.applied();
+                });
+            }
+        }
+        pendingConfirmations.clear();
+        if (Main.log.isDebugEnabled()) {
+            Main.log.debug(String.format("Transaction cache: %d hits, %d misses",
+                                         txCache.getHitCount(), txCache.getMissCount()));
+        }
+    }
+
+    /**
+     * Route a transaction to the affected account states
+     *
+     * This method must be called on the Swing event dispatch thread.
+     *
+     * @param   tx                  Transaction
+     * @param   updatedAccounts     Updated with the affected accounts
+     */
+    private void addTransaction(Transaction tx, Set<Long> updatedAccounts) {
+        for (AccountState state : getAccountStates(tx)) {
+            updatedAccounts.add(state.getAccountId());
+            if (state.addTransaction(tx) && state == Main.accountState)
+                mainWindow.updateTransactions(tx.getChain().getId());
+        }
+    }
+
+    /**
+     * Get the account states affected by a transaction
+     *
+     * The event registration covers all of the watched accounts, so the event doesn't
+     * tell us which account it was for.  A transaction that doesn't have a watched
+     * account as the sender or recipient (for example, a child block transaction
+     * created by a bundler) is not added to any account.
+     *
+     * @param   tx                  Transaction
+     * @return                      Affected account states
+     */
+    private List<AccountState> getAccountStates(Transaction tx) {
+        List<AccountState> states = new ArrayList<>(2);
+        AccountState state = Main.accountStates.get(tx.getSenderId());
+        if (state != null)
+            states.add(state);
+        if (tx.getRecipientId() != tx.getSenderId()) {
+            state = Main.accountStates.get(tx.getRecipientId());
+            if (state != null)
+                states.add(state);
+        }
+        return states;
+    }
+
+    /**
+     * Load a watched account
+     *
+     * @param   accountId               Account identifier
+     * @throws  Exception               Unable to load the account
+     */
+    private void loadAccount(long accountId) throws Exception {
+        if (Main.accountStates.containsKey(accountId))
+            return;
+        AccountState state = WalletClient.await(Main.eventSource.getAccount(accountId));
+        SwingUtilities.invokeAndWait(() -> Main.accountStates.putIfAbsent(accountId, state));
+        Main.log.debug(String.format("Account %s loaded", state.getAccountRsId()));
+    }
+
+    /**
+     * Reload a watched account after a node failure
+     *
+     * @param   accountId               Account identifier
+     * @throws  Exception               Unable to load the account
+     */
+    private void reloadAccount(long accountId) throws Exception {
+        AccountState state = WalletClient.await(Main.eventSource.getAccount(accountId));
+        SwingUtilities.invokeAndWait(() -> {
+            Main.accountStates.put(accountId, state);
+            if (Main.accountState != null && Main.accountState.getAccountId() == accountId) {
+                Main.accountState = state;
+                mainWindow.updateTransactions();
+                mainWindow.updateNodeStatus();
+            }
+        });
+        Main.log.debug(String.format("Account %s reloaded", state.getAccountRsId()));
+    }
+
+    /**
+     * Get the transaction events for a list of accounts
+     *
+     * @param   accountList             Account identifiers
+     * @return                          Event names
+     */
+    private static List<String> getEventList(Collection<Long> accountList) {
+        List<String> eventList = new ArrayList<>(accountList.size()*3 + 2);
+        for (Long accountId : accountList) {
+            String accountRsId = Utils.getAccountRsId(accountId);
+            eventList.add("Transaction.ADDED_CONFIRMED_TRANSACTIONS." + accountRsId);
+            eventList.add("Transaction.ADDED_UNCONFIRMED_TRANSACTIONS." + accountRsId);
+            eventList.add("Transaction.REMOVED_UNCONFIRMED_TRANSACTIONS." + accountRsId);
+        }
+        return eventList;
+    }
+
+    /**
+     * Cached transaction waiting for the block containing the transaction
+     */
+    private static class PendingConfirmation {
+
+        /** Transaction */
+        private final Transaction tx;
+
+        /** Block height when the confirmed transaction was reported */
+        private final int height;
+
+        /** Event latency timer */
+        private final EventLatency latency;
+
+        /**
+         * Create a pending confirmation
+         *
+         * @param   tx                  Transaction
+         * @param   height              Block height when the transaction was reported
+         * @param   latency             Event latency timer
+         */
+        public PendingConfirmation(Transaction tx, int height, EventLatency latency) {
+            this.tx = tx;
+            this.height = height;
+            this.latency = latency;
+        }
+
+        /**
+         * Get the transaction
+         *
+         * @return                      Transaction
+         */
+        public Transaction getTransaction() {
+            return tx;
+        }
+
+        /**
+         * Get the block height when the transaction was reported
+         *
+         * @return                      Block height
+         */
+        public int getHeight() {
+            return height;
+        }
+
+        /**
+         * Get the event latency timer
+         *
+         * @return                      Event latency timer
+         */
+        public EventLatency getLatency() {
+            return latency;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2017 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Wallet;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * EventLatency measures the time taken to apply a server event to the wallet.  The
+ * timer is started when the event wait returns and the following stages are timed:
+ * <ul>
+ * <li>Fetch - from the event wait return until the event details have been fetched
+ * <li>Dispatch - from queueing the update on the Swing event dispatch thread until
+ * the update is applied to the account state and table models
+ * <li>Total - from the event wait return until the update is applied
+ * </ul>
+ * A latency histogram is kept for each stage of each event type.
+ */
+public class EventLatency {
+
+    /** Fetch stage */
+    private static final int FETCH = 0;
+
+    /** Dispatch stage */
+    private static final int DISPATCH = 1;
+
+    /** Total latency */
+    private static final int TOTAL = 2;
+
+    /** Stage names */
+    private static final String[] stageNames = {"Fetch", "Dispatch", "Total"};
+
+    /** Reported percentiles */
+    private static final double[] percentiles = {50.0, 95.0, 99.0};
+
+    /** Latency histograms by event type */
+    private static final Map<String, LatencyHistogram[]> histogramMap = new TreeMap<>();
+
+    /** Event type */
+    private final String eventType;
+
+    /** Time the event wait returned (nanoseconds) */
+    private final long waitTime;
+
+    /** Time the event details were fetched (nanoseconds) */
+    private volatile long fetchTime;
+
+    /** Time the update was queued for the event dispatch thread (nanoseconds) */
+    private volatile long enqueueTime;
+
+    /**
+     * Start the latency timer for an event
+     *
+     * @param   eventType               Event type
+     * @param   waitTime                Time the event wait returned (System.nanoTime)
+     */
+    public EventLatency(String eventType, long waitTime) {
+        this.eventType = eventType;
+        this.waitTime = waitTime;
+    }
+
+    /**
+     * The event details have been fetched
+     */
+    public void fetched() {
+        fetchTime = System.nanoTime();
+    }
+
+    /**
+     * The update has been queued for the event dispatch thread
+     */
+    public void enqueued() {
+        enqueueTime = System.nanoTime();
+    }
+
+    /**
+     * The update has been applied.  This method is called on the event dispatch
+     * thread and records the event latencies.
+     */
+    public void applied() {
+        long applyTime = System.nanoTime();
+        LatencyHistogram[] histograms = getHistograms(eventType);
+        if (fetchTime != 0)
+            histograms[FETCH].record(fetchTime - waitTime);
+        if (enqueueTime != 0)
+            histograms[DISPATCH].record(applyTime - enqueueTime);
+        histograms[TOTAL].record(applyTime - waitTime);
+    }
+
+    /**
+     * Get the histograms for an event type
+     *
+     * @param   eventType               Event type
+     * @return                          Stage histograms
+     */
+    private static LatencyHistogram[] getHistograms(String eventType) {
+        synchronized(histogramMap) {
+            LatencyHistogram[] histograms = histogramMap.get(eventType);
+            if (histograms == null) {
+                histograms = new LatencyHistogram[stageNames.length];
+                for (int i=0; i<histograms.length; i++)
+                    histograms[i] = new LatencyHistogram();
+                histogramMap.put(eventType, histograms);
+            }
+            return histograms;
+        }
+    }
+
+    /**
+     * Get a copy of the histograms
+     *
+     * @return                          Histograms by event type
+     */
+    private static Map<String, LatencyHistogram[]> getHistogramMap() {
+        synchronized(histogramMap) {
+            return new TreeMap<>(histogramMap);
+        }
+    }
+
+    /**
+     * Log the latency percentiles for each event type
+     */
+    public static void logPercentiles() {
+        getHistogramMap().forEach((eventType, histograms) -> {
+            StringBuilder sb = new StringBuilder(128);
+            sb.append(String.format("Event latency %s: %d events", eventType, histograms[TOTAL].getCount()));
+            for (int i=0; i<histograms.length; i++) {
+                if (histograms[i].getCount() == 0)
+                    continue;
+                sb.append(String.format(", %s", stageNames[i]));
+                for (double percentile : percentiles)
+                    sb.append(String.format(" p%.0f=%.1fms", percentile, histograms[i].getPercentile(percentile)));
+            }
+            Main.log.info(sb.toString());
+        });
+    }
+
+    /**
+     * Get the latency report for the About dialog
+     *
+     * @return                          HTML table or an empty string if no events have been processed
+     */
+    public static String getReport() {
+        Map<String, LatencyHistogram[]> map = getHistogramMap();
+        if (map.isEmpty())
+            return "";
+        StringBuilder sb = new StringBuilder(1024);
+        sb.append("<table><tr><th align=left>Event</th><th align=left>Stage</th><th>Count</th>");
+        for (double percentile : percentiles)
+            sb.append(String.format("<th>p%.0f</th>", percentile));
+        sb.append("<th>Mean</th><th>Max</th></tr>");
+        map.forEach((eventType, histograms) -> {
+            for (int i=0; i<histograms.length; i++) {
+                LatencyHistogram histogram = histograms[i];
+                if (histogram.getCount() == 0)
+                    continue;
+                sb.append(String.format("<tr><td>%s</td><td>%s</td><td align=right>%d</td>",
+                        eventType, stageNames[i], histogram.getCount()));
+                for (double percentile : percentiles)
+                    sb.append(String.format("<td align=right>%.1f</td>", histogram.getPercentile(percentile)));
+                sb.append(String.format("<td align=right>%.1f</td><td align=right>%.1f</td></tr>",
+                        histogram.getMean(), histogram.getMax()));
+            }
+        });
+        sb.append("</table>");
+        return sb.toString();
+    }
+}
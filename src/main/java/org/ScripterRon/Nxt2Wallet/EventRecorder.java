@@ -0,0 +1,270 @@
+/*
+ * Copyright 2017 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Wallet;
+
+import org.ScripterRon.JSON.JSONArray;
+import org.ScripterRon.JSON.JSONObject;
+import org.ScripterRon.Nxt2API.Balance;
+import org.ScripterRon.Nxt2API.Chain;
+import org.ScripterRon.Nxt2API.Response;
+import org.ScripterRon.Nxt2API.Utils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * EventRecorder writes the server events and the server responses used to apply the
+ * events to a journal file.  The journal can then be replayed by EventReplay without
+ * a live node.
+ *
+ * Each record is written before the request future completes, so the journal
+ * records are in the order seen by the event handler.
+ *
+ * The journal is a GZIP-compressed file with one JSON object per line.  Each record
+ * has a 'type' and a 'time' (milliseconds since the start of the recording):
+ * <ul>
+ * <li>header - 'accounts' contains the watched accounts
+ * <li>wait - 'events' contains the events returned by eventWait
+ * <li>status - 'response' contains the getBlockchainStatus response
+ * <li>transaction - 'key' is the chain and full hash and 'response' contains the getTransaction response
+ * <li>balances - 'account' is the account and 'balances' contains the account balances
+ * </ul>
+ */
+public class EventRecorder implements EventSource {
+
+    /** Source for the recorded events */
+    private final EventSource source;
+
+    /** Journal writer */
+    private final Writer writer;
+
+    /** Recording start time (nanoseconds) */
+    private final long startTime = System.nanoTime();
+
+    /** Journal is closed */
+    private boolean journalClosed = false;
+
+    /**
+     * Create the event recorder
+     *
+     * @param   source                  Source for the recorded events
+     * @param   journalFile             Journal file
+     * @throws  IOException             Unable to create the journal file
+     */
+    @SuppressWarnings("unchecked")
+    public EventRecorder(EventSource source, File journalFile) throws IOException {
+        this.source = source;
+        this.writer = new BufferedWriter(new OutputStreamWriter(
+                new GZIPOutputStream(new FileOutputStream(journalFile), 8192, true), StandardCharsets.UTF_8));
+        JSONObject<String, Object> record = createRecord("header");
+        JSONArray<String> accountList = new JSONArray<>();
+        Main.accounts.forEach(accountId -> accountList.add(Utils.idToString(accountId)));
+        record.put("accounts", accountList);
+        writeRecord(record, null, false);
+        Main.log.info("Recording server events to " + journalFile.getPath());
+    }
+
+    /**
+     * Shutdown the event recorder and close the journal
+     */
+    @Override
+    public synchronized void shutdown() {
+        if (journalClosed)
+            return;
+        journalClosed = true;
+        try {
+            writer.close();
+        } catch (IOException exc) {
+            Main.log.error("Unable to close the event journal", exc);
+        }
+    }
+
+    /**
+     * Switch to another node after a request failure
+     *
+     * @return                          TRUE if the events can be registered again
+     */
+    @Override
+    public boolean failover() {
+        return source.failover();
+    }
+
+    /**
+     * Register server events
+     *
+     * @param   eventList               Event names
+     * @param   token                   Event token or 0 for a new registration
+     * @param   add                     TRUE to add the events to an existing registration
+     * @param   remove                  TRUE to remove the events from an existing registration
+     * @return                          Future for the server response
+     */
+    @Override
+    public CompletableFuture<Response> eventRegister(List<String> eventList, long token,
+                                                     boolean add, boolean remove) {
+        return source.eventRegister(eventList, token, add, remove);
+    }
+
+    /**
+     * Wait for server events
+     *
+     * @param   token                   Event token
+     * @param   timeout                 Wait timeout (seconds)
+     * @return                          Future for the server events
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public CompletableFuture<List<NodeEvent>> eventWait(long token, int timeout) {
+        return source.eventWait(token, timeout).thenApply(eventList -> {
+            if (eventList.isEmpty())
+                return eventList;
+            JSONObject<String, Object> record = createRecord("wait");
+            JSONArray<JSONObject<String, Object>> events = new JSONArray<>();
+            eventList.forEach(event -> {
+                JSONObject<String, Object> eventObject = new JSONObject<>();
+                JSONArray<String> ids = new JSONArray<>();
+                ids.addAll(event.getIds());
+                eventObject.put("name", event.getName());
+                eventObject.put("ids", ids);
+                events.add(eventObject);
+            });
+            record.put("events", events);
+            writeRecord(record, null, true);
+            return eventList;
+        });
+    }
+
+    /**
+     * Get the blockchain status
+     *
+     * @return                          Future for the server response
+     */
+    @Override
+    public CompletableFuture<Response> getBlockchainStatus() {
+        return source.getBlockchainStatus().thenApply(response -> {
+            writeRecord(createRecord("status"), response, false);
+            return response;
+        });
+    }
+
+    /**
+     * Get a transaction
+     *
+     * @param   fullHash                Transaction full hash
+     * @param   chain                   Transaction chain
+     * @return                          Future for the server response
+     */
+    @Override
+    public CompletableFuture<Response> getTransaction(byte[] fullHash, Chain chain) {
+        return source.getTransaction(fullHash, chain).thenApply(response -> {
+            JSONObject<String, Object> record = createRecord("transaction");
+            record.put("key", TransactionCache.getKey(chain.getId(), fullHash));
+            writeRecord(record, response, false);
+            return response;
+        });
+    }
+
+    /**
+     * Get the account balances for all chains
+     *
+     * @param   accountId               Account identifier
+     * @return                          Future for the account balances
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public CompletableFuture<Map<Integer, Balance>> getBalances(long accountId) {
+        return source.getBalances(accountId).thenApply(balances -> {
+            JSONObject<String, Object> record = createRecord("balances");
+            JSONObject<String, Object> balanceObject = new JSONObject<>();
+            balances.forEach((chainId, balance) -> {
+                JSONObject<String, Object> chainBalance = new JSONObject<>();
+                chainBalance.put("balanceNQT", Long.toString(balance.getBalance()));
+                chainBalance.put("unconfirmedBalanceNQT", Long.toString(balance.getUnconfirmedBalance()));
+                balanceObject.put(chainId.toString(), chainBalance);
+            });
+            record.put("account", Utils.idToString(accountId));
+            record.put("balances", balanceObject);
+            writeRecord(record, null, false);
+            return balances;
+        });
+    }
+
+    /**
+     * Get the account information, transactions and balances.  The account information
+     * is not recorded since the replay starts with empty accounts.
+     *
+     * @param   accountId               Account identifier
+     * @return                          Future for the account state
+     */
+    @Override
+    public CompletableFuture<AccountState> getAccount(long accountId) {
+        return source.getAccount(accountId);
+    }
+
+    /**
+     * Create a journal record
+     *
+     * @param   type                    Record type
+     * @return                          Journal record
+     */
+    @SuppressWarnings("unchecked")
+    private JSONObject<String, Object> createRecord(String type) {
+        JSONObject<String, Object> record = new JSONObject<>();
+        record.put("type", type);
+        record.put("time", (System.nanoTime() - startTime) / 1000000);
+        return record;
+    }
+
+    /**
+     * Write a journal record
+     *
+     * The server response is appended to the record as the 'response' object
+     * without parsing the response again.
+     *
+     * @param   record                  Journal record
+     * @param   response                Server response or null
+     * @param   flush                   TRUE to flush the journal
+     */
+    private synchronized void writeRecord(JSONObject<String, Object> record, Response response, boolean flush) {
+        if (journalClosed)
+            return;
+        try {
+            String json = record.toJSONString();
+            if (response != null) {
+                writer.write(json, 0, json.length() - 1);
+                writer.write(",\"response\":");
+                writer.write(response.toJSONString());
+                writer.write("}");
+            } else {
+                writer.write(json);
+            }
+            writer.write("\n");
+            if (flush)
+                writer.flush();
+        } catch (IOException exc) {
+            Main.log.error("Unable to write the event journal - recording stopped", exc);
+            journalClosed = true;
+        }
+    }
+}
@@ -0,0 +1,391 @@
+/*
+ * Copyright 2017 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Wallet;
+
+import org.ScripterRon.JSON.JSONParser;
+import org.ScripterRon.Nxt2API.Balance;
+import org.ScripterRon.Nxt2API.Chain;
+import org.ScripterRon.Nxt2API.Nxt;
+import org.ScripterRon.Nxt2API.Response;
+import org.ScripterRon.Nxt2API.Utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * EventReplay replays an event journal written by EventRecorder.  The recorded events
+ * are returned by eventWait at the recorded times divided by the replay speed and the
+ * recorded server responses are returned for the requests made by the event handler.
+ * A replay speed of 0 returns the events as fast as the wallet can process them.
+ *
+ * The replay lag is the time between the scheduled delivery of an event batch and
+ * the event wait request for the batch.  The lag increases when the wallet can't keep
+ * up with the replay speed.  The event rate and the lag are logged periodically and
+ * when the replay is complete.
+ */
+public class EventReplay implements EventSource {
+
+    /** Statistics report interval (nanoseconds) */
+    private static final long REPORT_INTERVAL = 10 * 1000000000L;
+
+    /** Replay speed multiple */
+    private final double speed;
+
+    /** Recorded event batches */
+    private final ArrayDeque<WaitRecord> waitRecords = new ArrayDeque<>();
+
+    /** Recorded blockchain status responses */
+    private final ArrayDeque<Response> statusResponses = new ArrayDeque<>();
+
+    /** Recorded transaction responses */
+    private final Map<String, ArrayDeque<Response>> transactionResponses = new HashMap<>();
+
+    /** Recorded account balances */
+    private final Map<Long, ArrayDeque<Map<Integer, Balance>>> balanceResponses = new HashMap<>();
+
+    /** Replay timer */
+    private final ScheduledExecutorService timer;
+
+    /** Replay lag */
+    private final LatencyHistogram lagHistogram = new LatencyHistogram();
+
+    /** Pending event wait */
+    private CompletableFuture<List<NodeEvent>> pendingWait;
+
+    /** Replay stopped */
+    private boolean stopped = false;
+
+    /** Replay start time (nanoseconds) */
+    private long startTime;
+
+    /** Time of the first recorded event batch (milliseconds) */
+    private long firstRecordTime;
+
+    /** Time of the last statistics report (nanoseconds) */
+    private long reportTime;
+
+    /** Number of replayed events */
+    private long eventCount;
+
+    /**
+     * Load an event journal
+     *
+     * @param   journalFile             Journal file
+     * @param   speed                   Replay speed multiple or 0 to replay without delays
+     * @throws  IOException             Unable to read the journal file
+     */
+    @SuppressWarnings("unchecked")
+    public EventReplay(File journalFile, double speed) throws IOException {
+        this.speed = speed;
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new FileInputStream(journalFile)), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line=in.readLine()) != null) {
+                Object value = JSONParser.parse(line);
+                if (!(value instanceof Map))
+                    throw new IOException("Invalid event journal record");
+                Map<String, Object> record = (Map<String, Object>)value;
+                long time = ((Number)record.get("time")).longValue();
+                switch ((String)record.get("type")) {
+                    case "wait":
+                        List<NodeEvent> eventList = new ArrayList<>();
+                        for (Object event : (List<Object>)record.get("events")) {
+                            Map<String, Object> eventObject = (Map<String, Object>)event;
+                            eventList.add(new NodeEvent((String)eventObject.get("name"),
+                                                        (List<String>)eventObject.get("ids")));
+                        }
+                        waitRecords.add(new WaitRecord(time, eventList));
+                        break;
+                    case "status":
+                        statusResponses.add(JsonResponse.toResponse(record.get("response")));
+                        break;
+                    case "transaction":
+                        transactionResponses.computeIfAbsent((String)record.get("key"), k -> new ArrayDeque<>())
+                                .add(JsonResponse.toResponse(record.get("response")));
+                        break;
+                    case "balances":
+                        Map<Integer, Balance> balances = new HashMap<>();
+                        ((Map<String, Object>)record.get("balances")).forEach((chainId, balance) -> {
+                            try {
+                                balances.put(Integer.valueOf(chainId),
+                                             new Balance(JsonResponse.toResponse(balance)));
+                            } catch (IOException exc) {
+                                throw new IllegalArgumentException("Invalid account balance", exc);
+                            }
+                        });
+                        balanceResponses.computeIfAbsent(
+                                Long.parseUnsignedLong((String)record.get("account")), k -> new ArrayDeque<>())
+                                .add(balances);
+                        break;
+                }
+            }
+        } catch (ClassCastException | IllegalArgumentException | NullPointerException exc) {
+            throw new IOException("Event journal is not valid", exc);
+        }
+        timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Event Replay");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Main.log.info(String.format("Replaying %,d event batches from %s at speed %s",
+                waitRecords.size(), journalFile.getPath(), (speed > 0 ? Double.toString(speed) : "unlimited")));
+    }
+
+    /**
+     * Shutdown the event replay
+     */
+    @Override
+    public synchronized void shutdown() {
+        stopWait();
+        timer.shutdownNow();
+    }
+
+    /**
+     * Register server events.  The replay token is returned for a new registration
+     * and removing all events stops the replay.
+     *
+     * @param   eventList               Event names
+     * @param   token                   Event token or 0 for a new registration
+     * @param   add                     TRUE to add the events to an existing registration
+     * @param   remove                  TRUE to remove the events from an existing registration
+     * @return                          Future for the server response
+     */
+    @Override
+    public CompletableFuture<Response> eventRegister(List<String> eventList, long token,
+                                                     boolean add, boolean remove) {
+        if (remove && eventList.isEmpty())
+            stopWait();
+        Map<String, Object> response = new HashMap<>();
+        response.put("token", 1L);
+        response.put("registered", true);
+        return CompletableFuture.completedFuture(new Response(response));
+    }
+
+    /**
+     * Wait for server events.  The next recorded event batch is returned at its
+     * scheduled time.  The wait times out with no events once the journal has been
+     * replayed.
+     *
+     * @param   token                   Event token
+     * @param   timeout                 Wait timeout (seconds)
+     * @return                          Future for the server events
+     */
+    @Override
+    public synchronized CompletableFuture<List<NodeEvent>> eventWait(long token, int timeout) {
+        CompletableFuture<List<NodeEvent>> future = new CompletableFuture<>();
+        if (stopped) {
+            future.complete(Collections.emptyList());
+            return future;
+        }
+        long now = System.nanoTime();
+        WaitRecord record = waitRecords.poll();
+        if (record == null) {
+            if (eventCount != 0) {
+                report(now);
+                Main.log.info("Event replay completed");
+                eventCount = 0;
+            }
+            pendingWait = future;
+            timer.schedule(() -> future.complete(Collections.emptyList()), timeout, TimeUnit.SECONDS);
+            return future;
+        }
+        if (startTime == 0) {
+            startTime = now;
+            reportTime = now;
+            firstRecordTime = record.getTime();
+        }
+        long dueTime = (speed > 0 ?
+                startTime + (long)((record.getTime() - firstRecordTime) * 1000000.0 / speed) : now);
+        lagHistogram.record(Math.max(0, now - dueTime));
+        eventCount += record.getEvents().stream().mapToInt(event -> event.getIds().size()).sum();
+        if (now - reportTime >= REPORT_INTERVAL) {
+            report(now);
+            reportTime = now;
+        }
+        if (dueTime <= now) {
+            future.complete(record.getEvents());
+        } else {
+            pendingWait = future;
+            timer.schedule(() -> future.complete(record.getEvents()), dueTime - now, TimeUnit.NANOSECONDS);
+        }
+        return future;
+    }
+
+    /**
+     * Get the blockchain status.  The recorded responses are returned in order and
+     * the last response is repeated once all of the responses have been returned.
+     *
+     * @return                          Future for the server response
+     */
+    @Override
+    public synchronized CompletableFuture<Response> getBlockchainStatus() {
+        return getRecorded(statusResponses, "Blockchain status");
+    }
+
+    /**
+     * Get a transaction
+     *
+     * @param   fullHash                Transaction full hash
+     * @param   chain                   Transaction chain
+     * @return                          Future for the server response
+     */
+    @Override
+    public synchronized CompletableFuture<Response> getTransaction(byte[] fullHash, Chain chain) {
+        return getRecorded(transactionResponses.get(TransactionCache.getKey(chain.getId(), fullHash)),
+                           "Transaction " + Utils.toHexString(fullHash));
+    }
+
+    /**
+     * Get the account balances for all chains
+     *
+     * @param   accountId               Account identifier
+     * @return                          Future for the account balances
+     */
+    @Override
+    public synchronized CompletableFuture<Map<Integer, Balance>> getBalances(long accountId) {
+        ArrayDeque<Map<Integer, Balance>> queue = balanceResponses.get(accountId);
+        if (queue == null || queue.isEmpty())
+            return CompletableFuture.completedFuture(getEmptyBalances());
+        return getRecorded(queue, "Account balances");
+    }
+
+    /**
+     * Get the account information.  The replay starts with no account transactions and
+     * the first recorded balances for the account.
+     *
+     * @param   accountId               Account identifier
+     * @return                          Future for the account state
+     */
+    @Override
+    public synchronized CompletableFuture<AccountState> getAccount(long accountId) {
+        ArrayDeque<Map<Integer, Balance>> queue = balanceResponses.get(accountId);
+        Map<Integer, Balance> balances = (queue != null && !queue.isEmpty() ? queue.peek() : getEmptyBalances());
+        return CompletableFuture.completedFuture(
+                new AccountState(accountId, null, new ArrayList<>(), balances));
+    }
+
+    /**
+     * Get the next recorded response.  The last response is not removed from the queue
+     * so it is returned for any additional requests.
+     *
+     * @param   <T>                     Response type
+     * @param   queue                   Recorded responses or null
+     * @param   name                    Response name
+     * @return                          Future for the response
+     */
+    private static <T> CompletableFuture<T> getRecorded(ArrayDeque<T> queue, String name) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        if (queue == null || queue.isEmpty())
+            future.completeExceptionally(new IOException(name + " is not in the event journal"));
+        else
+            future.complete(queue.size() > 1 ? queue.poll() : queue.peek());
+        return future;
+    }
+
+    /**
+     * Get zero balances for all chains
+     *
+     * @return                          Account balances
+     */
+    private static Map<Integer, Balance> getEmptyBalances() {
+        Map<Integer, Balance> balances = new HashMap<>();
+        for (Chain chain : Nxt.getAllChains()) {
+            Map<String, Object> balance = new HashMap<>();
+            balance.put("balanceNQT", "0");
+            balance.put("unconfirmedBalanceNQT", "0");
+            balances.put(chain.getId(), new Balance(new Response(balance)));
+        }
+        return balances;
+    }
+
+    /**
+     * Complete the pending event wait and stop the replay
+     */
+    private synchronized void stopWait() {
+        stopped = true;
+        if (pendingWait != null)
+            pendingWait.complete(Collections.emptyList());
+    }
+
+    /**
+     * Log the replay statistics
+     *
+     * @param   now                     Current time (nanoseconds)
+     */
+    private void report(long now) {
+        double elapsed = (double)(now - startTime) / 1000000000.0;
+        Main.log.info(String.format("Event replay: %,d events in %.1f seconds (%.1f events/sec), "
+                        + "lag p50=%.1fms p95=%.1fms max=%.1fms", eventCount, elapsed,
+                (elapsed > 0 ? (double)eventCount / elapsed : 0.0),
+                lagHistogram.getPercentile(50.0), lagHistogram.getPercentile(95.0), lagHistogram.getMax()));
+    }
+
+    /**
+     * Recorded event batch
+     */
+    private static class WaitRecord {
+
+        /** Recording time (milliseconds) */
+        private final long time;
+
+        /** Events */
+        private final List<NodeEvent> events;
+
+        /**
+         * Create an event batch
+         *
+         * @param   time                Recording time (milliseconds)
+         * @param   events              Events
+         */
+        public WaitRecord(long time, List<NodeEvent> events) {
+            this.time = time;
+            this.events = events;
+        }
+
+        /**
+         * Get the recording time
+         *
+         * @return                      Recording time (milliseconds)
+         */
+        public long getTime() {
+            return time;
+        }
+
+        /**
+         * Get the events
+         *
+         * @return                      Events
+         */
+        public List<NodeEvent> getEvents() {
+            return events;
+        }
+    }
+}
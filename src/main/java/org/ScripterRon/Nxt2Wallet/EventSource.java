@@ -0,0 +1,100 @@
+/*
+ * Copyright 2017 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Wallet;
+
+import org.ScripterRon.Nxt2API.Balance;
+import org.ScripterRon.Nxt2API.Chain;
+import org.ScripterRon.Nxt2API.Response;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * EventSource provides the server events and the server requests used by the event
+ * handler to apply the events.  The wallet client is the event source for a live
+ * node.  The event recorder and the event replay driver are used to record the
+ * event stream and replay it later without a node.
+ */
+public interface EventSource {
+
+    /**
+     * Register server events
+     *
+     * @param   eventList               Event names
+     * @param   token                   Event token or 0 for a new registration
+     * @param   add                     TRUE to add the events to an existing registration
+     * @param   remove                  TRUE to remove the events from an existing registration
+     * @return                          Future for the server response
+     */
+    CompletableFuture<Response> eventRegister(List<String> eventList, long token, boolean add, boolean remove);
+
+    /**
+     * Wait for server events
+     *
+     * @param   token                   Event token
+     * @param   timeout                 Wait timeout (seconds)
+     * @return                          Future for the server events
+     */
+    CompletableFuture<List<NodeEvent>> eventWait(long token, int timeout);
+
+    /**
+     * Get the blockchain status
+     *
+     * @return                          Future for the server response
+     */
+    CompletableFuture<Response> getBlockchainStatus();
+
+    /**
+     * Get a transaction
+     *
+     * @param   fullHash                Transaction full hash
+     * @param   chain                   Transaction chain
+     * @return                          Future for the server response
+     */
+    CompletableFuture<Response> getTransaction(byte[] fullHash, Chain chain);
+
+    /**
+     * Get the account balances for all chains
+     *
+     * @param   accountId               Account identifier
+     * @return                          Future for the account balances
+     */
+    CompletableFuture<Map<Integer, Balance>> getBalances(long accountId);
+
+    /**
+     * Get the account information, transactions and balances
+     *
+     * @param   accountId               Account identifier
+     * @return                          Future for the account state
+     */
+    CompletableFuture<AccountState> getAccount(long accountId);
+
+    /**
+     * Switch to another node after a request failure.  The events must be registered
+     * again since the event registration belongs to the failed node.
+     *
+     * @return                          TRUE if the events can be registered again
+     */
+    default boolean failover() {
+        return false;
+    }
+
+    /**
+     * Shutdown the event source
+     */
+    void shutdown();
+}
@@ -17,15 +17,15 @@ package org.ScripterRon.Nxt2Wallet;
 
 import org.ScripterRon.Nxt2API.CoinExchangeAttachment;
 import org.ScripterRon.Nxt2API.Chain;
-import org.ScripterRon.Nxt2API.Crypto;
-import org.ScripterRon.Nxt2API.KeyException;
 import org.ScripterRon.Nxt2API.Nxt;
 import org.ScripterRon.Nxt2API.Response;
 import org.ScripterRon.Nxt2API.Transaction;
 import org.ScripterRon.Nxt2API.Utils;
 
-import java.io.IOException;
 import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 import java.awt.Dialog;
 import java.awt.event.ActionEvent;
@@ -42,11 +42,13 @@ import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JTextField;
 import javax.swing.WindowConstants;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 
 /**
  * ExchangeCoinsDialog will create a new transaction to exchange coins
  */
-public class ExchangeCoinsDialog extends JDialog implements ActionListener, ItemListener {
+public class ExchangeCoinsDialog extends JDialog implements ActionListener, ItemListener, DocumentListener {
 
     /** Chain field */
     private final JComboBox<String> chainField;
@@ -60,6 +62,9 @@ public class ExchangeCoinsDialog extends JDialog implements ActionListener, Item
     /** Fee field */
     private final JTextField feeField;
 
+    /** Fee estimate field */
+    private final JLabel estimateField;
+
     /** Exchange rate field */
     private final JTextField rateField;
 
@@ -81,6 +86,18 @@ public class ExchangeCoinsDialog extends JDialog implements ActionListener, Item
     /** Exchange rate */
     private long exchangeRate = 0;
 
+    /** Rate suggested from the bundler rates */
+    private String suggestedRate = "";
+
+    /** Bundler rate listener */
+    private final Consumer<Map<Integer, Long>> rateListener = this::ratesChanged;
+
+    /** Pending Nxt API request */
+    private CompletableFuture<Response> pendingRequest;
+
+    /** Check the node fee against the estimated fee */
+    private boolean checkFee;
+
     /**
      * Create the dialog
      *
@@ -135,6 +152,8 @@ public class ExchangeCoinsDialog extends JDialog implements ActionListener, Item
         JPanel feePane = new JPanel();
         feePane.add(new JLabel("Fee  ", JLabel.RIGHT));
         feePane.add(feeField);
+        estimateField = new JLabel(" ");
+        feePane.add(estimateField);
         //
         // Create the buttons (Send, Done)
         //
@@ -155,8 +174,11 @@ public class ExchangeCoinsDialog extends JDialog implements ActionListener, Item
         contentPane.add(Box.createVerticalStrut(15));
         if (!chain.getName().equals(Nxt.FXT_CHAIN)) {
             Long rate = Main.bundlerRates.get(chain.getId());
-            if (rate != null)
-                rateField.setText(Utils.nqtToString(rate, chain.getDecimals()));
+            if (rate != null) {
+                suggestedRate = Utils.nqtToString(rate, chain.getDecimals());
+                rateField.setText(suggestedRate);
+            }
+            Main.rateRefresher.addListener(rateListener);
             contentPane.add(ratePane);
             contentPane.add(Box.createVerticalStrut(15));
             if (((String)chainField.getSelectedItem()).equals(Nxt.FXT_CHAIN))
@@ -166,6 +188,12 @@ public class ExchangeCoinsDialog extends JDialog implements ActionListener, Item
         contentPane.add(Box.createVerticalStrut(15));
         contentPane.add(buttonPane);
         setContentPane(contentPane);
+        //
+        // Update the fee estimate as the fields are changed
+        //
+        rateField.getDocument().addDocumentListener(this);
+        feeField.getDocument().addDocumentListener(this);
+        updateEstimate();
     }
 
     /**
@@ -185,6 +213,31 @@ public class ExchangeCoinsDialog extends JDialog implements ActionListener, Item
         }
     }
 
+    /**
+     * Update the suggested rate when the bundler rates change.  The rate is not
+     * changed if it has been modified by the user.
+     *
+     * @param   rates           New bundler rates
+     */
+    private void ratesChanged(Map<Integer, Long> rates) {
+        Long rate = rates.get(chain.getId());
+        if (rate == null)
+            return;
+        String rateText = Utils.nqtToString(rate, chain.getDecimals());
+        if (rateField.getText().trim().equals(suggestedRate))
+            rateField.setText(rateText);
+        suggestedRate = rateText;
+    }
+
+    /**
+     * Dispose of the dialog
+     */
+    @Override
+    public void dispose() {
+        Main.rateRefresher.removeListener(rateListener);
+        super.dispose();
+    }
+
     /**
      * Action performed (ActionListener interface)
      *
@@ -200,20 +253,12 @@ public class ExchangeCoinsDialog extends JDialog implements ActionListener, Item
             String action = ae.getActionCommand();
             switch (action) {
                 case "exchange":
-                    if (checkFields()) {
-                        if (exchangeCoins()) {
-                            JOptionPane.showMessageDialog(this,
-                                    "Order to exchange " + chain.getName()
-                                    + " for " + exchangeChain.getName() + " submitted",
-                                    "Order Submitted", JOptionPane.INFORMATION_MESSAGE);
-                        } else {
-                            JOptionPane.showMessageDialog(this,
-                                    "Exchange order was not submitted",
-                                    "Order Not Submitted", JOptionPane.INFORMATION_MESSAGE);
-                        }
-                    }
+                    if (pendingRequest == null && checkFields() && !exchangeCoins())
+                        orderNotSubmitted();
                     break;
                 case "done":
+                    if (pendingRequest != null)
+                        pendingRequest.cancel(true);
                     setVisible(false);
                     dispose();
                     break;
@@ -238,9 +283,67 @@ public class ExchangeCoinsDialog extends JDialog implements ActionListener, Item
             } else {
                 rateField.setEnabled(true);
             }
+            updateEstimate();
         }
     }
 
+    /**
+     * Text inserted (DocumentListener interface)
+     *
+     * @param   de              Document event
+     */
+    @Override
+    public void insertUpdate(DocumentEvent de) {
+        updateEstimate();
+    }
+
+    /**
+     * Text removed (DocumentListener interface)
+     *
+     * @param   de              Document event
+     */
+    @Override
+    public void removeUpdate(DocumentEvent de) {
+        updateEstimate();
+    }
+
+    /**
+     * Attributes changed (DocumentListener interface)
+     *
+     * @param   de              Document event
+     */
+    @Override
+    public void changedUpdate(DocumentEvent de) {
+    }
+
+    /**
+     * Update the fee estimate.  The estimated fee is shown if a fee has not been entered,
+     * otherwise the minimum fee is shown.  The order is an ARDR transaction if either
+     * chain is ARDR.
+     */
+    private void updateEstimate() {
+        String text;
+        try {
+            boolean fxtChain = (chain.getName().equals(Nxt.FXT_CHAIN) ||
+                                ((String)chainField.getSelectedItem()).equals(Nxt.FXT_CHAIN));
+            Chain txChain = (fxtChain ? Nxt.getChain(Nxt.FXT_CHAIN) : chain);
+            long fee = Utils.stringToNQT(feeField.getText().trim(), txChain.getDecimals());
+            long rate = (fxtChain ? 0 : Utils.stringToNQT(rateField.getText().trim(), chain.getDecimals()));
+            FeeEstimator.Estimate estimate = Main.feeEstimator.estimate(
+                    (fxtChain ? TransactionBytes.FXT_ORDER_ISSUE : TransactionBytes.CHILD_ORDER_ISSUE),
+                    fxtChain, 0, rate);
+            if (estimate == null)
+                text = (fee != 0 ? " " : "Enter a fee or an exchange rate");
+            else
+                text = String.format("%s %s %s", (fee != 0 ? "Minimum fee" : "Fee"),
+                                     Utils.nqtToString(estimate.getFee(), txChain.getDecimals()),
+                                     txChain.getName());
+        } catch (ArithmeticException | NumberFormatException exc) {
+            text = " ";
+        }
+        estimateField.setText(text);
+    }
+
     /**
      * Verify the fields
      *
@@ -311,32 +414,47 @@ public class ExchangeCoinsDialog extends JDialog implements ActionListener, Item
     }
 
     /**
-     * Create and broadcast the transaction
+     * Create the transaction.  The transaction is created in the background and
+     * then verified and broadcast when the server response is received.
      *
-     * @return                      TRUE if the exchange order was sent
+     * @return                      TRUE if the transaction request was submitted
      */
     private boolean exchangeCoins() {
         //
-        // Get the secret phrase
+        // Get the session key
         //
-        String secretPhrase;
-        if (Main.passPhrase.length() == 0) {
-            secretPhrase = JOptionPane.showInputDialog(this, "Enter your secret phrase");
-            if (secretPhrase == null || secretPhrase.length() == 0)
-                return false;
-            Main.passPhrase = secretPhrase;
-        } else {
-            secretPhrase = Main.passPhrase;
-        }
+        SessionKey sessionKey = Main.sessionKeys.getKey(this);
+        if (sessionKey == null)
+            return false;
         //
         // Create the transaction
         //
-        boolean broadcasted = false;
+        byte[] publicKey = sessionKey.getPublicKey();
+        checkFee = (exchangeFee == 0);
+        pendingRequest = Main.client.exchangeCoins(chain, exchangeChain,
+                exchangeAmount, exchangePrice,
+                (exchangeFee != 0 ? exchangeFee : -1), exchangeRate, publicKey);
+        WalletClient.invokeLater(pendingRequest, (response, exc) -> {
+            pendingRequest = null;
+            if (exc != null) {
+                Main.log.error("Unable to exchange coins", exc);
+                Main.logException("Unable to exchange coins", exc);
+                orderNotSubmitted();
+            } else if (!broadcastOrder(response)) {
+                orderNotSubmitted();
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Verify and broadcast the transaction
+     *
+     * @param   response            ExchangeCoins response
+     * @return                      TRUE if the transaction broadcast was submitted
+     */
+    private boolean broadcastOrder(Response response) {
         try {
-            byte[] publicKey = Crypto.getPublicKey(secretPhrase);
-            Response response = Nxt.exchangeCoins(chain, exchangeChain,
-                    exchangeAmount, exchangePrice,
-                    (exchangeFee != 0 ? exchangeFee : -1), exchangeRate, publicKey);
             byte[] txBytes = response.getHexString("unsignedTransactionBytes");
             Transaction tx = new Transaction(txBytes);
             CoinExchangeAttachment.OrderIssueAttachment attachment =
@@ -350,9 +468,13 @@ public class ExchangeCoinsDialog extends JDialog implements ActionListener, Item
                                               "Error", JOptionPane.ERROR_MESSAGE);
                 return false;
             }
-            Chain txChain = (chain.getName().equals(Nxt.FXT_CHAIN) ||
-                                exchangeChain.getName().equals(Nxt.FXT_CHAIN) ?
-                                Nxt.getChain(Nxt.FXT_CHAIN) : chain);
+            boolean fxtChain = (chain.getName().equals(Nxt.FXT_CHAIN) ||
+                                exchangeChain.getName().equals(Nxt.FXT_CHAIN));
+            Chain txChain = (fxtChain ? Nxt.getChain(Nxt.FXT_CHAIN) : chain);
+            if (checkFee)
+                Main.feeEstimator.check(
+                        (fxtChain ? TransactionBytes.FXT_ORDER_ISSUE : TransactionBytes.CHILD_ORDER_ISSUE),
+                        fxtChain, 0, exchangeRate, exchangeFee);
             String confirmText = String.format("Do you want to exchange %s for %s %s with %s %s fee?",
                     chain.getName(),
                     Utils.nqtToString(exchangeAmount, exchangeChain.getDecimals()), exchangeChain.getName(),
@@ -361,18 +483,37 @@ public class ExchangeCoinsDialog extends JDialog implements ActionListener, Item
                             JOptionPane.YES_NO_OPTION,
                             JOptionPane.QUESTION_MESSAGE) != JOptionPane.YES_OPTION)
                 return false;
-            Nxt.broadcastTransaction(txBytes, secretPhrase);
-            broadcasted = true;
-        } catch (KeyException exc) {
-            Main.log.error("Unable to sign transaction", exc);
-            Main.logException("Unable to sign transaction", exc);
-        } catch (IOException exc) {
-            Main.log.error("Unable to exchange coins", exc);
-            Main.logException("Unable to exchange coins", exc);
+            SessionKey sessionKey = Main.sessionKeys.getKey(this);
+            if (sessionKey == null)
+                return false;
+            pendingRequest = Main.client.broadcastTransaction(txBytes, null, sessionKey);
+            WalletClient.invokeLater(pendingRequest, (broadcastResponse, exc) -> {
+                pendingRequest = null;
+                if (exc != null) {
+                    Main.log.error("Unable to exchange coins", exc);
+                    Main.logException("Unable to exchange coins", exc);
+                    orderNotSubmitted();
+                } else {
+                    JOptionPane.showMessageDialog(this,
+                            "Order to exchange " + chain.getName()
+                            + " for " + exchangeChain.getName() + " submitted",
+                            "Order Submitted", JOptionPane.INFORMATION_MESSAGE);
+                }
+            });
         } catch (Exception exc) {
             Main.log.error("Exception while exchanging coins", exc);
             Main.logException("Exception while exchanging coins", exc);
+            return false;
         }
-        return broadcasted;
+        return true;
+    }
+
+    /**
+     * Tell the user that the exchange order was not submitted
+     */
+    private void orderNotSubmitted() {
+        JOptionPane.showMessageDialog(this,
+                "Exchange order was not submitted",
+                "Order Not Submitted", JOptionPane.INFORMATION_MESSAGE);
     }
 }
@@ -21,7 +21,12 @@ import org.ScripterRon.Nxt2API.Response;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 import java.awt.Color;
 import java.awt.Dialog;
@@ -32,6 +37,7 @@ import javax.swing.BoxLayout;
 import javax.swing.ListSelectionModel;
 import javax.swing.JDialog;
 import javax.swing.JFrame;
+import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JTable;
@@ -41,7 +47,9 @@ import javax.swing.table.TableRowSorter;
 
 /**
  * ExchangeDialog displays a table of exchange offers a coin and allows
- * the user to issue a matching exchange order.
+ * the user to issue a matching exchange order.  The table is shown
+ * from the order book without waiting for the node and is updated
+ * while the dialog is open.  The status line shows how old the orders are.
  */
 public class ExchangeDialog extends JDialog implements ActionListener {
 
@@ -65,21 +73,39 @@ public class ExchangeDialog extends JDialog implements ActionListener {
     /** Chain */
     private final Chain chain;
 
+    /** Order book */
+    private final OrderBook orderBook;
+
+    /** Order book listener */
+    private final Consumer<OrderBook.Update> orderListener;
+
+    /** Order book status */
+    private final JLabel statusField;
+
     /**
      * Create the dialog
      *
      * @param       parent          Parent frame
-     * @param       chain           Chain
-     * @param       responses       GetCoinExchangeOrders responses
+     * @param       orderBook       Order book
      */
-    public ExchangeDialog(JFrame parent, Chain chain, List<Response> responses) {
-        super(parent, chain.getName() + " Exchange Orders", Dialog.ModalityType.DOCUMENT_MODAL);
+    public ExchangeDialog(JFrame parent, OrderBook orderBook) {
+        super(parent, orderBook.getChain().getName() + " Exchange Orders", Dialog.ModalityType.DOCUMENT_MODAL);
         setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
-        this.chain = chain;
+        this.chain = orderBook.getChain();
+        this.orderBook = orderBook;
         //
-        // Create the exchange table
+        // Create the exchange table and listen for order book updates.  The book is
+        // locked so we don't miss an update between getting the orders and adding
+        // the listener.
         //
-        tableModel = new ExchangeTableModel(columnNames, columnClasses, chain, responses);
+        synchronized(orderBook) {
+            tableModel = new ExchangeTableModel(columnNames, columnClasses, chain, orderBook.getOrders());
+            orderListener = update -> {
+                tableModel.update(update);
+                updateStatus();
+            };
+            orderBook.addListener(orderListener);
+        }
         table = new SizedTable(tableModel, columnTypes);
         table.setRowSorter(new TableRowSorter<>(tableModel));
         table.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
@@ -88,9 +114,21 @@ public class ExchangeDialog extends JDialog implements ActionListener {
         tablePane.setBackground(Color.WHITE);
         tablePane.add(scrollPane);
         //
-        // Create the buttons (Exchange Coins, Done)
+        // Create the status field and get the current orders if the order book is
+        // out of date
+        //
+        statusField = new JLabel();
+        JPanel statusPane = new JPanel();
+        statusPane.setBackground(Color.WHITE);
+        statusPane.add(statusField);
+        if (orderBook.isStale())
+            orderBook.refresh(RequestPriority.INTERACTIVE);
+        updateStatus();
+        //
+        // Create the buttons (Exchange Coins, Refresh, Done)
         //
         JPanel buttonPane = new ButtonPane(this, 10, new String[] {"Exchange Coins", "exchange"},
+                                                     new String[] {"Refresh", "refresh"},
                                                      new String[] {"Done", "done"});
         buttonPane.setBackground(Color.white);
         //
@@ -102,6 +140,7 @@ public class ExchangeDialog extends JDialog implements ActionListener {
         contentPane.setBorder(BorderFactory.createEmptyBorder(15, 15, 15, 15));
         contentPane.setBackground(Color.WHITE);
         contentPane.add(tablePane);
+        contentPane.add(statusPane);
         contentPane.add(buttonPane);
         setContentPane(contentPane);
     }
@@ -110,12 +149,11 @@ public class ExchangeDialog extends JDialog implements ActionListener {
      * Show the dialog
      *
      * @param       parent              Parent frame
-     * @param       chain               Chain
-     * @param       responses           GetCoinExchangeOrders responses
+     * @param       orderBook           Order book
      */
-    public static void showDialog(JFrame parent, Chain chain, List<Response> responses) {
+    public static void showDialog(JFrame parent, OrderBook orderBook) {
         try {
-            JDialog dialog = new ExchangeDialog(parent, chain, responses);
+            JDialog dialog = new ExchangeDialog(parent, orderBook);
             dialog.pack();
             dialog.setLocationRelativeTo(parent);
             dialog.setVisible(true);
@@ -133,6 +171,7 @@ public class ExchangeDialog extends JDialog implements ActionListener {
     public void actionPerformed(ActionEvent ae) {
         //
         // "exchange"   - Exchange coins
+        // "refresh"    - Get the current orders
         // "done"       - All done
         //
         try {
@@ -145,12 +184,48 @@ public class ExchangeDialog extends JDialog implements ActionListener {
                 case "exchange":
                     ExchangeCoinsDialog.showDialog(this, chain);
                     break;
+                case "refresh":
+                    orderBook.refresh(RequestPriority.INTERACTIVE);
+                    updateStatus();
+                    break;
             }
         } catch (Exception exc) {
             Main.logException("Exception while processing action event", exc);
         }
     }
 
+    /**
+     * Show the order book status
+     */
+    private void updateStatus() {
+        int height = orderBook.getRefreshHeight();
+        String status;
+        if (height < 0) {
+            status = (orderBook.isRefreshFailed() ? "Unable to get the exchange orders" :
+                                                    "Getting the exchange orders");
+        } else {
+            status = String.format("Orders at block %,d received at %tT", height,
+                                   new Date(orderBook.getRefreshTime()));
+            int age = Main.blockHeight - height;
+            if (age > 0)
+                status = status + String.format(" (%,d %s old)", age, (age == 1 ? "block" : "blocks"));
+            if (orderBook.isRefreshing())
+                status = status + " - refreshing";
+            else if (orderBook.isRefreshFailed())
+                status = status + " - unable to refresh";
+        }
+        statusField.setText(status);
+    }
+
+    /**
+     * Dispose of the dialog
+     */
+    @Override
+    public void dispose() {
+        orderBook.removeListener(orderListener);
+        super.dispose();
+    }
+
     /**
      * ExchangeTableModel is the table model for the exchange dialog
      */
@@ -165,19 +240,22 @@ public class ExchangeDialog extends JDialog implements ActionListener {
         /** Chain */
         private Chain chain;
 
-        /** Open orders */
+        /** Open orders sorted by chain and price */
         private List<Order> orders;
 
+        /** Open orders by order identifier */
+        private Map<Long, Order> orderMap;
+
         /**
          * Create the table model
          *
          * @param       columnNames     Column names
          * @param       columnClasses   Column classes
          * @param       chain           Child chain
-         * @param       responses       GetCoinExchangeOrders responses
+         * @param       responses       GetCoinExchangeOrders responses by order identifier
          */
         public ExchangeTableModel(String[] columnNames, Class<?>[] columnClasses,
-                        Chain chain, List<Response> responses) {
+                        Chain chain, Map<Long, Response> responses) {
             super();
             if (columnNames.length != columnClasses.length)
                 throw new IllegalArgumentException("Number of names not same as number of classes");
@@ -185,10 +263,68 @@ public class ExchangeDialog extends JDialog implements ActionListener {
             this.columnClasses = columnClasses;
             this.chain = chain;
             this.orders = new ArrayList<>(responses.size());
-            responses.forEach(response -> this.orders.add(new Order(response)));
+            this.orderMap = new HashMap<>(responses.size() * 4 / 3 + 1);
+            responses.forEach((orderId, response) -> {
+                Order order = new Order(orderId, response);
+                this.orders.add(order);
+                this.orderMap.put(orderId, order);
+            });
             this.orders.sort(null);
         }
 
+        /**
+         * Apply an order book update.  Just the affected rows are inserted, updated
+         * or deleted.
+         *
+         * @param       update      Order book update
+         */
+        public void update(OrderBook.Update update) {
+            update.getRemoved().forEach(orderId -> {
+                Order order = orderMap.remove(orderId);
+                if (order != null)
+                    removeOrder(order);
+            });
+            update.getChanged().forEach(this::replaceOrder);
+            update.getAdded().forEach(this::replaceOrder);
+        }
+
+        /**
+         * Add an order or replace an existing order.  The row is updated in place
+         * if the order stays in the same position.
+         *
+         * @param       orderId     Order identifier
+         * @param       response    GetCoinExchangeOrders response
+         */
+        private void replaceOrder(long orderId, Response response) {
+            Order order = new Order(orderId, response);
+            Order prevOrder = orderMap.put(orderId, order);
+            if (prevOrder != null) {
+                if (order.compareTo(prevOrder) == 0) {
+                    int row = Collections.binarySearch(orders, prevOrder);
+                    orders.set(row, order);
+                    fireTableRowsUpdated(row, row);
+                    return;
+                }
+                removeOrder(prevOrder);
+            }
+            int row = -(Collections.binarySearch(orders, order) + 1);
+            orders.add(row, order);
+            fireTableRowsInserted(row, row);
+        }
+
+        /**
+         * Remove an order from the table
+         *
+         * @param       order       Order
+         */
+        private void removeOrder(Order order) {
+            int row = Collections.binarySearch(orders, order);
+            if (row >= 0) {
+                orders.remove(row);
+                fireTableRowsDeleted(row, row);
+            }
+        }
+
         /**
          * Get the number of columns in the table
          *
@@ -268,6 +404,9 @@ public class ExchangeDialog extends JDialog implements ActionListener {
          */
         private class Order implements Comparable<Order> {
 
+            /** Order identifier */
+            private final long orderId;
+
             /** Exchange chain */
             private final Chain exchangeChain;
 
@@ -283,9 +422,11 @@ public class ExchangeDialog extends JDialog implements ActionListener {
             /**
              * Create an order
              *
+             * @param   orderId         Order identifier
              * @param   response        Response to getCoinExchangeOrders
              */
-            public Order(Response response) {
+            public Order(long orderId, Response response) {
+                this.orderId = orderId;
                 exchangeChain = Nxt.getChain(response.getInt("chain"));
                 amount = BigDecimal.valueOf(response.getLong("exchangeQNT"), exchangeChain.getDecimals());
                 price = BigDecimal.valueOf(response.getLong("askNQTPerCoin"), chain.getDecimals());
@@ -338,7 +479,9 @@ public class ExchangeDialog extends JDialog implements ActionListener {
             @Override
             public int compareTo(Order order2) {
                 int c = (exchangeChain.getName().compareTo(order2.exchangeChain.getName()));
-                return (c == 0 ? price.compareTo(order2.price) : c);
+                if (c == 0)
+                    c = price.compareTo(order2.price);
+                return (c == 0 ? Long.compare(orderId, order2.orderId) : c);
             }
         }
     }
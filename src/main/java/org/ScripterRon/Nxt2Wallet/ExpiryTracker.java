@@ -0,0 +1,271 @@
+/*
+ * Copyright 2017 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Wallet;
+
+import org.ScripterRon.Nxt2API.Nxt;
+import org.ScripterRon.Nxt2API.Transaction;
+import org.ScripterRon.Nxt2API.Utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.swing.SwingUtilities;
+
+/**
+ * ExpiryTracker removes unconfirmed transactions that have expired.  The node does
+ * not always send a REMOVED_UNCONFIRMED_TRANSACTIONS event when a transaction expires,
+ * so the transaction would be shown as pending until the wallet is restarted.
+ *
+ * The expiration times are kept in a hashed timing wheel.  Each wheel slot holds the
+ * transactions that expire during one tick, so adding a transaction and finding the
+ * expired transactions doesn't depend on the number of pending transactions.  A
+ * transaction with an expiration time beyond the end of the wheel stays in its slot
+ * until the wheel has turned enough times.
+ *
+ * Transactions are not removed from the wheel when they are confirmed.  Instead, an
+ * expired transaction is ignored if it is no longer pending for a watched account.
+ * Otherwise, the node is asked for the transaction.  The transaction is confirmed if
+ * it is in a block, it is checked again later if it is still in the unconfirmed pool,
+ * and it is removed from the account transactions if the node reports that the
+ * transaction is unknown.  The transaction is checked again later if the request fails
+ * for any other reason.
+ */
+public class ExpiryTracker {
+
+    /** Wheel tick (milliseconds) */
+    private static final long TICK = 10 * 1000L;
+
+    /** Number of wheel slots (power of 2) */
+    private static final int WHEEL_SIZE = 256;
+
+    /** Time allowed after the deadline for the node to remove the transaction (milliseconds) */
+    private static final long EXPIRATION_GRACE = 60 * 1000L;
+
+    /** Delay before checking a transaction again (milliseconds) */
+    private static final long RETRY_DELAY = 2 * 60 * 1000L;
+
+    /** Wheel slots */
+    private final Entry[] wheel = new Entry[WHEEL_SIZE];
+
+    /** Scheduled transactions */
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    /** Last tick processed */
+    private long currentTick;
+
+    /** Number of transactions checked after they expired */
+    private long checkCount;
+
+    /** Number of expired transactions removed */
+    private long removedCount;
+
+    /**
+     * Create the expiry tracker
+     */
+    public ExpiryTracker() {
+        currentTick = System.currentTimeMillis() / TICK;
+    }
+
+    /**
+     * Schedule the expiration of an unconfirmed transaction.  Nothing is done if the
+     * transaction is already scheduled.
+     *
+     * @param   tx                      Unconfirmed transaction
+     */
+    public void add(Transaction tx) {
+        add(tx.getChain().getId(), tx.getFullHash(),
+            tx.getTimestamp().getTime() + tx.getDeadline() * 60 * 1000L + EXPIRATION_GRACE);
+    }
+
+    /**
+     * Schedule a transaction check
+     *
+     * @param   chainId                 Chain identifier
+     * @param   fullHash                Transaction full hash
+     * @param   time                    Check time
+     */
+    private synchronized void add(int chainId, byte[] fullHash, long time) {
+        String key = TransactionCache.getKey(chainId, fullHash);
+        if (entries.containsKey(key))
+            return;
+        Entry entry = new Entry(key, chainId, fullHash, Math.max((time + TICK - 1) / TICK, currentTick + 1));
+        int slot = (int)(entry.tick & (WHEEL_SIZE - 1));
+        entry.next = wheel[slot];
+        wheel[slot] = entry;
+        entries.put(key, entry);
+    }
+
+    /**
+     * Advance the wheel to the current time and check the expired transactions.
+     * This is called periodically by the wallet client timer.
+     */
+    public void process() {
+        List<Entry> expiredList = new ArrayList<>();
+        synchronized(this) {
+            long nowTick = System.currentTimeMillis() / TICK;
+            //
+            // Each slot is visited once even if we are more than one turn behind
+            //
+            long lastTick = Math.min(nowTick, currentTick + WHEEL_SIZE);
+            for (long tick = currentTick + 1; tick <= lastTick; tick++) {
+                int slot = (int)(tick & (WHEEL_SIZE - 1));
+                Entry entry = wheel[slot];
+                Entry remaining = null;
+                while (entry != null) {
+                    Entry next = entry.next;
+                    if (entry.tick <= nowTick) {
+                        entries.remove(entry.key);
+                        expiredList.add(entry);
+                    } else {
+                        entry.next = remaining;
+                        remaining = entry;
+                    }
+                    entry = next;
+                }
+                wheel[slot] = remaining;
+            }
+            currentTick = Math.max(currentTick, nowTick);
+        }
+        if (!expiredList.isEmpty())
+            SwingUtilities.invokeLater(() -> expiredList.forEach(this::expired));
+    }
+
+    /**
+     * Check an expired transaction
+     *
+     * This method must be called on the Swing event dispatch thread.
+     *
+     * @param   entry                   Expired entry
+     */
+    private void expired(Entry entry) {
+        long txId = Utils.fullHashToId(entry.fullHash);
+        if (getPendingStates(entry.chainId, txId).isEmpty())
+            return;
+        synchronized(this) {
+            checkCount++;
+        }
+        WalletClient.invokeLater(Main.eventSource.getTransaction(entry.fullHash, Nxt.getChain(entry.chainId)),
+                                 (response, exc) -> {
+            try {
+                if (exc == null) {
+                    Transaction tx = new Transaction(response);
+                    if (tx.getBlockId() != 0) {
+                        for (AccountState state : getPendingStates(entry.chainId, txId)) {
+                            if (state.addTransaction(tx))
+                                updateTransactions(state, entry.chainId);
+                        }
+                    } else {
+                        Main.log.debug(String.format("Expired transaction %s is in the unconfirmed pool",
+                                                     entry.key));
+                        add(entry.chainId, entry.fullHash, System.currentTimeMillis() + RETRY_DELAY);
+                    }
+                } else if (NodePool.ApiException.isUnknown(exc)) {
+                    Main.log.info(String.format("Transaction %s has expired", entry.key));
+                    synchronized(this) {
+                        removedCount++;
+                    }
+                    for (AccountState state : getPendingStates(entry.chainId, txId)) {
+                        if (state.removeExpiredTransaction(entry.chainId, txId))
+                            updateTransactions(state, entry.chainId);
+                    }
+                } else {
+                    Main.log.warn(String.format("Unable to check expired transaction %s: %s",
+                                                entry.key, WalletClient.getCause(exc).getMessage()));
+                    add(entry.chainId, entry.fullHash, System.currentTimeMillis() + RETRY_DELAY);
+                }
+            } catch (Exception exc2) {
+                Main.log.error("Unable to process expired transaction " + entry.key, exc2);
+            }
+        });
+    }
+
+    /**
+     * Get the account states where a transaction is still pending
+     *
+     * This method must be called on the Swing event dispatch thread.
+     *
+     * @param   chainId                 Chain identifier
+     * @param   txId                    Transaction identifier
+     * @return                          Account states
+     */
+    private static List<AccountState> getPendingStates(int chainId, long txId) {
+        List<AccountState> states = new ArrayList<>();
+        for (AccountState state : Main.accountStates.values()) {
+            Transaction tx = state.getTransaction(chainId, txId);
+            if (tx != null && tx.getBlockId() == 0)
+                states.add(state);
+        }
+        return states;
+    }
+
+    /**
+     * Update the transaction display if the account is the current account
+     *
+     * @param   state                   Account state
+     * @param   chainId                 Chain identifier
+     */
+    private static void updateTransactions(AccountState state, int chainId) {
+        if (state == Main.accountState && Main.mainWindow != null)
+            Main.mainWindow.updateTransactions(chainId);
+    }
+
+    /**
+     * Get the expiry tracker report
+     *
+     * @return                          Expiry statistics
+     */
+    public synchronized String getReport() {
+        return String.format("%,d scheduled, %,d checked after expiring, %,d removed",
+                             entries.size(), checkCount, removedCount);
+    }
+
+    /**
+     * Timing wheel entry
+     */
+    private static class Entry {
+
+        /** Transaction key */
+        private final String key;
+
+        /** Chain identifier */
+        private final int chainId;
+
+        /** Transaction full hash */
+        private final byte[] fullHash;
+
+        /** Expiration tick */
+        private final long tick;
+
+        /** Next entry in the wheel slot */
+        private Entry next;
+
+        /**
+         * Create the entry
+         *
+         * @param   key                 Transaction key
+         * @param   chainId             Chain identifier
+         * @param   fullHash            Transaction full hash
+         * @param   tick                Expiration tick
+         */
+        private Entry(String key, int chainId, byte[] fullHash, long tick) {
+            this.key = key;
+            this.chainId = chainId;
+            this.fullHash = fullHash;
+            this.tick = tick;
+        }
+    }
+}
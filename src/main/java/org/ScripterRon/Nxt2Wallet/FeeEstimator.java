@@ -0,0 +1,263 @@
+/*
+ * Copyright 2017 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Wallet;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * FeeEstimator calculates the minimum transaction fee without asking the Nxt node.
+ * The fee for a child chain transaction is the ARDR cost of the transaction converted
+ * to the child chain using the bundler rate, rounded up to the next NQT.  The fee for
+ * an ARDR transaction is the ARDR cost.
+ *
+ * The ARDR cost depends on the transaction type and on the size of the transaction
+ * appendix.  The cost starts with the known cost for the transaction type and is then
+ * calibrated using the fees calculated by the Nxt node for our transactions.  Each
+ * node fee limits the cost to a range, since the node rounds the converted fee up to
+ * the next NQT, and the range narrows as more transactions are seen.  The estimate
+ * uses the upper end of the range, so the estimated fee is never less than the node
+ * fee.  The range is reset if a node fee is outside the current range.
+ *
+ * The estimate for an appendix size that has not been calibrated uses the cost for
+ * the next larger calibrated size or the cost for the transaction type without an
+ * appendix.  The second case is not an upper bound for the node fee, so the estimate
+ * also has a maximum fee which adds a conservative cost for each kilobyte of the
+ * appendix.
+ */
+public class FeeEstimator {
+
+    /** One ARDR (FQT) */
+    private static final long ONE_FXT = 100000000L;
+
+    /** ARDR cost of a child chain transaction (FQT) */
+    private static final long CHILD_COST = 1000000L;
+
+    /** ARDR cost of an ARDR transaction (FQT) */
+    private static final long FXT_COST = 10000000L;
+
+    /** Appendix size granularity (bytes) */
+    private static final int SIZE_BUCKET = 32;
+
+    /** Upper bound for the ARDR cost of each started kilobyte of an uncalibrated appendix (FQT) */
+    private static final long MAX_KB_COST = ONE_FXT;
+
+    /** Calibrated costs by transaction type and appendix size bucket */
+    private final Map<String, TreeMap<Integer, Range>> costs = new HashMap<>();
+
+    /** Number of estimates checked against the node fee */
+    private long checkCount;
+
+    /** Number of estimates that were not the same as the node fee */
+    private long mismatchCount;
+
+    /**
+     * Estimate the minimum transaction fee
+     *
+     * @param   txType                  Transaction type and subtype (TransactionBytes.CHILD_PAYMENT, etc)
+     * @param   fxtChain                TRUE if this is an ARDR transaction
+     * @param   appendixSize            Appendix size (bytes)
+     * @param   rate                    Child chain NQT per ARDR
+     * @return                          Fee estimate or null if the rate is not known
+     */
+    public synchronized Estimate estimate(int[] txType, boolean fxtChain, int appendixSize, long rate) {
+        if (!fxtChain && rate <= 0)
+            return null;
+        long cost, maxCost;
+        boolean exact;
+        TreeMap<Integer, Range> typeCosts = costs.get(getKey(txType));
+        Map.Entry<Integer, Range> entry = (typeCosts != null ?
+                            typeCosts.ceilingEntry(getBucket(appendixSize)) : null);
+        if (entry != null) {
+            cost = entry.getValue().high;
+            maxCost = cost;
+            exact = (entry.getKey() == getBucket(appendixSize));
+        } else {
+            cost = (fxtChain ? FXT_COST : CHILD_COST);
+            maxCost = cost + (appendixSize + 1023) / 1024 * MAX_KB_COST;
+            exact = (appendixSize == 0);
+        }
+        return new Estimate(convert(cost, fxtChain, rate), convert(maxCost, fxtChain, rate), exact);
+    }
+
+    /**
+     * Check an estimate against the fee calculated by the node and calibrate the cost
+     *
+     * @param   txType                  Transaction type and subtype
+     * @param   fxtChain                TRUE if this is an ARDR transaction
+     * @param   appendixSize            Appendix size (bytes)
+     * @param   rate                    Child chain NQT per ARDR used by the node
+     * @param   nodeFee                 Fee calculated by the node
+     */
+    public synchronized void check(int[] txType, boolean fxtChain, int appendixSize, long rate, long nodeFee) {
+        if (!fxtChain && rate <= 0)
+            return;
+        Estimate estimate = estimate(txType, fxtChain, appendixSize, rate);
+        checkCount++;
+        if (estimate.getFee() != nodeFee) {
+            mismatchCount++;
+            Main.log.info(String.format("Estimated fee %d for transaction type %d:%d is not the same as node fee %d",
+                                        estimate.getFee(), txType[0], txType[1], nodeFee));
+        }
+        //
+        // The node fee is the cost converted to the chain and rounded up, so the cost
+        // is more than the conversion of the next lower fee and no more than the
+        // conversion of the node fee
+        //
+        long low, high;
+        if (fxtChain) {
+            low = nodeFee - 1;
+            high = nodeFee;
+        } else {
+            low = Math.multiplyExact(nodeFee - 1, ONE_FXT) / rate;
+            high = Math.multiplyExact(nodeFee, ONE_FXT) / rate;
+        }
+        TreeMap<Integer, Range> typeCosts = costs.computeIfAbsent(getKey(txType), key -> new TreeMap<>());
+        int bucket = getBucket(appendixSize);
+        Range range = typeCosts.get(bucket);
+        if (range == null || low >= range.high || high <= range.low) {
+            typeCosts.put(bucket, new Range(low, high));
+        } else {
+            range.low = Math.max(range.low, low);
+            range.high = Math.min(range.high, high);
+        }
+    }
+
+    /**
+     * Get the estimator report
+     *
+     * @return                          Estimator statistics
+     */
+    public synchronized String getReport() {
+        return String.format("%,d estimates checked, %,d not the same as the node fee",
+                             checkCount, mismatchCount);
+    }
+
+    /**
+     * Convert the ARDR cost to the transaction fee
+     *
+     * @param   cost                    ARDR cost (FQT)
+     * @param   fxtChain                TRUE if this is an ARDR transaction
+     * @param   rate                    Child chain NQT per ARDR
+     * @return                          Transaction fee
+     */
+    private static long convert(long cost, boolean fxtChain, long rate) {
+        if (fxtChain)
+            return cost;
+        return (Math.multiplyExact(cost, rate) + ONE_FXT - 1) / ONE_FXT;
+    }
+
+    /**
+     * Get the cost key for a transaction type
+     *
+     * @param   txType                  Transaction type and subtype
+     * @return                          Cost key
+     */
+    private static String getKey(int[] txType) {
+        return txType[0] + ":" + txType[1];
+    }
+
+    /**
+     * Get the size bucket for an appendix
+     *
+     * @param   appendixSize            Appendix size (bytes)
+     * @return                          Size bucket
+     */
+    private static int getBucket(int appendixSize) {
+        return (appendixSize + SIZE_BUCKET - 1) / SIZE_BUCKET;
+    }
+
+    /**
+     * Fee estimate
+     */
+    public static class Estimate {
+
+        /** Estimated fee */
+        private final long fee;
+
+        /** Maximum fee */
+        private final long maxFee;
+
+        /** Estimate is based on the cost for the same transaction type and size */
+        private final boolean exact;
+
+        /**
+         * Create the estimate
+         *
+         * @param   fee                 Estimated fee
+         * @param   maxFee              Maximum fee
+         * @param   exact               TRUE if the estimate is exact
+         */
+        public Estimate(long fee, long maxFee, boolean exact) {
+            this.fee = fee;
+            this.maxFee = maxFee;
+            this.exact = exact;
+        }
+
+        /**
+         * Get the estimated fee
+         *
+         * @return                      Estimated fee
+         */
+        public long getFee() {
+            return fee;
+        }
+
+        /**
+         * Get the maximum fee.  The node fee is not more than this fee if the transaction
+         * cost doesn't decrease for a larger appendix.
+         *
+         * @return                      Maximum fee
+         */
+        public long getMaxFee() {
+            return maxFee;
+        }
+
+        /**
+         * Check if the estimate is based on the cost for the same transaction type and size
+         *
+         * @return                      TRUE if the estimate is exact
+         */
+        public boolean isExact() {
+            return exact;
+        }
+    }
+
+    /**
+     * ARDR cost range.  The cost is more than the low value and no more than the
+     * high value.
+     */
+    private static class Range {
+
+        /** Low value (exclusive) */
+        private long low;
+
+        /** High value (inclusive) */
+        private long high;
+
+        /**
+         * Create the range
+         *
+         * @param   low                 Low value
+         * @param   high                High value
+         */
+        private Range(long low, long high) {
+            this.low = low;
+            this.high = high;
+        }
+    }
+}
@@ -0,0 +1,340 @@
+/*
+ * Copyright 2017 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Wallet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * HttpTransport sends Nxt API requests that are not issued by the Nxt API library.
+ * Read requests use GET and requests that change the node state use POST.
+ *
+ * The server is asked to compress the response using gzip or deflate.  The response
+ * is always read to the end and the input stream is closed, so the connection is
+ * returned to the keep-alive cache and is reused by the next request to the same
+ * node.  HTTPS connections share a single SSL context, so a new connection resumes
+ * the cached TLS session instead of performing a full handshake.
+ *
+ * The transport counts the bytes received from the server and the decoded response
+ * bytes along with the request times.
+ */
+public class HttpTransport {
+
+    /** Connect timeout (milliseconds) */
+    private static final int CONNECT_TIMEOUT = 5 * 1000;
+
+    /** Read timeout (milliseconds) */
+    private static final int READ_TIMEOUT = 30 * 1000;
+
+    /** TLS session cache timeout (seconds) */
+    private static final int SESSION_TIMEOUT = 24 * 60 * 60;
+
+    /** Request compressed responses */
+    private final boolean compress;
+
+    /** Shared SSL socket factory or null to use the default factory */
+    private final SSLSocketFactory socketFactory;
+
+    /** Number of requests */
+    private final AtomicLong requestCount = new AtomicLong();
+
+    /** Number of compressed responses */
+    private final AtomicLong compressedCount = new AtomicLong();
+
+    /** Bytes sent to the server */
+    private final AtomicLong sentBytes = new AtomicLong();
+
+    /** Bytes received from the server */
+    private final AtomicLong wireBytes = new AtomicLong();
+
+    /** Decoded response bytes */
+    private final AtomicLong decodedBytes = new AtomicLong();
+
+    /** Time until the response headers are received */
+    private final LatencyHistogram headerTime = new LatencyHistogram();
+
+    /** Time until the response is read */
+    private final LatencyHistogram requestTime = new LatencyHistogram();
+
+    /**
+     * Create the HTTP transport
+     *
+     * @param   compress                TRUE to request compressed responses
+     */
+    public HttpTransport(boolean compress) {
+        this.compress = compress;
+        SSLSocketFactory factory = null;
+        try {
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(null, null, null);
+            context.getClientSessionContext().setSessionTimeout(SESSION_TIMEOUT);
+            factory = context.getSocketFactory();
+        } catch (GeneralSecurityException exc) {
+            Main.log.warn("Unable to create the SSL context - using the default SSL socket factory", exc);
+        }
+        this.socketFactory = factory;
+    }
+
+    /**
+     * Send a GET request
+     *
+     * @param   url                     Request URL including the query string
+     * @return                          Response text
+     * @throws  IOException             Request failed
+     */
+    public String get(String url) throws IOException {
+        return get(url, HttpTransport::readText);
+    }
+
+    /**
+     * Read the response text
+     *
+     * @param   reader                  Response reader
+     * @return                          Response text
+     * @throws  IOException             I/O error
+     */
+    public static String readText(Reader reader) throws IOException {
+        StringBuilder sb = new StringBuilder(8192);
+        char[] buffer = new char[4096];
+        int count;
+        while ((count=reader.read(buffer)) > 0)
+            sb.append(buffer, 0, count);
+        return sb.toString();
+    }
+
+    /**
+     * Send a GET request and decode the response while it is being received.  The
+     * rest of the response is read after the decoder returns so the connection can
+     * be reused.
+     *
+     * @param   <T>                     Decoded result type
+     * @param   url                     Request URL including the query string
+     * @param   decoder                 Response decoder
+     * @return                          Decoded result
+     * @throws  IOException             Request failed
+     */
+    public <T> T get(String url, ResponseDecoder<T> decoder) throws IOException {
+        return send(url, null, decoder);
+    }
+
+    /**
+     * Send a POST request and decode the response while it is being received
+     *
+     * @param   <T>                     Decoded result type
+     * @param   url                     Request URL
+     * @param   content                 Form-encoded request parameters
+     * @param   decoder                 Response decoder
+     * @return                          Decoded result
+     * @throws  IOException             Request failed
+     */
+    public <T> T post(String url, String content, ResponseDecoder<T> decoder) throws IOException {
+        return send(url, content, decoder);
+    }
+
+    /**
+     * Send a request and decode the response
+     *
+     * @param   <T>                     Decoded result type
+     * @param   url                     Request URL
+     * @param   content                 Form-encoded request parameters for a POST request or null
+     * @param   decoder                 Response decoder
+     * @return                          Decoded result
+     * @throws  IOException             Request failed
+     */
+    private <T> T send(String url, String content, ResponseDecoder<T> decoder) throws IOException {
+        long startTime = System.nanoTime();
+        requestCount.incrementAndGet();
+        sentBytes.addAndGet(url.length());
+        HttpURLConnection conn = (HttpURLConnection)new URL(url).openConnection();
+        if (socketFactory != null && conn instanceof HttpsURLConnection)
+            ((HttpsURLConnection)conn).setSSLSocketFactory(socketFactory);
+        conn.setConnectTimeout(CONNECT_TIMEOUT);
+        conn.setReadTimeout(READ_TIMEOUT);
+        conn.setRequestProperty("Accept", "application/json");
+        conn.setRequestProperty("Accept-Encoding", (compress ? "gzip, deflate" : "identity"));
+        if (content != null) {
+            byte[] contentBytes = content.getBytes(StandardCharsets.UTF_8);
+            sentBytes.addAndGet(contentBytes.length);
+            conn.setRequestMethod("POST");
+            conn.setDoOutput(true);
+            conn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded; charset=UTF-8");
+            conn.setFixedLengthStreamingMode(contentBytes.length);
+            try (OutputStream out = conn.getOutputStream()) {
+                out.write(contentBytes);
+            }
+        }
+        int code = conn.getResponseCode();
+        headerTime.record(System.nanoTime() - startTime);
+        if (code != HttpURLConnection.HTTP_OK) {
+            //
+            // Read the error response so the connection can be reused
+            //
+            try (InputStream in = conn.getErrorStream()) {
+                if (in != null)
+                    readStream(new CountingInputStream(in, wireBytes));
+            } catch (IOException exc) {
+                // Connection will not be reused
+            }
+            throw new IOException(String.format("HTTP error %d: %s", code, conn.getResponseMessage()));
+        }
+        T result;
+        String encoding = conn.getContentEncoding();
+        try (InputStream in = new CountingInputStream(conn.getInputStream(), wireBytes)) {
+            InputStream decoded;
+            if ("gzip".equalsIgnoreCase(encoding)) {
+                compressedCount.incrementAndGet();
+                decoded = new GZIPInputStream(in, 8192);
+            } else if ("deflate".equalsIgnoreCase(encoding)) {
+                compressedCount.incrementAndGet();
+                decoded = new ByteArrayInputStream(readDeflate(in));
+            } else {
+                decoded = in;
+            }
+            decoded = new CountingInputStream(decoded, decodedBytes);
+            result = decoder.decode(new InputStreamReader(decoded, StandardCharsets.UTF_8));
+            //
+            // Read any remaining data so the connection can be reused
+            //
+            byte[] buffer = new byte[4096];
+            while (decoded.read(buffer) > 0) {
+                // Discard the data
+            }
+        }
+        requestTime.record(System.nanoTime() - startTime);
+        return result;
+    }
+
+    /**
+     * Read a deflate response.  Some servers send a raw deflate stream instead of
+     * the zlib format, so the zlib format is checked before creating the inflater.
+     *
+     * @param   in                      Response stream
+     * @return                          Decoded response bytes
+     * @throws  IOException             I/O error
+     */
+    private static byte[] readDeflate(InputStream in) throws IOException {
+        byte[] compressed = readStream(in);
+        boolean zlib = (compressed.length >= 2 && (compressed[0] & 0x0f) == 8 &&
+                        (((compressed[0] & 0xff) << 8) | (compressed[1] & 0xff)) % 31 == 0);
+        Inflater inflater = new Inflater(!zlib);
+        try (InputStream inflated = new InflaterInputStream(new ByteArrayInputStream(compressed), inflater)) {
+            return readStream(inflated);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Read an input stream to the end
+     *
+     * @param   in                      Input stream
+     * @return                          Stream bytes
+     * @throws  IOException             I/O error
+     */
+    private static byte[] readStream(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(8192);
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count=in.read(buffer)) > 0)
+            out.write(buffer, 0, count);
+        return out.toByteArray();
+    }
+
+    /**
+     * Get the transport report
+     *
+     * @return                          Transport statistics
+     */
+    public String getReport() {
+        long wire = wireBytes.get();
+        long decoded = decodedBytes.get();
+        return String.format("%,d requests (%,d compressed), %,.1f KB sent, %,.1f KB received, "
+                        + "%,.1f KB decoded (%.1f%% saved), headers p50 %.1f ms, total p50 %.1f ms, p99 %.1f ms",
+                requestCount.get(), compressedCount.get(), (double)sentBytes.get() / 1024.0,
+                (double)wire / 1024.0, (double)decoded / 1024.0,
+                (decoded != 0 ? (double)(decoded - wire) * 100.0 / (double)decoded : 0.0),
+                headerTime.getPercentile(50), requestTime.getPercentile(50), requestTime.getPercentile(99));
+    }
+
+    /**
+     * Input stream that counts the bytes read from the stream
+     */
+    private static class CountingInputStream extends FilterInputStream {
+
+        /** Byte counter */
+        private final AtomicLong counter;
+
+        /**
+         * Create the counting stream
+         *
+         * @param   in                  Input stream
+         * @param   counter             Byte counter
+         */
+        public CountingInputStream(InputStream in, AtomicLong counter) {
+            super(in);
+            this.counter = counter;
+        }
+
+        /**
+         * Read a byte
+         *
+         * @return                      Byte or -1 at the end of the stream
+         * @throws  IOException         I/O error
+         */
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0)
+                counter.incrementAndGet();
+            return b;
+        }
+
+        /**
+         * Read bytes
+         *
+         * @param   buffer              Data buffer
+         * @param   offset              Buffer offset
+         * @param   length              Maximum number of bytes
+         * @return                      Number of bytes read or -1 at the end of the stream
+         * @throws  IOException         I/O error
+         */
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int count = super.read(buffer, offset, length);
+            if (count > 0)
+                counter.addAndGet(count);
+            return count;
+        }
+    }
+}
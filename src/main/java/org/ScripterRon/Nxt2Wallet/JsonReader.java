@@ -0,0 +1,657 @@
+/*
+ * Copyright 2017 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Wallet;
+
+import org.ScripterRon.JSON.JSONArray;
+import org.ScripterRon.JSON.JSONObject;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * JsonReader is a pull parser for JSON text.  The caller steps through the JSON
+ * text one token at a time and decides which values to keep.  A skipped value is
+ * scanned without creating any objects, so a large response can be decoded without
+ * building the complete JSON object tree.
+ *
+ * Object member names are cached, so the names of repeated objects in an array
+ * are created just once.
+ */
+public class JsonReader {
+
+    /** JSON tokens */
+    public enum Token {
+        /** Start of an object */
+        BEGIN_OBJECT,
+        /** End of an object */
+        END_OBJECT,
+        /** Start of an array */
+        BEGIN_ARRAY,
+        /** End of an array */
+        END_ARRAY,
+        /** Object member name */
+        NAME,
+        /** String value */
+        STRING,
+        /** Number value */
+        NUMBER,
+        /** Boolean value */
+        BOOLEAN,
+        /** Null value */
+        NULL,
+        /** End of the JSON text */
+        END_DOCUMENT
+    }
+
+    /** Parser scopes */
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_OBJECT = 2;
+    private static final int NONEMPTY_OBJECT = 3;
+    private static final int DANGLING_NAME = 4;
+    private static final int EMPTY_ARRAY = 5;
+    private static final int NONEMPTY_ARRAY = 6;
+
+    /** Maximum nesting depth */
+    private static final int MAX_DEPTH = 64;
+
+    /** Name cache size (must be a power of 2) */
+    private static final int NAME_CACHE_SIZE = 256;
+
+    /** Input reader */
+    private final Reader reader;
+
+    /** Input buffer */
+    private final char[] buffer = new char[8192];
+
+    /** Current buffer position */
+    private int pos;
+
+    /** Number of characters in the buffer */
+    private int limit;
+
+    /** Number of characters consumed before the current buffer */
+    private long offset;
+
+    /** Scope stack */
+    private final int[] stack = new int[MAX_DEPTH];
+
+    /** Current nesting depth */
+    private int depth;
+
+    /** Next token or null if the next token has not been read */
+    private Token peeked;
+
+    /** String and number text */
+    private final StringBuilder text = new StringBuilder(128);
+
+    /** Object member names */
+    private final String[] nameCache = new String[NAME_CACHE_SIZE];
+
+    /**
+     * Create a JSON reader
+     *
+     * @param   reader                  Input reader
+     */
+    public JsonReader(Reader reader) {
+        this.reader = reader;
+        stack[depth++] = EMPTY_DOCUMENT;
+    }
+
+    /**
+     * Get the next token without consuming it
+     *
+     * @return                          Next token
+     * @throws  IOException             I/O error or malformed JSON text
+     */
+    public Token peek() throws IOException {
+        if (peeked != null)
+            return peeked;
+        int c;
+        switch (stack[depth - 1]) {
+            case EMPTY_ARRAY:
+                stack[depth - 1] = NONEMPTY_ARRAY;
+                c = nextNonWhitespace();
+                if (c == ']')
+                    return (peeked = Token.END_ARRAY);
+                pos--;
+                break;
+            case NONEMPTY_ARRAY:
+                c = nextNonWhitespace();
+                if (c == ']')
+                    return (peeked = Token.END_ARRAY);
+                if (c != ',')
+                    throw syntaxError("Expected ',' or ']'");
+                break;
+            case EMPTY_OBJECT:
+            case NONEMPTY_OBJECT:
+                c = nextNonWhitespace();
+                if (c == '}')
+                    return (peeked = Token.END_OBJECT);
+                if (stack[depth - 1] == NONEMPTY_OBJECT) {
+                    if (c != ',')
+                        throw syntaxError("Expected ',' or '}'");
+                    c = nextNonWhitespace();
+                }
+                if (c != '"')
+                    throw syntaxError("Expected a member name");
+                stack[depth - 1] = DANGLING_NAME;
+                return (peeked = Token.NAME);
+            case DANGLING_NAME:
+                stack[depth - 1] = NONEMPTY_OBJECT;
+                if (nextNonWhitespace() != ':')
+                    throw syntaxError("Expected ':'");
+                break;
+            case EMPTY_DOCUMENT:
+                stack[depth - 1] = NONEMPTY_DOCUMENT;
+                break;
+            default:
+                if (nextNonWhitespace() != -1)
+                    throw syntaxError("Unexpected text after the JSON value");
+                return (peeked = Token.END_DOCUMENT);
+        }
+        //
+        // Read the start of the next value.  The opening quote of a string is consumed.
+        //
+        c = nextNonWhitespace();
+        switch (c) {
+            case '{':
+                return (peeked = Token.BEGIN_OBJECT);
+            case '[':
+                return (peeked = Token.BEGIN_ARRAY);
+            case '"':
+                return (peeked = Token.STRING);
+            case 't':
+            case 'f':
+                pos--;
+                return (peeked = Token.BOOLEAN);
+            case 'n':
+                pos--;
+                return (peeked = Token.NULL);
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    pos--;
+                    return (peeked = Token.NUMBER);
+                }
+                throw syntaxError("Expected a JSON value");
+        }
+    }
+
+    /**
+     * Consume the start of an object
+     *
+     * @throws  IOException             I/O error or malformed JSON text
+     */
+    public void beginObject() throws IOException {
+        expect(Token.BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+    }
+
+    /**
+     * Consume the end of an object
+     *
+     * @throws  IOException             I/O error or malformed JSON text
+     */
+    public void endObject() throws IOException {
+        expect(Token.END_OBJECT);
+        depth--;
+    }
+
+    /**
+     * Consume the start of an array
+     *
+     * @throws  IOException             I/O error or malformed JSON text
+     */
+    public void beginArray() throws IOException {
+        expect(Token.BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+    }
+
+    /**
+     * Consume the end of an array
+     *
+     * @throws  IOException             I/O error or malformed JSON text
+     */
+    public void endArray() throws IOException {
+        expect(Token.END_ARRAY);
+        depth--;
+    }
+
+    /**
+     * Check if the current object or array has another element
+     *
+     * @return                          TRUE if there is another element
+     * @throws  IOException             I/O error or malformed JSON text
+     */
+    public boolean hasNext() throws IOException {
+        Token token = peek();
+        return (token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT);
+    }
+
+    /**
+     * Get the next object member name
+     *
+     * @return                          Member name
+     * @throws  IOException             I/O error or malformed JSON text
+     */
+    public String nextName() throws IOException {
+        expect(Token.NAME);
+        readString();
+        int hash = 0;
+        for (int i=0; i<text.length(); i++)
+            hash = 31 * hash + text.charAt(i);
+        int index = (hash ^ (hash >>> 16)) & (NAME_CACHE_SIZE - 1);
+        String name = nameCache[index];
+        if (name == null || !name.contentEquals(text)) {
+            name = text.toString();
+            nameCache[index] = name;
+        }
+        return name;
+    }
+
+    /**
+     * Get the next string value.  A number is returned as a string.
+     *
+     * @return                          String value
+     * @throws  IOException             I/O error or malformed JSON text
+     */
+    public String nextString() throws IOException {
+        Token token = peek();
+        if (token == Token.STRING) {
+            peeked = null;
+            readString();
+        } else if (token == Token.NUMBER) {
+            peeked = null;
+            readNumber();
+        } else {
+            throw syntaxError("Expected a string but found " + token);
+        }
+        return text.toString();
+    }
+
+    /**
+     * Get the next long value.  A string containing a number is converted.
+     *
+     * @return                          Long value
+     * @throws  IOException             I/O error or malformed JSON text
+     */
+    public long nextLong() throws IOException {
+        Token token = peek();
+        if (token == Token.STRING) {
+            peeked = null;
+            readString();
+        } else if (token == Token.NUMBER) {
+            peeked = null;
+            if (readNumber())
+                throw syntaxError("Expected an integer but found " + text);
+        } else {
+            throw syntaxError("Expected a number but found " + token);
+        }
+        return parseLong();
+    }
+
+    /**
+     * Get the next boolean value
+     *
+     * @return                          Boolean value
+     * @throws  IOException             I/O error or malformed JSON text
+     */
+    public boolean nextBoolean() throws IOException {
+        expect(Token.BOOLEAN);
+        if (buffer[pos] == 't') {
+            readLiteral("true");
+            return true;
+        }
+        readLiteral("false");
+        return false;
+    }
+
+    /**
+     * Consume a null value
+     *
+     * @throws  IOException             I/O error or malformed JSON text
+     */
+    public void nextNull() throws IOException {
+        expect(Token.NULL);
+        readLiteral("null");
+    }
+
+    /**
+     * Skip the next value.  Nested objects and arrays are skipped as well.  The
+     * member name is skipped along with the value when the next token is a name.
+     *
+     * @throws  IOException             I/O error or malformed JSON text
+     */
+    public void skipValue() throws IOException {
+        if (peek() == Token.NAME) {
+            peeked = null;
+            skipString();
+        }
+        int count = 0;
+        do {
+            Token token = peek();
+            peeked = null;
+            switch (token) {
+                case BEGIN_OBJECT:
+                    push(EMPTY_OBJECT);
+                    count++;
+                    break;
+                case BEGIN_ARRAY:
+                    push(EMPTY_ARRAY);
+                    count++;
+                    break;
+                case END_OBJECT:
+                case END_ARRAY:
+                    depth--;
+                    count--;
+                    break;
+                case NAME:
+                case STRING:
+                    skipString();
+                    break;
+                case NUMBER:
+                case BOOLEAN:
+                case NULL:
+                    skipLiteral();
+                    break;
+                case END_DOCUMENT:
+                    throw syntaxError("Unexpected end of the JSON text");
+            }
+        } while (count > 0);
+    }
+
+    /**
+     * Read the next value as a JSON object tree.  Objects are returned as JSONObject,
+     * arrays as JSONArray, integers as Long and decimal numbers as Double.
+     *
+     * @return                          JSON value
+     * @throws  IOException             I/O error or malformed JSON text
+     */
+    public Object readValue() throws IOException {
+        switch (peek()) {
+            case BEGIN_OBJECT:
+                JSONObject<String, Object> object = new JSONObject<>();
+                beginObject();
+                while (hasNext()) {
+                    String name = nextName();
+                    object.put(name, readValue());
+                }
+                endObject();
+                return object;
+            case BEGIN_ARRAY:
+                JSONArray<Object> array = new JSONArray<>();
+                beginArray();
+                while (hasNext())
+                    array.add(readValue());
+                endArray();
+                return array;
+            case STRING:
+                return nextString();
+            case NUMBER:
+                peeked = null;
+                if (readNumber())
+                    return Double.valueOf(text.toString());
+                return parseLong();
+            case BOOLEAN:
+                return nextBoolean();
+            case NULL:
+                nextNull();
+                return null;
+            default:
+                throw syntaxError("Expected a JSON value but found " + peeked);
+        }
+    }
+
+    /**
+     * Consume the expected token
+     *
+     * @param   expected                Expected token
+     * @throws  IOException             I/O error or malformed JSON text
+     */
+    private void expect(Token expected) throws IOException {
+        Token token = peek();
+        if (token != expected)
+            throw syntaxError("Expected " + expected + " but found " + token);
+        peeked = null;
+    }
+
+    /**
+     * Push a new scope
+     *
+     * @param   scope                   Scope
+     * @throws  IOException             Maximum nesting depth exceeded
+     */
+    private void push(int scope) throws IOException {
+        if (depth == MAX_DEPTH)
+            throw syntaxError("JSON nesting is too deep");
+        stack[depth++] = scope;
+    }
+
+    /**
+     * Read a string into the text buffer.  The opening quote has been consumed.
+     *
+     * @throws  IOException             I/O error or malformed JSON text
+     */
+    private void readString() throws IOException {
+        text.setLength(0);
+        while (true) {
+            int start = pos;
+            while (pos < limit) {
+                char c = buffer[pos++];
+                if (c == '"') {
+                    text.append(buffer, start, pos - start - 1);
+                    return;
+                }
+                if (c == '\\') {
+                    text.append(buffer, start, pos - start - 1);
+                    text.append(readEscape());
+                    start = pos;
+                }
+            }
+            text.append(buffer, start, pos - start);
+            if (!fill())
+                throw syntaxError("Unterminated string");
+        }
+    }
+
+    /**
+     * Skip a string.  The opening quote has been consumed.
+     *
+     * @throws  IOException             I/O error or malformed JSON text
+     */
+    private void skipString() throws IOException {
+        while (true) {
+            while (pos < limit) {
+                char c = buffer[pos++];
+                if (c == '"')
+                    return;
+                if (c == '\\')
+                    readEscape();
+            }
+            if (!fill())
+                throw syntaxError("Unterminated string");
+        }
+    }
+
+    /**
+     * Read an escape sequence.  The backslash has been consumed.
+     *
+     * @return                          Escaped character
+     * @throws  IOException             I/O error or malformed JSON text
+     */
+    private char readEscape() throws IOException {
+        int c = nextChar();
+        switch (c) {
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'u':
+                int value = 0;
+                for (int i=0; i<4; i++) {
+                    int digit = Character.digit(nextChar(), 16);
+                    if (digit < 0)
+                        throw syntaxError("Invalid unicode escape");
+                    value = (value << 4) | digit;
+                }
+                return (char)value;
+            case '"':
+            case '\\':
+            case '/':
+                return (char)c;
+            default:
+                throw syntaxError("Invalid escape sequence");
+        }
+    }
+
+    /**
+     * Read a number into the text buffer
+     *
+     * @return                          TRUE if the number has a fraction or exponent
+     * @throws  IOException             I/O error
+     */
+    private boolean readNumber() throws IOException {
+        text.setLength(0);
+        boolean decimal = false;
+        while (pos < limit || fill()) {
+            char c = buffer[pos];
+            if (c == '.' || c == 'e' || c == 'E') {
+                decimal = true;
+            } else if (c != '-' && c != '+' && (c < '0' || c > '9')) {
+                break;
+            }
+            text.append(c);
+            pos++;
+        }
+        return decimal;
+    }
+
+    /**
+     * Skip a number or literal
+     *
+     * @throws  IOException             I/O error
+     */
+    private void skipLiteral() throws IOException {
+        while (pos < limit || fill()) {
+            char c = buffer[pos];
+            if (c == ',' || c == '}' || c == ']' || c <= ' ')
+                break;
+            pos++;
+        }
+    }
+
+    /**
+     * Read a literal value
+     *
+     * @param   literal                 Expected literal
+     * @throws  IOException             I/O error or malformed JSON text
+     */
+    private void readLiteral(String literal) throws IOException {
+        for (int i=0; i<literal.length(); i++) {
+            if (nextChar() != literal.charAt(i))
+                throw syntaxError("Expected '" + literal + "'");
+        }
+    }
+
+    /**
+     * Convert the text buffer to a long value without creating a string
+     *
+     * @return                          Long value
+     * @throws  IOException             Text is not a valid long value
+     */
+    private long parseLong() throws IOException {
+        int length = text.length();
+        boolean negative = (length > 0 && text.charAt(0) == '-');
+        int start = (negative ? 1 : 0);
+        if (start == length)
+            throw syntaxError("Invalid number '" + text + "'");
+        long value = 0;
+        for (int i=start; i<length; i++) {
+            int digit = text.charAt(i) - '0';
+            if (digit < 0 || digit > 9)
+                throw syntaxError("Invalid number '" + text + "'");
+            if (value < (Long.MIN_VALUE + digit) / 10)
+                throw syntaxError("Number '" + text + "' is too large");
+            value = value * 10 - digit;
+        }
+        if (!negative) {
+            if (value == Long.MIN_VALUE)
+                throw syntaxError("Number '" + text + "' is too large");
+            value = -value;
+        }
+        return value;
+    }
+
+    /**
+     * Get the next non-whitespace character
+     *
+     * @return                          Character or -1 at the end of the text
+     * @throws  IOException             I/O error
+     */
+    private int nextNonWhitespace() throws IOException {
+        while (pos < limit || fill()) {
+            char c = buffer[pos++];
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t')
+                return c;
+        }
+        return -1;
+    }
+
+    /**
+     * Get the next character
+     *
+     * @return                          Character
+     * @throws  IOException             I/O error or end of the text
+     */
+    private int nextChar() throws IOException {
+        if (pos == limit && !fill())
+            throw syntaxError("Unexpected end of the JSON text");
+        return buffer[pos++];
+    }
+
+    /**
+     * Fill the input buffer
+     *
+     * @return                          TRUE if more characters are available
+     * @throws  IOException             I/O error
+     */
+    private boolean fill() throws IOException {
+        offset += limit;
+        pos = 0;
+        limit = 0;
+        int count = reader.read(buffer, 0, buffer.length);
+        if (count <= 0)
+            return false;
+        limit = count;
+        return true;
+    }
+
+    /**
+     * Create a syntax exception
+     *
+     * @param   message                 Error message
+     * @return                          Exception
+     */
+    private IOException syntaxError(String message) {
+        return new IOException(String.format("%s at offset %d", message, offset + pos));
+    }
+}
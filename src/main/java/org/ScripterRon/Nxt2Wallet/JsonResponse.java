@@ -0,0 +1,75 @@
+/*
+ * Copyright 2017 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Wallet;
+
+import org.ScripterRon.JSON.JSONParser;
+import org.ScripterRon.Nxt2API.Response;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * JsonResponse creates Nxt API responses from JSON text that was saved by the
+ * wallet or received without going through the Nxt API library.
+ */
+public final class JsonResponse {
+
+    /**
+     * This class contains only static methods
+     */
+    private JsonResponse() {
+    }
+
+    /**
+     * Parse a JSON object
+     *
+     * @param   json                    JSON text
+     * @return                          Response
+     * @throws  IOException             JSON text is not a valid JSON object
+     */
+    public static Response parse(String json) throws IOException {
+        return toResponse(JSONParser.parse(json));
+    }
+
+    /**
+     * Parse a JSON object without creating a response
+     *
+     * @param   json                    JSON text
+     * @return                          JSON object
+     * @throws  IOException             JSON text is not a valid JSON object
+     */
+    @SuppressWarnings("unchecked")
+    public static Map<String, Object> parseObject(String json) throws IOException {
+        Object value = JSONParser.parse(json);
+        if (!(value instanceof Map))
+            throw new IOException("JSON value is not an object");
+        return (Map<String, Object>)value;
+    }
+
+    /**
+     * Create a response from a parsed JSON object
+     *
+     * @param   value                   Parsed JSON value
+     * @return                          Response
+     * @throws  IOException             Value is not a JSON object
+     */
+    @SuppressWarnings("unchecked")
+    public static Response toResponse(Object value) throws IOException {
+        if (!(value instanceof Map))
+            throw new IOException("JSON value is not an object");
+        return new Response((Map<String, Object>)value);
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2017 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Wallet;
+
+/**
+ * LatencyHistogram records latency samples in exponential buckets.  Bucket N
+ * contains the samples between 2^(N-1) and 2^N microseconds, so the reported
+ * percentiles are accurate to within a factor of two.
+ */
+public class LatencyHistogram {
+
+    /** Number of buckets */
+    private static final int BUCKET_COUNT = 40;
+
+    /** Sample counts */
+    private final long[] buckets = new long[BUCKET_COUNT];
+
+    /** Total number of samples */
+    private long count;
+
+    /** Sum of the samples (microseconds) */
+    private long sum;
+
+    /** Largest sample (microseconds) */
+    private long max;
+
+    /**
+     * Record a latency sample
+     *
+     * @param   nanos                   Latency in nanoseconds
+     */
+    public synchronized void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        int index = Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(micros));
+        buckets[index]++;
+        count++;
+        sum += micros;
+        max = Math.max(max, micros);
+    }
+
+    /**
+     * Get the number of samples
+     *
+     * @return                          Number of samples
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * Get the average latency
+     *
+     * @return                          Average latency in milliseconds
+     */
+    public synchronized double getMean() {
+        return (count != 0 ? (double)sum / (double)count / 1000.0 : 0.0);
+    }
+
+    /**
+     * Get the largest latency
+     *
+     * @return                          Largest latency in milliseconds
+     */
+    public synchronized double getMax() {
+        return (double)max / 1000.0;
+    }
+
+    /**
+     * Get a latency percentile.  The upper bound of the bucket containing the
+     * percentile is returned.
+     *
+     * @param   percentile              Percentile (0 - 100)
+     * @return                          Latency in milliseconds
+     */
+    public synchronized double getPercentile(double percentile) {
+        if (count == 0)
+            return 0.0;
+        long target = Math.max(1, (long)Math.ceil(count * percentile / 100.0));
+        long seen = 0;
+        for (int i=0; i<BUCKET_COUNT; i++) {
+            seen += buckets[i];
+            if (seen >= target)
+                return Math.min((double)(1L << i), (double)max) / 1000.0;
+        }
+        return (double)max / 1000.0;
+    }
+}
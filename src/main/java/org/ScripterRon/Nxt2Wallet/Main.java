@@ -40,11 +40,13 @@ import java.io.InputStream;
 import java.io.RandomAccessFile;
 import java.nio.channels.FileLock;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.LogManager;
 
 import javax.swing.JFrame;
@@ -96,6 +98,12 @@ public class Main {
     /** Main application window */
     public static MainWindow mainWindow;
 
+    /** Nxt API client */
+    public static WalletClient client;
+
+    /** Server event source */
+    public static EventSource eventSource;
+
     /** Nxt node host name */
     public static String connect = "localhost";
 
@@ -105,6 +113,60 @@ public class Main {
     /** Use HTTPS connections */
     public static boolean useSSL = true;
 
+    /** Additional Nxt nodes (host or host:port) */
+    public static final List<String> nodes = new ArrayList<>();
+
+    /** Event latency log interval (minutes) */
+    public static int latencyLogInterval = 10;
+
+    /** Event journal for recording server events */
+    public static String recordEvents;
+
+    /** Event journal for replaying server events */
+    public static String replayEvents;
+
+    /** Event replay speed multiple */
+    public static double replaySpeed = 1.0;
+
+    /** Start the embedded stub node */
+    public static boolean stubNode;
+
+    /** Embedded stub node */
+    private static StubNode stubServer;
+
+    /** Request compressed API responses */
+    public static boolean compressResponses = true;
+
+    /** Account sync mode (events or polling) */
+    public static String syncMode = "events";
+
+    /** Maximum block poll interval (seconds) */
+    public static int pollInterval = 30;
+
+    /** Session key idle timeout (minutes) */
+    public static int keyTimeout = 10;
+
+    /** Session keys for the unlocked accounts */
+    public static SessionKeys sessionKeys;
+
+    /** Create ordinary payments locally */
+    public static boolean localPayments = true;
+
+    /** Compare local payments with the node payments */
+    public static boolean comparePayments = false;
+
+    /** Local payment builder */
+    public static PaymentBuilder paymentBuilder;
+
+    /** Transaction fee estimator */
+    public static FeeEstimator feeEstimator;
+
+    /** Outbox for the broadcast transactions */
+    public static Outbox outbox;
+
+    /** Expiry tracker for the unconfirmed transactions */
+    public static ExpiryTracker expiryTracker;
+
     /** Nxt node application */
     public static String nxtApplication;
 
@@ -138,17 +200,20 @@ public class Main {
     /** Contact lookup by account identifier */
     public static final Map<Long, Contact> contactsMap = new HashMap<>();
 
-    /** Child transaction bundler rates */
-    public static final Map<Integer, Long> bundlerRates = new HashMap<>();
+    /** Child transaction bundler rates (replaced when the rates change) */
+    public static volatile Map<Integer, Long> bundlerRates = Collections.emptyMap();
 
-    /** Account confirmed transactions */
-    public static List<Transaction> accountTransactions = new ArrayList<>();
+    /** Bundler rate refresher */
+    public static BundlerRateRefresher rateRefresher;
 
-    /** Account unconfirmed transactions */
-    public static List<Transaction> unconfirmedTransactions = new ArrayList<>();
+    /** Coin exchange order books by chain identifier */
+    public static final Map<Integer, OrderBook> orderBooks = new HashMap<>();
 
-    /** Account balances */
-    public static Map<Integer, Balance> accountBalance = new HashMap<>();
+    /** Watched account states */
+    public static final Map<Long, AccountState> accountStates = new ConcurrentHashMap<>();
+
+    /** Current account state */
+    public static AccountState accountState;
 
     /** Application lock file */
     private static RandomAccessFile lockFile;
@@ -280,9 +345,39 @@ public class Main {
         try {
             UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
             //
+            // Start the embedded stub node
+            //
+            if (stubNode) {
+                if (!connect.equals("localhost"))
+                    throw new IllegalArgumentException("The stub node requires connect=localhost");
+                stubServer = new StubNode(apiPort, new StubChain(1, 60, 2, 50));
+                stubServer.start();
+            }
+            //
+            // Keep enough idle connections for the concurrent requests to each node
+            //
+            if (System.getProperty("http.maxConnections") == null)
+                System.setProperty("http.maxConnections", "16");
+            //
             // Initialize the Nxt API library
             //
             Nxt.init(connect, apiPort, useSSL);
+            client = new WalletClient();
+            if (latencyLogInterval > 0)
+                client.schedule(EventLatency::logPercentiles, latencyLogInterval * 60 * 1000L);
+            sessionKeys = new SessionKeys(keyTimeout * 60 * 1000L);
+            client.schedule(sessionKeys::expire, 30 * 1000L);
+            //
+            // Open the outbox and rebroadcast the transactions that were not confirmed
+            // before the wallet was stopped
+            //
+            outbox = new Outbox(new File(dataPath, "outbox.txt"));
+            client.schedule(outbox::process, 15 * 1000L);
+            //
+            // Remove unconfirmed transactions when they expire
+            //
+            expiryTracker = new ExpiryTracker();
+            client.schedule(expiryTracker::process, 10 * 1000L);
             //
             // Get the account if one wasn't provided
             //
@@ -317,26 +412,54 @@ public class Main {
             accountId = accounts.get(0);
             accountRsId = Utils.getAccountRsId(accountId);
             //
+            // Create the server event source
+            //
+            if (replayEvents != null) {
+                eventSource = new EventReplay(getDataFile(replayEvents), replaySpeed);
+            } else if (recordEvents != null) {
+                eventSource = new EventRecorder(client, getDataFile(recordEvents));
+            } else {
+                eventSource = client;
+            }
+            if (replayEvents != null && syncMode.equals("polling")) {
+                log.warn("Polling is not supported when replaying events - using the event handler");
+                syncMode = "events";
+            }
+            //
             // Get the local Nxt node state
             //
-            Response response = Nxt.getBlockchainStatus();
+            Response response = WalletClient.await(eventSource.getBlockchainStatus());
             nxtApplication = response.getString("application");
             nxtVersion = response.getString("version");
             blockHeight = response.getInt("numberOfBlocks") - 1;
             log.info(String.format("%s Version %s: Chain height %,d",
                                    nxtApplication, nxtVersion, blockHeight));
             //
-            // Get the child transaction bundler rates
+            // Get the child transaction bundler rates in the background.  The rates
+            // are refreshed when blocks are pushed.
+            //
+            rateRefresher = new BundlerRateRefresher();
+            rateRefresher.refresh();
+            feeEstimator = new FeeEstimator();
+            //
+            // Get the coin exchange orders in the background.  The order books are
+            // refreshed when blocks are pushed.
+            //
+            Nxt.getAllChains().forEach(chain -> orderBooks.put(chain.getId(), new OrderBook(chain)));
+            orderBooks.values().forEach(orderBook -> orderBook.refresh(RequestPriority.BULK));
+            //
+            // Get the economic clustering block for local payments in the background.
+            // The block is refreshed when blocks are pushed.
             //
-            response = Nxt.getBundlerRates();
-            List<Response> rates = response.getObjectList("rates");
-            rates.forEach(rate -> {
-                bundlerRates.put(rate.getInt("chain"), rate.getLong("minRateNQTPerFXT"));
-             });
+            paymentBuilder = new PaymentBuilder(comparePayments);
+            if (localPayments)
+                paymentBuilder.refresh();
             //
             // Get the initial account information
             //
-            accountName = getAccount(accountId, accountTransactions, unconfirmedTransactions, accountBalance);
+            accountState = WalletClient.await(eventSource.getAccount(accountId));
+            accountStates.put(accountId, accountState);
+            accountName = accountState.getAccountName();
             //
             // Start the GUI
             //
@@ -357,35 +480,44 @@ public class Main {
     /**
      * Get account information
      *
+     * This method issues Nxt API requests and must not be called on the Swing event
+     * dispatch thread.  Use WalletClient.getAccount() to load the account in the background.
+     *
      * @param   accountId               Account identifier
-     * @param   transactionList         Account transactions list
-     * @param   unconfirmedList         Unconfirmed account transactions list
-     * @param   balances                Account balances
-     * @return                          Account name
-     * @throws  IdentifierException     Invalid Nxt object identifier
+     * @return                          Account state
      * @throws  IOException             Unable to issue Nxt API request
      */
-    public static String getAccount(long accountId, List<Transaction> transactionList,
-                                List<Transaction> unconfirmedList, Map<Integer, Balance> balances)
-                                throws IdentifierException, IOException {
-        Response response = Nxt.getAccount(accountId);
+    public static AccountState getAccount(long accountId) throws IOException {
+        long startTime = System.nanoTime();
+        Response response = WalletClient.await(client.getAccountInfo(accountId));
         String name = response.getString("name");
+        List<Transaction> transactionList = new ArrayList<>();
+        Map<Integer, Balance> balances = new HashMap<>();
         for (Chain chain : Nxt.getAllChains()) {
-            List<Response> txList;
+            List<Transaction> txList;
             for (int index=0; ; index+=50) {
-                txList = Nxt.getBlockchainTransactions(accountId, chain, index, index+49);
-                if (!txList.isEmpty())
-                    transactionList.addAll(Transaction.processTransactions(txList));
+                txList = WalletClient.await(client.getBlockchainTransactions(accountId, chain, index, index+49));
+                transactionList.addAll(txList);
                 if (txList.size() < 50)
                     break;
             }
-            txList = Nxt.getUnconfirmedTransactions(accountId, chain);
-            if (!txList.isEmpty()) {
-                unconfirmedList.addAll(Transaction.processTransactions(txList));
-            }
-            balances.put(chain.getId(), Nxt.getBalance(accountId, chain));
+            transactionList.addAll(WalletClient.await(client.getUnconfirmedTransactions(accountId, chain)));
+            balances.put(chain.getId(), WalletClient.await(client.getBalance(accountId, chain)));
         }
-        return name;
+        log.info(String.format("Loaded %d transactions for account %s in %d ms", transactionList.size(),
+                               Utils.getAccountRsId(accountId), (System.nanoTime() - startTime) / 1000000L));
+        return new AccountState(accountId, name, transactionList, balances);
+    }
+
+    /**
+     * Get a file in the application data directory.  An absolute path is used as-is.
+     *
+     * @param   path                    File path
+     * @return                          File
+     */
+    private static File getDataFile(String path) {
+        File file = new File(path);
+        return (file.isAbsolute() ? file : new File(dataPath, path));
     }
 
     /**
@@ -420,6 +552,30 @@ public class Main {
      * Shutdown and exit
      */
     public static void shutdown() {
+        //
+        // Stop the server event source and the Nxt API client
+        //
+        if (eventSource != null && eventSource != client)
+            eventSource.shutdown();
+        if (client != null) {
+            log.info("Transaction cache: " + client.getResponseCache().getReport());
+            log.info("HTTP transport: " + client.getTransport().getReport());
+            if (paymentBuilder != null)
+                log.info("Local payments: " + paymentBuilder.getReport());
+            if (feeEstimator != null)
+                log.info("Fee estimates: " + feeEstimator.getReport());
+            if (expiryTracker != null)
+                log.info("Expired transactions: " + expiryTracker.getReport());
+            client.shutdown();
+        }
+        if (stubServer != null)
+            stubServer.stop();
+        if (sessionKeys != null)
+            sessionKeys.lockAll();
+        if (outbox != null) {
+            log.info("Outbox: " + outbox.getReport());
+            outbox.close();
+        }
         //
         // Save the application properties
         //
@@ -497,6 +653,9 @@ public class Main {
                     case "connect":
                         connect = value.toLowerCase();
                         break;
+                    case "node":
+                        nodes.add(value.toLowerCase());
+                        break;
                     case "account":
                         value = value.toUpperCase();
                         if (value.startsWith("NXT-")) {
@@ -513,6 +672,41 @@ public class Main {
                     case "usessl":
                         useSSL = Boolean.valueOf(value);
                         break;
+                    case "latencyloginterval":
+                        latencyLogInterval = Integer.valueOf(value);
+                        break;
+                    case "recordevents":
+                        recordEvents = value;
+                        break;
+                    case "replayevents":
+                        replayEvents = value;
+                        break;
+                    case "replayspeed":
+                        replaySpeed = Double.valueOf(value);
+                        break;
+                    case "stubnode":
+                        stubNode = Boolean.valueOf(value);
+                        break;
+                    case "compressresponses":
+                        compressResponses = Boolean.valueOf(value);
+                        break;
+                    case "syncmode":
+                        syncMode = value.toLowerCase();
+                        if (!syncMode.equals("events") && !syncMode.equals("polling"))
+                            throw new IllegalArgumentException(String.format("Invalid sync mode: %s", value));
+                        break;
+                    case "pollinterval":
+                        pollInterval = Integer.valueOf(value);
+                        break;
+                    case "keytimeout":
+                        keyTimeout = Integer.valueOf(value);
+                        break;
+                    case "localpayments":
+                        localPayments = Boolean.valueOf(value);
+                        break;
+                    case "comparepayments":
+                        comparePayments = Boolean.valueOf(value);
+                        break;
                     default:
                         throw new IllegalArgumentException(String.format("Invalid configuration option: %s", line));
                 }
@@ -15,25 +15,18 @@
  */
 package org.ScripterRon.Nxt2Wallet;
 
-import org.ScripterRon.Nxt2API.Balance;
 import org.ScripterRon.Nxt2API.Chain;
-import org.ScripterRon.Nxt2API.Event;
-import org.ScripterRon.Nxt2API.IdentifierException;
 import org.ScripterRon.Nxt2API.Nxt;
-import org.ScripterRon.Nxt2API.Response;
 import org.ScripterRon.Nxt2API.Transaction;
 import org.ScripterRon.Nxt2API.Utils;
 
-import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
 import java.math.BigDecimal;
 import java.math.MathContext;
-import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import java.awt.BorderLayout;
 import java.awt.Color;
@@ -61,7 +54,6 @@ import javax.swing.JScrollPane;
 import javax.swing.JTabbedPane;
 import javax.swing.JTable;
 import javax.swing.ListSelectionModel;
-import javax.swing.SwingUtilities;
 import javax.swing.WindowConstants;
 import javax.swing.table.AbstractTableModel;
 import javax.swing.table.TableRowSorter;
@@ -69,7 +61,7 @@ import javax.swing.table.TableRowSorter;
 /**
  * Main application window
  */
-public class MainWindow extends JFrame implements ActionListener, Runnable {
+public class MainWindow extends JFrame implements ActionListener {
 
     /** Number of blocks required to confirm a transaction */
     private static final int CONFIRM_COUNT = 5;
@@ -118,14 +110,8 @@ public class MainWindow extends JFrame implements ActionListener, Runnable {
     /** Transaction table model */
     private final TransactionTableModel[] tableModel;
 
-    /** Event handler thread */
-    private Thread eventThread = null;
-
-    /** Event handler shutdown started */
-    private volatile boolean shutdown = false;
-
-    /** Event handler token */
-    private long eventToken;
+    /** Account sync engine */
+    private final SyncEngine syncEngine;
 
     /**
      * Create the application window
@@ -171,9 +157,11 @@ public class MainWindow extends JFrame implements ActionListener, Runnable {
         //
         // Add the "File" menu to the menu bar
         //
-        // The "File" menu contains "Change Account" and "Exit"
+        // The "File" menu contains "Change Account", "Batch Payments", "Sweep Accounts" and "Exit"
         //
         menuBar.add(new Menu(this, "File", new String[] {"Change Account", "change account"},
+                                           new String[] {"Batch Payments", "batch payments"},
+                                           new String[] {"Sweep Accounts", "sweep accounts"},
                                            new String[] {"Exit", "exit"}));
         //
         // Add the "Help" menu to the menu bar
@@ -257,9 +245,13 @@ public class MainWindow extends JFrame implements ActionListener, Runnable {
         //
         updateNodeStatus();
         //
-        // Start our event handler
+        // Start our event handler or the block poller
         //
-        startEventHandler();
+        if (Main.syncMode.equals("polling"))
+            syncEngine = new PollingSync(this, Main.pollInterval);
+        else
+            syncEngine = new EventHandler(this);
+        syncEngine.start();
     }
 
     /**
@@ -271,11 +263,13 @@ public class MainWindow extends JFrame implements ActionListener, Runnable {
     public void actionPerformed(ActionEvent ae) {
         //
         // "about"              - Display information about this program
+        // "batch payments"     - Send the payments in a payment file
         // "change account"     - Change the Nxt account
         // "copy hash"          - Copy transaction hash to clipboard
         // "copy id"            - Copy transaction identifier to clipboard
         // "exit"               - Exit the program
         // "send nxt"           - Send Nxt
+        // "sweep accounts"     - Move the account balances to a single account
         // "view contacts"      - View contacts
         // "view exchange"      - View exchange orders
         // "view transaction"   - View transaction details
@@ -291,9 +285,15 @@ public class MainWindow extends JFrame implements ActionListener, Runnable {
                 case "about":
                     aboutNxtWallet();
                     break;
+                case "batch payments":
+                    BatchPaymentDialog.showDialog(this);
+                    break;
                 case "change account":
                     changeAccount();
                     break;
+                case "sweep accounts":
+                    SweepDialog.showDialog(this);
+                    break;
                 case "exit":
                     exitProgram();
                     break;
@@ -406,9 +406,9 @@ public class MainWindow extends JFrame implements ActionListener, Runnable {
      */
     private void exitProgram() {
         //
-        // Stop our event handler
+        // Stop our event handler or the block poller
         //
-        stopEventHandler();
+        syncEngine.stop();
         //
         // Remember the current window position and size unless the window
         // is minimized
@@ -431,226 +431,98 @@ public class MainWindow extends JFrame implements ActionListener, Runnable {
      * @param   chain           Current chain
      */
     private void viewExchange(Chain chain) {
-        try {
-            List<Response> orderList = Nxt.getCoinExchangeOrders(chain);
-            ExchangeDialog.showDialog(this, chain, orderList);
-        } catch (IOException exc) {
-            Main.log.error("Unable to get exchange orders", exc);
-            Main.logException("Unable to get exchange orders", exc);
-        } catch (Exception exc) {
-            Main.log.error("Exception while viewing exchange orders", exc);
-            Main.logException("Exception while viewing exchange orders", exc);
-        }
+        ExchangeDialog.showDialog(this, Main.orderBooks.get(chain.getId()));
     }
 
     /**
      * Change the Nxt account
+     *
+     * Watched accounts are kept current by the sync engine, so switching to a
+     * watched account does not require the account information to be reloaded.
      */
     private void changeAccount() {
         //
-        // Get the new account information
+        // Get the new account
         //
         long accountId = AccountDialog.showDialog(this);
-        if (accountId == 0)
-            return;
-        int i = Main.accounts.indexOf(accountId);
-        final String secretPhrase = (i >= 0 ? Main.secretPhrases.get(i) : "");
-        final List<Transaction> accountTransactions = new ArrayList<>();
-        final List<Transaction> unconfirmedTransactions = new ArrayList<>();
-        final Map<Integer, Balance> balances = new HashMap<>();
-        final String name;
-        try {
-            name = Main.getAccount(accountId, accountTransactions, unconfirmedTransactions, balances);
-        } catch (IdentifierException exc) {
-            Main.log.error("Invalid Nxt object identifier in response", exc);
-            Main.logException("Invalid Nxt object identifier in response", exc);
-            return;
-        } catch (IOException exc) {
-            Main.log.error("Unable to get initial account information", exc);
-            Main.logException("Unable to get initial account information", exc);
+        if (accountId == 0 || accountId == Main.accountId)
             return;
-        }
         //
-        // Switch to the new account
+        // Switch to the account if it is being watched.  Otherwise, register the account
+        // events and load the account in the background.
         //
-        stopEventHandler();
-        SwingUtilities.invokeLater(() -> {
-            Main.passPhrase = secretPhrase;
-            Main.accountId = accountId;
-            Main.accountRsId = Utils.getAccountRsId(accountId);
-            Main.accountName = name;
-            Main.accountTransactions = accountTransactions;
-            Main.unconfirmedTransactions = unconfirmedTransactions;
-            Main.accountBalance = balances;
-            for (TransactionTableModel model : tableModel) {
-                model.resetTransactions();
+        AccountState state = Main.accountStates.get(accountId);
+        if (state != null) {
+            switchAccount(state);
+            return;
+        }
+        CompletableFuture<AccountState> future =
+                syncEngine.watchAccount(accountId).thenCompose(v -> Main.eventSource.getAccount(accountId));
+        WalletClient.invokeLater(future, (loadedState, exc) -> {
+            if (exc != null) {
+                Main.log.error("Unable to get initial account information", exc);
+                Main.logException("Unable to get initial account information", exc);
+            } else {
+                AccountState prevState = Main.accountStates.putIfAbsent(accountId, loadedState);
+                switchAccount(prevState != null ? prevState : loadedState);
             }
-            StringBuilder sb = new StringBuilder(64);
-            sb.append(Utils.idToString(Main.accountId)).append(" / ").append(Main.accountRsId);
-             if (Main.accountName.length() != 0)
-                sb.append(" (").append(Main.accountName).append(")");
-            accountField.setText("<html><b>Account:   " + sb.toString() + "</b></html>");
-            updateNodeStatus();
-            startEventHandler();
         });
     }
 
     /**
-     * Start the Nxt event handler
+     * Switch to a new account
+     *
+     * @param   state           Account state
      */
-    private void startEventHandler() {
-        shutdown = false;
-        eventThread = new Thread(this, "Nxt Event Handler");
-        eventThread.setDaemon(true);
-        eventThread.start();
+    private void switchAccount(AccountState state) {
+        long accountId = state.getAccountId();
+        int i = Main.accounts.indexOf(accountId);
+        Main.passPhrase = (i >= 0 ? Main.secretPhrases.get(i) : "");
+        Main.accountId = accountId;
+        Main.accountRsId = state.getAccountRsId();
+        Main.accountName = state.getAccountName();
+        Main.accountState = state;
+        updateTransactions();
+        StringBuilder sb = new StringBuilder(64);
+        sb.append(Utils.idToString(Main.accountId)).append(" / ").append(Main.accountRsId);
+        if (Main.accountName.length() != 0)
+            sb.append(" (").append(Main.accountName).append(")");
+        accountField.setText("<html><b>Account:   " + sb.toString() + "</b></html>");
+        updateNodeStatus();
     }
 
     /**
-     * Stop the Nxt event handler
+     * Notify the transaction tables that the current account transactions have changed
      */
-    private void stopEventHandler() {
-        shutdown = true;
-        //
-        // Cancel our event listener (this will cause the event wait to complete)
-        //
-        try {
-            List<String> eventList = new ArrayList<>();
-            Nxt.eventRegister(eventList, eventToken, false, true);
-        } catch (IOException exc) {
-            Main.log.error("Unable to cancel event listener", exc);
-            Main.logException("Unable to cancel event listener", exc);
-        }
+    public void updateTransactions() {
+        for (TransactionTableModel model : tableModel)
+            model.fireTableDataChanged();
     }
 
     /**
-     * Process server events
+     * Notify the transaction table for a chain that the current account transactions
+     * have changed
+     *
+     * @param   chainId         Chain identifier
      */
-    @Override
-    public void run() {
-        Main.log.debug("Event handler started");
-        //
-        // Get the initial server status
-        //
-        try {
-            //
-            // Register our events
-            //
-            List<String> eventList = new ArrayList<>();
-            eventList.add("Block.BLOCK_PUSHED");
-            eventList.add("Block.BLOCK_POPPED");
-            eventList.add("Transaction.ADDED_CONFIRMED_TRANSACTIONS." + Main.accountRsId);
-            eventList.add("Transaction.ADDED_UNCONFIRMED_TRANSACTIONS." + Main.accountRsId);
-            eventList.add("Transaction.REMOVED_UNCONFIRMED_TRANSACTIONS." + Main.accountRsId);
-            Response eventResponse = Nxt.eventRegister(eventList, 0, false, false);
-            eventToken = eventResponse.getLong("token");
-        } catch (IOException exc) {
-            Main.log.error("Unable to register our events", exc);
-            Main.logException("Unable to register our events", exc);
-            shutdown = true;
-        } catch (Exception exc) {
-            Main.log.error("Exception while registering server events", exc);
-            Main.logException("Exception while registering server events", exc);
-            shutdown = true;
-        }
-        //
-        // Process server events
-        //
-        while (!shutdown) {
-            try {
-                //
-                // Wait for an event
-                //
-                List<Event> eventList = Nxt.eventWait(eventToken, 60);
-                if (shutdown)
-                    break;
-                if (eventList.isEmpty())
-                    continue;
-                //
-                // Process the events
-                //
-                Response response;
-                for (Event event : eventList) {
-                    if (Main.log.isDebugEnabled()) {
-                        Main.log.debug("Processing event " + event.getName() + ": " + event.getIds());
-                    }
-                    switch (event.getName()) {
-                        case "Block.BLOCK_PUSHED":
-                            response = Nxt.getBlockchainStatus();
-                            Main.blockHeight = response.getInt("numberOfBlocks") - 1;
-                            SwingUtilities.invokeAndWait(() -> {
-                                for (TransactionTableModel model : tableModel) {
-                                    model.updateTransactionStatus();
-                                }
-                            });
-                            break;
-                        case "Transaction.ADDED_CONFIRMED_TRANSACTIONS":
-                        case "Transaction.ADDED_UNCONFIRMED_TRANSACTIONS":
-                            for (String eventId : event.getIds()) {
-                                String[] eventParts = eventId.split(":");
-                                if (eventParts.length != 2) {
-                                    Main.log.error("Invalid transaction event id: " + eventId);
-                                } else {
-                                    final Chain txChain = Nxt.getChain(Integer.valueOf(eventParts[0]));
-                                    byte[] fullHash = Utils.parseHexString(eventParts[1]);
-                                    response = Nxt.getTransaction(fullHash, txChain);
-                                    final Transaction addedTx = new Transaction(response);
-                                    SwingUtilities.invokeAndWait(() -> {
-                                        tableMap.get(txChain.getId()).addTransaction(addedTx);
-                                    });
-                                }
-                            }
-                            break;
-                        case "Transaction.REMOVED_UNCONFIRMED_TRANSACTIONS":
-                            for (String eventId : event.getIds()) {
-                                String[] eventParts = eventId.split(":");
-                                if (eventParts.length != 2) {
-                                    Main.log.error("Invalid transaction event id: " + eventId);
-                                } else {
-                                    final int txChainId = Integer.valueOf(eventParts[0]);
-                                    final byte[] fullHash = Utils.parseHexString(eventParts[1]);
-                                    SwingUtilities.invokeAndWait(() -> {
-                                        tableMap.get(txChainId).removeUnconfirmedTransaction(fullHash);
-                                    });
-                                }
-                            }
-                            break;
-                        case "Block.BLOCK_POPPED":
-                            final long popBlockId = Utils.stringToId(event.getIds().get(0));
-                            SwingUtilities.invokeLater(() -> {
-                                for (TransactionTableModel model : tableModel)
-                                    model.popTransactions(popBlockId);
-                            });
-                            break;
-                    }
-                }
-                //
-                // Update the account balances
-                //
-                Map<Integer, Balance> balances = Nxt.getBalances(Main.accountId);
-                SwingUtilities.invokeLater(() -> {
-                    Main.accountBalance = balances;
-                    updateNodeStatus();
-                });
-            } catch (InterruptedException | InvocationTargetException exc) {
-                Main.log.error("Unable to perform status update", exc);
-                Main.logException("Unable to perform status update", exc);
-                shutdown = true;
-            } catch (IOException exc) {
-                Main.log.error("Unable to process server event", exc);
-                Main.logException("Unable to process server event", exc);
-                shutdown = true;
-            } catch (Exception exc) {
-                Main.log.error("Exception while processing server event", exc);
-                Main.logException("Exception while processing server event", exc);
-            }
-        }
-        Main.log.debug("Event handler stopped");
+    public void updateTransactions(int chainId) {
+        TransactionTableModel model = tableMap.get(chainId);
+        if (model != null)
+            model.fireTableDataChanged();
+    }
+
+    /**
+     * Update the transaction status for a new block
+     */
+    public void updateTransactionStatus() {
+        for (TransactionTableModel model : tableModel)
+            model.updateTransactionStatus();
     }
 
     /**
      * Update the node status
      */
-    private void updateNodeStatus() {
+    public void updateNodeStatus() {
         chainHeightField.setText("<html><b>Chain height:   " + Main.blockHeight + "</b></html>");
         StringBuilder sb = new StringBuilder(64);
         sb.append("<html><b>Account balances:   ");
@@ -659,7 +531,8 @@ public class MainWindow extends JFrame implements ActionListener, Runnable {
             if (!firstBalance)
                 sb.append(",  ");
             sb.append(Utils.nqtToString(
-                    Main.accountBalance.get(chain.getId()).getUnconfirmedBalance(), chain.getDecimals()))
+                    Main.accountState.getBalances().get(chain.getId()).getUnconfirmedBalance(),
+                    chain.getDecimals()))
                     .append(" ").append(chain.getName());
             firstBalance = false;
         }
@@ -708,6 +581,32 @@ public class MainWindow extends JFrame implements ActionListener, Runnable {
         info.append("<br>Maximum Java memory size: ");
         info.append(String.format("%,.3f MB", (double)Runtime.getRuntime().maxMemory()/(1024.0*1024.0)));
 
+        if (Main.client.getNodePool().getNodeCount() > 1) {
+            info.append("<br><br>Nxt nodes (* is used for events and transactions):");
+            info.append(Main.client.getNodePool().getReport());
+        }
+
+        info.append("<br><br>Transaction cache: ");
+        info.append(Main.client.getResponseCache().getReport());
+
+        info.append("<br>Coalesced requests: ");
+        info.append(String.format("%,d of %,d read requests", Main.client.getSingleFlight().getCoalescedCount(),
+                                  Main.client.getSingleFlight().getRequestCount()));
+
+        info.append("<br>HTTP transport: ");
+        info.append(Main.client.getTransport().getReport());
+
+        info.append("<br><br>Concurrency limits (milliseconds):");
+        info.append(ConcurrencyLimiter.getReportHeader());
+        Main.client.getLimiters().forEach(limiter -> info.append(limiter.getReportRow()));
+        info.append("</table>");
+
+        String latencyReport = EventLatency.getReport();
+        if (!latencyReport.isEmpty()) {
+            info.append("<br><br>Event latency (milliseconds):");
+            info.append(latencyReport);
+        }
+
         info.append("</html>");
         JOptionPane.showMessageDialog(this, info.toString(), "About NxtWallet",
                                       JOptionPane.INFORMATION_MESSAGE);
@@ -771,12 +670,6 @@ public class MainWindow extends JFrame implements ActionListener, Runnable {
         /** Chain */
         private final Chain chain;
 
-        /** Account transactions */
-        private final List<Transaction> txList = new LinkedList<>();
-
-        /** Account transaction map */
-        private final Map<Long, Transaction> txMap = new HashMap<>();
-
         /**
          * Create the transaction table model
          *
@@ -791,28 +684,6 @@ public class MainWindow extends JFrame implements ActionListener, Runnable {
             this.columnNames = columnNames;
             this.columnClasses = columnClasses;
             this.chain = chain;
-            //
-            // Build the initial transaction list
-            //
-            Main.accountTransactions.forEach(tx -> {
-                if (tx.getChain() == chain) {
-                    txList.add(tx);
-                    txMap.put(tx.getId(), tx);
-                }
-            });
-            Main.unconfirmedTransactions.forEach(tx -> {
-                if (tx.getChain() == chain) {
-                    txList.add(tx);
-                    txMap.put(tx.getId(), tx);
-                }
-            });
-            //
-            // Sort the transaction by descending timestamp
-            //
-            txList.sort((o1, o2) -> {
-                int c = (o1.getTimestamp().compareTo(o2.getTimestamp()));
-                return (c < 0 ? 1 : (c > 0 ? -1 : 0));
-            });
         }
 
         /**
@@ -854,7 +725,7 @@ public class MainWindow extends JFrame implements ActionListener, Runnable {
          */
         @Override
         public int getRowCount() {
-            return txList.size();
+            return getTransactions().size();
         }
 
         /**
@@ -866,6 +737,7 @@ public class MainWindow extends JFrame implements ActionListener, Runnable {
          */
         @Override
         public Object getValueAt(int row, int column) {
+            List<Transaction> txList = getTransactions();
             if (row >= txList.size())
                 throw new IndexOutOfBoundsException("Table row "+row+" is not valid");
             Object value;
@@ -946,79 +818,29 @@ public class MainWindow extends JFrame implements ActionListener, Runnable {
         }
 
         /**
-         * Get the transaction for the specified row
+         * Get the current account transactions for this table
          *
-         * @param   row         Table row
-         * @return              Transaction
+         * @return              Transaction list
          */
-        public Transaction getTransaction(int row) {
-            return txList.get(row);
+        private List<Transaction> getTransactions() {
+            return Main.accountState.getTransactions(chain.getId());
         }
 
         /**
-         * Reset the account transactions
-         */
-        public void resetTransactions() {
-            txList.clear();
-            txMap.clear();
-            //
-            // Build the initial transaction list
-            //
-            Main.accountTransactions.forEach(tx -> {
-                if (tx.getChain() == chain) {
-                    txList.add(tx);
-                    txMap.put(tx.getId(), tx);
-                }
-            });
-            Main.unconfirmedTransactions.forEach(tx -> {
-                if (tx.getChain() == chain) {
-                    txList.add(tx);
-                    txMap.put(tx.getId(), tx);
-                }
-            });
-            //
-            // Sort the transaction by descending timestamp
-            //
-            txList.sort((o1, o2) -> {
-                int c = (o1.getTimestamp().compareTo(o2.getTimestamp()));
-                return (c < 0 ? 1 : (c > 0 ? -1 : 0));
-            });
-            //
-            // Notify listeners that the table data has changed
-            //
-            fireTableDataChanged();
-        }
-
-        /**
-         * Add a confirmed account transaction
+         * Get the transaction for the specified row
          *
-         * @param       tx              Transaction
+         * @param   row         Table row
+         * @return              Transaction
          */
-        public void addTransaction(Transaction tx) {
-            if (tx.getChain() == chain) {
-                Transaction listTx = txMap.get(tx.getId());
-                if (listTx != null) {
-                    if (listTx.getBlockId() != tx.getBlockId() && tx.getBlockId() != 0) {
-                        listTx.setBlockId(tx.getBlockId());
-                        listTx.setHeight(tx.getHeight());
-                        fireTableDataChanged();
-                    }
-                } else {
-                    txList.add(tx);
-                    txMap.put(tx.getId(), tx);
-                    txList.sort((o1, o2) -> {
-                        int c = (o1.getTimestamp().compareTo(o2.getTimestamp()));
-                        return (c < 0 ? 1 : (c > 0 ? -1 : 0));
-                    });
-                    fireTableDataChanged();
-                }
-            }
+        public Transaction getTransaction(int row) {
+            return getTransactions().get(row);
         }
 
         /**
          * Update transaction status
          */
         public void updateTransactionStatus() {
+            List<Transaction> txList = getTransactions();
             for (int i=0; i<10; i++) {
                 if (i == txList.size())
                     break;
@@ -1028,37 +850,5 @@ public class MainWindow extends JFrame implements ActionListener, Runnable {
                 }
             }
         }
-
-        /**
-         * Mark transactions in popped block as unconfirmed
-         *
-         * @param       blockId         Block identifier
-         */
-        public void popTransactions(long blockId) {
-            txList.forEach(tx -> {
-                if (tx.getBlockId() == blockId) {
-                    tx.setBlockId(0);
-                    tx.setHeight(0);
-                }
-            });
-            fireTableDataChanged();
-        }
-
-        /**
-         * Remove unconfirmed child block transactions.  This is necessary because
-         * the bundler will create multiple child block transactions as new child
-         * transactions are received.
-         *
-         * @param       fullHash        Transaction hash
-         */
-        public void removeUnconfirmedTransaction(byte[] fullHash) {
-            long txId = Utils.fullHashToId(fullHash);
-            Transaction tx = txMap.get(txId);
-            if (tx != null && tx.getBlockId() == 0 && tx.getTransactionType().getType() == -1) {
-                txList.remove(tx);
-                txMap.remove(txId);
-                fireTableDataChanged();
-            }
-        }
     }
 }
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2017 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Wallet;
+
+import org.ScripterRon.Nxt2API.Event;
+
+import java.util.List;
+
+/**
+ * NodeEvent is a server event reported by the event wait API.  The event name is
+ * the registered event without the account suffix and the identifiers are the
+ * block identifiers or the chain and transaction full hash ("chainId:fullHash").
+ */
+public class NodeEvent {
+
+    /** Event name */
+    private final String name;
+
+    /** Event identifiers */
+    private final List<String> ids;
+
+    /**
+     * Create a server event
+     *
+     * @param   name                    Event name
+     * @param   ids                     Event identifiers
+     */
+    public NodeEvent(String name, List<String> ids) {
+        this.name = name;
+        this.ids = ids;
+    }
+
+    /**
+     * Create a server event from a Nxt API event
+     *
+     * @param   event                   Nxt API event
+     */
+    public NodeEvent(Event event) {
+        this(event.getName(), event.getIds());
+    }
+
+    /**
+     * Get the event name
+     *
+     * @return                          Event name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the event identifiers
+     *
+     * @return                          Event identifiers
+     */
+    public List<String> getIds() {
+        return ids;
+    }
+}
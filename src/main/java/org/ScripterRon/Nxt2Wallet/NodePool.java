@@ -0,0 +1,770 @@
+/*
+ * Copyright 2017 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Wallet;
+
+import org.ScripterRon.Nxt2API.Nxt;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * NodePool contains the Nxt nodes used by the wallet.  The nodes are checked
+ * periodically and ranked by their response time.  A node is unhealthy if a request
+ * fails or if its chain height is behind the other nodes.
+ *
+ * Idempotent read requests are sent directly to the fastest healthy node.  The request
+ * is hedged by sending it to the next fastest node if there is no response within the
+ * 95th percentile response time of the first node.  The first response is used and
+ * the other request is cancelled.
+ *
+ * All other requests are issued by the Nxt API library, which is connected to a single
+ * node.  The library is connected to another node when a request fails.  The library
+ * is global, so library requests hold the read side of the library lock and the
+ * failover holds the write side.  This keeps a request from seeing the library while
+ * it is being connected to the new node.
+ *
+ * Each node has an adaptive concurrency limit for the read requests.  A request waits
+ * for a permit when the node already has as many outstanding requests as it can handle.
+ */
+public class NodePool {
+
+    /** Health check interval (milliseconds) */
+    private static final long HEALTH_INTERVAL = 30 * 1000;
+
+    /** Hedge delay when the node has no response times (milliseconds) */
+    private static final long HEDGE_DEFAULT = 500;
+
+    /** Minimum hedge delay (milliseconds) */
+    private static final long HEDGE_MIN = 20;
+
+    /** Maximum number of blocks a healthy node can be behind the other nodes */
+    private static final int MAX_HEIGHT_LAG = 3;
+
+    /** Decoder for a response object */
+    private static final ResponseDecoder<Map<String, Object>> OBJECT_DECODER = reader -> {
+        Map<String, Object> response = JsonResponse.parseObject(HttpTransport.readText(reader));
+        if (response.get("errorCode") != null)
+            throw new ApiException(response.get("errorCode"), response.get("errorDescription"));
+        return response;
+    };
+
+    /** Nxt nodes */
+    private final List<Node> nodes = new ArrayList<>();
+
+    /** Request executor */
+    private final ExecutorService executor;
+
+    /** Request timer */
+    private final ScheduledExecutorService timer;
+
+    /** HTTP transport */
+    private final HttpTransport transport;
+
+    /** Node used by the Nxt API library */
+    private Node libraryNode;
+
+    /** Nxt API library lock */
+    private final ReentrantReadWriteLock libraryLock = new ReentrantReadWriteLock();
+
+    /** Number of hedged requests */
+    private final AtomicLong hedgeCount = new AtomicLong();
+
+    /** Number of hedged requests completed by the hedge node */
+    private final AtomicLong hedgeWins = new AtomicLong();
+
+    /** Number of library failovers */
+    private final AtomicLong failoverCount = new AtomicLong();
+
+    /**
+     * Create the node pool.  The first node is used by the Nxt API library.
+     *
+     * @param   nodeList                Node list (host or host:port)
+     * @param   executor                Request executor
+     * @param   timer                   Request timer
+     * @param   transport               HTTP transport
+     */
+    public NodePool(List<String> nodeList, ExecutorService executor, ScheduledExecutorService timer,
+                    HttpTransport transport) {
+        this.executor = executor;
+        this.timer = timer;
+        this.transport = transport;
+        for (String node : nodeList) {
+            int sep = node.lastIndexOf(':');
+            String host = (sep > 0 ? node.substring(0, sep) : node).toLowerCase();
+            int port = (sep > 0 ? Integer.valueOf(node.substring(sep + 1)) : Main.apiPort);
+            nodes.add(new Node(host, port, (Main.useSSL && !host.equals("localhost"))));
+        }
+        libraryNode = nodes.get(0);
+        if (nodes.size() > 1)
+            timer.scheduleAtFixedRate(() -> nodes.forEach(n -> executor.submit(() -> checkNode(n))),
+                                      0, HEALTH_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Get the number of nodes
+     *
+     * @return                          Number of nodes
+     */
+    public int getNodeCount() {
+        return nodes.size();
+    }
+
+    /**
+     * Switch the Nxt API library to the fastest healthy node after a request failure.
+     * Nothing is done if the library node was changed after the failed request was
+     * issued or if there are no other healthy nodes.
+     *
+     * The library is not switched until the library requests in progress have
+     * completed.  The caller must not hold the library read lock.
+     *
+     * @param   failedNode              Node used for the failed request
+     * @return                          TRUE if the library is connected to a different node
+     */
+    public boolean failover(String failedNode) {
+        libraryLock.writeLock().lock();
+        try {
+            synchronized(this) {
+                if (!libraryNode.getName().equals(failedNode))
+                    return true;
+                libraryNode.setHealthy(false);
+                List<Node> ranked = getRankedNodes();
+                if (ranked.isEmpty() || ranked.get(0) == libraryNode)
+                    return false;
+                Node node = ranked.get(0);
+                try {
+                    Nxt.init(node.getHost(), node.getPort(), node.useSSL());
+                    Main.log.warn(String.format("Nxt node %s failed - switched to %s",
+                                                failedNode, node.getName()));
+                    libraryNode = node;
+                    failoverCount.incrementAndGet();
+                    return true;
+                } catch (IOException exc) {
+                    Main.log.error(String.format("Unable to connect to Nxt node %s", node.getName()), exc);
+                    node.setHealthy(false);
+                    return false;
+                }
+            }
+        } finally {
+            libraryLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Issue a Nxt API library request.  The library is not switched to another node
+     * while the request is in progress.
+     *
+     * @param   <T>                     Request result type
+     * @param   task                    Library request
+     * @return                          Request result
+     * @throws  Exception               Request failed
+     */
+    public <T> T callLibrary(Callable<T> task) throws Exception {
+        libraryLock.readLock().lock();
+        try {
+            return task.call();
+        } finally {
+            libraryLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the node used by the Nxt API library
+     *
+     * @return                          Node name (host:port)
+     */
+    public synchronized String getLibraryNode() {
+        return libraryNode.getName();
+    }
+
+    /**
+     * Issue a read request.  The request is hedged if it doesn't complete within the
+     * 95th percentile response time of the first node and it is sent to the next node
+     * if the first node fails.
+     *
+     * @param   priority                Request priority
+     * @param   requestType             Nxt API request type
+     * @param   params                  Request parameter names and values
+     * @return                          Future for the response object
+     */
+    public CompletableFuture<Map<String, Object>> read(RequestPriority priority, String requestType,
+                                                       String... params) {
+        return read(priority, OBJECT_DECODER, requestType, params);
+    }
+
+    /**
+     * Issue a read request and decode the response while it is being received.  The
+     * decoder must throw ApiException if the response is an error response.
+     *
+     * @param   <T>                     Decoded result type
+     * @param   priority                Request priority
+     * @param   decoder                 Response decoder
+     * @param   requestType             Nxt API request type
+     * @param   params                  Request parameter names and values
+     * @return                          Future for the decoded result
+     */
+    public <T> CompletableFuture<T> read(RequestPriority priority, ResponseDecoder<T> decoder, String requestType,
+                                         String... params) {
+        List<Node> ranked;
+        synchronized(this) {
+            ranked = getRankedNodes();
+            if (ranked.isEmpty())
+                ranked.add(libraryNode);
+        }
+        return new HedgedRequest<>(priority, buildQuery(requestType, params), decoder, ranked).start();
+    }
+
+    /**
+     * Send a request that changes the node state.  The request is sent to the node used
+     * by the Nxt API library and is not hedged.  This method blocks until the response
+     * is received and should not be called on the Swing event dispatch thread.
+     *
+     * @param   priority                Request priority
+     * @param   requestType             Nxt API request type
+     * @param   params                  Request parameter names and values
+     * @return                          Response object
+     * @throws  IOException             Request failed
+     */
+    public Map<String, Object> send(RequestPriority priority, String requestType, String... params)
+                                    throws IOException {
+        String content = buildQuery(requestType, params);
+        Node node;
+        synchronized(this) {
+            node = libraryNode;
+        }
+        ConcurrencyLimiter limiter = node.getLimiter();
+        long startTime;
+        try {
+            startTime = limiter.acquire(priority);
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Request interrupted");
+        }
+        boolean dropped = false;
+        try {
+            Map<String, Object> response = transport.post(node.getUrl(), content, OBJECT_DECODER);
+            node.recordLatency(System.nanoTime() - startTime, true);
+            return response;
+        } catch (ApiException exc) {
+            node.recordLatency(System.nanoTime() - startTime, true);
+            throw exc;
+        } catch (IOException exc) {
+            dropped = true;
+            node.recordLatency(System.nanoTime() - startTime, false);
+            throw exc;
+        } finally {
+            limiter.release(priority, startTime, dropped);
+        }
+    }
+
+    /**
+     * Build the request query string
+     *
+     * @param   requestType             Nxt API request type
+     * @param   params                  Request parameter names and values
+     * @return                          Form-encoded query string
+     */
+    private static String buildQuery(String requestType, String... params) {
+        StringBuilder sb = new StringBuilder(128);
+        sb.append("requestType=").append(requestType);
+        try {
+            for (int i=0; i<params.length-1; i+=2)
+                sb.append('&').append(params[i]).append('=').append(URLEncoder.encode(params[i+1], "UTF-8"));
+        } catch (IOException exc) {
+            throw new IllegalArgumentException("UTF-8 encoding not supported", exc);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Get the healthy nodes sorted by response time
+     *
+     * @return                          Healthy nodes
+     */
+    private List<Node> getRankedNodes() {
+        List<Node> ranked = new ArrayList<>(nodes.size());
+        nodes.forEach(node -> {
+            if (node.isHealthy())
+                ranked.add(node);
+        });
+        ranked.sort((n1, n2) -> Double.compare(n1.getAverage(), n2.getAverage()));
+        return ranked;
+    }
+
+    /**
+     * Check the health of a node
+     *
+     * @param   node                    Node to check
+     */
+    private void checkNode(Node node) {
+        long startTime = System.nanoTime();
+        try {
+            Map<String, Object> response = sendRequest(node, "requestType=getBlockchainStatus", OBJECT_DECODER);
+            node.recordLatency(System.nanoTime() - startTime, true);
+            node.setHeight(((Number)response.get("numberOfBlocks")).intValue() - 1);
+            int maxHeight = nodes.stream().mapToInt(Node::getHeight).max().orElse(0);
+            boolean healthy = (node.getHeight() >= maxHeight - MAX_HEIGHT_LAG);
+            if (healthy != node.isHealthy())
+                Main.log.info(String.format("Nxt node %s is %s at height %d", node.getName(),
+                                            (healthy ? "healthy" : "behind"), node.getHeight()));
+            node.setHealthy(healthy);
+        } catch (Exception exc) {
+            if (node.isHealthy())
+                Main.log.warn(String.format("Nxt node %s is not available: %s", node.getName(), exc.getMessage()));
+            node.recordLatency(System.nanoTime() - startTime, false);
+            node.setHealthy(false);
+        }
+    }
+
+    /**
+     * Send a request to a node
+     *
+     * @param   <T>                     Decoded result type
+     * @param   node                    Nxt node
+     * @param   query                   Request query string
+     * @param   decoder                 Response decoder
+     * @return                          Decoded result
+     * @throws  IOException             Request failed
+     */
+    private <T> T sendRequest(Node node, String query, ResponseDecoder<T> decoder) throws IOException {
+        return transport.get(node.getUrl() + "?" + query, decoder);
+    }
+
+    /**
+     * Get the node report for the About dialog
+     *
+     * @return                          HTML table
+     */
+    public String getReport() {
+        StringBuilder sb = new StringBuilder(512);
+        sb.append("<table><tr><th align=left>Node</th><th align=left>Status</th><th>Height</th>")
+          .append("<th>Requests</th><th>Failures</th><th>Average</th><th>p95</th><th>Limit</th></tr>");
+        String current = getLibraryNode();
+        for (Node node : nodes) {
+            sb.append(String.format("<tr><td>%s%s</td><td>%s</td><td align=right>%d</td>"
+                            + "<td align=right>%d</td><td align=right>%d</td>"
+                            + "<td align=right>%.1f</td><td align=right>%.1f</td><td align=right>%d</td></tr>",
+                    node.getName(), (node.getName().equals(current) ? " *" : ""),
+                    (node.isHealthy() ? "Healthy" : "Unhealthy"), node.getHeight(),
+                    node.getRequestCount(), node.getFailureCount(), node.getAverage(), node.getHedgeDelay(),
+                    node.getLimiter().getLimit()));
+        }
+        sb.append("</table>");
+        sb.append(String.format("Hedged requests: %d (%d completed by the hedge node), Failovers: %d",
+                                hedgeCount.get(), hedgeWins.get(), failoverCount.get()));
+        return sb.toString();
+    }
+
+    /**
+     * Read request sent to one or two nodes
+     *
+     * @param   <T>                     Decoded result type
+     */
+    private class HedgedRequest<T> {
+
+        /** Request priority */
+        private final RequestPriority priority;
+
+        /** Request query string */
+        private final String query;
+
+        /** Response decoder */
+        private final ResponseDecoder<T> decoder;
+
+        /** Nodes in request order */
+        private final List<Node> ranked;
+
+        /** Request result */
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+
+        /** Active requests */
+        private final List<Future<?>> requests = new ArrayList<>(2);
+
+        /** Next node */
+        private int nextNode = 0;
+
+        /** Number of outstanding requests */
+        private final AtomicInteger outstanding = new AtomicInteger();
+
+        /** Hedge timer */
+        private ScheduledFuture<?> hedgeTimer;
+
+        /**
+         * Create the request
+         *
+         * @param   priority            Request priority
+         * @param   query               Request query string
+         * @param   decoder             Response decoder
+         * @param   ranked              Nodes in request order
+         */
+        public HedgedRequest(RequestPriority priority, String query, ResponseDecoder<T> decoder, List<Node> ranked) {
+            this.priority = priority;
+            this.query = query;
+            this.decoder = decoder;
+            this.ranked = ranked;
+        }
+
+        /**
+         * Start the request
+         *
+         * @return                      Future for the decoded result
+         */
+        public CompletableFuture<T> start() {
+            result.whenComplete((response, exc) -> {
+                synchronized(this) {
+                    if (hedgeTimer != null)
+                        hedgeTimer.cancel(false);
+                    requests.forEach(request -> request.cancel(true));
+                }
+            });
+            Node node = sendNext();
+            if (ranked.size() > 1) {
+                synchronized(this) {
+                    hedgeTimer = timer.schedule(() -> {
+                        if (!result.isDone() && sendNext() != null)
+                            hedgeCount.incrementAndGet();
+                    }, Math.max(HEDGE_MIN, (long)node.getHedgeDelay()), TimeUnit.MILLISECONDS);
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Send the request to the next node
+         *
+         * @return                      Node or null if there are no more nodes
+         */
+        private synchronized Node sendNext() {
+            if (nextNode >= ranked.size() || result.isDone())
+                return null;
+            boolean hedge = (nextNode > 0);
+            Node node = ranked.get(nextNode++);
+            outstanding.incrementAndGet();
+            requests.add(executor.submit(() -> {
+                ConcurrencyLimiter limiter = node.getLimiter();
+                long startTime;
+                try {
+                    startTime = limiter.acquire(priority);
+                } catch (InterruptedException exc) {
+                    outstanding.decrementAndGet();
+                    return;
+                }
+                boolean dropped = false;
+                try {
+                    T response = sendRequest(node, query, decoder);
+                    node.recordLatency(System.nanoTime() - startTime, true);
+                    if (result.complete(response) && hedge)
+                        hedgeWins.incrementAndGet();
+                } catch (ApiException exc) {
+                    node.recordLatency(System.nanoTime() - startTime, true);
+                    result.completeExceptionally(exc);
+                    return;
+                } catch (Exception exc) {
+                    if (!result.isDone()) {
+                        dropped = true;
+                        node.recordLatency(System.nanoTime() - startTime, false);
+                        node.setHealthy(false);
+                    }
+                    if (outstanding.decrementAndGet() == 0 && sendNext() == null)
+                        result.completeExceptionally(exc);
+                    return;
+                } finally {
+                    limiter.release(priority, startTime, dropped);
+                }
+                outstanding.decrementAndGet();
+            }));
+            return node;
+        }
+    }
+
+    /**
+     * Error response returned by the Nxt node
+     */
+    static class ApiException extends IOException {
+
+        /** Error code returned when the requested object (such as a transaction) is unknown */
+        public static final int UNKNOWN = 5;
+
+        /** Error code or -1 if the error code is not valid */
+        private final int errorCode;
+
+        /**
+         * Create the exception
+         *
+         * @param   errorCode           Error code returned by the node
+         * @param   errorDescription    Error description returned by the node
+         */
+        public ApiException(Object errorCode, Object errorDescription) {
+            super(String.format("Nxt API error %s: %s", errorCode, errorDescription));
+            int code;
+            try {
+                code = Integer.parseInt(String.valueOf(errorCode));
+            } catch (NumberFormatException exc) {
+                code = -1;
+            }
+            this.errorCode = code;
+        }
+
+        /**
+         * Get the error code
+         *
+         * @return                      Error code or -1 if the error code is not valid
+         */
+        public int getErrorCode() {
+            return errorCode;
+        }
+
+        /**
+         * Check if a request failed because the node doesn't know the requested object
+         *
+         * @param   exc                 Request exception
+         * @return                      TRUE if the node returned the UNKNOWN error code
+         */
+        public static boolean isUnknown(Throwable exc) {
+            Throwable cause = WalletClient.getCause(exc);
+            return (cause instanceof ApiException && ((ApiException)cause).errorCode == UNKNOWN);
+        }
+    }
+
+    /**
+     * Nxt node
+     */
+    private static class Node {
+
+        /** Smoothing factor for the average response time */
+        private static final double ALPHA = 0.2;
+
+        /** Number of recent response times used for the hedge delay */
+        private static final int HEDGE_WINDOW = 200;
+
+        /** Node host */
+        private final String host;
+
+        /** Node API port */
+        private final int port;
+
+        /** Use HTTPS */
+        private final boolean useSSL;
+
+        /** Node API URL */
+        private final String url;
+
+        /** Node is healthy */
+        private volatile boolean healthy = true;
+
+        /** Node chain height */
+        private volatile int height;
+
+        /** Average response time (milliseconds) */
+        private double average;
+
+        /** Number of requests */
+        private long requestCount;
+
+        /** Number of failed requests */
+        private long failureCount;
+
+        /** Recent response times (nanoseconds) */
+        private final long[] recentLatency = new long[HEDGE_WINDOW];
+
+        /** Number of response times recorded */
+        private long latencyCount;
+
+        /** Read request concurrency limit */
+        private final ConcurrencyLimiter limiter;
+
+        /**
+         * Create a node
+         *
+         * @param   host                Node host
+         * @param   port                Node API port
+         * @param   useSSL              TRUE to use HTTPS
+         */
+        public Node(String host, int port, boolean useSSL) {
+            this.host = host;
+            this.port = port;
+            this.useSSL = useSSL;
+            this.url = String.format("%s://%s:%d/nxt", (useSSL ? "https" : "http"), host, port);
+            this.limiter = new ConcurrencyLimiter(getName(), 8, 2, 64, true);
+        }
+
+        /**
+         * Get the read request concurrency limiter
+         *
+         * @return                      Concurrency limiter
+         */
+        public ConcurrencyLimiter getLimiter() {
+            return limiter;
+        }
+
+        /**
+         * Get the node host
+         *
+         * @return                      Host name
+         */
+        public String getHost() {
+            return host;
+        }
+
+        /**
+         * Get the node API port
+         *
+         * @return                      API port
+         */
+        public int getPort() {
+            return port;
+        }
+
+        /**
+         * Check if HTTPS is used for the node
+         *
+         * @return                      TRUE if HTTPS is used
+         */
+        public boolean useSSL() {
+            return useSSL;
+        }
+
+        /**
+         * Get the node API URL
+         *
+         * @return                      API URL
+         */
+        public String getUrl() {
+            return url;
+        }
+
+        /**
+         * Get the node name
+         *
+         * @return                      Node name (host:port)
+         */
+        public String getName() {
+            return host + ":" + port;
+        }
+
+        /**
+         * Check if the node is healthy
+         *
+         * @return                      TRUE if the node is healthy
+         */
+        public boolean isHealthy() {
+            return healthy;
+        }
+
+        /**
+         * Set the node health
+         *
+         * @param   healthy             TRUE if the node is healthy
+         */
+        public void setHealthy(boolean healthy) {
+            this.healthy = healthy;
+        }
+
+        /**
+         * Get the node chain height
+         *
+         * @return                      Chain height
+         */
+        public int getHeight() {
+            return height;
+        }
+
+        /**
+         * Set the node chain height
+         *
+         * @param   height              Chain height
+         */
+        public void setHeight(int height) {
+            this.height = height;
+        }
+
+        /**
+         * Get the average response time
+         *
+         * @return                      Average response time (milliseconds)
+         */
+        public synchronized double getAverage() {
+            return average;
+        }
+
+        /**
+         * Get the number of requests
+         *
+         * @return                      Number of requests
+         */
+        public synchronized long getRequestCount() {
+            return requestCount;
+        }
+
+        /**
+         * Get the number of failed requests
+         *
+         * @return                      Number of failed requests
+         */
+        public synchronized long getFailureCount() {
+            return failureCount;
+        }
+
+        /**
+         * Record a response time.  The most recent response times are kept for the
+         * hedge delay.
+         *
+         * @param   nanos               Response time (nanoseconds)
+         * @param   success             TRUE if the request was successful
+         */
+        public synchronized void recordLatency(long nanos, boolean success) {
+            requestCount++;
+            if (!success) {
+                failureCount++;
+                return;
+            }
+            recentLatency[(int)(latencyCount++ % HEDGE_WINDOW)] = nanos;
+            double millis = (double)nanos / 1000000.0;
+            average = (average == 0 ? millis : average + ALPHA * (millis - average));
+        }
+
+        /**
+         * Get the hedge delay, which is the 95th percentile of the recent response times.
+         * The exact response times are used since a histogram bucket would be up to
+         * twice the actual percentile.
+         *
+         * @return                      Hedge delay (milliseconds)
+         */
+        public synchronized double getHedgeDelay() {
+            int count = (int)Math.min(latencyCount, HEDGE_WINDOW);
+            if (count == 0)
+                return HEDGE_DEFAULT;
+            long[] sorted = Arrays.copyOf(recentLatency, count);
+            Arrays.sort(sorted);
+            int index = Math.max(1, (int)Math.ceil(count * 0.95)) - 1;
+            return (double)sorted[index] / 1000000.0;
+        }
+    }
+}
@@ -0,0 +1,336 @@
+/*
+ * Copyright 2017 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Wallet;
+
+import org.ScripterRon.Nxt2API.Chain;
+import org.ScripterRon.Nxt2API.Response;
+import org.ScripterRon.Nxt2API.Utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * OrderBook keeps the open coin exchange orders for a chain.  The orders are
+ * refreshed in the background when a new block is pushed, so the exchange dialog
+ * can show the orders without waiting for the node.  The order book records the
+ * block height and time of the last refresh, so the dialog can tell the user how
+ * old the orders are.
+ *
+ * Each refresh is compared with the previous orders using the order identifier and
+ * the order listeners are notified on the Swing event dispatch thread with just the
+ * orders that were added, changed or removed.  The listeners are notified after
+ * each refresh, even if nothing changed or the refresh failed, so they can show the
+ * refresh status.  A listener should get the current orders and add itself while
+ * holding the order book lock, so it doesn't miss an update.
+ */
+public class OrderBook {
+
+    /** Chain */
+    private final Chain chain;
+
+    /** Open orders by order identifier */
+    private Map<Long, Response> orders = Collections.emptyMap();
+
+    /** Order listeners */
+    private final List<Consumer<Update>> listeners = new CopyOnWriteArrayList<>();
+
+    /** Priority of the current refresh or null if a refresh is not in progress */
+    private RequestPriority refreshPriority;
+
+    /** Current refresh */
+    private CompletableFuture<OrderBook> refreshFuture;
+
+    /** Priority of the refresh to do when the current refresh is done or null */
+    private RequestPriority againPriority;
+
+    /** Sequence number of the last refresh request */
+    private long requestSeq;
+
+    /** Sequence number of the last published refresh */
+    private long publishedSeq;
+
+    /** Block height of the last refresh or -1 if the orders have not been received */
+    private int refreshHeight = -1;
+
+    /** Time of the last refresh (milliseconds) */
+    private long refreshTime;
+
+    /** The last refresh failed */
+    private boolean refreshFailed;
+
+    /**
+     * Create the order book
+     *
+     * @param   chain                   Chain
+     */
+    public OrderBook(Chain chain) {
+        this.chain = chain;
+    }
+
+    /**
+     * Get the chain
+     *
+     * @return                          Chain
+     */
+    public Chain getChain() {
+        return chain;
+    }
+
+    /**
+     * Get the open orders
+     *
+     * @return                          Unmodifiable map of orders by order identifier
+     */
+    public synchronized Map<Long, Response> getOrders() {
+        return orders;
+    }
+
+    /**
+     * Get the block height of the last refresh.  The orders are current as of this
+     * block.
+     *
+     * @return                          Block height or -1 if the orders have not been received
+     */
+    public synchronized int getRefreshHeight() {
+        return refreshHeight;
+    }
+
+    /**
+     * Get the time of the last refresh
+     *
+     * @return                          Time in milliseconds since the epoch or 0
+     */
+    public synchronized long getRefreshTime() {
+        return refreshTime;
+    }
+
+    /**
+     * Check if a refresh is in progress
+     *
+     * @return                          TRUE if a refresh is in progress
+     */
+    public synchronized boolean isRefreshing() {
+        return (refreshPriority != null);
+    }
+
+    /**
+     * Check if the last refresh failed
+     *
+     * @return                          TRUE if the last refresh failed
+     */
+    public synchronized boolean isRefreshFailed() {
+        return refreshFailed;
+    }
+
+    /**
+     * Check if the orders are older than the current block
+     *
+     * @return                          TRUE if the orders are out of date
+     */
+    public synchronized boolean isStale() {
+        return (refreshHeight < Main.blockHeight);
+    }
+
+    /**
+     * Add an order listener.  The listener is called on the Swing event dispatch
+     * thread with the order changes.
+     *
+     * @param   listener                Order listener
+     */
+    public void addListener(Consumer<Update> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Remove an order listener
+     *
+     * @param   listener                Order listener
+     */
+    public void removeListener(Consumer<Update> listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * A block has been pushed.  The orders are refreshed in the background.
+     */
+    public void blockPushed() {
+        refresh(RequestPriority.BULK);
+    }
+
+    /**
+     * Refresh the orders in the background.  The future completes when the new
+     * orders have been compared with the previous orders.
+     *
+     * A refresh requested while a refresh with the same or a higher priority is in
+     * progress is done at the highest requested priority when the current refresh
+     * completes.  A refresh with a higher priority than the current refresh is started
+     * right away, so a user request doesn't wait behind a background refresh, and the
+     * orders from the lower priority refresh are ignored if they arrive later.
+     *
+     * @param   priority                Request priority
+     * @return                          Future for the order book
+     */
+    public synchronized CompletableFuture<OrderBook> refresh(RequestPriority priority) {
+        if (refreshPriority != null && priority.ordinal() >= refreshPriority.ordinal()) {
+            if (againPriority == null || priority.ordinal() < againPriority.ordinal())
+                againPriority = priority;
+            return refreshFuture;
+        }
+        final long seq = ++requestSeq;
+        final int height = Main.blockHeight;
+        refreshPriority = priority;
+        refreshFuture = Main.client.getCoinExchangeOrders(chain, priority).handle((responses, exc) -> {
+            RequestPriority again = null;
+            synchronized(this) {
+                boolean latest = (seq == requestSeq);
+                if (latest) {
+                    refreshPriority = null;
+                    again = againPriority;
+                    againPriority = null;
+                }
+                if (exc == null) {
+                    if (seq > publishedSeq) {
+                        publishedSeq = seq;
+                        notifyListeners(publish(responses, height));
+                    }
+                } else if (latest) {
+                    refreshFailed = true;
+                    notifyListeners(new Update());
+                }
+            }
+            if (exc != null)
+                Main.log.warn(String.format("Unable to get the %s exchange orders: %s",
+                                            chain.getName(), WalletClient.getCause(exc).getMessage()));
+            if (again != null)
+                refresh(again);
+            return this;
+        });
+        return refreshFuture;
+    }
+
+    /**
+     * Replace the current orders.  This method must be called while holding the order
+     * book lock.
+     *
+     * @param   responses               getCoinExchangeOrders responses
+     * @param   height                  Block height when the orders were requested
+     * @return                          Orders added, changed or removed
+     */
+    private Update publish(List<Response> responses, int height) {
+        Map<Long, Response> newOrders = new HashMap<>(responses.size() * 4 / 3 + 1);
+        for (Response response : responses) {
+            try {
+                newOrders.put(Utils.stringToId(response.getString("order")), response);
+            } catch (Exception exc) {
+                Main.log.warn("Exchange order is not valid: " + exc.getMessage());
+            }
+        }
+        Update update = new Update();
+        newOrders.forEach((orderId, response) -> {
+            Response prevResponse = orders.get(orderId);
+            if (prevResponse == null)
+                update.added.put(orderId, response);
+            else if (prevResponse.getLong("exchangeQNT") != response.getLong("exchangeQNT") ||
+                        prevResponse.getLong("askNQTPerCoin") != response.getLong("askNQTPerCoin"))
+                update.changed.put(orderId, response);
+        });
+        orders.keySet().forEach(orderId -> {
+            if (!newOrders.containsKey(orderId))
+                update.removed.add(orderId);
+        });
+        orders = Collections.unmodifiableMap(newOrders);
+        refreshHeight = Math.max(refreshHeight, height);
+        refreshTime = System.currentTimeMillis();
+        refreshFailed = false;
+        if (!update.isEmpty() && Main.log.isDebugEnabled())
+            Main.log.debug(String.format("%s exchange orders: %d added, %d changed, %d removed",
+                    chain.getName(), update.added.size(), update.changed.size(), update.removed.size()));
+        return update;
+    }
+
+    /**
+     * Notify the listeners on the Swing event dispatch thread.  This method must be
+     * called while holding the order book lock, so the listeners are notified in the
+     * same order as the updates.
+     *
+     * @param   update                  Order book update
+     */
+    private void notifyListeners(Update update) {
+        if (listeners.isEmpty())
+            return;
+        List<Consumer<Update>> currentListeners = new ArrayList<>(listeners);
+        SwingUtilities.invokeLater(() -> currentListeners.forEach(listener -> listener.accept(update)));
+    }
+
+    /**
+     * Order book update
+     */
+    public static class Update {
+
+        /** Added orders */
+        private final Map<Long, Response> added = new HashMap<>();
+
+        /** Changed orders */
+        private final Map<Long, Response> changed = new HashMap<>();
+
+        /** Removed orders */
+        private final List<Long> removed = new ArrayList<>();
+
+        /**
+         * Get the added orders
+         *
+         * @return                      Orders by order identifier
+         */
+        public Map<Long, Response> getAdded() {
+            return added;
+        }
+
+        /**
+         * Get the changed orders
+         *
+         * @return                      Orders by order identifier
+         */
+        public Map<Long, Response> getChanged() {
+            return changed;
+        }
+
+        /**
+         * Get the removed orders
+         *
+         * @return                      Order identifiers
+         */
+        public List<Long> getRemoved() {
+            return removed;
+        }
+
+        /**
+         * Check if the update is empty
+         *
+         * @return                      TRUE if no orders were added, changed or removed
+         */
+        public boolean isEmpty() {
+            return added.isEmpty() && changed.isEmpty() && removed.isEmpty();
+        }
+    }
+}
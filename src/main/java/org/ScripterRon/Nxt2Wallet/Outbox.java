@@ -0,0 +1,528 @@
+/*
+ * Copyright 2017 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Wallet;
+
+import org.ScripterRon.Nxt2API.Transaction;
+import org.ScripterRon.Nxt2API.Utils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Outbox keeps the signed transactions that have been broadcast until they are
+ * confirmed or their deadline has passed.  A transaction is rebroadcast when it is
+ * removed from the unconfirmed pool without being confirmed and also at regular
+ * intervals in case the node lost the transaction without telling us.  Before a
+ * transaction is rebroadcast, the node is asked for the transaction by its full hash,
+ * so a transaction that is already known to the node is not broadcast again.
+ *
+ * The outbox is written to an append-only file, so the pending transactions are
+ * rebroadcast after the wallet is restarted.  Each line has a record type followed
+ * by tab-separated fields:
+ * <ul>
+ * <li>A - add: key, expiration time, signed transaction bytes, prunable attachment JSON or '-'
+ * <li>C - confirmed: key
+ * <li>X - expired: key
+ * <li>R - rejected by the node: key
+ * </ul>
+ * The key is the chain and the full hash.  The file is rewritten with just the
+ * pending transactions when it is opened and when enough transactions are finished.
+ *
+ * The pending transactions are kept in a hash map, so the state changes do not
+ * depend on the number of pending transactions.  The rebroadcast queues are in time
+ * order and entries for finished transactions are discarded when they reach the head
+ * of a queue.
+ */
+public class Outbox {
+
+    /** Rebroadcast interval (milliseconds) */
+    private static final long REBROADCAST_INTERVAL = 3 * 60 * 1000;
+
+    /** Delay before rebroadcasting a transaction removed from the unconfirmed pool (milliseconds) */
+    private static final long REMOVED_DELAY = 20 * 1000;
+
+    /** Time allowed after the deadline for the confirmation to arrive (milliseconds) */
+    private static final long EXPIRATION_GRACE = 2 * 60 * 1000;
+
+    /** Number of finished records before the file is compacted */
+    private static final int COMPACT_THRESHOLD = 10000;
+
+    /** Outbox file */
+    private final File file;
+
+    /** Outbox writer */
+    private Writer writer;
+
+    /** Pending transactions */
+    private final Map<String, Entry> pending = new HashMap<>();
+
+    /** Scheduled rebroadcasts */
+    private final ArrayDeque<Scheduled> rebroadcastQueue = new ArrayDeque<>();
+
+    /** Scheduled rebroadcasts for transactions removed from the unconfirmed pool */
+    private final ArrayDeque<Scheduled> removedQueue = new ArrayDeque<>();
+
+    /** Pending transactions in expiration order */
+    private final PriorityQueue<Entry> expirationQueue =
+            new PriorityQueue<>((e1, e2) -> Long.compare(e1.expiration, e2.expiration));
+
+    /** Number of finished records written since the file was compacted */
+    private int finishedRecords;
+
+    /** Number of transactions rebroadcast */
+    private long rebroadcastCount;
+
+    /** Number of transactions confirmed */
+    private long confirmedCount;
+
+    /** Number of transactions expired */
+    private long expiredCount;
+
+    /** Number of transactions rejected */
+    private long rejectedCount;
+
+    /**
+     * Open the outbox and schedule the pending transactions for rebroadcast
+     *
+     * @param   file                    Outbox file
+     * @throws  IOException             Unable to open the outbox file
+     */
+    public Outbox(File file) throws IOException {
+        this.file = file;
+        if (file.exists())
+            load();
+        long now = System.currentTimeMillis();
+        for (Entry entry : pending.values()) {
+            schedule(rebroadcastQueue, entry, now);
+            expirationQueue.add(entry);
+        }
+        compact();
+        if (!pending.isEmpty())
+            Main.log.info(String.format("Outbox: %,d pending transactions", pending.size()));
+    }
+
+    /**
+     * Load the outbox file
+     *
+     * @throws  IOException             Unable to read the outbox file
+     */
+    private void load() throws IOException {
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                                new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = in.readLine()) != null) {
+                lineNumber++;
+                String[] fields = line.split("\t");
+                try {
+                    if (fields[0].equals("A") && fields.length == 5) {
+                        Entry entry = new Entry(Utils.parseHexString(fields[3]),
+                                                (fields[4].equals("-") ? null : fields[4]),
+                                                Long.parseLong(fields[2]));
+                        pending.put(entry.key, entry);
+                    } else if (fields.length == 2 && (fields[0].equals("C") || fields[0].equals("X") ||
+                                                      fields[0].equals("R"))) {
+                        pending.remove(fields[1]);
+                    } else {
+                        Main.log.warn(String.format("Outbox line %d is not valid - ignored", lineNumber));
+                    }
+                } catch (RuntimeException exc) {
+                    Main.log.warn(String.format("Outbox line %d is not valid - ignored", lineNumber), exc);
+                }
+            }
+        }
+    }
+
+    /**
+     * Rewrite the outbox file with the pending transactions
+     *
+     * @throws  IOException             Unable to write the outbox file
+     */
+    private void compact() throws IOException {
+        File tempFile = new File(file.getPath() + ".tmp");
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(
+                                new FileOutputStream(tempFile), StandardCharsets.UTF_8))) {
+            for (Entry entry : pending.values())
+                out.write(entry.toRecord());
+        }
+        if (writer != null)
+            writer.close();
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        writer = new BufferedWriter(new OutputStreamWriter(
+                                new FileOutputStream(file, true), StandardCharsets.UTF_8));
+        finishedRecords = 0;
+    }
+
+    /**
+     * Close the outbox
+     */
+    public synchronized void close() {
+        if (writer == null)
+            return;
+        try {
+            writer.close();
+        } catch (IOException exc) {
+            Main.log.error("Unable to close the outbox", exc);
+        }
+        writer = null;
+    }
+
+    /**
+     * Add a signed transaction to the outbox.  The transaction is written to the outbox
+     * file before it is broadcast.
+     *
+     * @param   signedBytes             Signed transaction bytes
+     * @param   prunableJSON            Prunable attachment JSON or null
+     */
+    public synchronized void add(byte[] signedBytes, String prunableJSON) {
+        Transaction tx = new Transaction(signedBytes);
+        long expiration = tx.getTimestamp().getTime() + (long)tx.getDeadline() * 60 * 1000;
+        Entry entry = new Entry(signedBytes, prunableJSON, expiration);
+        if (pending.containsKey(entry.key))
+            return;
+        pending.put(entry.key, entry);
+        schedule(rebroadcastQueue, entry, System.currentTimeMillis() + REBROADCAST_INTERVAL);
+        expirationQueue.add(entry);
+        writeRecord(entry.toRecord());
+    }
+
+    /**
+     * A transaction has been confirmed
+     *
+     * @param   chainId                 Transaction chain
+     * @param   fullHash                Transaction full hash
+     */
+    public synchronized void confirmed(int chainId, byte[] fullHash) {
+        Entry entry = pending.remove(TransactionCache.getKey(chainId, fullHash));
+        if (entry != null) {
+            confirmedCount++;
+            finish(entry, "C");
+        }
+    }
+
+    /**
+     * A transaction has been removed from the unconfirmed pool.  The transaction is
+     * rebroadcast after a short delay unless it is confirmed in the meantime.
+     *
+     * @param   chainId                 Transaction chain
+     * @param   fullHash                Transaction full hash
+     */
+    public synchronized void removed(int chainId, byte[] fullHash) {
+        Entry entry = pending.get(TransactionCache.getKey(chainId, fullHash));
+        if (entry != null)
+            schedule(removedQueue, entry, System.currentTimeMillis() + REMOVED_DELAY);
+    }
+
+    /**
+     * A transaction has been rejected by the node
+     *
+     * @param   key                     Transaction key
+     * @param   reason                  Rejection reason
+     */
+    private synchronized void rejected(String key, String reason) {
+        Entry entry = pending.remove(key);
+        if (entry != null) {
+            rejectedCount++;
+            Main.log.warn(String.format("Transaction %s rejected by the node: %s", key, reason));
+            finish(entry, "R");
+        }
+    }
+
+    /**
+     * A transaction has expired
+     *
+     * @param   key                     Transaction key
+     */
+    private synchronized void expired(String key) {
+        Entry entry = pending.remove(key);
+        if (entry != null) {
+            expiredCount++;
+            Main.log.warn(String.format("Transaction %s expired without being confirmed", key));
+            finish(entry, "X");
+        }
+    }
+
+    /**
+     * Finish a transaction
+     *
+     * @param   entry                   Outbox entry
+     * @param   type                    Record type
+     */
+    private void finish(Entry entry, String type) {
+        entry.finished = true;
+        writeRecord(type + "\t" + entry.key + "\n");
+        if (++finishedRecords >= COMPACT_THRESHOLD && finishedRecords > pending.size()) {
+            try {
+                compact();
+            } catch (IOException exc) {
+                Main.log.error("Unable to compact the outbox", exc);
+            }
+        }
+    }
+
+    /**
+     * Process the scheduled rebroadcasts and the expired transactions.  This method is
+     * called periodically by the client timer.
+     */
+    public void process() {
+        long now = System.currentTimeMillis();
+        List<Entry> checkList = new ArrayList<>();
+        List<Entry> expireList = new ArrayList<>();
+        synchronized(this) {
+            while (!expirationQueue.isEmpty()) {
+                Entry entry = expirationQueue.peek();
+                if (!entry.finished && entry.expiration + EXPIRATION_GRACE > now)
+                    break;
+                expirationQueue.poll();
+                if (!entry.finished) {
+                    entry.nextBroadcast = -1;
+                    expireList.add(entry);
+                }
+            }
+            getDue(removedQueue, now, checkList);
+            getDue(rebroadcastQueue, now, checkList);
+            for (Entry entry : checkList)
+                schedule(rebroadcastQueue, entry, now + REBROADCAST_INTERVAL);
+        }
+        checkList.forEach(entry -> checkTransaction(entry, false));
+        expireList.forEach(entry -> checkTransaction(entry, true));
+    }
+
+    /**
+     * Get the entries that are due from a rebroadcast queue.  An entry is no longer
+     * scheduled once it has been taken from a queue, so it is not taken again from
+     * the other queue.
+     *
+     * @param   queue                   Rebroadcast queue
+     * @param   now                     Current time
+     * @param   dueList                 Updated with the entries that are due
+     */
+    private static void getDue(ArrayDeque<Scheduled> queue, long now, List<Entry> dueList) {
+        while (!queue.isEmpty() && queue.peekFirst().time <= now) {
+            Scheduled scheduled = queue.pollFirst();
+            Entry entry = scheduled.entry;
+            if (!entry.finished && entry.nextBroadcast == scheduled.time) {
+                entry.nextBroadcast = -1;
+                dueList.add(entry);
+            }
+        }
+    }
+
+    /**
+     * Schedule a rebroadcast
+     *
+     * @param   queue                   Rebroadcast queue
+     * @param   entry                   Outbox entry
+     * @param   time                    Rebroadcast time
+     */
+    private static void schedule(ArrayDeque<Scheduled> queue, Entry entry, long time) {
+        entry.nextBroadcast = time;
+        queue.addLast(new Scheduled(entry, time));
+    }
+
+    /**
+     * Ask the node for the transaction.  The transaction is confirmed if it is in a
+     * block and it is broadcast again if the node reports that the transaction is
+     * unknown.  The transaction is checked again later if the request fails for any
+     * other reason.
+     *
+     * @param   entry                   Outbox entry
+     * @param   expire                  TRUE if the transaction has expired if it is not confirmed
+     */
+    private void checkTransaction(Entry entry, boolean expire) {
+        Main.client.getNodePool().read(RequestPriority.BULK, "getTransaction",
+                        "fullHash", Utils.toHexString(entry.fullHash), "chain", Integer.toString(entry.chainId))
+            .whenComplete((response, exc) -> {
+                if (exc == null && response.get("block") != null) {
+                    confirmed(entry.chainId, entry.fullHash);
+                } else if (exc != null && !NodePool.ApiException.isUnknown(exc)) {
+                    Main.log.warn(String.format("Unable to check transaction %s: %s",
+                                                entry.key, WalletClient.getCause(exc).getMessage()));
+                    if (expire)
+                        retryExpiration(entry);
+                } else if (expire) {
+                    expired(entry.key);
+                } else if (exc == null) {
+                    Main.log.debug(String.format("Transaction %s is in the unconfirmed pool", entry.key));
+                } else {
+                    rebroadcast(entry);
+                }
+            });
+    }
+
+    /**
+     * Check an expired transaction again when the expiration queue is next processed
+     *
+     * @param   entry                   Outbox entry
+     */
+    private synchronized void retryExpiration(Entry entry) {
+        if (!entry.finished)
+            expirationQueue.add(entry);
+    }
+
+    /**
+     * Broadcast a transaction again
+     *
+     * @param   entry                   Outbox entry
+     */
+    private void rebroadcast(Entry entry) {
+        synchronized(this) {
+            rebroadcastCount++;
+        }
+        Main.log.info(String.format("Broadcasting transaction %s again", entry.key));
+        Main.client.rebroadcastTransaction(entry.signedBytes, entry.prunableJSON).whenComplete((response, exc) -> {
+            if (exc == null)
+                return;
+            Throwable cause = WalletClient.getCause(exc);
+            if (cause instanceof NodePool.ApiException)
+                rejected(entry.key, cause.getMessage());
+            else
+                Main.log.warn(String.format("Unable to broadcast transaction %s: %s", entry.key, cause.getMessage()));
+        });
+    }
+
+    /**
+     * The node rejected the initial broadcast
+     *
+     * @param   signedBytes             Signed transaction bytes
+     * @param   reason                  Rejection reason
+     */
+    public void broadcastRejected(byte[] signedBytes, String reason) {
+        rejected(TransactionCache.getKey(TransactionBytes.getChainId(signedBytes),
+                                         TransactionBytes.calculateFullHash(signedBytes)), reason);
+    }
+
+    /**
+     * Write an outbox record.  The record is flushed before returning.
+     *
+     * @param   record                  Outbox record
+     */
+    private void writeRecord(String record) {
+        if (writer == null)
+            return;
+        try {
+            writer.write(record);
+            writer.flush();
+        } catch (IOException exc) {
+            Main.log.error("Unable to write to the outbox", exc);
+        }
+    }
+
+    /**
+     * Get the outbox report
+     *
+     * @return                          Outbox statistics
+     */
+    public synchronized String getReport() {
+        return String.format("%,d pending, %,d rebroadcast, %,d confirmed, %,d expired, %,d rejected",
+                             pending.size(), rebroadcastCount, confirmedCount, expiredCount, rejectedCount);
+    }
+
+    /**
+     * Outbox entry
+     */
+    private static class Entry {
+
+        /** Transaction key */
+        private final String key;
+
+        /** Transaction chain */
+        private final int chainId;
+
+        /** Transaction full hash */
+        private final byte[] fullHash;
+
+        /** Signed transaction bytes */
+        private final byte[] signedBytes;
+
+        /** Prunable attachment JSON or null */
+        private final String prunableJSON;
+
+        /** Expiration time */
+        private final long expiration;
+
+        /** Next rebroadcast time */
+        private long nextBroadcast;
+
+        /** Transaction is no longer pending */
+        private boolean finished;
+
+        /**
+         * Create an outbox entry
+         *
+         * @param   signedBytes         Signed transaction bytes
+         * @param   prunableJSON        Prunable attachment JSON or null
+         * @param   expiration          Expiration time
+         */
+        private Entry(byte[] signedBytes, String prunableJSON, long expiration) {
+            this.signedBytes = signedBytes;
+            this.prunableJSON = prunableJSON;
+            this.expiration = expiration;
+            this.chainId = TransactionBytes.getChainId(signedBytes);
+            this.fullHash = TransactionBytes.calculateFullHash(signedBytes);
+            this.key = TransactionCache.getKey(chainId, fullHash);
+        }
+
+        /**
+         * Get the add record
+         *
+         * @return                      Add record
+         */
+        private String toRecord() {
+            return "A\t" + key + "\t" + expiration + "\t" + Utils.toHexString(signedBytes) + "\t"
+                    + (prunableJSON != null ? prunableJSON : "-") + "\n";
+        }
+    }
+
+    /**
+     * Scheduled rebroadcast
+     */
+    private static class Scheduled {
+
+        /** Outbox entry */
+        private final Entry entry;
+
+        /** Rebroadcast time */
+        private final long time;
+
+        /**
+         * Create a scheduled rebroadcast
+         *
+         * @param   entry               Outbox entry
+         * @param   time                Rebroadcast time
+         */
+        private Scheduled(Entry entry, long time) {
+            this.entry = entry;
+            this.time = time;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright 2017 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Wallet;
+
+import org.ScripterRon.Nxt2API.Chain;
+import org.ScripterRon.Nxt2API.Nxt;
+import org.ScripterRon.Nxt2API.Response;
+import org.ScripterRon.Nxt2API.Utils;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * PaymentBuilder creates the unsigned transaction bytes for an ordinary payment
+ * without asking the Nxt node to create the transaction.  The transaction timestamp
+ * and the economic clustering block are based on the last getECBlock response, which
+ * is refreshed when a block is pushed, and the fee is calculated by the fee estimator.
+ * Payments with a message are still created by the Nxt node.
+ *
+ * In compare mode, the Nxt node is also asked to create the same transaction and the
+ * node bytes are used if they are not the same as the local bytes.
+ */
+public class PaymentBuilder {
+
+    /** Transaction deadline (minutes) */
+    public static final int DEADLINE = 30;
+
+    /** Maximum age of the EC block (milliseconds) */
+    private static final long MAX_EC_AGE = 10 * 60 * 1000;
+
+    /** Compare the local bytes with the node bytes */
+    private final boolean compare;
+
+    /** Current EC block or null if it is not known */
+    private volatile EcBlock ecBlock;
+
+    /** Refresh is in progress */
+    private boolean refreshing;
+
+    /** Number of payments created locally */
+    private final AtomicLong localCount = new AtomicLong();
+
+    /** Number of payments compared with the node */
+    private final AtomicLong compareCount = new AtomicLong();
+
+    /** Number of payments that were not the same as the node payment */
+    private final AtomicLong mismatchCount = new AtomicLong();
+
+    /**
+     * Create the payment builder
+     *
+     * @param   compare                 TRUE to compare the local bytes with the node bytes
+     */
+    public PaymentBuilder(boolean compare) {
+        this.compare = compare;
+    }
+
+    /**
+     * A block has been pushed
+     */
+    public void blockPushed() {
+        refresh();
+    }
+
+    /**
+     * Refresh the EC block in the background
+     */
+    public synchronized void refresh() {
+        if (refreshing)
+            return;
+        refreshing = true;
+        Main.client.getECBlock().whenComplete((response, exc) -> {
+            synchronized(this) {
+                refreshing = false;
+            }
+            if (exc != null) {
+                Main.log.warn("Unable to get the EC block: " + WalletClient.getCause(exc).getMessage());
+            } else {
+                try {
+                    ecBlock = new EcBlock(response.getInt("ecBlockHeight"),
+                                          Utils.stringToId(response.getString("ecBlockId")),
+                                          response.getInt("timestamp"));
+                } catch (Exception exc2) {
+                    Main.log.warn("EC block response is not valid: " + exc2.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Check if a payment can be created locally
+     *
+     * @param   message                 Payment message or an empty string
+     * @return                          TRUE if the payment can be created locally
+     */
+    public boolean canBuild(String message) {
+        if (!Main.localPayments || !message.isEmpty())
+            return false;
+        EcBlock current = ecBlock;
+        if (current == null || System.currentTimeMillis() - current.getReceived() > MAX_EC_AGE) {
+            refresh();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Create an unsigned payment.  The response has the same unsignedTransactionBytes
+     * field as the sendMoney response.  canBuild() must be called first.
+     *
+     * @param   recipientId             Recipient identifier
+     * @param   chain                   Payment chain
+     * @param   amount                  Payment amount
+     * @param   fee                     Payment fee or 0 to calculate the fee from the rate
+     * @param   rate                    Child chain NQT per ARDR
+     * @param   publicKey               Sender public key
+     * @return                          Future for the response
+     */
+    public CompletableFuture<Response> sendMoney(long recipientId, Chain chain, long amount, long fee,
+                                                 long rate, byte[] publicKey) {
+        return sendMoney(recipientId, chain, amount, fee, rate, publicKey, DEADLINE);
+    }
+
+    /**
+     * Create an unsigned payment with a specific deadline.  The response has the same
+     * unsignedTransactionBytes field as the sendMoney response.  canBuild() must be
+     * called first.
+     *
+     * @param   recipientId             Recipient identifier
+     * @param   chain                   Payment chain
+     * @param   amount                  Payment amount
+     * @param   fee                     Payment fee or 0 to calculate the fee from the rate
+     * @param   rate                    Child chain NQT per ARDR
+     * @param   publicKey               Sender public key
+     * @param   deadline                Transaction deadline (minutes)
+     * @return                          Future for the response
+     */
+    public CompletableFuture<Response> sendMoney(long recipientId, Chain chain, long amount, long fee,
+                                                 long rate, byte[] publicKey, int deadline) {
+        EcBlock current = ecBlock;
+        boolean fxtChain = chain.getName().equals(Nxt.FXT_CHAIN);
+        int[] txType = (fxtChain ? TransactionBytes.FXT_PAYMENT : TransactionBytes.CHILD_PAYMENT);
+        long txFee = (fee > 0 ? fee : Main.feeEstimator.estimate(txType, fxtChain, 0, rate).getFee());
+        int timestamp = current.getEpochTime();
+        byte[] txBytes = TransactionBytes.createPayment(chain.getId(), fxtChain,
+                timestamp, deadline, publicKey, recipientId, amount, txFee,
+                current.getHeight(), current.getId());
+        localCount.incrementAndGet();
+        Map<String, Object> localResponse = new HashMap<>();
+        localResponse.put("unsignedTransactionBytes", Utils.toHexString(txBytes));
+        if (!compare)
+            return CompletableFuture.completedFuture(new Response(localResponse));
+        return Main.client.getNodePool().read(RequestPriority.INTERACTIVE, "sendMoney",
+                "chain", Integer.toString(chain.getId()), "recipient", Long.toUnsignedString(recipientId),
+                "amountNQT", Long.toString(amount), "feeNQT", Long.toString(txFee),
+                "publicKey", Utils.toHexString(publicKey), "deadline", Integer.toString(deadline),
+                "timestamp", Integer.toString(timestamp), "ecBlockHeight", Integer.toString(current.getHeight()),
+                "ecBlockId", Long.toUnsignedString(current.getId()))
+            .thenApply(nodeResponse -> {
+                compareCount.incrementAndGet();
+                byte[] nodeBytes = Utils.parseHexString((String)nodeResponse.get("unsignedTransactionBytes"));
+                if (Arrays.equals(txBytes, nodeBytes))
+                    return new Response(localResponse);
+                mismatchCount.incrementAndGet();
+                Main.log.error(String.format("Local payment bytes are not the same as the node bytes\n"
+                                + "  Local: %s\n  Node:  %s",
+                                Utils.toHexString(txBytes), Utils.toHexString(nodeBytes)));
+                return new Response(nodeResponse);
+            });
+    }
+
+    /**
+     * Get the payment builder report
+     *
+     * @return                          Payment statistics
+     */
+    public String getReport() {
+        return String.format("%,d created locally, %,d compared with the node, %,d not the same",
+                             localCount.get(), compareCount.get(), mismatchCount.get());
+    }
+
+    /**
+     * Economic clustering block
+     */
+    private static class EcBlock {
+
+        /** Block height */
+        private final int height;
+
+        /** Block identifier */
+        private final long id;
+
+        /** Difference between the local time and the node epoch time (milliseconds) */
+        private final long epochOffset;
+
+        /** Time the block was received */
+        private final long received;
+
+        /**
+         * Create the EC block
+         *
+         * @param   height              Block height
+         * @param   id                  Block identifier
+         * @param   timestamp           Node epoch time (seconds)
+         */
+        public EcBlock(int height, long id, int timestamp) {
+            this.height = height;
+            this.id = id;
+            this.received = System.currentTimeMillis();
+            this.epochOffset = received - (long)timestamp * 1000L;
+        }
+
+        /**
+         * Get the block height
+         *
+         * @return                      Block height
+         */
+        public int getHeight() {
+            return height;
+        }
+
+        /**
+         * Get the block identifier
+         *
+         * @return                      Block identifier
+         */
+        public long getId() {
+            return id;
+        }
+
+        /**
+         * Get the time the block was received
+         *
+         * @return                      Time in milliseconds since the epoch
+         */
+        public long getReceived() {
+            return received;
+        }
+
+        /**
+         * Get the current node epoch time
+         *
+         * @return                      Epoch time (seconds)
+         */
+        public int getEpochTime() {
+            return (int)((System.currentTimeMillis() - epochOffset) / 1000L);
+        }
+    }
+}
@@ -0,0 +1,454 @@
+/*
+ * Copyright 2017 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Wallet;
+
+import org.ScripterRon.Nxt2API.Balance;
+import org.ScripterRon.Nxt2API.Chain;
+import org.ScripterRon.Nxt2API.IdentifierException;
+import org.ScripterRon.Nxt2API.Nxt;
+import org.ScripterRon.Nxt2API.Response;
+import org.ScripterRon.Nxt2API.Transaction;
+import org.ScripterRon.Nxt2API.Utils;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * PollingSync keeps the watched accounts current without using the event API.  It
+ * is used for nodes behind proxies that close long-poll requests.
+ *
+ * The node is polled for the last block identifier.  The poll interval adapts to
+ * the observed block interval: the node is polled slowly right after a new block
+ * and more often as the next block becomes due.  Nothing else is requested until
+ * the last block changes.  The new account transactions are then fetched, starting
+ * with the most recent transaction and stopping at the first transaction that is
+ * already confirmed in the same block.  The unconfirmed transactions and balances
+ * are fetched at the same time, so an unconfirmed transaction is shown when the
+ * next block is found.
+ *
+ * The block identifiers seen by the poller are saved.  A chain reorganization is
+ * detected when the saved last block is no longer in the chain.  The transactions
+ * above the last saved block that is still in the chain are then marked as
+ * unconfirmed and confirmed again by the account update.  The accounts are reloaded
+ * if none of the saved blocks are still in the chain.
+ */
+public class PollingSync implements SyncEngine, Runnable {
+
+    /** Minimum poll interval (milliseconds) */
+    private static final long MIN_INTERVAL = 3 * 1000;
+
+    /** Initial block interval (milliseconds) */
+    private static final long DEFAULT_BLOCK_INTERVAL = 60 * 1000;
+
+    /** Smoothing factor for the block interval */
+    private static final double BLOCK_ALPHA = 0.2;
+
+    /** Number of transactions in an account update page */
+    private static final int DELTA_PAGE_SIZE = 10;
+
+    /** Number of saved block identifiers */
+    private static final int MAX_SAVED_BLOCKS = 720;
+
+    /** Main application window */
+    private final MainWindow mainWindow;
+
+    /** Maximum poll interval (milliseconds) */
+    private final long maxInterval;
+
+    /** Accounts waiting to be loaded */
+    private final ConcurrentLinkedQueue<Long> loadQueue = new ConcurrentLinkedQueue<>();
+
+    /** Accounts waiting to be reloaded */
+    private final ConcurrentLinkedQueue<Long> reloadQueue = new ConcurrentLinkedQueue<>();
+
+    /** Saved block identifiers by height */
+    private final NavigableMap<Integer, Long> savedBlocks = new TreeMap<>();
+
+    /** Last block height */
+    private int lastHeight;
+
+    /** Last block identifier */
+    private long lastBlockId;
+
+    /** Time the last block was found (milliseconds) */
+    private long lastBlockTime;
+
+    /** Height of the last block when it was found */
+    private int lastTimedHeight;
+
+    /** Average block interval (milliseconds) */
+    private double blockInterval = DEFAULT_BLOCK_INTERVAL;
+
+    /** Poll failed */
+    private boolean pollFailed;
+
+    /** Poller thread */
+    private Thread pollThread = null;
+
+    /** Poller shutdown started */
+    private volatile boolean shutdown = false;
+
+    /**
+     * Create the polling sync engine
+     *
+     * @param   mainWindow              Main application window
+     * @param   maxInterval             Maximum poll interval (seconds)
+     */
+    public PollingSync(MainWindow mainWindow, int maxInterval) {
+        this.mainWindow = mainWindow;
+        this.maxInterval = Math.max(MIN_INTERVAL, maxInterval * 1000L);
+    }
+
+    /**
+     * Start the poller
+     */
+    @Override
+    public void start() {
+        shutdown = false;
+        pollThread = new Thread(this, "Nxt Block Poller");
+        pollThread.setDaemon(true);
+        pollThread.start();
+    }
+
+    /**
+     * Stop the poller
+     */
+    @Override
+    public void stop() {
+        shutdown = true;
+        if (pollThread != null)
+            pollThread.interrupt();
+    }
+
+    /**
+     * Add an account to the watched accounts.  A loaded account is included in the
+     * next account update, so there is nothing to do here.
+     *
+     * @param   accountId               Account identifier
+     * @return                          Completed future
+     */
+    @Override
+    public CompletableFuture<Void> watchAccount(long accountId) {
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Poll the node
+     */
+    @Override
+    public void run() {
+        Main.log.debug("Block poller started");
+        Main.accounts.forEach(accountId -> {
+            if (!Main.accountStates.containsKey(accountId) && !loadQueue.contains(accountId))
+                loadQueue.add(accountId);
+        });
+        while (!shutdown) {
+            try {
+                //
+                // Load the watched accounts that are not loaded yet
+                //
+                Long loadId;
+                while ((loadId=loadQueue.poll()) != null && !shutdown)
+                    loadAccount(loadId, false);
+                while ((loadId=reloadQueue.poll()) != null && !shutdown)
+                    loadAccount(loadId, true);
+                //
+                // Check for a new block
+                //
+                Response response = WalletClient.await(Main.eventSource.getBlockchainStatus());
+                long pollTime = System.nanoTime();
+                if (pollFailed) {
+                    Main.log.info("Block poll completed after node failure");
+                    pollFailed = false;
+                }
+                int height = response.getInt("numberOfBlocks") - 1;
+                long blockId = Utils.stringToId(response.getString("lastBlock"));
+                if (blockId != lastBlockId)
+                    blockChanged(height, blockId, pollTime);
+                Thread.sleep(getPollDelay());
+            } catch (InterruptedException exc) {
+                shutdown = true;
+            } catch (IOException exc) {
+                if (shutdown)
+                    break;
+                if (!pollFailed) {
+                    Main.log.error("Unable to poll the Nxt node", exc);
+                    pollFailed = true;
+                }
+                Main.eventSource.failover();
+                try {
+                    Thread.sleep(maxInterval);
+                } catch (InterruptedException exc2) {
+                    shutdown = true;
+                }
+            } catch (InvocationTargetException exc) {
+                Main.log.error("Unable to perform status update", exc);
+                Main.logException("Unable to perform status update", exc);
+                shutdown = true;
+            } catch (Exception exc) {
+                Main.log.error("Exception while polling the Nxt node", exc);
+                Main.logException("Exception while polling the Nxt node", exc);
+                shutdown = true;
+            }
+        }
+        Main.log.debug("Block poller stopped");
+    }
+
+    /**
+     * Get the delay before the next poll.  The delay is half of the time until the
+     * next block is expected, so the node is polled more often as the next block
+     * becomes due.
+     *
+     * @return                          Poll delay (milliseconds)
+     */
+    private long getPollDelay() {
+        long remaining = lastBlockTime + (long)blockInterval - System.currentTimeMillis();
+        return Math.max(MIN_INTERVAL, Math.min(maxInterval, remaining / 2));
+    }
+
+    /**
+     * Process a new last block
+     *
+     * @param   height                  Block height
+     * @param   blockId                 Block identifier
+     * @param   pollTime                Time the poll returned (System.nanoTime)
+     * @throws  Exception               Unable to update the accounts
+     */
+    private void blockChanged(int height, long blockId, long pollTime) throws Exception {
+        EventLatency latency = new EventLatency("Poll.BLOCK_CHANGED", pollTime);
+        long now = System.currentTimeMillis();
+        if (lastBlockTime != 0 && height > lastTimedHeight)
+            blockInterval = blockInterval * (1.0 - BLOCK_ALPHA) +
+                    (double)(now - lastBlockTime) / (double)(height - lastTimedHeight) * BLOCK_ALPHA;
+        if (height != lastTimedHeight) {
+            lastBlockTime = now;
+            lastTimedHeight = height;
+        }
+        //
+        // Check for a chain reorganization
+        //
+        Set<Long> updatedAccounts = new HashSet<>();
+        if (lastBlockId != 0) {
+            int forkHeight = findFork(height, blockId);
+            if (forkHeight < 0) {
+                Main.log.warn(String.format("Chain reorganization below height %d - reloading the accounts",
+                                            savedBlocks.firstKey()));
+                savedBlocks.clear();
+                Main.accountStates.keySet().forEach(accountId -> {
+                    if (!reloadQueue.contains(accountId))
+                        reloadQueue.add(accountId);
+                });
+            } else if (forkHeight < lastHeight) {
+                Main.log.info(String.format("Chain reorganization: blocks above height %d replaced", forkHeight));
+                savedBlocks.tailMap(forkHeight, false).clear();
+                SwingUtilities.invokeAndWait(() -> {
+                    for (AccountState state : Main.accountStates.values()) {
+                        if (state.unconfirmTransactions(forkHeight)) {
+                            updatedAccounts.add(state.getAccountId());
+                            if (state == Main.accountState)
+                                mainWindow.updateTransactions();
+                        }
+                    }
+                });
+            }
+        }
+        savedBlocks.put(height, blockId);
+        while (savedBlocks.size() > MAX_SAVED_BLOCKS)
+            savedBlocks.pollFirstEntry();
+        Main.blockHeight = height;
+        Main.rateRefresher.blockPushed();
+        Main.orderBooks.values().forEach(OrderBook::blockPushed);
+        if (Main.localPayments)
+            Main.paymentBuilder.blockPushed();
+        //
+        // Update the loaded accounts
+        //
+        for (AccountState state : Main.accountStates.values()) {
+            if (updateAccount(state))
+                updatedAccounts.add(state.getAccountId());
+        }
+        latency.fetched();
+        //
+        // Update the account balances
+        //
+        updatedAccounts.add(Main.accountId);
+        for (Long accountId : updatedAccounts) {
+            AccountState state = Main.accountStates.get(accountId);
+            if (state == null)
+                continue;
+            Map<Integer, Balance> balances = WalletClient.await(Main.eventSource.getBalances(accountId));
+            SwingUtilities.invokeLater(() -> {
+                state.setBalances(balances);
+                if (state == Main.accountState)
+                    mainWindow.updateNodeStatus();
+            });
+        }
+        latency.enqueued();
+        SwingUtilities.invokeAndWait(() -> {
+            mainWindow.updateTransactionStatus();
+            latency.applied();
+        });
+        //
+        // The block is processed again by the next poll if the accounts were not updated
+        //
+        lastHeight = height;
+        lastBlockId = blockId;
+    }
+
+    /**
+     * Find the last saved block that is still in the chain
+     *
+     * @param   height                  New last block height
+     * @param   blockId                 New last block identifier
+     * @return                          Block height or -1 if no saved block is in the chain
+     * @throws  IdentifierException     Invalid block identifier
+     * @throws  IOException             Unable to get a block
+     */
+    private int findFork(int height, long blockId) throws IdentifierException, IOException {
+        for (Map.Entry<Integer, Long> entry : savedBlocks.headMap(Math.min(height, lastHeight), true)
+                                                          .descendingMap().entrySet()) {
+            int savedHeight = entry.getKey();
+            long chainBlockId = (savedHeight == height ? blockId :
+                    Utils.stringToId(WalletClient.await(Main.client.getBlock(savedHeight)).getString("block")));
+            if (chainBlockId == entry.getValue())
+                return savedHeight;
+        }
+        return -1;
+    }
+
+    /**
+     * Fetch the new transactions for an account and apply them to the account state
+     *
+     * @param   state                   Account state
+     * @return                          TRUE if the account was changed
+     * @throws  Exception               Unable to update the account
+     */
+    private boolean updateAccount(AccountState state) throws Exception {
+        long accountId = state.getAccountId();
+        boolean changed = false;
+        for (Chain chain : Nxt.getAllChains()) {
+            int chainId = chain.getId();
+            //
+            // Get the confirmed transactions until we reach a transaction that is
+            // already confirmed in the same block
+            //
+            List<Transaction> txList = new ArrayList<>();
+            for (int index=0; ; index+=DELTA_PAGE_SIZE) {
+                List<Transaction> page = WalletClient.await(
+                        Main.client.getBlockchainTransactions(accountId, chain, index, index+DELTA_PAGE_SIZE-1));
+                int known = getKnownIndex(state, chainId, page);
+                txList.addAll(page.subList(0, known));
+                if (known < page.size() || page.size() < DELTA_PAGE_SIZE)
+                    break;
+            }
+            List<Transaction> unconfirmedList =
+                    WalletClient.await(Main.client.getUnconfirmedTransactions(accountId, chain));
+            txList.addAll(unconfirmedList);
+            //
+            // Add the new transactions and remove unconfirmed child block transactions
+            // that are no longer in the unconfirmed pool
+            //
+            Set<Long> currentIds = new HashSet<>();
+            txList.forEach(tx -> {
+                currentIds.add(tx.getId());
+                if (tx.getBlockId() != 0)
+                    Main.outbox.confirmed(chainId, tx.getFullHash());
+            });
+            boolean[] chainChanged = new boolean[1];
+            SwingUtilities.invokeAndWait(() -> {
+                for (Transaction tx : txList) {
+                    if (state.addTransaction(tx))
+                        chainChanged[0] = true;
+                }
+                List<Transaction> removedList = new ArrayList<>();
+                state.getTransactions(chainId).forEach(tx -> {
+                    if (tx.getBlockId() == 0 && !currentIds.contains(tx.getId()))
+                        removedList.add(tx);
+                });
+                for (Transaction tx : removedList) {
+                    Main.outbox.removed(chainId, tx.getFullHash());
+                    if (state.removeUnconfirmedTransaction(chainId, tx.getFullHash()))
+                        chainChanged[0] = true;
+                }
+                if (chainChanged[0] && state == Main.accountState)
+                    mainWindow.updateTransactions(chainId);
+            });
+            changed |= chainChanged[0];
+        }
+        return changed;
+    }
+
+    /**
+     * Get the index of the first transaction that is already confirmed in the same block
+     *
+     * @param   state                   Account state
+     * @param   chainId                 Chain identifier
+     * @param   page                    Transaction page in descending order
+     * @return                          Transaction index or the page size if there is no such transaction
+     * @throws  Exception               Unable to check the transactions
+     */
+    private static int getKnownIndex(AccountState state, int chainId, List<Transaction> page) throws Exception {
+        int[] known = new int[] {page.size()};
+        SwingUtilities.invokeAndWait(() -> {
+            for (int i=0; i<page.size(); i++) {
+                Transaction tx = page.get(i);
+                Transaction listTx = state.getTransaction(chainId, tx.getId());
+                if (listTx != null && listTx.getBlockId() != 0 && listTx.getBlockId() == tx.getBlockId()) {
+                    known[0] = i;
+                    break;
+                }
+            }
+        });
+        return known[0];
+    }
+
+    /**
+     * Load a watched account
+     *
+     * @param   accountId               Account identifier
+     * @param   reload                  TRUE to replace a loaded account
+     * @throws  Exception               Unable to load the account
+     */
+    private void loadAccount(long accountId, boolean reload) throws Exception {
+        if (!reload && Main.accountStates.containsKey(accountId))
+            return;
+        AccountState state = WalletClient.await(Main.eventSource.getAccount(accountId));
+        SwingUtilities.invokeAndWait(() -> {
+            if (!reload) {
+                Main.accountStates.putIfAbsent(accountId, state);
+                return;
+            }
+            Main.accountStates.put(accountId, state);
+            if (Main.accountState != null && Main.accountState.getAccountId() == accountId) {
+                Main.accountState = state;
+                mainWindow.updateTransactions();
+                mainWindow.updateNodeStatus();
+            }
+        });
+        Main.log.debug(String.format("Account %s %s", state.getAccountRsId(), (reload ? "reloaded" : "loaded")));
+    }
+}
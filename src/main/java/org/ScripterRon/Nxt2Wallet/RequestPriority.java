@@ -0,0 +1,53 @@
+/*
+ * Copyright 2017 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Wallet;
+
+/**
+ * Nxt API request priority.  A request waiting for a concurrency permit is not
+ * started while a request with a higher priority is waiting.
+ */
+public enum RequestPriority {
+
+    /** User actions (send, exchange, broadcast) */
+    INTERACTIVE("Interactive"),
+
+    /** Server events, balances and transactions needed to apply the events */
+    LIVE("Live"),
+
+    /** Account history and prefetch */
+    BULK("Bulk");
+
+    /** Display name */
+    private final String displayName;
+
+    /**
+     * Create the request priority
+     *
+     * @param   displayName             Display name
+     */
+    private RequestPriority(String displayName) {
+        this.displayName = displayName;
+    }
+
+    /**
+     * Get the display name
+     *
+     * @return                          Display name
+     */
+    public String getDisplayName() {
+        return displayName;
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2017 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Wallet;
+
+import org.ScripterRon.Nxt2API.Response;
+import org.ScripterRon.Nxt2API.Utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * ResponseCache contains the getTransaction responses for transactions that are
+ * confirmed deeper than the maximum rollback depth.  These responses never change,
+ * so they don't need to be fetched from the server again.
+ *
+ * The cache has two tiers.  The most-recently used responses are kept in memory and
+ * all of the responses are kept on disk in the application data directory.  A response
+ * read from disk is added to the memory tier.  The cache is keyed by the chain
+ * identifier and the transaction full hash.
+ */
+public class ResponseCache {
+
+    /** Confirmation depth for an immutable response */
+    private static final int IMMUTABLE_DEPTH = 720;
+
+    /** Maximum size of the memory tier (bytes) */
+    private static final long MAX_MEMORY_SIZE = 4 * 1024 * 1024;
+
+    /** Cache directory */
+    private final File cacheDir;
+
+    /** Memory tier */
+    private final Map<String, CacheEntry> memoryMap = new LinkedHashMap<String, CacheEntry>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+            if (memorySize <= MAX_MEMORY_SIZE)
+                return false;
+            memorySize -= eldest.getValue().getSize();
+            return true;
+        }
+    };
+
+    /** Size of the memory tier (bytes) */
+    private long memorySize;
+
+    /** Number of memory hits */
+    private long memoryHits;
+
+    /** Number of disk hits */
+    private long diskHits;
+
+    /** Number of cache misses */
+    private long missCount;
+
+    /** Number of bytes not fetched from the server */
+    private long savedBytes;
+
+    /**
+     * Create the response cache
+     *
+     * @param   cacheDir                Cache directory
+     */
+    public ResponseCache(File cacheDir) {
+        this.cacheDir = cacheDir;
+        if (!cacheDir.exists() && !cacheDir.mkdirs())
+            Main.log.warn("Unable to create the response cache directory " + cacheDir.getPath());
+    }
+
+    /**
+     * Get a cached transaction response
+     *
+     * @param   chainId                 Chain identifier
+     * @param   fullHash                Transaction full hash
+     * @return                          Response or null if the response is not cached
+     */
+    public Response get(int chainId, byte[] fullHash) {
+        String key = TransactionCache.getKey(chainId, fullHash);
+        synchronized(this) {
+            CacheEntry entry = memoryMap.get(key);
+            if (entry != null) {
+                memoryHits++;
+                savedBytes += entry.getSize();
+                return entry.getResponse();
+            }
+        }
+        File file = getFile(chainId, fullHash);
+        if (file.exists()) {
+            try {
+                String json = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+                Response response = JsonResponse.parse(json);
+                synchronized(this) {
+                    diskHits++;
+                    savedBytes += json.length();
+                    addEntry(key, new CacheEntry(response, json.length()));
+                }
+                return response;
+            } catch (IOException exc) {
+                Main.log.error("Unable to read cached response " + file.getPath(), exc);
+            }
+        }
+        synchronized(this) {
+            missCount++;
+        }
+        return null;
+    }
+
+    /**
+     * Add a transaction response to the cache.  The response is not cached if the
+     * transaction is not confirmed deeper than the maximum rollback depth.
+     *
+     * @param   chainId                 Chain identifier
+     * @param   fullHash                Transaction full hash
+     * @param   response                getTransaction response
+     */
+    public void put(int chainId, byte[] fullHash, Response response) {
+        int height = response.getInt("height");
+        if (height <= 0 || height == Integer.MAX_VALUE || Main.blockHeight - height < IMMUTABLE_DEPTH)
+            return;
+        String json = response.toJSONString();
+        synchronized(this) {
+            addEntry(TransactionCache.getKey(chainId, fullHash), new CacheEntry(response, json.length()));
+        }
+        File file = getFile(chainId, fullHash);
+        if (file.exists())
+            return;
+        try {
+            File dir = file.getParentFile();
+            if (!dir.exists() && !dir.mkdirs())
+                throw new IOException("Unable to create directory " + dir.getPath());
+            File tempFile = new File(dir, file.getName() + ".tmp");
+            Files.write(tempFile.toPath(), json.getBytes(StandardCharsets.UTF_8));
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException exc) {
+            Main.log.error("Unable to write cached response " + file.getPath(), exc);
+        }
+    }
+
+    /**
+     * Add an entry to the memory tier
+     *
+     * @param   key                     Cache key
+     * @param   entry                   Cache entry
+     */
+    private void addEntry(String key, CacheEntry entry) {
+        CacheEntry prevEntry = memoryMap.remove(key);
+        if (prevEntry != null)
+            memorySize -= prevEntry.getSize();
+        memorySize += entry.getSize();
+        memoryMap.put(key, entry);
+    }
+
+    /**
+     * Get the disk file for a response.  The files are grouped by chain and by the
+     * first byte of the full hash.
+     *
+     * @param   chainId                 Chain identifier
+     * @param   fullHash                Transaction full hash
+     * @return                          Response file
+     */
+    private File getFile(int chainId, byte[] fullHash) {
+        String hash = Utils.toHexString(fullHash);
+        return new File(cacheDir, chainId + File.separator + hash.substring(0, 2) + File.separator + hash + ".json");
+    }
+
+    /**
+     * Get the cache statistics
+     *
+     * @return                          Cache statistics
+     */
+    public synchronized String getReport() {
+        long requests = memoryHits + diskHits + missCount;
+        return String.format("%,d requests, %,d memory hits, %,d disk hits (%.1f%% hit rate), %,.1f KB saved",
+                requests, memoryHits, diskHits,
+                (requests != 0 ? (double)(memoryHits + diskHits) * 100.0 / (double)requests : 0.0),
+                (double)savedBytes / 1024.0);
+    }
+
+    /**
+     * Cache entry
+     */
+    private static class CacheEntry {
+
+        /** Cached response */
+        private final Response response;
+
+        /** Response size (bytes) */
+        private final int size;
+
+        /**
+         * Create a cache entry
+         *
+         * @param   response            Cached response
+         * @param   size                Response size (bytes)
+         */
+        public CacheEntry(Response response, int size) {
+            this.response = response;
+            this.size = size;
+        }
+
+        /**
+         * Get the cached response
+         *
+         * @return                      Cached response
+         */
+        public Response getResponse() {
+            return response;
+        }
+
+        /**
+         * Get the response size
+         *
+         * @return                      Response size (bytes)
+         */
+        public int getSize() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2017 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Wallet;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * A ResponseDecoder converts the HTTP response text to the result of a Nxt API
+ * request while the response is being received.
+ *
+ * @param   <T>                         Decoded result
+ */
+@FunctionalInterface
+public interface ResponseDecoder<T> {
+
+    /**
+     * Decode the response
+     *
+     * @param   reader                  Response text
+     * @return                          Decoded result
+     * @throws  IOException             I/O error or the response is not valid
+     */
+    T decode(Reader reader) throws IOException;
+}
@@ -16,15 +16,16 @@
 package org.ScripterRon.Nxt2Wallet;
 
 import org.ScripterRon.Nxt2API.Chain;
-import org.ScripterRon.Nxt2API.Crypto;
 import org.ScripterRon.Nxt2API.IdentifierException;
-import org.ScripterRon.Nxt2API.KeyException;
 import org.ScripterRon.Nxt2API.Nxt;
 import org.ScripterRon.Nxt2API.Response;
 import org.ScripterRon.Nxt2API.Transaction;
 import org.ScripterRon.Nxt2API.Utils;
 
-import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 import java.awt.Dialog;
 import java.awt.Dimension;
@@ -41,11 +42,13 @@ import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JTextField;
 import javax.swing.WindowConstants;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 
 /**
  * SendCoinsDialog will create a new transaction to send coins to a specified recipient.
  */
-public class SendCoinsDialog extends JDialog implements ActionListener {
+public class SendCoinsDialog extends JDialog implements ActionListener, DocumentListener {
 
     /** Address field */
     private final JComboBox<String> addressField;
@@ -62,6 +65,9 @@ public class SendCoinsDialog extends JDialog implements ActionListener {
     /** Message field */
     private final JTextField messageField;
 
+    /** Fee estimate field */
+    private final JLabel estimateField;
+
     /** Chain */
     private final Chain chain;
 
@@ -77,9 +83,21 @@ public class SendCoinsDialog extends JDialog implements ActionListener {
     /** Send rate */
     private long sendRate = 0;
 
+    /** Rate suggested from the bundler rates */
+    private String suggestedRate = "";
+
+    /** Bundler rate listener */
+    private final Consumer<Map<Integer, Long>> rateListener = this::ratesChanged;
+
     /** Send message */
     private String sendMessage;
 
+    /** Check the node fee against the estimated fee */
+    private boolean checkFee;
+
+    /** Pending Nxt API request */
+    private CompletableFuture<Response> pendingRequest;
+
     /**
      * Create the dialog
      *
@@ -129,6 +147,8 @@ public class SendCoinsDialog extends JDialog implements ActionListener {
         JPanel feePane = new JPanel();
         feePane.add(new JLabel("Fee  ", JLabel.RIGHT));
         feePane.add(feeField);
+        estimateField = new JLabel(" ");
+        feePane.add(estimateField);
         //
         // Create the message field
         //
@@ -154,8 +174,11 @@ public class SendCoinsDialog extends JDialog implements ActionListener {
         contentPane.add(Box.createVerticalStrut(15));
         if (!chain.getName().equals(Nxt.FXT_CHAIN)) {
             Long rate = Main.bundlerRates.get(chain.getId());
-            if (rate != null)
-                rateField.setText(Utils.nqtToString(rate, chain.getDecimals()));
+            if (rate != null) {
+                suggestedRate = Utils.nqtToString(rate, chain.getDecimals());
+                rateField.setText(suggestedRate);
+            }
+            Main.rateRefresher.addListener(rateListener);
             contentPane.add(ratePane);
             contentPane.add(Box.createVerticalStrut(15));
         }
@@ -164,6 +187,13 @@ public class SendCoinsDialog extends JDialog implements ActionListener {
         contentPane.add(Box.createVerticalStrut(15));
         contentPane.add(buttonPane);
         setContentPane(contentPane);
+        //
+        // Update the fee estimate as the fields are changed
+        //
+        rateField.getDocument().addDocumentListener(this);
+        feeField.getDocument().addDocumentListener(this);
+        messageField.getDocument().addDocumentListener(this);
+        updateEstimate();
     }
 
     /**
@@ -183,6 +213,86 @@ public class SendCoinsDialog extends JDialog implements ActionListener {
         }
     }
 
+    /**
+     * Update the suggested rate when the bundler rates change.  The rate is not
+     * changed if it has been modified by the user.
+     *
+     * @param   rates           New bundler rates
+     */
+    private void ratesChanged(Map<Integer, Long> rates) {
+        Long rate = rates.get(chain.getId());
+        if (rate == null)
+            return;
+        String rateText = Utils.nqtToString(rate, chain.getDecimals());
+        if (rateField.getText().trim().equals(suggestedRate))
+            rateField.setText(rateText);
+        suggestedRate = rateText;
+    }
+
+    /**
+     * Text inserted (DocumentListener interface)
+     *
+     * @param   de              Document event
+     */
+    @Override
+    public void insertUpdate(DocumentEvent de) {
+        updateEstimate();
+    }
+
+    /**
+     * Text removed (DocumentListener interface)
+     *
+     * @param   de              Document event
+     */
+    @Override
+    public void removeUpdate(DocumentEvent de) {
+        updateEstimate();
+    }
+
+    /**
+     * Attributes changed (DocumentListener interface)
+     *
+     * @param   de              Document event
+     */
+    @Override
+    public void changedUpdate(DocumentEvent de) {
+    }
+
+    /**
+     * Update the fee estimate.  The estimated fee is shown if a fee has not been entered,
+     * otherwise the minimum fee is shown.
+     */
+    private void updateEstimate() {
+        String text;
+        try {
+            long fee = Utils.stringToNQT(feeField.getText().trim(), chain.getDecimals());
+            long rate = Utils.stringToNQT(rateField.getText().trim(), chain.getDecimals());
+            boolean fxtChain = chain.getName().equals(Nxt.FXT_CHAIN);
+            int messageSize = messageField.getText().trim().getBytes(StandardCharsets.UTF_8).length;
+            FeeEstimator.Estimate estimate = Main.feeEstimator.estimate(
+                    (fxtChain ? TransactionBytes.FXT_PAYMENT : TransactionBytes.CHILD_PAYMENT),
+                    fxtChain, messageSize, rate);
+            if (estimate == null)
+                text = (fee != 0 ? " " : "Enter a fee or an exchange rate");
+            else
+                text = String.format("%s %s %s",
+                                     (fee != 0 ? "Minimum fee" : (estimate.isExact() ? "Fee" : "Fee about")),
+                                     Utils.nqtToString(estimate.getFee(), chain.getDecimals()), chain.getName());
+        } catch (ArithmeticException | NumberFormatException exc) {
+            text = " ";
+        }
+        estimateField.setText(text);
+    }
+
+    /**
+     * Dispose of the dialog
+     */
+    @Override
+    public void dispose() {
+        Main.rateRefresher.removeListener(rateListener);
+        super.dispose();
+    }
+
     /**
      * Action performed (ActionListener interface)
      *
@@ -198,19 +308,12 @@ public class SendCoinsDialog extends JDialog implements ActionListener {
             String action = ae.getActionCommand();
             switch (action) {
                 case "send":
-                    if (checkFields()) {
-                        if (sendCoins()) {
-                            JOptionPane.showMessageDialog(this, chain.getName()
-                                    + " sent to " + Utils.getAccountRsId(sendAddress),
-                                    "Coins Sent", JOptionPane.INFORMATION_MESSAGE);
-                        } else {
-                            JOptionPane.showMessageDialog(this,
-                                    chain.getName() + " was not sent",
-                                    "Coins Not Sent", JOptionPane.INFORMATION_MESSAGE);
-                        }
-                    }
+                    if (pendingRequest == null && checkFields() && !sendCoins())
+                        coinsNotSent();
                     break;
                 case "done":
+                    if (pendingRequest != null)
+                        pendingRequest.cancel(true);
                     setVisible(false);
                     dispose();
                     break;
@@ -289,38 +392,53 @@ public class SendCoinsDialog extends JDialog implements ActionListener {
     }
 
     /**
-     * Create and broadcast the transaction
+     * Create the transaction.  The transaction is created in the background and
+     * then verified and broadcast when the server response is received.
      *
-     * @return                      TRUE if the coins were sent
+     * @return                      TRUE if the transaction request was submitted
      */
     private boolean sendCoins() {
         //
-        // Get the sender secret phrase
+        // Get the sender session key
         //
-        String secretPhrase;
-        if (Main.passPhrase.length() == 0) {
-            secretPhrase = JOptionPane.showInputDialog(this, "Enter your secret phrase");
-            if (secretPhrase == null || secretPhrase.length() == 0)
-                return false;
-            Main.passPhrase = secretPhrase;
-        } else {
-            secretPhrase = Main.passPhrase;
-        }
+        SessionKey sessionKey = Main.sessionKeys.getKey(this);
+        if (sessionKey == null)
+            return false;
         //
         // Create the transaction
         //
-        boolean broadcasted = false;
-        try {
-            byte[] publicKey = Crypto.getPublicKey(secretPhrase);
-            if (Utils.getAccountId(publicKey) != Main.accountId) {
-                JOptionPane.showMessageDialog(this, "The secret phrase is not correct",
-                        "Incorrect Secret Phrase", JOptionPane.ERROR_MESSAGE);
-                Main.passPhrase = "";
-                return false;
-            }
-            Response response = Nxt.sendMoney(sendAddress, chain,
+        byte[] publicKey = sessionKey.getPublicKey();
+        if (Main.paymentBuilder.canBuild(sendMessage)) {
+            checkFee = false;
+            pendingRequest = Main.paymentBuilder.sendMoney(sendAddress, chain, sendAmount,
+                    sendFee, sendRate, publicKey);
+        } else {
+            checkFee = (sendFee == 0);
+            pendingRequest = Main.client.sendMoney(sendAddress, chain,
                     sendAmount,
                     (sendFee != 0 ? sendFee : -1), sendRate, publicKey, sendMessage);
+        }
+        WalletClient.invokeLater(pendingRequest, (response, exc) -> {
+            pendingRequest = null;
+            if (exc != null) {
+                Main.log.error("Unable to send coins", exc);
+                Main.logException("Unable to send coins", exc);
+                coinsNotSent();
+            } else if (!broadcastCoins(response)) {
+                coinsNotSent();
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Verify and broadcast the transaction
+     *
+     * @param   response            SendMoney response
+     * @return                      TRUE if the transaction broadcast was submitted
+     */
+    private boolean broadcastCoins(Response response) {
+        try {
             byte[] txBytes = response.getHexString("unsignedTransactionBytes");
             Response txJSON = response.getObject("transactionJSON");
             Response prunableJSON = txJSON.getObject("attachment");
@@ -334,6 +452,11 @@ public class SendCoinsDialog extends JDialog implements ActionListener {
                                               "Error", JOptionPane.ERROR_MESSAGE);
                 return false;
             }
+            if (checkFee) {
+                boolean fxtChain = chain.getName().equals(Nxt.FXT_CHAIN);
+                Main.feeEstimator.check((fxtChain ? TransactionBytes.FXT_PAYMENT : TransactionBytes.CHILD_PAYMENT),
+                        fxtChain, sendMessage.getBytes(StandardCharsets.UTF_8).length, sendRate, sendFee);
+            }
             String confirmText = String.format("Do you want to send %s %s with fee %s to %s?",
                             Utils.nqtToString(sendAmount, chain.getDecimals()), chain.getName(),
                             Utils.nqtToString(sendFee, chain.getDecimals()),
@@ -342,20 +465,38 @@ public class SendCoinsDialog extends JDialog implements ActionListener {
                             JOptionPane.YES_NO_OPTION,
                             JOptionPane.QUESTION_MESSAGE) != JOptionPane.YES_OPTION)
                 return false;
-            Nxt.broadcastTransaction(txBytes,
+            SessionKey sessionKey = Main.sessionKeys.getKey(this);
+            if (sessionKey == null)
+                return false;
+            pendingRequest = Main.client.broadcastTransaction(txBytes,
                     (sendMessage.length() > 0 ? prunableJSON.toJSONString() : null),
-                    secretPhrase);
-            broadcasted = true;
-        } catch (KeyException exc) {
-            Main.log.error("Unable to get public key from secret phrase", exc);
-            Main.logException("Unable to get public key from secret phrase", exc);
-        } catch (IOException exc) {
-            Main.log.error("Unable to send coins", exc);
-            Main.logException("Unable to send coins", exc);
+                    sessionKey);
+            WalletClient.invokeLater(pendingRequest, (broadcastResponse, exc) -> {
+                pendingRequest = null;
+                if (exc != null) {
+                    Main.log.error("Unable to send coins", exc);
+                    Main.logException("Unable to send coins", exc);
+                    coinsNotSent();
+                } else {
+                    JOptionPane.showMessageDialog(this, chain.getName()
+                            + " sent to " + Utils.getAccountRsId(sendAddress),
+                            "Coins Sent", JOptionPane.INFORMATION_MESSAGE);
+                }
+            });
         } catch (Exception exc) {
             Main.log.error("Exception while sending coins", exc);
             Main.logException("Exception while sending coins", exc);
+            return false;
         }
-        return broadcasted;
+        return true;
+    }
+
+    /**
+     * Tell the user that the coins were not sent
+     */
+    private void coinsNotSent() {
+        JOptionPane.showMessageDialog(this,
+                chain.getName() + " was not sent",
+                "Coins Not Sent", JOptionPane.INFORMATION_MESSAGE);
     }
 }
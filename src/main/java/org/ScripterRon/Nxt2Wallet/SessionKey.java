@@ -0,0 +1,127 @@
+/*
+ * Copyright 2017 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Wallet;
+
+import org.ScripterRon.Nxt2API.Crypto;
+import org.ScripterRon.Nxt2API.KeyException;
+import org.ScripterRon.Nxt2API.Utils;
+
+import java.util.Arrays;
+
+/**
+ * SessionKey holds the key pair for an unlocked account.  The key pair is derived
+ * from the secret phrase when the account is unlocked and is then used to sign each
+ * transaction without deriving the keys again.  The private key is cleared when the
+ * session key is destroyed and the session key can not be used after that.
+ */
+public class SessionKey {
+
+    /** Account identifier */
+    private final long accountId;
+
+    /** Public key */
+    private final byte[] publicKey;
+
+    /** Private key (cleared when the key is destroyed) */
+    private final byte[] privateKey;
+
+    /** Time the key was last used */
+    private volatile long lastUsed;
+
+    /** Key has been destroyed */
+    private boolean destroyed;
+
+    /**
+     * Derive the key pair from the secret phrase
+     *
+     * @param   secretPhrase            Account secret phrase
+     * @throws  KeyException            Unable to derive the keys
+     */
+    public SessionKey(String secretPhrase) throws KeyException {
+        this.publicKey = Crypto.getPublicKey(secretPhrase);
+        this.privateKey = Crypto.getPrivateKey(secretPhrase);
+        this.accountId = Utils.getAccountId(publicKey);
+        this.lastUsed = System.currentTimeMillis();
+    }
+
+    /**
+     * Get the account identifier
+     *
+     * @return                          Account identifier
+     */
+    public long getAccountId() {
+        return accountId;
+    }
+
+    /**
+     * Get the public key
+     *
+     * @return                          Public key
+     */
+    public byte[] getPublicKey() {
+        lastUsed = System.currentTimeMillis();
+        return publicKey.clone();
+    }
+
+    /**
+     * Get the time the key was last used
+     *
+     * @return                          Time in milliseconds since the epoch
+     */
+    public long getLastUsed() {
+        return lastUsed;
+    }
+
+    /**
+     * Check if the key has been destroyed
+     *
+     * @return                          TRUE if the key has been destroyed
+     */
+    public synchronized boolean isDestroyed() {
+        return destroyed;
+    }
+
+    /**
+     * Sign a transaction
+     *
+     * @param   txBytes                 Unsigned transaction bytes
+     * @return                          Signed transaction bytes
+     * @throws  KeyException            The key has been destroyed or the signature failed
+     */
+    public synchronized byte[] sign(byte[] txBytes) throws KeyException {
+        if (destroyed)
+            throw new KeyException("The session key has expired");
+        if (txBytes.length < TransactionBytes.BASE_LENGTH)
+            throw new KeyException("Transaction is too short");
+        lastUsed = System.currentTimeMillis();
+        byte[] unsignedBytes = txBytes.clone();
+        Arrays.fill(unsignedBytes, TransactionBytes.SIGNATURE_OFFSET,
+                    TransactionBytes.SIGNATURE_OFFSET + TransactionBytes.SIGNATURE_LENGTH, (byte)0);
+        byte[] signature = Crypto.sign(unsignedBytes, privateKey);
+        System.arraycopy(signature, 0, unsignedBytes, TransactionBytes.SIGNATURE_OFFSET,
+                         TransactionBytes.SIGNATURE_LENGTH);
+        return unsignedBytes;
+    }
+
+    /**
+     * Destroy the key.  The private key is cleared and the key can no longer be used
+     * to sign transactions.
+     */
+    public synchronized void destroy() {
+        Arrays.fill(privateKey, (byte)0);
+        destroyed = true;
+    }
+}
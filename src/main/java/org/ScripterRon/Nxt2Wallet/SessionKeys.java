@@ -0,0 +1,145 @@
+/*
+ * Copyright 2017 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Wallet;
+
+import org.ScripterRon.Nxt2API.KeyException;
+import org.ScripterRon.Nxt2API.Utils;
+
+import java.awt.Component;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import javax.swing.JOptionPane;
+
+/**
+ * SessionKeys holds the session keys for the unlocked accounts.  An account is
+ * unlocked when the first transaction is signed and the session key is then used
+ * for each transaction until the key has not been used for the idle timeout.  The
+ * key is destroyed when it expires and the account must be unlocked again.
+ */
+public class SessionKeys {
+
+    /** Idle timeout (milliseconds) */
+    private final long idleTimeout;
+
+    /** Session keys */
+    private final Map<Long, SessionKey> keys = new HashMap<>();
+
+    /**
+     * Create the session key holder
+     *
+     * @param   idleTimeout             Idle timeout (milliseconds)
+     */
+    public SessionKeys(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Get the session key for an account
+     *
+     * @param   accountId               Account identifier
+     * @return                          Session key or null if the account is locked
+     */
+    public synchronized SessionKey getKey(long accountId) {
+        SessionKey key = keys.get(accountId);
+        if (key != null && (key.isDestroyed() ||
+                            System.currentTimeMillis() - key.getLastUsed() >= idleTimeout)) {
+            key.destroy();
+            keys.remove(accountId);
+            key = null;
+        }
+        return key;
+    }
+
+    /**
+     * Get the session key for the current account.  The user is asked for the secret
+     * phrase if the account is locked and a secret phrase was not provided in the
+     * configuration file.  This method must be called on the Swing event dispatch thread.
+     *
+     * @param   parent                  Parent component for the secret phrase dialog
+     * @return                          Session key or null if the account was not unlocked
+     */
+    public SessionKey getKey(Component parent) {
+        SessionKey key = getKey(Main.accountId);
+        if (key != null)
+            return key;
+        String secretPhrase = Main.passPhrase;
+        if (secretPhrase.length() == 0) {
+            secretPhrase = JOptionPane.showInputDialog(parent, "Enter your secret phrase");
+            if (secretPhrase == null || secretPhrase.length() == 0)
+                return null;
+        }
+        try {
+            key = unlock(Main.accountId, secretPhrase);
+            if (key == null)
+                JOptionPane.showMessageDialog(parent, "The secret phrase is not correct",
+                        "Incorrect Secret Phrase", JOptionPane.ERROR_MESSAGE);
+        } catch (KeyException exc) {
+            Main.log.error("Unable to get the keys for the secret phrase", exc);
+            Main.logException("Unable to get the keys for the secret phrase", exc);
+        }
+        return key;
+    }
+
+    /**
+     * Unlock an account
+     *
+     * @param   accountId               Account identifier
+     * @param   secretPhrase            Account secret phrase
+     * @return                          Session key or null if the secret phrase is not correct
+     * @throws  KeyException            Unable to derive the keys
+     */
+    public SessionKey unlock(long accountId, String secretPhrase) throws KeyException {
+        SessionKey key = new SessionKey(secretPhrase);
+        if (key.getAccountId() != accountId) {
+            key.destroy();
+            return null;
+        }
+        SessionKey prevKey;
+        synchronized(this) {
+            prevKey = keys.put(accountId, key);
+        }
+        if (prevKey != null)
+            prevKey.destroy();
+        return key;
+    }
+
+    /**
+     * Destroy the session keys that have not been used for the idle timeout
+     */
+    public synchronized void expire() {
+        long now = System.currentTimeMillis();
+        Iterator<SessionKey> it = keys.values().iterator();
+        while (it.hasNext()) {
+            SessionKey key = it.next();
+            if (key.isDestroyed() || now - key.getLastUsed() >= idleTimeout) {
+                key.destroy();
+                it.remove();
+                Main.log.debug(String.format("Session key expired for account %s",
+                                             Utils.getAccountRsId(key.getAccountId())));
+            }
+        }
+    }
+
+    /**
+     * Destroy all session keys
+     */
+    public synchronized void lockAll() {
+        keys.values().forEach(SessionKey::destroy);
+        keys.clear();
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2017 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Wallet;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * SingleFlight coalesces identical requests.  A request is identified by its API
+ * endpoint and parameters.  A caller issuing a request while an identical request is
+ * still outstanding shares the result of the outstanding request instead of sending a
+ * new request to the server.
+ *
+ * Each caller gets its own future, so cancelling a future does not affect the other
+ * callers.  Only read requests should be coalesced and the shared result must not be
+ * modified by the callers.
+ */
+public class SingleFlight {
+
+    /** Outstanding requests */
+    private final Map<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+    /** Number of requests */
+    private final AtomicLong requestCount = new AtomicLong();
+
+    /** Number of coalesced requests */
+    private final AtomicLong coalescedCount = new AtomicLong();
+
+    /**
+     * Issue a request or join an identical outstanding request
+     *
+     * @param   <T>                     Request result type
+     * @param   key                     Request key (endpoint and parameters)
+     * @param   request                 Issues the request
+     * @return                          Future for the request result
+     */
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> execute(String key, Supplier<CompletableFuture<T>> request) {
+        requestCount.incrementAndGet();
+        CompletableFuture<Object> shared = new CompletableFuture<>();
+        CompletableFuture<Object> outstanding = inFlight.putIfAbsent(key, shared);
+        if (outstanding != null) {
+            coalescedCount.incrementAndGet();
+            return (CompletableFuture<T>)copy(outstanding);
+        }
+        try {
+            request.get().whenComplete((value, exc) -> {
+                inFlight.remove(key, shared);
+                if (exc != null)
+                    shared.completeExceptionally(exc);
+                else
+                    shared.complete(value);
+            });
+        } catch (RuntimeException exc) {
+            inFlight.remove(key, shared);
+            shared.completeExceptionally(exc);
+        }
+        return (CompletableFuture<T>)copy(shared);
+    }
+
+    /**
+     * Create a caller future for a shared request
+     *
+     * @param   shared                  Shared request future
+     * @return                          Caller future
+     */
+    private static CompletableFuture<Object> copy(CompletableFuture<Object> shared) {
+        CompletableFuture<Object> result = new CompletableFuture<>();
+        shared.whenComplete((value, exc) -> {
+            if (exc != null)
+                result.completeExceptionally(WalletClient.getCause(exc));
+            else
+                result.complete(value);
+        });
+        return result;
+    }
+
+    /**
+     * Get the number of requests
+     *
+     * @return                          Number of requests
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Get the number of coalesced requests
+     *
+     * @return                          Number of requests that shared an outstanding request
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+}
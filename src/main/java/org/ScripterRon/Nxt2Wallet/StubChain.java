@@ -0,0 +1,1144 @@
+/*
+ * Copyright 2017 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Wallet;
+
+import org.ScripterRon.JSON.JSONArray;
+import org.ScripterRon.JSON.JSONObject;
+import org.ScripterRon.Nxt2API.Utils;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * StubChain is the synthetic blockchain used by the stub node.  Each account is
+ * given a random transaction history the first time it is referenced.  A new block
+ * is generated at each block interval.  The block confirms the unconfirmed
+ * transactions and new unconfirmed payments are created for the watched accounts.
+ * The coin exchange order book changes with each block.
+ *
+ * The chain uses a seeded random number generator, so the same seed produces the
+ * same accounts and transactions.
+ */
+public class StubChain {
+
+    /** Nxt epoch beginning (milliseconds) */
+    public static final long EPOCH_BEGINNING = 1514764800000L;
+
+    /** ARDR chain identifier */
+    public static final int FXT_CHAIN = 1;
+
+    /** Chain names (indexed by chain identifier - 1) */
+    public static final String[] CHAIN_NAMES = {"ARDR", "IGNIS", "AEUR", "BITSWIFT"};
+
+    /** Chain decimals */
+    public static final int[] CHAIN_DECIMALS = {8, 8, 4, 8};
+
+    /** Bundler rates (child chain NQT per ARDR) */
+    private static final long[] BUNDLER_RATES = {100000000L, 200000000L, 5000L, 20000000L};
+
+    /** Child chain transaction fee (ARDR FQT) */
+    public static final long CHILD_FEE_FQT = 1000000L;
+
+    /** ARDR transaction fee (FQT) */
+    public static final long FXT_FEE_FQT = 10000000L;
+
+    /** Initial blockchain height */
+    private static final int INITIAL_HEIGHT = 1440;
+
+    /** Number of peer accounts */
+    private static final int PEER_COUNT = 20;
+
+    /** Number of orders for each chain pair */
+    private static final int ORDER_COUNT = 10;
+
+    /** Random number generator */
+    private final Random random;
+
+    /** Block interval (seconds) */
+    private final int blockInterval;
+
+    /** Number of new payments for each block */
+    private final int txPerBlock;
+
+    /** Number of transactions in a new account history */
+    private final int historyCount;
+
+    /** Block identifiers and timestamps indexed by height */
+    private final List<long[]> blocks = new ArrayList<>();
+
+    /** Confirmed transactions in each block indexed by height */
+    private final List<List<StubTransaction>> blockTransactions = new ArrayList<>();
+
+    /** Accounts */
+    private final Map<Long, StubAccount> accounts = new HashMap<>();
+
+    /** Peer accounts */
+    private final List<StubAccount> peers = new ArrayList<>();
+
+    /** Transactions */
+    private final Map<String, StubTransaction> transactions = new HashMap<>();
+
+    /** Unconfirmed transactions */
+    private final Map<String, StubTransaction> unconfirmedTransactions = new LinkedHashMap<>();
+
+    /** Coin exchange orders */
+    private final Map<Long, StubOrder> orders = new LinkedHashMap<>();
+
+    /** Event registrations */
+    private final Map<Long, Registration> registrations = new HashMap<>();
+
+    /** Next event token */
+    private long nextToken = 1;
+
+    /** Blockchain reorganization probability */
+    private double reorgRate;
+
+    /**
+     * Create the synthetic blockchain
+     *
+     * @param   seed                    Random number seed
+     * @param   blockInterval           Block interval (seconds)
+     * @param   txPerBlock              Number of new payments for each block
+     * @param   historyCount            Number of transactions in a new account history
+     */
+    public StubChain(long seed, int blockInterval, int txPerBlock, int historyCount) {
+        this.random = new Random(seed);
+        this.blockInterval = blockInterval;
+        this.txPerBlock = txPerBlock;
+        this.historyCount = historyCount;
+        //
+        // Create the initial blocks.  The last block has the current time.
+        //
+        int timestamp = getEpochTime() - INITIAL_HEIGHT * blockInterval;
+        for (int height=0; height<=INITIAL_HEIGHT; height++) {
+            blocks.add(new long[] {random.nextLong(), timestamp});
+            blockTransactions.add(new ArrayList<>());
+            timestamp += blockInterval;
+        }
+        //
+        // Create the peer accounts and the initial order book
+        //
+        for (int i=0; i<PEER_COUNT; i++) {
+            byte[] publicKey = new byte[32];
+            random.nextBytes(publicKey);
+            StubAccount peer = getAccount(Utils.getAccountId(publicKey));
+            peer.publicKey = publicKey;
+            peer.name = "Peer " + (i + 1);
+            peers.add(peer);
+        }
+        for (int chainId=1; chainId<=CHAIN_NAMES.length; chainId++) {
+            for (int exchangeId=1; exchangeId<=CHAIN_NAMES.length; exchangeId++) {
+                if (chainId == exchangeId)
+                    continue;
+                for (int i=0; i<ORDER_COUNT; i++)
+                    createOrder(peers.get(random.nextInt(PEER_COUNT)), chainId, exchangeId,
+                                getHeight() - random.nextInt(100));
+            }
+        }
+    }
+
+    /**
+     * Set the blockchain reorganization probability
+     *
+     * @param   reorgRate               Probability that a new block replaces the last block
+     */
+    public synchronized void setReorgRate(double reorgRate) {
+        this.reorgRate = reorgRate;
+    }
+
+    /**
+     * Get the block interval
+     *
+     * @return                          Block interval (seconds)
+     */
+    public int getBlockInterval() {
+        return blockInterval;
+    }
+
+    /**
+     * Get the current Nxt epoch time
+     *
+     * @return                          Seconds since the epoch beginning
+     */
+    public static int getEpochTime() {
+        return (int)((System.currentTimeMillis() - EPOCH_BEGINNING + 500) / 1000);
+    }
+
+    /**
+     * Check if a chain identifier is valid
+     *
+     * @param   chainId                 Chain identifier
+     * @return                          TRUE if the chain exists
+     */
+    public static boolean isValidChain(int chainId) {
+        return chainId >= 1 && chainId <= CHAIN_NAMES.length;
+    }
+
+    /**
+     * Get the current blockchain height
+     *
+     * @return                          Blockchain height
+     */
+    public synchronized int getHeight() {
+        return blocks.size() - 1;
+    }
+
+    /**
+     * Get the economic clustering block height
+     *
+     * @return                          Block height
+     */
+    public synchronized int getEcBlockHeight() {
+        return Math.max(0, getHeight() - 3);
+    }
+
+    /**
+     * Get a block identifier
+     *
+     * @param   height                  Block height
+     * @return                          Block identifier
+     */
+    public synchronized long getBlockId(int height) {
+        return blocks.get(height)[0];
+    }
+
+    /**
+     * Get the bundler rate for a chain
+     *
+     * @param   chainId                 Chain identifier
+     * @return                          Child chain NQT per ARDR
+     */
+    public static long getBundlerRate(int chainId) {
+        return BUNDLER_RATES[chainId - 1];
+    }
+
+    /**
+     * Calculate the minimum transaction fee
+     *
+     * @param   chainId                 Chain identifier
+     * @param   feeRate                 Child chain NQT per ARDR or 0 to use the bundler rate
+     * @return                          Transaction fee
+     */
+    public static long calculateFee(int chainId, long feeRate) {
+        if (chainId == FXT_CHAIN)
+            return FXT_FEE_FQT;
+        long rate = (feeRate > 0 ? feeRate : getBundlerRate(chainId));
+        return (CHILD_FEE_FQT * rate + 100000000L - 1) / 100000000L;
+    }
+
+    /**
+     * Get an account.  A new account is created the first time it is referenced.
+     *
+     * @param   accountId               Account identifier
+     * @return                          Account
+     */
+    public synchronized StubAccount getAccount(long accountId) {
+        StubAccount account = accounts.get(accountId);
+        if (account == null) {
+            account = new StubAccount(accountId);
+            accounts.put(accountId, account);
+        }
+        return account;
+    }
+
+    /**
+     * Get a watched account.  The account transaction history is created the
+     * first time the account is watched.
+     *
+     * @param   accountId               Account identifier
+     * @return                          Account
+     */
+    public synchronized StubAccount watchAccount(long accountId) {
+        StubAccount account = getAccount(accountId);
+        if (account.watched)
+            return account;
+        account.watched = true;
+        for (int chainId=1; chainId<=CHAIN_NAMES.length; chainId++) {
+            long balance = (1000 + random.nextInt(9000)) * pow10(CHAIN_DECIMALS[chainId - 1]);
+            account.balances[chainId - 1][0] += balance;
+            account.balances[chainId - 1][1] += balance;
+        }
+        //
+        // Create the account history.  The history transactions do not change
+        // the account balances.
+        //
+        for (int i=0; i<historyCount; i++) {
+            int height = 1 + random.nextInt(getHeight());
+            StubTransaction tx = createRandomPayment(account, (int)blocks.get(height)[1]);
+            confirmTransaction(tx, height);
+        }
+        return account;
+    }
+
+    /**
+     * Set the account public key
+     *
+     * @param   publicKey               Public key
+     */
+    public synchronized void setPublicKey(byte[] publicKey) {
+        getAccount(Utils.getAccountId(publicKey)).publicKey = publicKey;
+    }
+
+    /**
+     * Create a random payment for an account
+     *
+     * @param   account                 Account
+     * @param   timestamp               Transaction timestamp
+     * @return                          Payment transaction
+     */
+    private StubTransaction createRandomPayment(StubAccount account, int timestamp) {
+        int chainId = 1 + random.nextInt(CHAIN_NAMES.length);
+        long amount = (1 + random.nextInt(100)) * pow10(CHAIN_DECIMALS[chainId - 1]);
+        StubAccount peer = peers.get(random.nextInt(PEER_COUNT));
+        StubTransaction tx;
+        if (account.publicKey != null && random.nextBoolean()) {
+            tx = createPayment(chainId, account.publicKey, peer.id, amount, calculateFee(chainId, 0), timestamp);
+        } else {
+            tx = createPayment(chainId, peer.publicKey, account.id, amount, calculateFee(chainId, 0), timestamp);
+        }
+        sign(tx);
+        return tx;
+    }
+
+    /**
+     * Create an unsigned payment
+     *
+     * @param   chainId                 Chain identifier
+     * @param   senderPublicKey         Sender public key
+     * @param   recipientId             Recipient identifier
+     * @param   amount                  Payment amount
+     * @param   fee                     Transaction fee
+     * @param   timestamp               Transaction timestamp
+     * @return                          Payment transaction
+     */
+    public synchronized StubTransaction createPayment(int chainId, byte[] senderPublicKey, long recipientId,
+                                                      long amount, long fee, int timestamp) {
+        int ecBlockHeight = getEcBlockHeight();
+        return createPayment(chainId, senderPublicKey, recipientId, amount, fee, timestamp, 15,
+                             ecBlockHeight, getBlockId(ecBlockHeight));
+    }
+
+    /**
+     * Create an unsigned payment using the supplied deadline and economic clustering block
+     *
+     * @param   chainId                 Chain identifier
+     * @param   senderPublicKey         Sender public key
+     * @param   recipientId             Recipient identifier
+     * @param   amount                  Payment amount
+     * @param   fee                     Transaction fee
+     * @param   timestamp               Transaction timestamp
+     * @param   deadline                Transaction deadline (minutes)
+     * @param   ecBlockHeight           Economic clustering block height
+     * @param   ecBlockId               Economic clustering block identifier
+     * @return                          Payment transaction
+     */
+    public synchronized StubTransaction createPayment(int chainId, byte[] senderPublicKey, long recipientId,
+                                                      long amount, long fee, int timestamp, int deadline,
+                                                      int ecBlockHeight, long ecBlockId) {
+        byte[] txBytes = TransactionBytes.createPayment(chainId, chainId == FXT_CHAIN, timestamp, deadline,
+                senderPublicKey, recipientId, amount, fee, ecBlockHeight, ecBlockId);
+        StubTransaction tx = new StubTransaction(txBytes);
+        tx.recipientId = recipientId;
+        tx.attachment.put("version.OrdinaryPayment", 0);
+        return tx;
+    }
+
+    /**
+     * Create an unsigned coin exchange order
+     *
+     * @param   chainId                 Chain identifier
+     * @param   exchangeId              Exchange chain identifier
+     * @param   senderPublicKey         Sender public key
+     * @param   quantity                Exchange quantity
+     * @param   price                   Exchange price
+     * @param   fee                     Transaction fee
+     * @param   timestamp               Transaction timestamp
+     * @return                          Order transaction
+     */
+    public synchronized StubTransaction createOrderIssue(int chainId, int exchangeId, byte[] senderPublicKey,
+                                                         long quantity, long price, long fee, int timestamp) {
+        int ecBlockHeight = getEcBlockHeight();
+        byte[] txBytes = TransactionBytes.createOrderIssue(chainId, chainId == FXT_CHAIN, timestamp, 15,
+                senderPublicKey, fee, ecBlockHeight, getBlockId(ecBlockHeight),
+                chainId, exchangeId, quantity, price);
+        StubTransaction tx = new StubTransaction(txBytes);
+        tx.attachment.put("version.CoinExchangeOrderIssue", 1);
+        tx.attachment.put("chain", chainId);
+        tx.attachment.put("exchangeChain", exchangeId);
+        tx.attachment.put("quantityQNT", Long.toString(quantity));
+        tx.attachment.put("priceNQT", Long.toString(price));
+        return tx;
+    }
+
+    /**
+     * Sign a synthetic transaction.  The stub node does not verify signatures, so
+     * a random signature is used.
+     *
+     * @param   tx                      Transaction
+     */
+    private void sign(StubTransaction tx) {
+        byte[] signature = new byte[TransactionBytes.SIGNATURE_LENGTH];
+        random.nextBytes(signature);
+        System.arraycopy(signature, 0, tx.bytes, TransactionBytes.SIGNATURE_OFFSET, signature.length);
+        tx.setFullHash();
+    }
+
+    /**
+     * Broadcast a signed transaction
+     *
+     * @param   txBytes                 Signed transaction bytes
+     * @param   prunableJSON            Prunable attachment or null
+     * @return                          Transaction
+     * @throws  IllegalArgumentException Transaction is not valid
+     */
+    public synchronized StubTransaction broadcastTransaction(byte[] txBytes, Map<String, Object> prunableJSON) {
+        if (txBytes.length < TransactionBytes.BASE_LENGTH)
+            throw new IllegalArgumentException("Transaction bytes are too short");
+        int chainId = TransactionBytes.getChainId(txBytes);
+        if (!isValidChain(chainId))
+            throw new IllegalArgumentException("Unknown chain " + chainId);
+        StubTransaction tx = new StubTransaction(txBytes);
+        tx.setFullHash();
+        StubTransaction prevTx = transactions.get(tx.getKey());
+        if (prevTx != null)
+            return prevTx;
+        if (TransactionBytes.getType(txBytes) == TransactionBytes.CHILD_ORDER_ISSUE[0] ||
+                TransactionBytes.getType(txBytes) == TransactionBytes.FXT_ORDER_ISSUE[0]) {
+            if (txBytes.length < TransactionBytes.BASE_LENGTH + TransactionBytes.ORDER_ISSUE_LENGTH)
+                throw new IllegalArgumentException("Order attachment is missing");
+            ByteBuffer buffer = ByteBuffer.wrap(txBytes).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.position(TransactionBytes.BASE_LENGTH + 1);
+            tx.attachment.put("version.CoinExchangeOrderIssue", 1);
+            tx.attachment.put("chain", buffer.getInt());
+            tx.attachment.put("exchangeChain", buffer.getInt());
+            tx.attachment.put("quantityQNT", Long.toString(buffer.getLong()));
+            tx.attachment.put("priceNQT", Long.toString(buffer.getLong()));
+        } else {
+            tx.recipientId = TransactionBytes.getRecipientId(txBytes);
+            tx.attachment.put("version.OrdinaryPayment", 0);
+        }
+        if (prunableJSON != null)
+            tx.attachment.putAll(prunableJSON);
+        getAccount(tx.senderId).publicKey = TransactionBytes.getSenderPublicKey(txBytes);
+        addUnconfirmed(tx);
+        return tx;
+    }
+
+    /**
+     * Add a transaction to the unconfirmed pool
+     *
+     * @param   tx                      Transaction
+     */
+    private void addUnconfirmed(StubTransaction tx) {
+        tx.height = Integer.MAX_VALUE;
+        transactions.put(tx.getKey(), tx);
+        unconfirmedTransactions.put(tx.getKey(), tx);
+        getAccount(tx.senderId).balances[tx.chainId - 1][1] -= tx.getTotal();
+        postTransactionEvent("Transaction.ADDED_UNCONFIRMED_TRANSACTIONS", tx);
+    }
+
+    /**
+     * Generate a new block.  The block confirms the unconfirmed transactions and
+     * then new unconfirmed payments are created for the watched accounts.
+     */
+    public synchronized void generateBlock() {
+        if (reorgRate > 0 && random.nextDouble() < reorgRate && getHeight() > 1)
+            popBlock();
+        int timestamp = getEpochTime();
+        blocks.add(new long[] {random.nextLong(), timestamp});
+        blockTransactions.add(new ArrayList<>());
+        int height = getHeight();
+        Iterator<StubTransaction> it = unconfirmedTransactions.values().iterator();
+        while (it.hasNext()) {
+            StubTransaction tx = it.next();
+            it.remove();
+            confirmTransaction(tx, height);
+            StubAccount sender = getAccount(tx.senderId);
+            sender.balances[tx.chainId - 1][0] -= tx.getTotal();
+            if (tx.recipientId != 0) {
+                StubAccount recipient = getAccount(tx.recipientId);
+                recipient.balances[tx.chainId - 1][0] += tx.amount;
+                recipient.balances[tx.chainId - 1][1] += tx.amount;
+            }
+            if (tx.attachment.containsKey("version.CoinExchangeOrderIssue")) {
+                int exchangeId = (Integer)tx.attachment.get("exchangeChain");
+                StubOrder order = new StubOrder(tx.id, tx.fullHash, tx.senderId, tx.chainId, exchangeId,
+                        Long.parseLong((String)tx.attachment.get("quantityQNT")),
+                        Long.parseLong((String)tx.attachment.get("priceNQT")), height);
+                orders.put(order.id, order);
+            }
+            postTransactionEvent("Transaction.ADDED_CONFIRMED_TRANSACTIONS", tx);
+        }
+        postEvent("Block.BLOCK_PUSHED", null, Long.toUnsignedString(getBlockId(height)));
+        //
+        // Create new unconfirmed payments for the watched accounts
+        //
+        List<StubAccount> watched = new ArrayList<>();
+        accounts.values().forEach(account -> {
+            if (account.watched)
+                watched.add(account);
+        });
+        if (!watched.isEmpty()) {
+            for (int i=0; i<txPerBlock; i++)
+                addUnconfirmed(createRandomPayment(watched.get(random.nextInt(watched.size())), timestamp));
+        }
+        //
+        // Replace some of the orders
+        //
+        List<Long> orderIds = new ArrayList<>(orders.keySet());
+        for (int i=0; i<3 && !orderIds.isEmpty(); i++) {
+            StubOrder order = orders.remove(orderIds.remove(random.nextInt(orderIds.size())));
+            createOrder(peers.get(random.nextInt(PEER_COUNT)), order.chainId, order.exchangeId, height);
+        }
+    }
+
+    /**
+     * Remove the last block.  The block transactions are returned to the unconfirmed pool.
+     */
+    private void popBlock() {
+        int height = getHeight();
+        long blockId = getBlockId(height);
+        List<StubTransaction> txList = blockTransactions.remove(height);
+        blocks.remove(height);
+        postEvent("Block.BLOCK_POPPED", null, Long.toUnsignedString(blockId));
+        for (StubTransaction tx : txList) {
+            StubAccount sender = getAccount(tx.senderId);
+            sender.balances[tx.chainId - 1][0] += tx.getTotal();
+            sender.balances[tx.chainId - 1][1] += tx.getTotal();
+            if (tx.recipientId != 0) {
+                StubAccount recipient = getAccount(tx.recipientId);
+                recipient.balances[tx.chainId - 1][0] -= tx.amount;
+                recipient.balances[tx.chainId - 1][1] -= tx.amount;
+            }
+            sender.transactions.remove(tx);
+            if (tx.recipientId != 0)
+                getAccount(tx.recipientId).transactions.remove(tx);
+            orders.remove(tx.id);
+            addUnconfirmed(tx);
+        }
+    }
+
+    /**
+     * Add a transaction to a block
+     *
+     * @param   tx                      Transaction
+     * @param   height                  Block height
+     */
+    private void confirmTransaction(StubTransaction tx, int height) {
+        List<StubTransaction> txList = blockTransactions.get(height);
+        tx.height = height;
+        tx.index = txList.size();
+        txList.add(tx);
+        transactions.put(tx.getKey(), tx);
+        getAccount(tx.senderId).transactions.add(tx);
+        if (tx.recipientId != 0 && tx.recipientId != tx.senderId)
+            getAccount(tx.recipientId).transactions.add(tx);
+    }
+
+    /**
+     * Create a coin exchange order
+     *
+     * @param   account                 Order account
+     * @param   chainId                 Chain identifier
+     * @param   exchangeId              Exchange chain identifier
+     * @param   height                  Order height
+     */
+    private void createOrder(StubAccount account, int chainId, int exchangeId, int height) {
+        long quantity = (1 + random.nextInt(1000)) * pow10(CHAIN_DECIMALS[exchangeId - 1]);
+        long rate = getBundlerRate(chainId) * pow10(CHAIN_DECIMALS[exchangeId - 1]) / getBundlerRate(exchangeId);
+        long price = Math.max(1, rate * (80 + random.nextInt(40)) / 100);
+        byte[] fullHash = new byte[32];
+        random.nextBytes(fullHash);
+        StubOrder order = new StubOrder(Utils.fullHashToId(fullHash), fullHash, account.id,
+                                        chainId, exchangeId, quantity, price, height);
+        orders.put(order.id, order);
+    }
+
+    /**
+     * Get the blockchain status
+     *
+     * @return                          Status response
+     */
+    public synchronized JSONObject<String, Object> getBlockchainStatus() {
+        JSONObject<String, Object> response = new JSONObject<>();
+        response.put("application", "Ardor");
+        response.put("version", "2.0.14");
+        response.put("time", getEpochTime());
+        response.put("numberOfBlocks", blocks.size());
+        response.put("lastBlock", Long.toUnsignedString(getBlockId(getHeight())));
+        response.put("lastBlockchainFeederHeight", getHeight());
+        response.put("isScanning", false);
+        response.put("isDownloading", false);
+        return response;
+    }
+
+    /**
+     * Get the economic clustering block
+     *
+     * @return                          EC block response
+     */
+    public synchronized JSONObject<String, Object> getECBlock() {
+        int ecBlockHeight = getEcBlockHeight();
+        JSONObject<String, Object> response = new JSONObject<>();
+        response.put("ecBlockId", Long.toUnsignedString(getBlockId(ecBlockHeight)));
+        response.put("ecBlockHeight", ecBlockHeight);
+        response.put("timestamp", getEpochTime());
+        return response;
+    }
+
+    /**
+     * Get a block
+     *
+     * @param   height                  Block height
+     * @return                          Block response or null if the height is not valid
+     */
+    public synchronized JSONObject<String, Object> getBlock(int height) {
+        if (height < 0 || height >= blocks.size())
+            return null;
+        JSONObject<String, Object> response = new JSONObject<>();
+        response.put("block", Long.toUnsignedString(getBlockId(height)));
+        response.put("height", height);
+        response.put("timestamp", blocks.get(height)[1]);
+        if (height > 0)
+            response.put("previousBlock", Long.toUnsignedString(getBlockId(height - 1)));
+        response.put("numberOfTransactions", blockTransactions.get(height).size());
+        return response;
+    }
+
+    /**
+     * Get the confirmed transactions for an account
+     *
+     * @param   accountId               Account identifier
+     * @param   chainId                 Chain identifier
+     * @param   firstIndex              Index of the first transaction
+     * @param   lastIndex               Index of the last transaction
+     * @return                          List of transactions in descending order
+     */
+    public synchronized JSONArray<JSONObject<String, Object>> getBlockchainTransactions(
+                                long accountId, int chainId, int firstIndex, int lastIndex) {
+        List<StubTransaction> txList = new ArrayList<>();
+        watchAccount(accountId).transactions.forEach(tx -> {
+            if (tx.chainId == chainId)
+                txList.add(tx);
+        });
+        txList.sort((tx1, tx2) -> (tx1.height != tx2.height ? Integer.compare(tx2.height, tx1.height) :
+                                                               Integer.compare(tx2.index, tx1.index)));
+        JSONArray<JSONObject<String, Object>> txArray = new JSONArray<>();
+        for (int i=Math.max(0, firstIndex); i<=lastIndex && i<txList.size(); i++)
+            txArray.add(txList.get(i).toJSON());
+        return txArray;
+    }
+
+    /**
+     * Get the unconfirmed transactions for an account
+     *
+     * @param   accountId               Account identifier
+     * @param   chainId                 Chain identifier
+     * @return                          List of transactions
+     */
+    public synchronized JSONArray<JSONObject<String, Object>> getUnconfirmedTransactions(long accountId,
+                                                                                       int chainId) {
+        JSONArray<JSONObject<String, Object>> txArray = new JSONArray<>();
+        unconfirmedTransactions.values().forEach(tx -> {
+            if (tx.chainId == chainId && (tx.senderId == accountId || tx.recipientId == accountId))
+                txArray.add(tx.toJSON());
+        });
+        return txArray;
+    }
+
+    /**
+     * Get a transaction
+     *
+     * @param   chainId                 Chain identifier
+     * @param   fullHash                Transaction full hash
+     * @return                          Transaction or null if the transaction is not found
+     */
+    public synchronized JSONObject<String, Object> getTransaction(int chainId, byte[] fullHash) {
+        StubTransaction tx = transactions.get(chainId + ":" + Utils.toHexString(fullHash));
+        return (tx != null ? tx.toJSON() : null);
+    }
+
+    /**
+     * Get the account balance for a chain
+     *
+     * @param   accountId               Account identifier
+     * @param   chainId                 Chain identifier
+     * @return                          Balance object
+     */
+    public synchronized JSONObject<String, Object> getBalance(long accountId, int chainId) {
+        long[] balance = watchAccount(accountId).balances[chainId - 1];
+        JSONObject<String, Object> response = new JSONObject<>();
+        response.put("balanceNQT", Long.toString(balance[0]));
+        response.put("unconfirmedBalanceNQT", Long.toString(balance[1]));
+        return response;
+    }
+
+    /**
+     * Get the coin exchange orders
+     *
+     * @param   chainId                 Order chain identifier or 0 for all chains
+     * @param   exchangeId              Exchange chain identifier or 0 for all chains
+     * @return                          List of orders
+     */
+    public synchronized JSONArray<JSONObject<String, Object>> getCoinExchangeOrders(int chainId, int exchangeId) {
+        JSONArray<JSONObject<String, Object>> orderArray = new JSONArray<>();
+        orders.values().forEach(order -> {
+            if ((chainId == 0 || order.chainId == chainId) && (exchangeId == 0 || order.exchangeId == exchangeId))
+                orderArray.add(order.toJSON());
+        });
+        return orderArray;
+    }
+
+    /**
+     * Register events
+     *
+     * @param   eventList               Event names
+     * @param   token                   Event token or 0 for a new registration
+     * @param   add                     TRUE to add the events
+     * @param   remove                  TRUE to remove the events
+     * @return                          Event token or 0 if the token is not valid
+     */
+    public synchronized long eventRegister(List<String> eventList, long token, boolean add, boolean remove) {
+        Registration registration;
+        if (token == 0) {
+            registration = new Registration(nextToken++);
+            registrations.put(registration.token, registration);
+        } else {
+            registration = registrations.get(token);
+            if (registration == null)
+                return 0;
+        }
+        if (remove) {
+            if (eventList.isEmpty()) {
+                registrations.remove(registration.token);
+                notifyAll();
+            } else {
+                registration.events.removeAll(eventList);
+            }
+        } else {
+            if (!add)
+                registration.events.clear();
+            registration.events.addAll(eventList);
+            eventList.forEach(event -> {
+                int sep = event.indexOf('.', event.indexOf('.') + 1);
+                if (sep > 0) {
+                    try {
+                        watchAccount(Utils.parseAccountRsId(event.substring(sep + 1)));
+                    } catch (Exception exc) {
+                        Main.log.warn("Invalid event account " + event);
+                    }
+                }
+            });
+        }
+        return registration.token;
+    }
+
+    /**
+     * Wait for events
+     *
+     * @param   token                   Event token
+     * @param   timeout                 Wait timeout (seconds)
+     * @return                          List of events or null if the token is not valid
+     * @throws  InterruptedException    Wait interrupted
+     */
+    public synchronized JSONArray<JSONObject<String, Object>> eventWait(long token, int timeout)
+                                                throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout * 1000L;
+        while (true) {
+            Registration registration = registrations.get(token);
+            if (registration == null)
+                return null;
+            long waitTime = deadline - System.currentTimeMillis();
+            if (!registration.pending.isEmpty() || waitTime <= 0) {
+                JSONArray<JSONObject<String, Object>> eventArray = new JSONArray<>();
+                registration.pending.forEach((name, ids) -> {
+                    JSONObject<String, Object> event = new JSONObject<>();
+                    JSONArray<String> idArray = new JSONArray<>();
+                    idArray.addAll(ids);
+                    event.put("name", name);
+                    event.put("ids", idArray);
+                    eventArray.add(event);
+                });
+                registration.pending.clear();
+                return eventArray;
+            }
+            wait(waitTime);
+        }
+    }
+
+    /**
+     * Post a transaction event
+     *
+     * @param   name                    Event name
+     * @param   tx                      Transaction
+     */
+    private void postTransactionEvent(String name, StubTransaction tx) {
+        String id = tx.getKey();
+        postEvent(name, Utils.getAccountRsId(tx.senderId), id);
+        if (tx.recipientId != 0 && tx.recipientId != tx.senderId)
+            postEvent(name, Utils.getAccountRsId(tx.recipientId), id);
+    }
+
+    /**
+     * Post an event to the registrations that are waiting for the event
+     *
+     * @param   name                    Event name
+     * @param   accountRsId             Event account or null
+     * @param   id                      Event identifier
+     */
+    private void postEvent(String name, String accountRsId, String id) {
+        String eventName = (accountRsId != null ? name + "." + accountRsId : name);
+        boolean posted = false;
+        for (Registration registration : registrations.values()) {
+            if (registration.events.contains(eventName)) {
+                List<String> ids = registration.pending.get(name);
+                if (ids == null) {
+                    ids = new ArrayList<>();
+                    registration.pending.put(name, ids);
+                }
+                if (!ids.contains(id))
+                    ids.add(id);
+                posted = true;
+            }
+        }
+        if (posted)
+            notifyAll();
+    }
+
+    /**
+     * Wake up the event waiters
+     */
+    public synchronized void shutdown() {
+        registrations.clear();
+        notifyAll();
+    }
+
+    /**
+     * Get a power of 10
+     *
+     * @param   exponent                Exponent
+     * @return                          10 raised to the exponent
+     */
+    private static long pow10(int exponent) {
+        long result = 1;
+        for (int i=0; i<exponent; i++)
+            result *= 10;
+        return result;
+    }
+
+    /**
+     * Synthetic account
+     */
+    public static class StubAccount {
+
+        /** Account identifier */
+        private final long id;
+
+        /** Account public key or null if the public key is not known */
+        private byte[] publicKey;
+
+        /** Account name or null */
+        private String name;
+
+        /** Confirmed and unconfirmed balance for each chain */
+        private final long[][] balances = new long[CHAIN_NAMES.length][2];
+
+        /** Confirmed transactions */
+        private final List<StubTransaction> transactions = new ArrayList<>();
+
+        /** Account is watched by the wallet */
+        private boolean watched;
+
+        /**
+         * Create an account
+         *
+         * @param   id                  Account identifier
+         */
+        private StubAccount(long id) {
+            this.id = id;
+        }
+
+        /**
+         * Get the account as a JSON object
+         *
+         * @return                      Account object
+         */
+        public JSONObject<String, Object> toJSON() {
+            JSONObject<String, Object> response = new JSONObject<>();
+            response.put("account", Long.toUnsignedString(id));
+            response.put("accountRS", Utils.getAccountRsId(id));
+            if (publicKey != null)
+                response.put("publicKey", Utils.toHexString(publicKey));
+            if (name != null)
+                response.put("name", name);
+            return response;
+        }
+    }
+
+    /**
+     * Synthetic transaction
+     */
+    public class StubTransaction {
+
+        /** Transaction bytes */
+        private final byte[] bytes;
+
+        /** Chain identifier */
+        private final int chainId;
+
+        /** Sender identifier */
+        private final long senderId;
+
+        /** Recipient identifier or 0 */
+        private long recipientId;
+
+        /** Transaction amount */
+        private final long amount;
+
+        /** Transaction fee */
+        private final long fee;
+
+        /** Transaction attachment */
+        private final JSONObject<String, Object> attachment = new JSONObject<>();
+
+        /** Transaction full hash */
+        private byte[] fullHash;
+
+        /** Transaction identifier */
+        private long id;
+
+        /** Block height or Integer.MAX_VALUE if unconfirmed */
+        private int height = Integer.MAX_VALUE;
+
+        /** Index within the block */
+        private int index;
+
+        /**
+         * Create a transaction
+         *
+         * @param   bytes               Transaction bytes
+         */
+        private StubTransaction(byte[] bytes) {
+            this.bytes = bytes;
+            this.chainId = TransactionBytes.getChainId(bytes);
+            this.senderId = Utils.getAccountId(TransactionBytes.getSenderPublicKey(bytes));
+            this.amount = TransactionBytes.getAmount(bytes);
+            this.fee = TransactionBytes.getFee(bytes);
+        }
+
+        /**
+         * Calculate the transaction full hash and identifier
+         */
+        private void setFullHash() {
+            fullHash = TransactionBytes.calculateFullHash(bytes);
+            id = Utils.fullHashToId(fullHash);
+        }
+
+        /**
+         * Get the transaction key
+         *
+         * @return                      Chain identifier and full hash
+         */
+        private String getKey() {
+            return chainId + ":" + Utils.toHexString(fullHash);
+        }
+
+        /**
+         * Get the total amount deducted from the sender balance
+         *
+         * @return                      Amount plus fee
+         */
+        private long getTotal() {
+            return amount + fee;
+        }
+
+        /**
+         * Get the transaction bytes
+         *
+         * @return                      Transaction bytes
+         */
+        public byte[] getBytes() {
+            return bytes;
+        }
+
+        /**
+         * Get the transaction full hash
+         *
+         * @return                      Full hash
+         */
+        public byte[] getFullHash() {
+            return fullHash;
+        }
+
+        /**
+         * Get the transaction as a JSON object
+         *
+         * @return                      Transaction object
+         */
+        public JSONObject<String, Object> toJSON() {
+            JSONObject<String, Object> response = new JSONObject<>();
+            response.put("chain", chainId);
+            response.put("type", TransactionBytes.getType(bytes));
+            response.put("subtype", TransactionBytes.getSubtype(bytes));
+            response.put("version", (int)TransactionBytes.VERSION);
+            response.put("timestamp", TransactionBytes.getTimestamp(bytes));
+            response.put("deadline", TransactionBytes.getDeadline(bytes));
+            response.put("senderPublicKey", Utils.toHexString(TransactionBytes.getSenderPublicKey(bytes)));
+            response.put("sender", Long.toUnsignedString(senderId));
+            response.put("senderRS", Utils.getAccountRsId(senderId));
+            if (recipientId != 0) {
+                response.put("recipient", Long.toUnsignedString(recipientId));
+                response.put("recipientRS", Utils.getAccountRsId(recipientId));
+            }
+            response.put("amountNQT", Long.toString(amount));
+            response.put("feeNQT", Long.toString(fee));
+            response.put("ecBlockHeight", TransactionBytes.getEcBlockHeight(bytes));
+            response.put("ecBlockId", Long.toUnsignedString(TransactionBytes.getEcBlockId(bytes)));
+            response.put("attachment", attachment);
+            response.put("phased", false);
+            response.put("height", height);
+            if (fullHash != null) {
+                response.put("signature", Utils.toHexString(TransactionBytes.getSignature(bytes)));
+                response.put("fullHash", Utils.toHexString(fullHash));
+                response.put("transaction", Long.toUnsignedString(id));
+            }
+            if (height != Integer.MAX_VALUE) {
+                long[] block = blocks.get(height);
+                response.put("block", Long.toUnsignedString(block[0]));
+                response.put("blockTimestamp", (int)block[1]);
+                response.put("transactionIndex", index);
+                response.put("confirmations", getHeight() - height);
+            }
+            return response;
+        }
+    }
+
+    /**
+     * Coin exchange order
+     */
+    private static class StubOrder {
+
+        /** Order identifier */
+        private final long id;
+
+        /** Order full hash */
+        private final byte[] fullHash;
+
+        /** Order account */
+        private final long accountId;
+
+        /** Chain identifier */
+        private final int chainId;
+
+        /** Exchange chain identifier */
+        private final int exchangeId;
+
+        /** Quantity of the exchange chain coins */
+        private final long quantity;
+
+        /** Price of one exchange chain coin in chain coins */
+        private final long price;
+
+        /** Order height */
+        private final int height;
+
+        /**
+         * Create an order
+         *
+         * @param   id                  Order identifier
+         * @param   fullHash            Order full hash
+         * @param   accountId           Order account
+         * @param   chainId             Chain identifier
+         * @param   exchangeId          Exchange chain identifier
+         * @param   quantity            Exchange quantity
+         * @param   price               Exchange price
+         * @param   height              Order height
+         */
+        private StubOrder(long id, byte[] fullHash, long accountId, int chainId, int exchangeId,
+                          long quantity, long price, int height) {
+            this.id = id;
+            this.fullHash = fullHash;
+            this.accountId = accountId;
+            this.chainId = chainId;
+            this.exchangeId = exchangeId;
+            this.quantity = quantity;
+            this.price = price;
+            this.height = height;
+        }
+
+        /**
+         * Get the order as a JSON object.  The exchange amount and the ask price are
+         * expressed in the order chain and the exchange chain respectively.
+         *
+         * @return                      Order object
+         */
+        private JSONObject<String, Object> toJSON() {
+            long exchangeOne = pow10(CHAIN_DECIMALS[exchangeId - 1]);
+            long chainOne = pow10(CHAIN_DECIMALS[chainId - 1]);
+            JSONObject<String, Object> response = new JSONObject<>();
+            response.put("order", Long.toUnsignedString(id));
+            response.put("orderFullHash", Utils.toHexString(fullHash));
+            response.put("account", Long.toUnsignedString(accountId));
+            response.put("accountRS", Utils.getAccountRsId(accountId));
+            response.put("chain", chainId);
+            response.put("exchange", exchangeId);
+            response.put("quantityQNT", Long.toString(quantity));
+            response.put("bidNQTPerCoin", Long.toString(price));
+            response.put("exchangeQNT", Long.toString(
+                    BigInteger.valueOf(quantity).multiply(BigInteger.valueOf(price))
+                            .divide(BigInteger.valueOf(exchangeOne)).longValue()));
+            response.put("askNQTPerCoin", Long.toString(
+                    BigInteger.valueOf(exchangeOne).multiply(BigInteger.valueOf(chainOne))
+                            .divide(BigInteger.valueOf(price)).longValue()));
+            response.put("height", height);
+            return response;
+        }
+    }
+
+    /**
+     * Event registration
+     */
+    private static class Registration {
+
+        /** Event token */
+        private final long token;
+
+        /** Registered events */
+        private final Set<String> events = new HashSet<>();
+
+        /** Pending event identifiers by event name */
+        private final Map<String, List<String>> pending = new LinkedHashMap<>();
+
+        /**
+         * Create an event registration
+         *
+         * @param   token               Event token
+         */
+        private Registration(long token) {
+            this.token = token;
+        }
+    }
+}
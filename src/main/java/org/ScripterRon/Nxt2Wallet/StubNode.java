@@ -0,0 +1,920 @@
+/*
+ * Copyright 2017 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Wallet;
+
+import org.ScripterRon.JSON.JSONArray;
+import org.ScripterRon.JSON.JSONObject;
+import org.ScripterRon.Nxt2API.Crypto;
+import org.ScripterRon.Nxt2API.Utils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * StubNode is a local HTTP server implementing the subset of the Nxt API used by
+ * the wallet.  The server data comes from a synthetic blockchain, so the wallet
+ * can be run and measured without a live node.
+ *
+ * Each request can be delayed by a fixed latency plus a random jitter and a
+ * request can fail with HTTP status 503.  These settings can be changed while the
+ * server is running using the 'stubControl' request type.
+ *
+ * The stub node is started by the wallet when 'stubNode=true' is specified in the
+ * configuration file.  It can also be run as a standalone server:
+ * <pre>
+ *   java -cp Nxt2Wallet.jar org.ScripterRon.Nxt2Wallet.StubNode [options]
+ *
+ *   --port n           API port (default 27876)
+ *   --latency n        Request latency in milliseconds (default 0)
+ *   --jitter n         Maximum random latency in milliseconds (default 0)
+ *   --failureRate n    Request failure probability (default 0)
+ *   --reorgRate n      Block replacement probability (default 0)
+ *   --seed n           Random number seed (default 1)
+ *   --blockInterval n  Block interval in seconds (default 60)
+ *   --txPerBlock n     New payments for each block (default 2)
+ *   --history n        Transactions in a new account history (default 50)
+ * </pre>
+ */
+public class StubNode implements HttpHandler {
+
+    /** Minimum response size for compression */
+    private static final int GZIP_MIN_SIZE = 256;
+
+    /** Maximum eventWait timeout (seconds) */
+    private static final int MAX_EVENT_WAIT = 60;
+
+    /** HTTP server */
+    private final HttpServer server;
+
+    /** Request executor */
+    private final ExecutorService executor;
+
+    /** Block generation timer */
+    private final ScheduledExecutorService timer;
+
+    /** Synthetic blockchain */
+    private final StubChain chain;
+
+    /** Random number generator for fault injection */
+    private final Random random = new Random();
+
+    /** Request latency (milliseconds) */
+    private volatile long latency;
+
+    /** Maximum random latency (milliseconds) */
+    private volatile long jitter;
+
+    /** Request failure probability */
+    private volatile double failureRate;
+
+    /** Number of requests */
+    private final AtomicLong requestCount = new AtomicLong();
+
+    /** Number of failed requests */
+    private final AtomicLong failureCount = new AtomicLong();
+
+    /**
+     * Create the stub node
+     *
+     * @param   port                    API port
+     * @param   chain                   Synthetic blockchain
+     * @throws  IOException             Unable to create the HTTP server
+     */
+    public StubNode(int port, StubChain chain) throws IOException {
+        this.chain = chain;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 50);
+        server.createContext("/nxt", this);
+        executor = Executors.newCachedThreadPool(new WalletClient.DaemonThreadFactory("Stub Node"));
+        server.setExecutor(executor);
+        timer = Executors.newSingleThreadScheduledExecutor(new WalletClient.DaemonThreadFactory("Stub Node Timer"));
+    }
+
+    /**
+     * Start the stub node
+     */
+    public void start() {
+        server.start();
+        long interval = chain.getBlockInterval();
+        timer.scheduleAtFixedRate(() -> {
+            try {
+                chain.generateBlock();
+            } catch (Exception exc) {
+                Main.log.error("Unable to generate stub block", exc);
+            }
+        }, interval, interval, TimeUnit.SECONDS);
+        Main.log.info(String.format("Stub node started on port %d", server.getAddress().getPort()));
+    }
+
+    /**
+     * Stop the stub node
+     */
+    public void stop() {
+        timer.shutdownNow();
+        chain.shutdown();
+        server.stop(0);
+        executor.shutdownNow();
+        Main.log.info(String.format("Stub node stopped: %,d requests, %,d failures",
+                                    requestCount.get(), failureCount.get()));
+    }
+
+    /**
+     * Set the request latency
+     *
+     * @param   latency                 Latency (milliseconds)
+     */
+    public void setLatency(long latency) {
+        this.latency = latency;
+    }
+
+    /**
+     * Set the maximum random latency
+     *
+     * @param   jitter                  Jitter (milliseconds)
+     */
+    public void setJitter(long jitter) {
+        this.jitter = jitter;
+    }
+
+    /**
+     * Set the request failure probability
+     *
+     * @param   failureRate             Failure probability (0 - 1)
+     */
+    public void setFailureRate(double failureRate) {
+        this.failureRate = failureRate;
+    }
+
+    /**
+     * Handle an HTTP request
+     *
+     * @param   exchange                HTTP exchange
+     * @throws  IOException             I/O error
+     */
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        try {
+            Map<String, List<String>> params = new HashMap<>();
+            parseParams(exchange.getRequestURI().getRawQuery(), params);
+            if (exchange.getRequestMethod().equals("POST")) {
+                try (InputStream in = exchange.getRequestBody()) {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    byte[] buffer = new byte[4096];
+                    int count;
+                    while ((count = in.read(buffer)) > 0)
+                        out.write(buffer, 0, count);
+                    parseParams(new String(out.toByteArray(), StandardCharsets.UTF_8), params);
+                }
+            }
+            String requestType = getParam(params, "requestType");
+            requestCount.incrementAndGet();
+            //
+            // Inject the request latency and failures
+            //
+            if (!"stubControl".equals(requestType)) {
+                long delay = latency + (jitter > 0 ? (long)(random.nextDouble() * jitter) : 0);
+                if (delay > 0)
+                    Thread.sleep(delay);
+                if (failureRate > 0 && random.nextDouble() < failureRate) {
+                    failureCount.incrementAndGet();
+                    exchange.sendResponseHeaders(503, -1);
+                    return;
+                }
+            }
+            //
+            // Process the request
+            //
+            long startTime = System.currentTimeMillis();
+            JSONObject<String, Object> response;
+            try {
+                response = processRequest(requestType, params);
+            } catch (RequestException exc) {
+                response = new JSONObject<>();
+                response.put("errorCode", exc.getErrorCode());
+                response.put("errorDescription", exc.getMessage());
+            }
+            response.put("requestProcessingTime", System.currentTimeMillis() - startTime);
+            sendResponse(exchange, response.toJSONString());
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+            exchange.sendResponseHeaders(503, -1);
+        } catch (Exception exc) {
+            Main.log.error("Unable to process stub node request", exc);
+            exchange.sendResponseHeaders(500, -1);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Send the response.  The response is compressed if the client accepts
+     * gzip encoding.
+     *
+     * @param   exchange                HTTP exchange
+     * @param   json                    Response JSON
+     * @throws  IOException             I/O error
+     */
+    private static void sendResponse(HttpExchange exchange, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        String encoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+        if (encoding != null && encoding.contains("gzip") && bytes.length >= GZIP_MIN_SIZE) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+                gzip.write(bytes);
+            }
+            bytes = out.toByteArray();
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Process an API request
+     *
+     * @param   requestType             Request type
+     * @param   params                  Request parameters
+     * @return                          Response object
+     * @throws  RequestException        Request is not valid
+     * @throws  InterruptedException    Request interrupted
+     */
+    private JSONObject<String, Object> processRequest(String requestType, Map<String, List<String>> params)
+                                            throws RequestException, InterruptedException {
+        if (requestType == null)
+            throw new RequestException(1, "Incorrect request");
+        JSONObject<String, Object> response;
+        switch (requestType) {
+            case "getConstants":
+                response = getConstants();
+                break;
+            case "getBlockchainStatus":
+                response = chain.getBlockchainStatus();
+                break;
+            case "getBlock":
+                response = chain.getBlock(getInt(params, "height", chain.getHeight()));
+                if (response == null)
+                    throw new RequestException(5, "Unknown block");
+                break;
+            case "getECBlock":
+                response = chain.getECBlock();
+                break;
+            case "getBundlerRates":
+                response = new JSONObject<>();
+                JSONArray<JSONObject<String, Object>> rates = new JSONArray<>();
+                for (int chainId=2; chainId<=StubChain.CHAIN_NAMES.length; chainId++) {
+                    JSONObject<String, Object> rate = new JSONObject<>();
+                    rate.put("chain", chainId);
+                    rate.put("minRateNQTPerFXT", Long.toString(StubChain.getBundlerRate(chainId)));
+                    rates.add(rate);
+                }
+                response.put("rates", rates);
+                break;
+            case "getAccount":
+                response = chain.watchAccount(getAccountId(params, "account")).toJSON();
+                break;
+            case "getBlockchainTransactions":
+                response = new JSONObject<>();
+                response.put("transactions", chain.getBlockchainTransactions(
+                        getAccountId(params, "account"), getChainId(params, "chain"),
+                        getInt(params, "firstIndex", 0), getInt(params, "lastIndex", Integer.MAX_VALUE)));
+                break;
+            case "getUnconfirmedTransactions":
+                response = new JSONObject<>();
+                response.put("unconfirmedTransactions", chain.getUnconfirmedTransactions(
+                        getAccountId(params, "account"), getChainId(params, "chain")));
+                break;
+            case "getBalance":
+                response = chain.getBalance(getAccountId(params, "account"), getChainId(params, "chain"));
+                break;
+            case "getBalances":
+                long accountId = getAccountId(params, "account");
+                JSONObject<String, Object> balances = new JSONObject<>();
+                List<String> chainList = params.get("chain");
+                if (chainList == null || chainList.isEmpty())
+                    throw new RequestException(3, "\"chain\" not specified");
+                for (String chainString : chainList) {
+                    int chainId = parseChainId(chainString);
+                    balances.put(Integer.toString(chainId), chain.getBalance(accountId, chainId));
+                }
+                response = new JSONObject<>();
+                response.put("balances", balances);
+                break;
+            case "getTransaction":
+                response = chain.getTransaction(getChainId(params, "chain"),
+                                                parseHex(getRequired(params, "fullHash"), "fullHash"));
+                if (response == null)
+                    throw new RequestException(5, "Unknown transaction");
+                break;
+            case "eventRegister":
+                List<String> eventList = params.get("event");
+                long token = chain.eventRegister(
+                        (eventList != null ? eventList : Collections.emptyList()),
+                        getLong(params, "token", 0), getBoolean(params, "add"), getBoolean(params, "remove"));
+                if (token == 0)
+                    throw new RequestException(4, "Incorrect \"token\"");
+                response = new JSONObject<>();
+                response.put("token", token);
+                response.put("registered", true);
+                break;
+            case "eventWait":
+                int timeout = Math.min(getInt(params, "timeout", MAX_EVENT_WAIT), MAX_EVENT_WAIT);
+                JSONArray<JSONObject<String, Object>> events = chain.eventWait(getLong(params, "token", 0), timeout);
+                if (events == null)
+                    throw new RequestException(4, "Incorrect \"token\"");
+                response = new JSONObject<>();
+                response.put("events", events);
+                break;
+            case "getCoinExchangeOrders":
+                response = new JSONObject<>();
+                response.put("orders", chain.getCoinExchangeOrders(
+                        (params.containsKey("chain") ? getChainId(params, "chain") : 0),
+                        (params.containsKey("exchange") ? getChainId(params, "exchange") : 0)));
+                break;
+            case "sendMoney":
+                response = sendMoney(params);
+                break;
+            case "exchangeCoins":
+                response = exchangeCoins(params);
+                break;
+            case "broadcastTransaction":
+                response = broadcastTransaction(params);
+                break;
+            case "stubControl":
+                response = stubControl(params);
+                break;
+            default:
+                throw new RequestException(1, "Incorrect request");
+        }
+        return response;
+    }
+
+    /**
+     * Create an unsigned payment
+     *
+     * @param   params                  Request parameters
+     * @return                          Response object
+     * @throws  RequestException        Request is not valid
+     */
+    private JSONObject<String, Object> sendMoney(Map<String, List<String>> params) throws RequestException {
+        int chainId = getChainId(params, "chain");
+        byte[] publicKey = getPublicKey(params);
+        long recipientId = getAccountId(params, "recipient");
+        long amount = getLong(params, "amountNQT", -1);
+        if (amount <= 0)
+            throw new RequestException(4, "Incorrect \"amountNQT\"");
+        long fee = getFee(params, chainId);
+        int ecBlockHeight = getInt(params, "ecBlockHeight", chain.getEcBlockHeight());
+        long ecBlockId = getUnsignedLong(params, "ecBlockId", chain.getBlockId(ecBlockHeight));
+        StubChain.StubTransaction tx = chain.createPayment(chainId, publicKey, recipientId, amount, fee,
+                getInt(params, "timestamp", StubChain.getEpochTime()), getInt(params, "deadline", 15),
+                ecBlockHeight, ecBlockId);
+        JSONObject<String, Object> txJSON = tx.toJSON();
+        String message = getParam(params, "message");
+        if (message != null) {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> attachment = (Map<String, Object>)txJSON.get("attachment");
+            attachment.put("version.PrunablePlainMessage", 1);
+            attachment.put("message", message);
+            attachment.put("messageIsText", !"false".equals(getParam(params, "messageIsText")));
+        }
+        return createTransactionResponse(tx, txJSON);
+    }
+
+    /**
+     * Create an unsigned coin exchange order
+     *
+     * @param   params                  Request parameters
+     * @return                          Response object
+     * @throws  RequestException        Request is not valid
+     */
+    private JSONObject<String, Object> exchangeCoins(Map<String, List<String>> params) throws RequestException {
+        int chainId = getChainId(params, "chain");
+        int exchangeId = getChainId(params, "exchange");
+        if (chainId == exchangeId)
+            throw new RequestException(4, "Incorrect \"exchange\"");
+        byte[] publicKey = getPublicKey(params);
+        long quantity = getLong(params, "quantityQNT", -1);
+        if (quantity <= 0)
+            throw new RequestException(4, "Incorrect \"quantityQNT\"");
+        long price = getLong(params, "priceNQTPerCoin", -1);
+        if (price <= 0)
+            throw new RequestException(4, "Incorrect \"priceNQTPerCoin\"");
+        long fee = getFee(params, chainId);
+        StubChain.StubTransaction tx = chain.createOrderIssue(chainId, exchangeId, publicKey, quantity, price,
+                                                              fee, StubChain.getEpochTime());
+        return createTransactionResponse(tx, tx.toJSON());
+    }
+
+    /**
+     * Create the response for an unsigned transaction
+     *
+     * @param   tx                      Transaction
+     * @param   txJSON                  Transaction JSON
+     * @return                          Response object
+     */
+    private static JSONObject<String, Object> createTransactionResponse(StubChain.StubTransaction tx,
+                                                                        JSONObject<String, Object> txJSON) {
+        JSONObject<String, Object> response = new JSONObject<>();
+        response.put("unsignedTransactionBytes", Utils.toHexString(tx.getBytes()));
+        response.put("transactionJSON", txJSON);
+        response.put("broadcasted", false);
+        return response;
+    }
+
+    /**
+     * Broadcast a signed transaction
+     *
+     * @param   params                  Request parameters
+     * @return                          Response object
+     * @throws  RequestException        Request is not valid
+     */
+    private JSONObject<String, Object> broadcastTransaction(Map<String, List<String>> params)
+                                            throws RequestException {
+        String bytesString = getParam(params, "transactionFullBytes");
+        if (bytesString == null)
+            bytesString = getRequired(params, "transactionBytes");
+        byte[] txBytes = parseHex(bytesString, "transactionBytes");
+        Map<String, Object> prunableJSON = null;
+        String prunableString = getParam(params, "prunableAttachmentJSON");
+        if (prunableString != null) {
+            try {
+                prunableJSON = JsonResponse.parseObject(prunableString);
+            } catch (IOException exc) {
+                throw new RequestException(4, "Incorrect \"prunableAttachmentJSON\"");
+            }
+        }
+        StubChain.StubTransaction tx;
+        try {
+            tx = chain.broadcastTransaction(txBytes, prunableJSON);
+        } catch (IllegalArgumentException exc) {
+            throw new RequestException(4, "Incorrect \"transactionBytes\": " + exc.getMessage());
+        }
+        JSONObject<String, Object> response = new JSONObject<>();
+        response.put("fullHash", Utils.toHexString(tx.getFullHash()));
+        response.put("transaction", Long.toUnsignedString(Utils.fullHashToId(tx.getFullHash())));
+        return response;
+    }
+
+    /**
+     * Change the stub node settings
+     *
+     * @param   params                  Request parameters
+     * @return                          Response object
+     * @throws  RequestException        Request is not valid
+     */
+    private JSONObject<String, Object> stubControl(Map<String, List<String>> params) throws RequestException {
+        try {
+            String value;
+            if ((value = getParam(params, "latency")) != null)
+                setLatency(Long.parseLong(value));
+            if ((value = getParam(params, "jitter")) != null)
+                setJitter(Long.parseLong(value));
+            if ((value = getParam(params, "failureRate")) != null)
+                setFailureRate(Double.parseDouble(value));
+            if ((value = getParam(params, "reorgRate")) != null)
+                chain.setReorgRate(Double.parseDouble(value));
+        } catch (NumberFormatException exc) {
+            throw new RequestException(4, "Incorrect stub control value");
+        }
+        JSONObject<String, Object> response = new JSONObject<>();
+        response.put("latency", latency);
+        response.put("jitter", jitter);
+        response.put("failureRate", failureRate);
+        response.put("requests", requestCount.get());
+        response.put("failures", failureCount.get());
+        response.put("height", chain.getHeight());
+        return response;
+    }
+
+    /**
+     * Get the server constants needed to initialize the Nxt API library
+     *
+     * @return                          Response object
+     */
+    private static JSONObject<String, Object> getConstants() {
+        JSONObject<String, Object> response = new JSONObject<>();
+        JSONObject<String, Object> chainProperties = new JSONObject<>();
+        JSONObject<String, Object> chains = new JSONObject<>();
+        for (int chainId=1; chainId<=StubChain.CHAIN_NAMES.length; chainId++) {
+            JSONObject<String, Object> properties = new JSONObject<>();
+            properties.put("id", chainId);
+            properties.put("name", StubChain.CHAIN_NAMES[chainId - 1]);
+            properties.put("decimals", StubChain.CHAIN_DECIMALS[chainId - 1]);
+            chainProperties.put(Integer.toString(chainId), properties);
+            chains.put(StubChain.CHAIN_NAMES[chainId - 1], chainId);
+        }
+        response.put("chainProperties", chainProperties);
+        response.put("chains", chains);
+        JSONObject<String, Object> transactionTypes = new JSONObject<>();
+        addTransactionType(transactionTypes, TransactionBytes.CHILD_PAYMENT, "OrdinaryPayment", true);
+        addTransactionType(transactionTypes, TransactionBytes.FXT_PAYMENT, "FxtPayment", true);
+        addTransactionType(transactionTypes, TransactionBytes.CHILD_ORDER_ISSUE, "CoinExchangeOrderIssue", false);
+        addTransactionType(transactionTypes, TransactionBytes.FXT_ORDER_ISSUE, "FxtCoinExchangeOrderIssue", false);
+        addTransactionType(transactionTypes, new int[] {-1, 0}, "ChildChainBlock", false);
+        response.put("transactionTypes", transactionTypes);
+        response.put("epochBeginning", StubChain.EPOCH_BEGINNING);
+        response.put("genesisBlockId", "1");
+        return response;
+    }
+
+    /**
+     * Add a transaction type to the server constants
+     *
+     * @param   transactionTypes        Transaction types
+     * @param   type                    Transaction type and subtype
+     * @param   name                    Transaction type name
+     * @param   hasRecipient            TRUE if the transaction has a recipient
+     */
+    @SuppressWarnings("unchecked")
+    private static void addTransactionType(JSONObject<String, Object> transactionTypes, int[] type,
+                                           String name, boolean hasRecipient) {
+        String typeKey = Integer.toString(type[0]);
+        JSONObject<String, Object> typeObject = (JSONObject<String, Object>)transactionTypes.get(typeKey);
+        if (typeObject == null) {
+            typeObject = new JSONObject<>();
+            typeObject.put("subtypes", new JSONObject<String, Object>());
+            transactionTypes.put(typeKey, typeObject);
+        }
+        JSONObject<String, Object> subtype = new JSONObject<>();
+        subtype.put("name", name);
+        subtype.put("type", type[0]);
+        subtype.put("subtype", type[1]);
+        subtype.put("canHaveRecipient", hasRecipient);
+        subtype.put("mustHaveRecipient", hasRecipient);
+        subtype.put("isPhasable", true);
+        ((JSONObject<String, Object>)typeObject.get("subtypes")).put(Integer.toString(type[1]), subtype);
+    }
+
+    /**
+     * Parse the request parameters
+     *
+     * @param   query                   Encoded parameters or null
+     * @param   params                  Parameter map
+     * @throws  IOException             Invalid parameter encoding
+     */
+    private static void parseParams(String query, Map<String, List<String>> params) throws IOException {
+        if (query == null || query.isEmpty())
+            return;
+        for (String param : query.split("&")) {
+            int sep = param.indexOf('=');
+            String name = URLDecoder.decode((sep < 0 ? param : param.substring(0, sep)), "UTF-8");
+            String value = (sep < 0 ? "" : URLDecoder.decode(param.substring(sep + 1), "UTF-8"));
+            List<String> values = params.get(name);
+            if (values == null) {
+                values = new ArrayList<>();
+                params.put(name, values);
+            }
+            values.add(value);
+        }
+    }
+
+    /**
+     * Get a request parameter
+     *
+     * @param   params                  Request parameters
+     * @param   name                    Parameter name
+     * @return                          Parameter value or null if the parameter is not specified
+     */
+    private static String getParam(Map<String, List<String>> params, String name) {
+        List<String> values = params.get(name);
+        if (values == null || values.isEmpty() || values.get(0).isEmpty())
+            return null;
+        return values.get(0);
+    }
+
+    /**
+     * Get a required request parameter
+     *
+     * @param   params                  Request parameters
+     * @param   name                    Parameter name
+     * @return                          Parameter value
+     * @throws  RequestException        Parameter is not specified
+     */
+    private static String getRequired(Map<String, List<String>> params, String name) throws RequestException {
+        String value = getParam(params, name);
+        if (value == null)
+            throw new RequestException(3, "\"" + name + "\" not specified");
+        return value;
+    }
+
+    /**
+     * Get an integer request parameter
+     *
+     * @param   params                  Request parameters
+     * @param   name                    Parameter name
+     * @param   defaultValue            Value if the parameter is not specified
+     * @return                          Parameter value
+     * @throws  RequestException        Parameter is not valid
+     */
+    private static int getInt(Map<String, List<String>> params, String name, int defaultValue)
+                                            throws RequestException {
+        String value = getParam(params, name);
+        try {
+            return (value != null ? Integer.parseInt(value) : defaultValue);
+        } catch (NumberFormatException exc) {
+            throw new RequestException(4, "Incorrect \"" + name + "\"");
+        }
+    }
+
+    /**
+     * Get a long request parameter
+     *
+     * @param   params                  Request parameters
+     * @param   name                    Parameter name
+     * @param   defaultValue            Value if the parameter is not specified
+     * @return                          Parameter value
+     * @throws  RequestException        Parameter is not valid
+     */
+    private static long getLong(Map<String, List<String>> params, String name, long defaultValue)
+                                            throws RequestException {
+        String value = getParam(params, name);
+        try {
+            return (value != null ? Long.parseLong(value) : defaultValue);
+        } catch (NumberFormatException exc) {
+            throw new RequestException(4, "Incorrect \"" + name + "\"");
+        }
+    }
+
+    /**
+     * Get an unsigned long request parameter
+     *
+     * @param   params                  Request parameters
+     * @param   name                    Parameter name
+     * @param   defaultValue            Value if the parameter is not specified
+     * @return                          Parameter value
+     * @throws  RequestException        Parameter is not valid
+     */
+    private static long getUnsignedLong(Map<String, List<String>> params, String name, long defaultValue)
+                                            throws RequestException {
+        String value = getParam(params, name);
+        try {
+            return (value != null ? Long.parseUnsignedLong(value) : defaultValue);
+        } catch (NumberFormatException exc) {
+            throw new RequestException(4, "Incorrect \"" + name + "\"");
+        }
+    }
+
+    /**
+     * Get a boolean request parameter
+     *
+     * @param   params                  Request parameters
+     * @param   name                    Parameter name
+     * @return                          TRUE if the parameter value is 'true'
+     */
+    private static boolean getBoolean(Map<String, List<String>> params, String name) {
+        return "true".equalsIgnoreCase(getParam(params, name));
+    }
+
+    /**
+     * Get an account parameter
+     *
+     * @param   params                  Request parameters
+     * @param   name                    Parameter name
+     * @return                          Account identifier
+     * @throws  RequestException        Parameter is not valid
+     */
+    private static long getAccountId(Map<String, List<String>> params, String name) throws RequestException {
+        String value = getRequired(params, name);
+        try {
+            if (value.indexOf('-') > 0)
+                return Utils.parseAccountRsId(value);
+            return Long.parseUnsignedLong(value);
+        } catch (Exception exc) {
+            throw new RequestException(4, "Incorrect \"" + name + "\"");
+        }
+    }
+
+    /**
+     * Get a chain parameter
+     *
+     * @param   params                  Request parameters
+     * @param   name                    Parameter name
+     * @return                          Chain identifier
+     * @throws  RequestException        Parameter is not valid
+     */
+    private static int getChainId(Map<String, List<String>> params, String name) throws RequestException {
+        return parseChainId(getRequired(params, name));
+    }
+
+    /**
+     * Parse a chain name or identifier
+     *
+     * @param   value                   Chain name or identifier
+     * @return                          Chain identifier
+     * @throws  RequestException        Chain is not valid
+     */
+    private static int parseChainId(String value) throws RequestException {
+        for (int i=0; i<StubChain.CHAIN_NAMES.length; i++) {
+            if (StubChain.CHAIN_NAMES[i].equalsIgnoreCase(value))
+                return i + 1;
+        }
+        try {
+            int chainId = Integer.parseInt(value);
+            if (StubChain.isValidChain(chainId))
+                return chainId;
+        } catch (NumberFormatException exc) {
+            // Handled below
+        }
+        throw new RequestException(4, "Incorrect \"chain\"");
+    }
+
+    /**
+     * Get the sender public key.  The public key is obtained from the secret phrase
+     * if the public key is not specified.
+     *
+     * @param   params                  Request parameters
+     * @return                          Public key
+     * @throws  RequestException        Public key is not valid
+     */
+    private byte[] getPublicKey(Map<String, List<String>> params) throws RequestException {
+        byte[] publicKey;
+        String value = getParam(params, "publicKey");
+        if (value != null) {
+            publicKey = parseHex(value, "publicKey");
+        } else {
+            try {
+                publicKey = Crypto.getPublicKey(getRequired(params, "secretPhrase"));
+            } catch (RequestException exc) {
+                throw exc;
+            } catch (Exception exc) {
+                throw new RequestException(4, "Incorrect \"secretPhrase\"");
+            }
+        }
+        if (publicKey.length != 32)
+            throw new RequestException(4, "Incorrect \"publicKey\"");
+        chain.setPublicKey(publicKey);
+        return publicKey;
+    }
+
+    /**
+     * Get the transaction fee.  The minimum fee is used if the fee is not specified
+     * or is negative.
+     *
+     * @param   params                  Request parameters
+     * @param   chainId                 Transaction chain
+     * @return                          Transaction fee
+     * @throws  RequestException        Parameter is not valid
+     */
+    private static long getFee(Map<String, List<String>> params, int chainId) throws RequestException {
+        long fee = getLong(params, "feeNQT", -1);
+        if (fee < 0)
+            fee = StubChain.calculateFee(chainId, getLong(params, "feeRateNQTPerFXT", 0));
+        return fee;
+    }
+
+    /**
+     * Parse a hexadecimal parameter
+     *
+     * @param   value                   Hexadecimal string
+     * @param   name                    Parameter name
+     * @return                          Parameter bytes
+     * @throws  RequestException        Parameter is not valid
+     */
+    private static byte[] parseHex(String value, String name) throws RequestException {
+        try {
+            byte[] bytes = Utils.parseHexString(value);
+            if (bytes == null)
+                throw new IllegalArgumentException();
+            return bytes;
+        } catch (RuntimeException exc) {
+            throw new RequestException(4, "Incorrect \"" + name + "\"");
+        }
+    }
+
+    /**
+     * Run the stub node as a standalone server
+     *
+     * @param   args                    Command-line arguments
+     */
+    public static void main(String[] args) {
+        int port = 27876;
+        long latency = 0;
+        long jitter = 0;
+        double failureRate = 0;
+        double reorgRate = 0;
+        long seed = 1;
+        int blockInterval = 60;
+        int txPerBlock = 2;
+        int historyCount = 50;
+        try {
+            for (int i=0; i<args.length; i++) {
+                if (i == args.length - 1)
+                    throw new IllegalArgumentException("No value specified for " + args[i]);
+                String value = args[++i];
+                switch (args[i - 1]) {
+                    case "--port":
+                        port = Integer.parseInt(value);
+                        break;
+                    case "--latency":
+                        latency = Long.parseLong(value);
+                        break;
+                    case "--jitter":
+                        jitter = Long.parseLong(value);
+                        break;
+                    case "--failureRate":
+                        failureRate = Double.parseDouble(value);
+                        break;
+                    case "--reorgRate":
+                        reorgRate = Double.parseDouble(value);
+                        break;
+                    case "--seed":
+                        seed = Long.parseLong(value);
+                        break;
+                    case "--blockInterval":
+                        blockInterval = Integer.parseInt(value);
+                        break;
+                    case "--txPerBlock":
+                        txPerBlock = Integer.parseInt(value);
+                        break;
+                    case "--history":
+                        historyCount = Integer.parseInt(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unrecognized option " + args[i - 1]);
+                }
+            }
+            StubChain stubChain = new StubChain(seed, blockInterval, txPerBlock, historyCount);
+            stubChain.setReorgRate(reorgRate);
+            StubNode stubNode = new StubNode(port, stubChain);
+            stubNode.setLatency(latency);
+            stubNode.setJitter(jitter);
+            stubNode.setFailureRate(failureRate);
+            stubNode.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(stubNode::stop));
+            Thread.currentThread().join();
+        } catch (InterruptedException exc) {
+            // Exit
+        } catch (Exception exc) {
+            System.err.println("Unable to start the stub node: " + exc.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Nxt API request error
+     */
+    private static class RequestException extends Exception {
+
+        private static final long serialVersionUID = 1L;
+
+        /** Nxt API error code */
+        private final int errorCode;
+
+        /**
+         * Create the exception
+         *
+         * @param   errorCode           Nxt API error code
+         * @param   message             Error description
+         */
+        public RequestException(int errorCode, String message) {
+            super(message);
+            this.errorCode = errorCode;
+        }
+
+        /**
+         * Get the error code
+         *
+         * @return                      Nxt API error code
+         */
+        public int getErrorCode() {
+            return errorCode;
+        }
+    }
+}
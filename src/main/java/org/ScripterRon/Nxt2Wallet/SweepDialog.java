@@ -0,0 +1,337 @@
+/*
+ * Copyright 2017 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Wallet;
+
+import org.ScripterRon.Nxt2API.Chain;
+import org.ScripterRon.Nxt2API.IdentifierException;
+import org.ScripterRon.Nxt2API.Nxt;
+import org.ScripterRon.Nxt2API.Utils;
+
+import java.awt.Dialog;
+import java.awt.Dimension;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.List;
+import javax.swing.BorderFactory;
+import javax.swing.Box;
+import javax.swing.BoxLayout;
+import javax.swing.JComboBox;
+import javax.swing.JDialog;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTextArea;
+import javax.swing.SwingUtilities;
+import javax.swing.WindowConstants;
+
+/**
+ * SweepDialog moves the balances of the configured accounts to a single account.
+ * The 'Preview' button gets the account balances and shows the payments and the
+ * 'Sweep' button sends the payments.  The result is shown for each payment.
+ */
+public class SweepDialog extends JDialog implements ActionListener {
+
+    /** Recipient field */
+    private final JComboBox<String> addressField;
+
+    /** Chain field */
+    private final JComboBox<String> chainField;
+
+    /** Payment list */
+    private final JTextArea sweepArea;
+
+    /** Status field */
+    private final JLabel statusField;
+
+    /** Current account sweep */
+    private AccountSweep sweep;
+
+    /** Balances are being read or payments are being sent */
+    private boolean running;
+
+    /** Number of payments completed */
+    private int completedCount;
+
+    /** Number of payments to send */
+    private int readyCount;
+
+    /**
+     * Create the dialog
+     *
+     * @param       parent          Parent frame
+     */
+    public SweepDialog(JFrame parent) {
+        super(parent, "Sweep Accounts", Dialog.ModalityType.DOCUMENT_MODAL);
+        setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
+        //
+        // Create the recipient field
+        //
+        String[] addrList = new String[Main.contactsList.size()];
+        int index = 0;
+        for (Contact contact : Main.contactsList)
+            addrList[index++] = contact.getName();
+        addressField = new JComboBox<>(addrList);
+        addressField.setEditable(true);
+        addressField.setSelectedIndex(-1);
+        addressField.setPreferredSize(new Dimension(340, 25));
+        JPanel addressPane = new JPanel();
+        addressPane.add(new JLabel("Sweep to  ", JLabel.RIGHT));
+        addressPane.add(addressField);
+        //
+        // Create the chain field
+        //
+        chainField = new JComboBox<>();
+        chainField.addItem("All chains");
+        Nxt.getAllChains().forEach(chain -> chainField.addItem(chain.getName()));
+        JPanel chainPane = new JPanel();
+        chainPane.add(new JLabel("Chain  ", JLabel.RIGHT));
+        chainPane.add(chainField);
+        //
+        // Create the payment list and the status field
+        //
+        sweepArea = new JTextArea(12, 80);
+        sweepArea.setEditable(false);
+        JScrollPane sweepPane = new JScrollPane(sweepArea);
+        statusField = new JLabel("Select 'Preview' to get the account balances");
+        JPanel statusPane = new JPanel();
+        statusPane.add(statusField);
+        //
+        // Create the buttons (Preview, Sweep, Done)
+        //
+        JPanel buttonPane = new ButtonPane(this, 10, new String[] {"Preview", "preview"},
+                                                     new String[] {"Sweep", "sweep"},
+                                                     new String[] {"Done", "done"});
+        //
+        // Set up the content pane
+        //
+        JPanel contentPane = new JPanel();
+        contentPane.setLayout(new BoxLayout(contentPane, BoxLayout.Y_AXIS));
+        contentPane.setOpaque(true);
+        contentPane.setBorder(BorderFactory.createEmptyBorder(15, 15, 15, 15));
+        contentPane.add(addressPane);
+        contentPane.add(Box.createVerticalStrut(15));
+        contentPane.add(chainPane);
+        contentPane.add(Box.createVerticalStrut(15));
+        contentPane.add(sweepPane);
+        contentPane.add(statusPane);
+        contentPane.add(Box.createVerticalStrut(15));
+        contentPane.add(buttonPane);
+        setContentPane(contentPane);
+    }
+
+    /**
+     * Show the sweep dialog
+     *
+     * @param       parent              Parent frame
+     */
+    public static void showDialog(JFrame parent) {
+        try {
+            boolean haveAccounts = false;
+            for (String secretPhrase : Main.secretPhrases) {
+                if (!secretPhrase.isEmpty()) {
+                    haveAccounts = true;
+                    break;
+                }
+            }
+            if (!haveAccounts) {
+                JOptionPane.showMessageDialog(parent,
+                        "There are no accounts with a secret phrase in the configuration file",
+                        "Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            SweepDialog dialog = new SweepDialog(parent);
+            dialog.pack();
+            dialog.setLocationRelativeTo(parent);
+            dialog.setVisible(true);
+        } catch (Exception exc) {
+            Main.log.error("Exception while displaying dialog", exc);
+            Main.logException("Exception while displaying dialog", exc);
+        }
+    }
+
+    /**
+     * Action performed (ActionListener interface)
+     *
+     * @param   ae              Action event
+     */
+    @Override
+    public void actionPerformed(ActionEvent ae) {
+        //
+        // "preview"    - Get the account balances and show the payments
+        // "sweep"      - Send the payments
+        // "done"       - Done
+        //
+        try {
+            String action = ae.getActionCommand();
+            switch (action) {
+                case "preview":
+                    if (!running)
+                        previewSweep();
+                    break;
+                case "sweep":
+                    if (!running)
+                        startSweep();
+                    break;
+                case "done":
+                    if (running) {
+                        JOptionPane.showMessageDialog(this, "Wait for the account sweep to complete",
+                                                      "Error", JOptionPane.ERROR_MESSAGE);
+                    } else {
+                        setVisible(false);
+                        dispose();
+                    }
+                    break;
+            }
+        } catch (Exception exc) {
+            Main.log.error("Exception while processing action event", exc);
+            Main.logException("Exception while processing action event", exc);
+        }
+    }
+
+    /**
+     * Get the account balances and show the payments
+     */
+    private void previewSweep() {
+        //
+        // Get the recipient
+        //
+        long recipientId;
+        try {
+            String sendString = (String)addressField.getSelectedItem();
+            if (sendString == null || sendString.trim().isEmpty()) {
+                JOptionPane.showMessageDialog(this, "You must enter the account to receive the balances",
+                                              "Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            int index = addressField.getSelectedIndex();
+            if (index < 0) {
+                sendString = sendString.toUpperCase().trim();
+                if (sendString.startsWith("NXT-")) {
+                    recipientId = Utils.parseAccountRsId(sendString);
+                } else {
+                    recipientId = Utils.stringToId(sendString);
+                }
+            } else {
+                recipientId = Main.contactsList.get(index).getAccountId();
+            }
+        } catch (IdentifierException exc) {
+            JOptionPane.showMessageDialog(this, "Recipient address is not valid", "Error",
+                                          JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        //
+        // Get the chains
+        //
+        List<Chain> chains = new ArrayList<>();
+        if (chainField.getSelectedIndex() == 0)
+            chains.addAll(Nxt.getAllChains());
+        else
+            chains.add(Nxt.getChain((String)chainField.getSelectedItem()));
+        //
+        // Get the account balances
+        //
+        sweep = new AccountSweep(recipientId, chains);
+        running = true;
+        sweepArea.setText("");
+        statusField.setText("Getting the account balances");
+        WalletClient.invokeLater(sweep.prepare(), (sweeps, exc) -> {
+            running = false;
+            if (exc != null) {
+                Main.log.error("Unable to get the account balances", exc);
+                Main.logException("Unable to get the account balances", exc);
+                statusField.setText("Unable to get the account balances");
+                return;
+            }
+            readyCount = 0;
+            for (AccountSweep.Sweep accountSweep : sweeps) {
+                if (accountSweep.getStatus().equals("Ready"))
+                    readyCount++;
+            }
+            showSweeps();
+            statusField.setText(String.format("%d payments to %s", readyCount,
+                                              Utils.getAccountRsId(recipientId)));
+        });
+    }
+
+    /**
+     * Send the payments
+     */
+    private void startSweep() {
+        if (sweep == null || readyCount == 0) {
+            JOptionPane.showMessageDialog(this, "There are no payments to send",
+                                          "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        if (JOptionPane.showConfirmDialog(this,
+                        String.format("Do you want to send %d payments to %s?", readyCount,
+                                      Utils.getAccountRsId(sweep.getRecipientId())),
+                        "Sweep Accounts", JOptionPane.YES_NO_OPTION,
+                        JOptionPane.QUESTION_MESSAGE) != JOptionPane.YES_OPTION)
+            return;
+        running = true;
+        completedCount = 0;
+        statusField.setText("Sending payments");
+        final AccountSweep currentSweep = sweep;
+        WalletClient.invokeLater(
+                currentSweep.start(accountSweep -> SwingUtilities.invokeLater(this::sweepProgress)),
+                (result, exc) -> sweepDone(currentSweep));
+    }
+
+    /**
+     * Update the payment list as the payments are completed
+     */
+    private void sweepProgress() {
+        completedCount++;
+        showSweeps();
+        statusField.setText(String.format("%d of %d payments completed", completedCount, readyCount));
+    }
+
+    /**
+     * Tell the user that the sweep is done
+     *
+     * @param   currentSweep            Completed account sweep
+     */
+    private void sweepDone(AccountSweep currentSweep) {
+        running = false;
+        int sentCount = 0;
+        int failedCount = 0;
+        for (AccountSweep.Sweep accountSweep : currentSweep.getSweeps()) {
+            if (accountSweep.getStatus().equals("Sent"))
+                sentCount++;
+            else if (accountSweep.getStatus().equals("Failed"))
+                failedCount++;
+        }
+        showSweeps();
+        readyCount = 0;
+        statusField.setText(String.format("%d sent, %d failed", sentCount, failedCount));
+        JOptionPane.showMessageDialog(this,
+                String.format("%d payments sent and %d payments failed", sentCount, failedCount),
+                "Sweep Accounts", (failedCount == 0 ? JOptionPane.INFORMATION_MESSAGE :
+                                                      JOptionPane.WARNING_MESSAGE));
+    }
+
+    /**
+     * Show the payments
+     */
+    private void showSweeps() {
+        StringBuilder sb = new StringBuilder(1024);
+        sweep.getSweeps().forEach(accountSweep -> sb.append(accountSweep.toString()).append('\n'));
+        sweepArea.setText(sb.toString());
+    }
+}
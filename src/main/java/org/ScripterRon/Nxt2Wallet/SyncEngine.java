@@ -0,0 +1,45 @@
+/*
+ * Copyright 2017 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Wallet;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * SyncEngine keeps the watched accounts current.  The event handler applies the
+ * server events for the watched accounts.  The polling engine is used when the
+ * event API can't be used and polls the node for a new block.
+ */
+public interface SyncEngine {
+
+    /**
+     * Start the sync engine
+     */
+    void start();
+
+    /**
+     * Stop the sync engine
+     */
+    void stop();
+
+    /**
+     * Add an account to the watched accounts.  The caller loads the account after
+     * the returned future completes.
+     *
+     * @param   accountId               Account identifier
+     * @return                          Future for the completed request
+     */
+    CompletableFuture<Void> watchAccount(long accountId);
+}
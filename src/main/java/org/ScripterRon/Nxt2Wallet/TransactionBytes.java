@@ -0,0 +1,322 @@
+/*
+ * Copyright 2017 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Wallet;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * TransactionBytes creates and decodes the transaction bytes for the transaction
+ * types created by the wallet.  The transaction bytes are in little-endian order:
+ * <pre>
+ *   Chain identifier           4 bytes
+ *   Type                       1 byte
+ *   Subtype                    1 byte
+ *   Version                    1 byte
+ *   Timestamp                  4 bytes
+ *   Deadline (minutes)         2 bytes
+ *   Sender public key         32 bytes
+ *   Recipient identifier       8 bytes
+ *   Amount                     8 bytes
+ *   Fee                        8 bytes
+ *   Signature                 64 bytes
+ *   EC block height            4 bytes
+ *   EC block identifier        8 bytes
+ *   Appendix flags             4 bytes
+ *   Attachment               variable
+ * </pre>
+ */
+public final class TransactionBytes {
+
+    /** Transaction version */
+    public static final byte VERSION = 1;
+
+    /** Ordinary child chain payment */
+    public static final int[] CHILD_PAYMENT = {0, 0};
+
+    /** Ordinary ARDR payment */
+    public static final int[] FXT_PAYMENT = {-2, 0};
+
+    /** Child chain coin exchange order */
+    public static final int[] CHILD_ORDER_ISSUE = {11, 0};
+
+    /** ARDR coin exchange order */
+    public static final int[] FXT_ORDER_ISSUE = {-3, 0};
+
+    /** Offset of the signature */
+    public static final int SIGNATURE_OFFSET = 69;
+
+    /** Length of the signature */
+    public static final int SIGNATURE_LENGTH = 64;
+
+    /** Length of the transaction bytes without an attachment */
+    public static final int BASE_LENGTH = 149;
+
+    /** Length of the coin exchange order attachment */
+    public static final int ORDER_ISSUE_LENGTH = 25;
+
+    /**
+     * This class contains only static methods
+     */
+    private TransactionBytes() {
+    }
+
+    /**
+     * Create the unsigned transaction bytes for an ordinary payment
+     *
+     * @param   chainId                 Chain identifier
+     * @param   fxtChain                TRUE if this is the ARDR chain
+     * @param   timestamp               Transaction timestamp (Nxt epoch seconds)
+     * @param   deadline                Transaction deadline (minutes)
+     * @param   senderPublicKey         Sender public key
+     * @param   recipientId             Recipient identifier
+     * @param   amount                  Payment amount
+     * @param   fee                     Transaction fee
+     * @param   ecBlockHeight           Economic clustering block height
+     * @param   ecBlockId               Economic clustering block identifier
+     * @return                          Unsigned transaction bytes
+     */
+    public static byte[] createPayment(int chainId, boolean fxtChain, int timestamp, int deadline,
+                                       byte[] senderPublicKey, long recipientId, long amount, long fee,
+                                       int ecBlockHeight, long ecBlockId) {
+        int[] type = (fxtChain ? FXT_PAYMENT : CHILD_PAYMENT);
+        ByteBuffer buffer = createBuffer(BASE_LENGTH, chainId, type, timestamp, deadline,
+                                         senderPublicKey, recipientId, amount, fee, ecBlockHeight, ecBlockId);
+        return buffer.array();
+    }
+
+    /**
+     * Create the unsigned transaction bytes for a coin exchange order
+     *
+     * @param   chainId                 Transaction chain identifier
+     * @param   fxtChain                TRUE if this is an ARDR transaction
+     * @param   timestamp               Transaction timestamp (Nxt epoch seconds)
+     * @param   deadline                Transaction deadline (minutes)
+     * @param   senderPublicKey         Sender public key
+     * @param   fee                     Transaction fee
+     * @param   ecBlockHeight           Economic clustering block height
+     * @param   ecBlockId               Economic clustering block identifier
+     * @param   orderChainId            Order chain identifier
+     * @param   exchangeChainId         Exchange chain identifier
+     * @param   quantity                Exchange quantity
+     * @param   price                   Exchange price
+     * @return                          Unsigned transaction bytes
+     */
+    public static byte[] createOrderIssue(int chainId, boolean fxtChain, int timestamp, int deadline,
+                                          byte[] senderPublicKey, long fee, int ecBlockHeight, long ecBlockId,
+                                          int orderChainId, int exchangeChainId, long quantity, long price) {
+        int[] type = (fxtChain ? FXT_ORDER_ISSUE : CHILD_ORDER_ISSUE);
+        ByteBuffer buffer = createBuffer(BASE_LENGTH + ORDER_ISSUE_LENGTH, chainId, type, timestamp, deadline,
+                                         senderPublicKey, 0, 0, fee, ecBlockHeight, ecBlockId);
+        buffer.put((byte)1);
+        buffer.putInt(orderChainId);
+        buffer.putInt(exchangeChainId);
+        buffer.putLong(quantity);
+        buffer.putLong(price);
+        return buffer.array();
+    }
+
+    /**
+     * Create the transaction buffer and add the common fields
+     *
+     * @param   length                  Transaction length
+     * @param   chainId                 Chain identifier
+     * @param   type                    Transaction type and subtype
+     * @param   timestamp               Transaction timestamp
+     * @param   deadline                Transaction deadline
+     * @param   senderPublicKey         Sender public key
+     * @param   recipientId             Recipient identifier
+     * @param   amount                  Transaction amount
+     * @param   fee                     Transaction fee
+     * @param   ecBlockHeight           Economic clustering block height
+     * @param   ecBlockId               Economic clustering block identifier
+     * @return                          Transaction buffer positioned at the attachment
+     */
+    private static ByteBuffer createBuffer(int length, int chainId, int[] type, int timestamp, int deadline,
+                                           byte[] senderPublicKey, long recipientId, long amount, long fee,
+                                           int ecBlockHeight, long ecBlockId) {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(chainId);
+        buffer.put((byte)type[0]);
+        buffer.put((byte)type[1]);
+        buffer.put(VERSION);
+        buffer.putInt(timestamp);
+        buffer.putShort((short)deadline);
+        buffer.put(senderPublicKey);
+        buffer.putLong(recipientId);
+        buffer.putLong(amount);
+        buffer.putLong(fee);
+        buffer.put(new byte[SIGNATURE_LENGTH]);
+        buffer.putInt(ecBlockHeight);
+        buffer.putLong(ecBlockId);
+        buffer.putInt(0);
+        return buffer;
+    }
+
+    /**
+     * Get the chain identifier
+     *
+     * @param   txBytes                 Transaction bytes
+     * @return                          Chain identifier
+     */
+    public static int getChainId(byte[] txBytes) {
+        return wrap(txBytes).getInt(0);
+    }
+
+    /**
+     * Get the transaction type
+     *
+     * @param   txBytes                 Transaction bytes
+     * @return                          Transaction type
+     */
+    public static int getType(byte[] txBytes) {
+        return txBytes[4];
+    }
+
+    /**
+     * Get the transaction subtype
+     *
+     * @param   txBytes                 Transaction bytes
+     * @return                          Transaction subtype
+     */
+    public static int getSubtype(byte[] txBytes) {
+        return txBytes[5];
+    }
+
+    /**
+     * Get the transaction timestamp
+     *
+     * @param   txBytes                 Transaction bytes
+     * @return                          Timestamp (Nxt epoch seconds)
+     */
+    public static int getTimestamp(byte[] txBytes) {
+        return wrap(txBytes).getInt(7);
+    }
+
+    /**
+     * Get the transaction deadline
+     *
+     * @param   txBytes                 Transaction bytes
+     * @return                          Deadline (minutes)
+     */
+    public static int getDeadline(byte[] txBytes) {
+        return wrap(txBytes).getShort(11);
+    }
+
+    /**
+     * Get the sender public key
+     *
+     * @param   txBytes                 Transaction bytes
+     * @return                          Sender public key
+     */
+    public static byte[] getSenderPublicKey(byte[] txBytes) {
+        return Arrays.copyOfRange(txBytes, 13, 45);
+    }
+
+    /**
+     * Get the recipient identifier
+     *
+     * @param   txBytes                 Transaction bytes
+     * @return                          Recipient identifier
+     */
+    public static long getRecipientId(byte[] txBytes) {
+        return wrap(txBytes).getLong(45);
+    }
+
+    /**
+     * Get the transaction amount
+     *
+     * @param   txBytes                 Transaction bytes
+     * @return                          Amount
+     */
+    public static long getAmount(byte[] txBytes) {
+        return wrap(txBytes).getLong(53);
+    }
+
+    /**
+     * Get the transaction fee
+     *
+     * @param   txBytes                 Transaction bytes
+     * @return                          Fee
+     */
+    public static long getFee(byte[] txBytes) {
+        return wrap(txBytes).getLong(61);
+    }
+
+    /**
+     * Get the economic clustering block height
+     *
+     * @param   txBytes                 Transaction bytes
+     * @return                          Block height
+     */
+    public static int getEcBlockHeight(byte[] txBytes) {
+        return wrap(txBytes).getInt(SIGNATURE_OFFSET + SIGNATURE_LENGTH);
+    }
+
+    /**
+     * Get the economic clustering block identifier
+     *
+     * @param   txBytes                 Transaction bytes
+     * @return                          Block identifier
+     */
+    public static long getEcBlockId(byte[] txBytes) {
+        return wrap(txBytes).getLong(SIGNATURE_OFFSET + SIGNATURE_LENGTH + 4);
+    }
+
+    /**
+     * Get the transaction signature
+     *
+     * @param   txBytes                 Transaction bytes
+     * @return                          Signature
+     */
+    public static byte[] getSignature(byte[] txBytes) {
+        return Arrays.copyOfRange(txBytes, SIGNATURE_OFFSET, SIGNATURE_OFFSET + SIGNATURE_LENGTH);
+    }
+
+    /**
+     * Calculate the transaction full hash.  The full hash is the SHA-256 digest of the
+     * transaction bytes with a zero signature followed by the SHA-256 digest of
+     * the signature.
+     *
+     * @param   txBytes                 Signed transaction bytes
+     * @return                          Transaction full hash
+     */
+    public static byte[] calculateFullHash(byte[] txBytes) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] signatureHash = digest.digest(getSignature(txBytes));
+            byte[] unsignedBytes = txBytes.clone();
+            Arrays.fill(unsignedBytes, SIGNATURE_OFFSET, SIGNATURE_OFFSET + SIGNATURE_LENGTH, (byte)0);
+            digest.update(unsignedBytes);
+            return digest.digest(signatureHash);
+        } catch (NoSuchAlgorithmException exc) {
+            throw new IllegalStateException("SHA-256 is not available", exc);
+        }
+    }
+
+    /**
+     * Wrap the transaction bytes
+     *
+     * @param   txBytes                 Transaction bytes
+     * @return                          Little-endian byte buffer
+     */
+    private static ByteBuffer wrap(byte[] txBytes) {
+        return ByteBuffer.wrap(txBytes).order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
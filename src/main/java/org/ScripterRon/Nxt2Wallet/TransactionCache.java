@@ -0,0 +1,125 @@
+/*
+ * Copyright 2017 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Wallet;
+
+import org.ScripterRon.Nxt2API.Transaction;
+import org.ScripterRon.Nxt2API.Utils;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * TransactionCache contains the transaction details fetched by the event handler.
+ * A transaction is usually reported as an unconfirmed transaction and then again as a
+ * confirmed transaction, and a chain reorganization will report it once more.  The
+ * cache allows the event handler to process the repeated events without fetching the
+ * transaction again.
+ *
+ * The cache is keyed by the chain identifier and the transaction full hash.  A
+ * transaction is evicted once it is confirmed deeper than the maximum rollback depth.
+ * The least-recently used entry is evicted if the cache is full.
+ */
+public class TransactionCache {
+
+    /** Maximum number of cached transactions */
+    private static final int MAX_ENTRIES = 5000;
+
+    /** Confirmation depth for evicting a transaction */
+    private static final int EVICT_DEPTH = 720;
+
+    /** Cached transactions */
+    private final Map<String, Transaction> cacheMap = new LinkedHashMap<String, Transaction>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Transaction> eldest) {
+            return (size() > MAX_ENTRIES);
+        }
+    };
+
+    /** Number of cache hits */
+    private long hitCount;
+
+    /** Number of cache misses */
+    private long missCount;
+
+    /**
+     * Get the cache key for a transaction
+     *
+     * @param   chainId                 Chain identifier
+     * @param   fullHash                Transaction full hash
+     * @return                          Cache key
+     */
+    public static String getKey(int chainId, byte[] fullHash) {
+        return chainId + ":" + Utils.toHexString(fullHash);
+    }
+
+    /**
+     * Get a cached transaction
+     *
+     * @param   key                     Cache key
+     * @return                          Transaction or null if the transaction is not cached
+     */
+    public synchronized Transaction get(String key) {
+        Transaction tx = cacheMap.get(key);
+        if (tx != null)
+            hitCount++;
+        else
+            missCount++;
+        return tx;
+    }
+
+    /**
+     * Add a transaction to the cache
+     *
+     * @param   key                     Cache key
+     * @param   tx                      Transaction
+     */
+    public synchronized void put(String key, Transaction tx) {
+        cacheMap.put(key, tx);
+    }
+
+    /**
+     * Evict transactions that are confirmed deeper than the maximum rollback depth
+     *
+     * @param   blockHeight             Current block height
+     */
+    public synchronized void evict(int blockHeight) {
+        Iterator<Transaction> it = cacheMap.values().iterator();
+        while (it.hasNext()) {
+            int height = it.next().getHeight();
+            if (height != 0 && blockHeight - height >= EVICT_DEPTH)
+                it.remove();
+        }
+    }
+
+    /**
+     * Get the number of cache hits
+     *
+     * @return                          Number of cache hits
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Get the number of cache misses
+     *
+     * @return                          Number of cache misses
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+}
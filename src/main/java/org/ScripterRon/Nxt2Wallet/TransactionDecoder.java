@@ -0,0 +1,107 @@
+/*
+ * Copyright 2017 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Wallet;
+
+import org.ScripterRon.Nxt2API.IdentifierException;
+import org.ScripterRon.Nxt2API.Response;
+import org.ScripterRon.Nxt2API.Transaction;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * TransactionDecoder decodes a transaction list response directly into wallet
+ * transactions.  The response is read using a pull parser, so the JSON object tree
+ * for the complete response is never built.  Each transaction is converted as soon
+ * as it has been read and then released.  All of the transaction fields are kept
+ * since the wallet transaction is created by the library and we can't tell which
+ * fields it uses.  Response fields outside the transaction array are skipped.
+ */
+public class TransactionDecoder implements ResponseDecoder<List<Transaction>> {
+
+    /** Name of the transaction array in the response */
+    private final String arrayName;
+
+    /**
+     * Create a transaction decoder
+     *
+     * @param   arrayName               Name of the transaction array in the response
+     */
+    public TransactionDecoder(String arrayName) {
+        this.arrayName = arrayName;
+    }
+
+    /**
+     * Decode the response
+     *
+     * @param   reader                  Response text
+     * @return                          Transaction list
+     * @throws  IOException             I/O error or the response is not valid
+     */
+    @Override
+    public List<Transaction> decode(Reader reader) throws IOException {
+        JsonReader json = new JsonReader(reader);
+        List<Transaction> txList = new ArrayList<>();
+        String errorCode = null;
+        String errorDescription = null;
+        json.beginObject();
+        while (json.hasNext()) {
+            String name = json.nextName();
+            if (name.equals(arrayName)) {
+                json.beginArray();
+                while (json.hasNext())
+                    txList.add(decodeTransaction(json));
+                json.endArray();
+            } else if (name.equals("errorCode")) {
+                errorCode = json.nextString();
+            } else if (name.equals("errorDescription")) {
+                errorDescription = json.nextString();
+            } else {
+                json.skipValue();
+            }
+        }
+        json.endObject();
+        if (errorCode != null)
+            throw new NodePool.ApiException(errorCode, errorDescription);
+        return txList;
+    }
+
+    /**
+     * Decode a transaction
+     *
+     * @param   json                    JSON reader positioned at the transaction object
+     * @return                          Wallet transaction
+     * @throws  IOException             I/O error or the transaction is not valid
+     */
+    private static Transaction decodeTransaction(JsonReader json) throws IOException {
+        Map<String, Object> txMap = new HashMap<>(32);
+        json.beginObject();
+        while (json.hasNext()) {
+            String name = json.nextName();
+            txMap.put(name, json.readValue());
+        }
+        json.endObject();
+        try {
+            return new Transaction(new Response(txMap));
+        } catch (IdentifierException | NumberFormatException exc) {
+            throw new IOException("Transaction is not valid: " + exc.getMessage(), exc);
+        }
+    }
+}
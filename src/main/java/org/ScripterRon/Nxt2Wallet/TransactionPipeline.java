@@ -0,0 +1,390 @@
+/*
+ * Copyright 2017 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Wallet;
+
+import org.ScripterRon.Nxt2API.KeyException;
+import org.ScripterRon.Nxt2API.Response;
+import org.ScripterRon.Nxt2API.Transaction;
+import org.ScripterRon.Nxt2API.Utils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * TransactionPipeline creates, verifies, signs and broadcasts outgoing transactions
+ * in separate stages.  Each stage runs on its own thread and the stages are connected
+ * by bounded queues, so a stage blocks when the next stage falls behind.
+ *
+ * The build stage issues the request to create the transaction and passes the
+ * pending request to the verify stage without waiting for the response.  In the
+ * same way, the broadcast stage passes the pending broadcast to the completion stage.
+ * This allows many transactions to be in progress at the same time, limited by the
+ * queue sizes and the client request limiter.  The stages process the items in
+ * submission order, so the transactions are broadcast and completed in the order
+ * they were submitted.  An item that fails in one stage is passed through the
+ * remaining stages without further processing and does not affect the other items.
+ * The node may create the transaction bytes, so each item has a maximum fee set by
+ * the producer and the item fails in the verify stage if the transaction fee is more
+ * than the maximum fee.  The item verifier checks the rest of the transaction.
+ * An item also fails in the verify stage if it is the same transaction as an earlier item,
+ * since it would be broadcast as the earlier transaction.  This is only a safeguard,
+ * since the items should create different transactions.
+ */
+public class TransactionPipeline<T extends TransactionPipeline.Item> {
+
+    /** Queue size between the stages */
+    private static final int QUEUE_SIZE = 16;
+
+    /** End of the submitted items */
+    private static final Item END = new Item(null, null, 0, false);
+
+    /** Sender session key */
+    private final SessionKey sessionKey;
+
+    /** Completion listener */
+    private final Consumer<T> listener;
+
+    /** Build queue */
+    private final BlockingQueue<Item> buildQueue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+
+    /** Verify queue */
+    private final BlockingQueue<Item> verifyQueue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+
+    /** Sign queue */
+    private final BlockingQueue<Item> signQueue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+
+    /** Broadcast queue */
+    private final BlockingQueue<Item> broadcastQueue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+
+    /** Completion queue */
+    private final BlockingQueue<Item> completeQueue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+
+    /** Full hashes of the verified transactions (used by the verify stage) */
+    private final Set<String> verifiedHashes = new HashSet<>();
+
+    /** Stage threads */
+    private final List<Thread> threads = new ArrayList<>(5);
+
+    /** Pipeline has been cancelled */
+    private volatile boolean cancelled;
+
+    /** Pipeline start time */
+    private final long startTime = System.nanoTime();
+
+    /** Number of items completed */
+    private int completedCount;
+
+    /** Number of items that failed */
+    private int failedCount;
+
+    /**
+     * Create the pipeline and start the stage threads
+     *
+     * @param   sessionKey              Sender session key
+     * @param   listener                Listener called in submission order when an item is complete
+     */
+    public TransactionPipeline(SessionKey sessionKey, Consumer<T> listener) {
+        this.sessionKey = sessionKey;
+        this.listener = listener;
+        startStage("Build", buildQueue, verifyQueue, this::build);
+        startStage("Verify", verifyQueue, signQueue, this::verify);
+        startStage("Sign", signQueue, broadcastQueue, this::sign);
+        startStage("Broadcast", broadcastQueue, completeQueue, this::broadcast);
+        startStage("Complete", completeQueue, null, this::complete);
+    }
+
+    /**
+     * Submit an item.  This method blocks if the build queue is full and must not be
+     * called on the Swing event dispatch thread.
+     *
+     * @param   item                    Pipeline item
+     * @throws  InterruptedException    Thread interrupted while waiting
+     */
+    public void submit(T item) throws InterruptedException {
+        buildQueue.put(item);
+    }
+
+    /**
+     * Wait for the submitted items to complete.  No more items can be submitted.
+     *
+     * @throws  InterruptedException    Thread interrupted while waiting
+     */
+    public void finish() throws InterruptedException {
+        buildQueue.put(END);
+        for (Thread thread : threads)
+            thread.join();
+        double seconds = (double)(System.nanoTime() - startTime) / 1.0e9;
+        Main.log.info(String.format("Transaction pipeline: %d transactions (%d failed) in %.1f seconds, %.1f/s",
+                completedCount, failedCount, seconds, (seconds > 0 ? (double)completedCount / seconds : 0.0)));
+    }
+
+    /**
+     * Cancel the items that have not been built yet
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Start a pipeline stage
+     *
+     * @param   name                    Stage name
+     * @param   input                   Input queue
+     * @param   output                  Output queue or null for the last stage
+     * @param   stage                   Stage processor
+     */
+    private void startStage(String name, BlockingQueue<Item> input, BlockingQueue<Item> output,
+                            Stage stage) {
+        Thread thread = new Thread(() -> {
+            try {
+                while (true) {
+                    Item item = input.take();
+                    if (item == END) {
+                        if (output != null)
+                            output.put(END);
+                        break;
+                    }
+                    if (item.getError() == null) {
+                        try {
+                            stage.process(item);
+                        } catch (Exception exc) {
+                            Main.log.error(String.format("Transaction pipeline %s stage failed", name), exc);
+                            item.setError(exc.getMessage() != null ? exc.getMessage() : exc.toString());
+                        }
+                    }
+                    if (output != null)
+                        output.put(item);
+                    else
+                        completed(item);
+                }
+            } catch (InterruptedException exc) {
+                Main.log.warn(String.format("Transaction pipeline %s stage interrupted", name));
+            }
+        }, "Pipeline " + name);
+        thread.setDaemon(true);
+        threads.add(thread);
+        thread.start();
+    }
+
+    /**
+     * Build stage - issue the request to create the transaction
+     *
+     * @param   item                    Pipeline item
+     */
+    private void build(Item item) {
+        if (cancelled) {
+            item.setError("Cancelled");
+            return;
+        }
+        item.buildRequest = item.builder.apply(sessionKey.getPublicKey());
+    }
+
+    /**
+     * Verify stage - wait for the unsigned transaction and verify it.  The transaction
+     * is not signed if the fee is more than the maximum fee for the item.
+     *
+     * @param   item                    Pipeline item
+     * @throws  Exception               Unable to create the transaction
+     */
+    private void verify(Item item) throws Exception {
+        Response response = WalletClient.await(item.buildRequest);
+        item.txBytes = response.getHexString("unsignedTransactionBytes");
+        item.transaction = new Transaction(item.txBytes);
+        if (item.prunable)
+            item.prunableJSON = response.getObject("transactionJSON").getObject("attachment").toJSONString();
+        //
+        // The signature is determined by the unsigned bytes, so transactions with the
+        // same unsigned bytes will have the same full hash when they are signed
+        //
+        if (!verifiedHashes.add(Utils.toHexString(TransactionBytes.calculateFullHash(item.txBytes)))) {
+            item.setError("Same transaction as an earlier item");
+            return;
+        }
+        if (item.transaction.getFee() > item.maxFee) {
+            int decimals = item.transaction.getChain().getDecimals();
+            item.setError(String.format("Fee of %s is more than the maximum fee of %s",
+                                        Utils.nqtToString(item.transaction.getFee(), decimals),
+                                        Utils.nqtToString(item.maxFee, decimals)));
+            return;
+        }
+        String error = item.verifier.apply(item.transaction);
+        if (error != null)
+            item.setError(error);
+    }
+
+    /**
+     * Sign stage - sign the transaction
+     *
+     * @param   item                    Pipeline item
+     * @throws  KeyException            Unable to sign the transaction
+     */
+    private void sign(Item item) throws KeyException {
+        item.signedBytes = sessionKey.sign(item.txBytes);
+    }
+
+    /**
+     * Broadcast stage - issue the broadcast request
+     *
+     * @param   item                    Pipeline item
+     */
+    private void broadcast(Item item) {
+        item.broadcastRequest = Main.client.broadcastSignedTransaction(item.signedBytes, item.prunableJSON);
+    }
+
+    /**
+     * Completion stage - wait for the broadcast to complete
+     *
+     * @param   item                    Pipeline item
+     * @throws  IOException             Unable to broadcast the transaction
+     */
+    private void complete(Item item) throws IOException {
+        item.fullHash = WalletClient.await(item.broadcastRequest).getString("fullHash");
+    }
+
+    /**
+     * Report a completed item
+     *
+     * @param   item                    Pipeline item
+     */
+    @SuppressWarnings("unchecked")
+    private void completed(Item item) {
+        completedCount++;
+        if (item.getError() != null)
+            failedCount++;
+        try {
+            listener.accept((T)item);
+        } catch (Exception exc) {
+            Main.log.error("Exception in transaction pipeline listener", exc);
+        }
+    }
+
+    /**
+     * Transaction pipeline item
+     */
+    public static class Item {
+
+        /** Request to create the unsigned transaction using the sender public key */
+        private final Function<byte[], CompletableFuture<Response>> builder;
+
+        /** Transaction verifier returning an error message or null if the transaction is valid */
+        private final Function<Transaction, String> verifier;
+
+        /** Maximum transaction fee */
+        private final long maxFee;
+
+        /** Include the prunable attachment */
+        private final boolean prunable;
+
+        /** Pending build request */
+        private CompletableFuture<Response> buildRequest;
+
+        /** Unsigned transaction bytes */
+        private byte[] txBytes;
+
+        /** Unsigned transaction */
+        private Transaction transaction;
+
+        /** Prunable attachment JSON */
+        private String prunableJSON;
+
+        /** Signed transaction bytes */
+        private byte[] signedBytes;
+
+        /** Pending broadcast request */
+        private CompletableFuture<Response> broadcastRequest;
+
+        /** Transaction full hash */
+        private String fullHash;
+
+        /** Error message */
+        private volatile String error;
+
+        /**
+         * Create a pipeline item
+         *
+         * @param   builder             Request to create the unsigned transaction
+         * @param   verifier            Transaction verifier
+         * @param   maxFee              Maximum transaction fee
+         * @param   prunable            TRUE to broadcast the prunable attachment
+         */
+        public Item(Function<byte[], CompletableFuture<Response>> builder,
+                    Function<Transaction, String> verifier, long maxFee, boolean prunable) {
+            this.builder = builder;
+            this.verifier = verifier;
+            this.maxFee = maxFee;
+            this.prunable = prunable;
+        }
+
+        /**
+         * Get the unsigned transaction
+         *
+         * @return                      Transaction or null if the transaction was not created
+         */
+        public Transaction getTransaction() {
+            return transaction;
+        }
+
+        /**
+         * Get the transaction full hash
+         *
+         * @return                      Full hash or null if the transaction was not broadcast
+         */
+        public String getFullHash() {
+            return fullHash;
+        }
+
+        /**
+         * Get the error message
+         *
+         * @return                      Error message or null if the item did not fail
+         */
+        public String getError() {
+            return error;
+        }
+
+        /**
+         * Set the error message
+         *
+         * @param   error               Error message
+         */
+        private void setError(String error) {
+            this.error = error;
+        }
+    }
+
+    /**
+     * Pipeline stage processor
+     */
+    @FunctionalInterface
+    private interface Stage {
+
+        /**
+         * Process an item
+         *
+         * @param   item                Pipeline item
+         * @throws  Exception           Unable to process the item
+         */
+        void process(Item item) throws Exception;
+    }
+}
@@ -0,0 +1,817 @@
+/*
+ * Copyright 2017 Ronald W Hoffman.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ScripterRon.Nxt2Wallet;
+
+import org.ScripterRon.Nxt2API.Balance;
+import org.ScripterRon.Nxt2API.Chain;
+import org.ScripterRon.Nxt2API.KeyException;
+import org.ScripterRon.Nxt2API.Nxt;
+import org.ScripterRon.Nxt2API.NxtException;
+import org.ScripterRon.Nxt2API.Response;
+import org.ScripterRon.Nxt2API.Transaction;
+import org.ScripterRon.Nxt2API.Utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * WalletClient issues Nxt API requests on behalf of the wallet.  Each request is
+ * run by the client executor and returns a CompletableFuture, so no network I/O is
+ * done on the Swing event dispatch thread.  A request is completed with a
+ * TimeoutException if it doesn't complete within its timeout and it can be cancelled
+ * by cancelling the returned future.
+ *
+ * Virtual threads are used for the requests when they are supported by the Java
+ * runtime.  Otherwise, a cached pool of daemon threads is used.
+ *
+ * The wallet client is the event source for a live node.
+ *
+ * The account and transaction read requests are sent through the node pool using a
+ * compressed keep-alive HTTP transport.  When multiple Nxt nodes are configured, the
+ * read requests are hedged to a second node when the first node is slow.  Other
+ * requests are issued by the Nxt API library and are retried on another node if the
+ * library node fails.  The event API requests are not retried since the event
+ * registration belongs to the node.
+ *
+ * Identical read requests that are issued while the first request is still
+ * outstanding share the result of the first request.
+ *
+ * The number of concurrent requests sent to the library node is limited by an
+ * adaptive concurrency limit.  Event waits have their own limit since they are
+ * long-poll requests and would otherwise use permits needed by ordinary requests.
+ * Requests are started in priority order, so user actions don't wait behind
+ * account history requests.
+ */
+public class WalletClient implements EventSource {
+
+    /** Default request timeout (milliseconds) */
+    public static final long REQUEST_TIMEOUT = 30 * 1000;
+
+    /** Account load timeout (milliseconds) */
+    public static final long ACCOUNT_TIMEOUT = 5 * 60 * 1000;
+
+    /** Additional time allowed for an event wait to complete (milliseconds) */
+    private static final long EVENT_WAIT_ALLOWANCE = 30 * 1000;
+
+    /** Request executor */
+    private final ExecutorService executor;
+
+    /** Request timer */
+    private final ScheduledExecutorService timer;
+
+    /** Nxt node pool */
+    private final NodePool nodePool;
+
+    /** Immutable transaction response cache */
+    private final ResponseCache responseCache;
+
+    /** Coalesces identical read requests */
+    private final SingleFlight singleFlight = new SingleFlight();
+
+    /** Concurrency limit for ordinary requests */
+    private final ConcurrencyLimiter requestLimiter = new ConcurrencyLimiter("Requests", 8, 2, 64, true);
+
+    /** HTTP transport for requests not issued by the Nxt API library */
+    private final HttpTransport transport = new HttpTransport(Main.compressResponses);
+
+    /** Concurrency limit for event waits */
+    private final ConcurrencyLimiter eventLimiter = new ConcurrencyLimiter("Event waits", 2, 1, 8, false);
+
+    /** Node used for the last event request or null */
+    private volatile String eventNode;
+
+    /**
+     * Create the wallet client
+     */
+    public WalletClient() {
+        executor = createExecutor();
+        timer = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("Wallet Client Timer"));
+        List<String> nodeList = new ArrayList<>();
+        nodeList.add(Main.connect + ":" + Main.apiPort);
+        nodeList.addAll(Main.nodes);
+        nodePool = new NodePool(nodeList, executor, timer, transport);
+        responseCache = new ResponseCache(new File(Main.dataPath, "cache"));
+    }
+
+    /**
+     * Get the Nxt node pool
+     *
+     * @return                          Node pool
+     */
+    public NodePool getNodePool() {
+        return nodePool;
+    }
+
+    /**
+     * Get the HTTP transport
+     *
+     * @return                          HTTP transport
+     */
+    public HttpTransport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Get the transaction response cache
+     *
+     * @return                          Response cache
+     */
+    public ResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    /**
+     * Get the request coalescing statistics
+     *
+     * @return                          Single-flight request group
+     */
+    public SingleFlight getSingleFlight() {
+        return singleFlight;
+    }
+
+    /**
+     * Get the concurrency limiters
+     *
+     * @return                          Request limiter and event wait limiter
+     */
+    public List<ConcurrencyLimiter> getLimiters() {
+        List<ConcurrencyLimiter> limiters = new ArrayList<>();
+        limiters.add(requestLimiter);
+        limiters.add(eventLimiter);
+        return limiters;
+    }
+
+    /**
+     * Connect the Nxt API library to another node after a request failure.  The
+     * events are registered again on the same node if there is no other node.
+     * Nothing is done if the library was switched to another node after the last
+     * event request was issued.
+     *
+     * @return                          TRUE since the events can be registered again
+     */
+    @Override
+    public boolean failover() {
+        String node = eventNode;
+        nodePool.failover(node != null ? node : nodePool.getLibraryNode());
+        return true;
+    }
+
+    /**
+     * Shutdown the wallet client
+     */
+    @Override
+    public void shutdown() {
+        executor.shutdownNow();
+        timer.shutdownNow();
+    }
+
+    /**
+     * Run a task periodically on the client timer thread.  The task should not
+     * block since it delays the request timeouts.
+     *
+     * @param   task                    Task to run
+     * @param   period                  Period between runs (milliseconds)
+     * @return                          Future for cancelling the task
+     */
+    public ScheduledFuture<?> schedule(Runnable task, long period) {
+        return timer.scheduleAtFixedRate(() -> {
+            try {
+                task.run();
+            } catch (Exception exc) {
+                Main.log.error("Exception while running scheduled task", exc);
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Get the blockchain status
+     *
+     * @return                          Future for the server response
+     */
+    @Override
+    public CompletableFuture<Response> getBlockchainStatus() {
+        return singleFlight.execute("getBlockchainStatus",
+                () -> submit(RequestPriority.LIVE, REQUEST_TIMEOUT,
+                             withFailover(() -> Nxt.getBlockchainStatus())));
+    }
+
+    /**
+     * Get a block
+     *
+     * @param   height                  Block height
+     * @return                          Future for the server response
+     */
+    public CompletableFuture<Response> getBlock(int height) {
+        return withTimeout(REQUEST_TIMEOUT,
+                nodePool.read(RequestPriority.LIVE, "getBlock", "height", Integer.toString(height))
+                        .thenApply(response -> new Response(response)));
+    }
+
+    /**
+     * Get the economic clustering block for a new transaction
+     *
+     * @return                          Future for the server response
+     */
+    public CompletableFuture<Response> getECBlock() {
+        return withTimeout(REQUEST_TIMEOUT,
+                nodePool.read(RequestPriority.LIVE, "getECBlock")
+                        .thenApply(response -> new Response(response)));
+    }
+
+    /**
+     * Get the child chain bundler rates
+     *
+     * @return                          Future for the server response
+     */
+    public CompletableFuture<Response> getBundlerRates() {
+        return singleFlight.execute("getBundlerRates",
+                () -> submit(RequestPriority.LIVE, REQUEST_TIMEOUT,
+                             withFailover(() -> Nxt.getBundlerRates())));
+    }
+
+    /**
+     * Get the account information, transactions and balances
+     *
+     * @param   accountId               Account identifier
+     * @return                          Future for the account state
+     */
+    @Override
+    public CompletableFuture<AccountState> getAccount(long accountId) {
+        return submit(null, null, ACCOUNT_TIMEOUT, () -> Main.getAccount(accountId));
+    }
+
+    /**
+     * Get the account information
+     *
+     * @param   accountId               Account identifier
+     * @return                          Future for the server response
+     */
+    public CompletableFuture<Response> getAccountInfo(long accountId) {
+        return withTimeout(REQUEST_TIMEOUT,
+                nodePool.read(RequestPriority.BULK, "getAccount", "account", Utils.idToString(accountId))
+                        .thenApply(response -> new Response(response)));
+    }
+
+    /**
+     * Get the unconfirmed transactions for an account
+     *
+     * @param   accountId               Account identifier
+     * @param   chain                   Chain
+     * @return                          Future for the transaction list
+     */
+    public CompletableFuture<List<Transaction>> getUnconfirmedTransactions(long accountId, Chain chain) {
+        return withTimeout(REQUEST_TIMEOUT,
+                nodePool.read(RequestPriority.BULK, new TransactionDecoder("unconfirmedTransactions"),
+                              "getUnconfirmedTransactions", "account", Utils.idToString(accountId),
+                              "chain", Integer.toString(chain.getId())));
+    }
+
+    /**
+     * Get the account balance for a chain
+     *
+     * @param   accountId               Account identifier
+     * @param   chain                   Chain
+     * @return                          Future for the account balance
+     */
+    public CompletableFuture<Balance> getBalance(long accountId, Chain chain) {
+        return withTimeout(REQUEST_TIMEOUT,
+                nodePool.read(RequestPriority.BULK, "getBalance", "account", Utils.idToString(accountId),
+                              "chain", Integer.toString(chain.getId()))
+                        .thenApply(response -> new Balance(new Response(response))));
+    }
+
+    /**
+     * Get the account balances for all chains
+     *
+     * @param   accountId               Account identifier
+     * @return                          Future for the account balances
+     */
+    @Override
+    public CompletableFuture<Map<Integer, Balance>> getBalances(long accountId) {
+        return singleFlight.execute("getBalances:" + Utils.idToString(accountId), () -> fetchBalances(accountId));
+    }
+
+    /**
+     * Fetch the account balances for all chains from the server
+     *
+     * @param   accountId               Account identifier
+     * @return                          Future for the account balances
+     */
+    @SuppressWarnings("unchecked")
+    private CompletableFuture<Map<Integer, Balance>> fetchBalances(long accountId) {
+        List<String> params = new ArrayList<>();
+        params.add("account");
+        params.add(Utils.idToString(accountId));
+        for (Chain chain : Nxt.getAllChains()) {
+            params.add("chain");
+            params.add(Integer.toString(chain.getId()));
+        }
+        return withTimeout(REQUEST_TIMEOUT,
+                nodePool.read(RequestPriority.LIVE, "getBalances", params.toArray(new String[params.size()]))
+                        .thenApply(response -> {
+                    Map<String, Object> balanceMap = (Map<String, Object>)response.get("balances");
+                    Map<Integer, Balance> balances = new HashMap<>();
+                    balanceMap.forEach((chainId, balance) ->
+                        balances.put(Integer.valueOf(chainId), new Balance(new Response((Map<String, Object>)balance))));
+                    return balances;
+                }));
+    }
+
+    /**
+     * Get the confirmed transactions for an account
+     *
+     * @param   accountId               Account identifier
+     * @param   chain                   Chain
+     * @param   firstIndex              Index of the first transaction
+     * @param   lastIndex               Index of the last transaction
+     * @return                          Future for the transaction list
+     */
+    public CompletableFuture<List<Transaction>> getBlockchainTransactions(long accountId, Chain chain,
+                                                                          int firstIndex, int lastIndex) {
+        return singleFlight.execute(String.format("getBlockchainTransactions:%s:%d:%d:%d",
+                                                  Utils.idToString(accountId), chain.getId(), firstIndex, lastIndex),
+                () -> fetchBlockchainTransactions(accountId, chain, firstIndex, lastIndex));
+    }
+
+    /**
+     * Fetch the confirmed transactions for an account from the server
+     *
+     * @param   accountId               Account identifier
+     * @param   chain                   Chain
+     * @param   firstIndex              Index of the first transaction
+     * @param   lastIndex               Index of the last transaction
+     * @return                          Future for the transaction list
+     */
+    private CompletableFuture<List<Transaction>> fetchBlockchainTransactions(long accountId, Chain chain,
+                                                                             int firstIndex, int lastIndex) {
+        return withTimeout(REQUEST_TIMEOUT,
+                nodePool.read(RequestPriority.BULK, new TransactionDecoder("transactions"),
+                              "getBlockchainTransactions", "account", Utils.idToString(accountId),
+                              "chain", Integer.toString(chain.getId()),
+                              "firstIndex", Integer.toString(firstIndex),
+                              "lastIndex", Integer.toString(lastIndex)));
+    }
+
+    /**
+     * Get a transaction.  The response cache is checked before sending the request
+     * to the server.
+     *
+     * @param   fullHash                Transaction full hash
+     * @param   chain                   Transaction chain
+     * @return                          Future for the server response
+     */
+    @Override
+    public CompletableFuture<Response> getTransaction(byte[] fullHash, Chain chain) {
+        Response cachedResponse = responseCache.get(chain.getId(), fullHash);
+        if (cachedResponse != null)
+            return CompletableFuture.completedFuture(cachedResponse);
+        return singleFlight.execute("getTransaction:" + TransactionCache.getKey(chain.getId(), fullHash), () -> {
+            return withTimeout(REQUEST_TIMEOUT,
+                    nodePool.read(RequestPriority.LIVE, "getTransaction", "fullHash", Utils.toHexString(fullHash),
+                                  "chain", Integer.toString(chain.getId())))
+                    .thenApply(response -> {
+                Response txResponse = new Response(response);
+                responseCache.put(chain.getId(), fullHash, txResponse);
+                return txResponse;
+            });
+        });
+    }
+
+    /**
+     * Get the coin exchange orders for a chain
+     *
+     * @param   chain                   Chain
+     * @param   priority                Request priority
+     * @return                          Future for the exchange orders
+     */
+    public CompletableFuture<List<Response>> getCoinExchangeOrders(Chain chain, RequestPriority priority) {
+        //
+        // The priority is part of the key, so a user request doesn't wait for a
+        // background request that is queued behind other background requests
+        //
+        return singleFlight.execute("getCoinExchangeOrders:" + chain.getId() + ":" + priority,
+                () -> submit(priority, REQUEST_TIMEOUT,
+                             withFailover(() -> Nxt.getCoinExchangeOrders(chain))));
+    }
+
+    /**
+     * Create an unsigned payment transaction
+     *
+     * @param   recipientId             Recipient account identifier
+     * @param   chain                   Chain
+     * @param   amount                  Payment amount
+     * @param   fee                     Transaction fee or -1 to calculate the fee
+     * @param   rate                    Bundler exchange rate
+     * @param   publicKey               Sender public key
+     * @param   message                 Message or an empty string
+     * @return                          Future for the server response
+     */
+    public CompletableFuture<Response> sendMoney(long recipientId, Chain chain, long amount, long fee,
+                                                 long rate, byte[] publicKey, String message) {
+        return submit(RequestPriority.INTERACTIVE, REQUEST_TIMEOUT,
+                withFailover(() -> Nxt.sendMoney(recipientId, chain, amount, fee, rate, publicKey, message)));
+    }
+
+    /**
+     * Create an unsigned payment transaction with a specific deadline.  The request is
+     * sent directly to the node since the Nxt API library always uses its own deadline.
+     * A message is sent as a prunable text message.
+     *
+     * @param   recipientId             Recipient account identifier
+     * @param   chain                   Chain
+     * @param   amount                  Payment amount
+     * @param   fee                     Transaction fee or -1 to calculate the fee
+     * @param   rate                    Bundler exchange rate
+     * @param   publicKey               Sender public key
+     * @param   message                 Message or an empty string
+     * @param   deadline                Transaction deadline (minutes)
+     * @return                          Future for the server response
+     */
+    public CompletableFuture<Response> sendMoney(long recipientId, Chain chain, long amount, long fee,
+                                                 long rate, byte[] publicKey, String message, int deadline) {
+        List<String> params = new ArrayList<>(Arrays.asList(
+                "chain", Integer.toString(chain.getId()), "recipient", Long.toUnsignedString(recipientId),
+                "amountNQT", Long.toString(amount), "feeNQT", Long.toString(fee),
+                "feeRateNQTPerFXT", Long.toString(rate), "publicKey", Utils.toHexString(publicKey),
+                "deadline", Integer.toString(deadline)));
+        if (!message.isEmpty())
+            params.addAll(Arrays.asList("message", message, "messageIsText", "true", "messageIsPrunable", "true"));
+        return submit(RequestPriority.INTERACTIVE, REQUEST_TIMEOUT, withFailover(() -> new Response(
+                nodePool.send(RequestPriority.INTERACTIVE, "sendMoney", params.toArray(new String[params.size()])))));
+    }
+
+    /**
+     * Create an unsigned coin exchange transaction
+     *
+     * @param   chain                   Chain
+     * @param   exchangeChain           Exchange chain
+     * @param   amount                  Exchange amount
+     * @param   price                   Exchange price
+     * @param   fee                     Transaction fee or -1 to calculate the fee
+     * @param   rate                    Bundler exchange rate
+     * @param   publicKey               Sender public key
+     * @return                          Future for the server response
+     */
+    public CompletableFuture<Response> exchangeCoins(Chain chain, Chain exchangeChain, long amount, long price,
+                                                     long fee, long rate, byte[] publicKey) {
+        return submit(RequestPriority.INTERACTIVE, REQUEST_TIMEOUT,
+                withFailover(() -> Nxt.exchangeCoins(chain, exchangeChain, amount, price, fee, rate, publicKey)));
+    }
+
+    /**
+     * Sign and broadcast a transaction.  The transaction is signed using the session key,
+     * so the signing key is not derived from the secret phrase for each transaction.
+     *
+     * @param   txBytes                 Unsigned transaction bytes
+     * @param   prunableJSON            Prunable attachment JSON or null
+     * @param   sessionKey              Sender session key
+     * @return                          Future for the server response
+     */
+    public CompletableFuture<Response> broadcastTransaction(byte[] txBytes, String prunableJSON,
+                                                            SessionKey sessionKey) {
+        byte[] signedBytes;
+        try {
+            signedBytes = sessionKey.sign(txBytes);
+        } catch (KeyException exc) {
+            CompletableFuture<Response> result = new CompletableFuture<>();
+            result.completeExceptionally(exc);
+            return result;
+        }
+        return broadcastSignedTransaction(signedBytes, prunableJSON);
+    }
+
+    /**
+     * Broadcast a signed transaction.  The request is retried on another node if the
+     * node fails since broadcasting the same signed transaction again has no effect.
+     * The transaction is added to the outbox before it is broadcast, so it will be
+     * broadcast again if it is not confirmed.
+     *
+     * @param   signedBytes             Signed transaction bytes
+     * @param   prunableJSON            Prunable attachment JSON or null
+     * @return                          Future for the server response
+     */
+    public CompletableFuture<Response> broadcastSignedTransaction(byte[] signedBytes, String prunableJSON) {
+        Main.outbox.add(signedBytes, prunableJSON);
+        CompletableFuture<Response> result = broadcast(RequestPriority.INTERACTIVE, signedBytes, prunableJSON);
+        result.whenComplete((response, exc) -> {
+            if (exc != null && getCause(exc) instanceof NodePool.ApiException)
+                Main.outbox.broadcastRejected(signedBytes, getCause(exc).getMessage());
+        });
+        return result;
+    }
+
+    /**
+     * Broadcast an outbox transaction again
+     *
+     * @param   signedBytes             Signed transaction bytes
+     * @param   prunableJSON            Prunable attachment JSON or null
+     * @return                          Future for the server response
+     */
+    public CompletableFuture<Response> rebroadcastTransaction(byte[] signedBytes, String prunableJSON) {
+        return broadcast(RequestPriority.BULK, signedBytes, prunableJSON);
+    }
+
+    /**
+     * Broadcast a signed transaction
+     *
+     * @param   priority                Request priority
+     * @param   signedBytes             Signed transaction bytes
+     * @param   prunableJSON            Prunable attachment JSON or null
+     * @return                          Future for the server response
+     */
+    private CompletableFuture<Response> broadcast(RequestPriority priority, byte[] signedBytes,
+                                                  String prunableJSON) {
+        String hexBytes = Utils.toHexString(signedBytes);
+        return submit(priority, REQUEST_TIMEOUT, withFailover(() -> new Response(
+                prunableJSON != null ?
+                    nodePool.send(priority, "broadcastTransaction",
+                                  "transactionBytes", hexBytes, "prunableAttachmentJSON", prunableJSON) :
+                    nodePool.send(priority, "broadcastTransaction",
+                                  "transactionBytes", hexBytes))));
+    }
+
+    /**
+     * Register server events
+     *
+     * @param   eventList               Event names
+     * @param   token                   Event token or 0 for a new registration
+     * @param   add                     TRUE to add the events to an existing registration
+     * @param   remove                  TRUE to remove the events from an existing registration
+     * @return                          Future for the server response
+     */
+    @Override
+    public CompletableFuture<Response> eventRegister(List<String> eventList, long token,
+                                                     boolean add, boolean remove) {
+        return submit(RequestPriority.LIVE, REQUEST_TIMEOUT,
+                      () -> nodePool.callLibrary(() -> {
+                          eventNode = nodePool.getLibraryNode();
+                          return Nxt.eventRegister(eventList, token, add, remove);
+                      }));
+    }
+
+    /**
+     * Wait for server events
+     *
+     * The event wait doesn't hold the library lock since a failover would have to wait
+     * for the long poll to complete.  An event wait that is issued while the library is
+     * being switched fails or is rejected by the new node, and the event handler then
+     * registers the events again with the new node without another failover.
+     *
+     * @param   token                   Event token
+     * @param   timeout                 Wait timeout (seconds)
+     * @return                          Future for the server events
+     */
+    @Override
+    public CompletableFuture<List<NodeEvent>> eventWait(long token, int timeout) {
+        return submit(eventLimiter, RequestPriority.LIVE, timeout * 1000L + EVENT_WAIT_ALLOWANCE, () -> {
+            List<NodeEvent> eventList = new ArrayList<>();
+            eventNode = nodePool.getLibraryNode();
+            Nxt.eventWait(token, timeout).forEach(event -> eventList.add(new NodeEvent(event)));
+            return eventList;
+        });
+    }
+
+    /**
+     * Submit a request to the executor using the ordinary request limit
+     *
+     * @param   <T>                     Request result type
+     * @param   priority                Request priority
+     * @param   timeout                 Request timeout (milliseconds) or 0 for no timeout
+     * @param   task                    Request task
+     * @return                          Future for the request result
+     */
+    private <T> CompletableFuture<T> submit(RequestPriority priority, long timeout, Callable<T> task) {
+        return submit(requestLimiter, priority, timeout, task);
+    }
+
+    /**
+     * Submit a request to the executor.  The request waits for a permit from the
+     * concurrency limiter before it is sent.  A task that issues its own requests
+     * must not hold a permit since it could then wait for itself.
+     *
+     * @param   <T>                     Request result type
+     * @param   limiter                 Concurrency limiter or null if the task doesn't need a permit
+     * @param   priority                Request priority or null if the task doesn't need a permit
+     * @param   timeout                 Request timeout (milliseconds) or 0 for no timeout
+     * @param   task                    Request task
+     * @return                          Future for the request result
+     */
+    private <T> CompletableFuture<T> submit(ConcurrencyLimiter limiter, RequestPriority priority,
+                                            long timeout, Callable<T> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Future<?> future = executor.submit(() -> {
+            long startTime = 0;
+            boolean acquired = false;
+            boolean dropped = true;
+            try {
+                if (limiter != null) {
+                    startTime = limiter.acquire(priority);
+                    acquired = true;
+                }
+                T value = task.call();
+                dropped = false;
+                result.complete(value);
+            } catch (NxtException exc) {
+                dropped = false;
+                result.completeExceptionally(exc);
+            } catch (Throwable exc) {
+                result.completeExceptionally(exc);
+            } finally {
+                if (acquired)
+                    limiter.release(priority, startTime, dropped);
+            }
+        });
+        result.whenComplete((value, exc) -> {
+            if (exc instanceof CancellationException || exc instanceof TimeoutException)
+                future.cancel(true);
+        });
+        return withTimeout(timeout, result);
+    }
+
+    /**
+     * Complete a request with a TimeoutException if it doesn't complete in time
+     *
+     * @param   <T>                     Request result type
+     * @param   timeout                 Request timeout (milliseconds) or 0 for no timeout
+     * @param   result                  Request future
+     * @return                          Request future
+     */
+    private <T> CompletableFuture<T> withTimeout(long timeout, CompletableFuture<T> result) {
+        if (timeout > 0) {
+            ScheduledFuture<?> timeoutFuture = timer.schedule(() ->
+                    result.completeExceptionally(new TimeoutException("Nxt API request timed out")),
+                    timeout, TimeUnit.MILLISECONDS);
+            result.whenComplete((value, exc) -> timeoutFuture.cancel(false));
+        }
+        return result;
+    }
+
+    /**
+     * Retry a Nxt API library request on another node if the library node fails.
+     * Error responses from the node are not retried.  The request holds the library
+     * lock, so the library isn't switched to another node while it is in progress.
+     *
+     * @param   <T>                     Request result type
+     * @param   task                    Request task
+     * @return                          Request task with failover
+     */
+    private <T> Callable<T> withFailover(Callable<T> task) {
+        return () -> {
+            for (int attempt=1; ; attempt++) {
+                String node = nodePool.getLibraryNode();
+                try {
+                    return nodePool.callLibrary(task);
+                } catch (NxtException | NodePool.ApiException exc) {
+                    throw exc;
+                } catch (IOException exc) {
+                    if (attempt >= nodePool.getNodeCount() || Thread.currentThread().isInterrupted() ||
+                                !nodePool.failover(node))
+                        throw exc;
+                    Main.log.warn(String.format("Retrying Nxt API request after node %s failed", node));
+                }
+            }
+        };
+    }
+
+    /**
+     * Wait for a request to complete.  This method should not be called on the Swing
+     * event dispatch thread.
+     *
+     * @param   <T>                     Request result type
+     * @param   future                  Request future
+     * @return                          Request result
+     * @throws  IOException             Request failed
+     */
+    public static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Nxt API request interrupted", exc);
+        } catch (ExecutionException exc) {
+            Throwable cause = getCause(exc);
+            if (cause instanceof IOException)
+                throw (IOException)cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException)cause;
+            if (cause instanceof Error)
+                throw (Error)cause;
+            throw new IOException(cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Process the request result on the Swing event dispatch thread.  The action
+     * is not called if the request was cancelled.
+     *
+     * @param   <T>                     Request result type
+     * @param   future                  Request future
+     * @param   action                  Action to perform with the result or the request exception
+     */
+    public static <T> void invokeLater(CompletableFuture<T> future, BiConsumer<T, Throwable> action) {
+        future.whenComplete((value, exc) -> {
+            if (!(exc instanceof CancellationException))
+                SwingUtilities.invokeLater(() -> action.accept(value, (exc != null ? getCause(exc) : null)));
+        });
+    }
+
+    /**
+     * Get the cause of a request failure
+     *
+     * @param   exc                     Request exception
+     * @return                          Cause of the failure
+     */
+    public static Throwable getCause(Throwable exc) {
+        Throwable cause = exc;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) &&
+                cause.getCause() != null)
+            cause = cause.getCause();
+        return cause;
+    }
+
+    /**
+     * Create the request executor
+     *
+     * @return                          Executor service
+     */
+    private static ExecutorService createExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            ExecutorService service = (ExecutorService)method.invoke(null);
+            Main.log.info("Using virtual threads for Nxt API requests");
+            return service;
+        } catch (ReflectiveOperationException exc) {
+            return Executors.newCachedThreadPool(new DaemonThreadFactory("Wallet Client"));
+        }
+    }
+
+    /**
+     * Thread factory for daemon threads
+     */
+    static class DaemonThreadFactory implements ThreadFactory {
+
+        /** Thread name prefix */
+        private final String name;
+
+        /** Thread counter */
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        /**
+         * Create the thread factory
+         *
+         * @param   name                Thread name prefix
+         */
+        public DaemonThreadFactory(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Create a new thread
+         *
+         * @param   runnable            Thread runnable
+         * @return                      Daemon thread
+         */
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, name + " " + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}